@@ -53,6 +53,8 @@ static pthread_rwlock_t g_handshakestart_mu = PTHREAD_RWLOCK_INITIALIZER;
 static oe_uuid_t sgx_remote_uuid = {OE_FORMAT_UUID_SGX_ECDSA};
 static uint64_t g_client_secret = 0;
 static uint8_t g_init_done = 0;
+// Set while tuples are being staged for a bulk build of the table (see EnclaveLoad.bulk_load)
+static uint8_t g_bulk_load_in_progress = 0;
 
 #define ENCLAVE_INIT_UNINITIALIZED 0
 #define ENCLAVE_INIT_INITIALIZING 1
@@ -214,6 +216,23 @@ typedef struct {
   uint64_t val;
 } counter_t;
 
+// Names of the buckets of a shard's ORAM access latency histogram, by upper bound
+static char* oram_access_latency_bucket_names[] = {
+  "oram_access_latency_lt_8us",
+  "oram_access_latency_lt_16us",
+  "oram_access_latency_lt_32us",
+  "oram_access_latency_lt_64us",
+  "oram_access_latency_lt_128us",
+  "oram_access_latency_lt_256us",
+  "oram_access_latency_lt_512us",
+  "oram_access_latency_lt_1024us",
+  "oram_access_latency_lt_2048us",
+  "oram_access_latency_ge_2048us",
+};
+_Static_assert(sizeof(oram_access_latency_bucket_names) / sizeof(oram_access_latency_bucket_names[0]) == SHARD_ORAM_LATENCY_BUCKETS
+               && SHARD_ORAM_LATENCY_BUCKET_MICROS == 8,
+               "ORAM access latency bucket names don't match the histogram");
+
 static void write_stat_value(struct org_signal_cdsi_value_t* pbval, char* name, uint64_t val) {
   pbval->name_p = name;
   pbval->value = val;
@@ -225,7 +244,7 @@ int enclave_table_statistics(
     size_t *actual_out_size) {
   RETURN_IF_ERROR(check_init_complete());
 
-  const size_t num_fields = 14;
+  const size_t num_fields = 21 + SHARD_ORAM_LATENCY_BUCKETS;
   const size_t max_field_name_len = 32;
   size_t workspace_size = PBUTIL_WORKSPACE_BASE(struct org_signal_cdsi_table_statistics_t)
     + g_num_shards * (sizeof(struct org_signal_cdsi_shard_statistics_t)
@@ -275,12 +294,24 @@ int enclave_table_statistics(
       // Instead of creating floating point values for the protobuf, multiply by 10K and store as an integer.
       { .name = "stash_overflow_ema10k", .val = stats[i]->stash_overflow_ema10k * 10000},
       { .name = "posmap_stash_overflow_ema10k", .val = stats[i]->posmap_stash_overflow_ema10k * 10000},
+      { .name = "queue_depth", .val = stats[i]->queue_depth},
+      { .name = "max_queue_depth", .val = stats[i]->max_queue_depth},
+      { .name = "requests", .val = stats[i]->requests},
+      { .name = "request_items", .val = stats[i]->request_items},
+      { .name = "max_request_items", .val = stats[i]->max_request_items},
+      { .name = "wait_nanos", .val = stats[i]->wait_nanos},
+      { .name = "execute_nanos", .val = stats[i]->execute_nanos},
       { .name = NULL }
     };
 
-    for(size_t j = 0; counters[j].name != NULL; ++j) {
+    size_t j = 0;
+    for(; counters[j].name != NULL; ++j) {
       write_stat_value(rsp->shard_statistics.items_p[i].values.items_p + j, counters[j].name, counters[j].val);
     }
+    for(size_t b = 0; b < SHARD_ORAM_LATENCY_BUCKETS; ++b, ++j) {
+      write_stat_value(rsp->shard_statistics.items_p[i].values.items_p + j, oram_access_latency_bucket_names[b],
+          stats[i]->oram_access_latency_histogram[b]);
+    }
   }
 
   int size = org_signal_cdsi_table_statistics_encode(rsp, out, out_size);
@@ -325,11 +356,20 @@ int enclave_load_pb(
         load_req->shared_token_secret.size,
         load_req->shared_token_secret.buf_p));
   }
+  // A bulk load must start by clearing the table, and nothing else may be loaded until it has finished
+  bool bulk_load_state_valid = load_req->clear_all
+      || load_req->bulk_load == __atomic_load_n(&g_bulk_load_in_progress, __ATOMIC_ACQUIRE);
+  if (!bulk_load_state_valid || (load_req->bulk_load_complete && !load_req->bulk_load))
+  {
+    free(workspace);
+    return err_ENCLAVE__LOADPB__BULK_LOAD_STATE;
+  }
   if (load_req->clear_all)
   {
-    // clear the table
+    // clear the table, along with any tuples staged for a bulk build
     TEST_LOG("sharded_ohtable_clear");
     sharded_ohtable_clear(g_table);
+    __atomic_store_n(&g_bulk_load_in_progress, load_req->bulk_load ? 1 : 0, __ATOMIC_RELEASE);
   }
 
   signal_user_record *incoming_records = (signal_user_record *)load_req->e164_aci_pni_uak_tuples.buf_p;
@@ -339,8 +379,22 @@ int enclave_load_pb(
     return err_ENCLAVE__LOADPB__TUPLES_INVALID;
   }
 
-  // TEST_LOG("sharded_ohtable_put_batch:%zu", num_records);
-  error_t result = sharded_ohtable_put_batch(g_table, num_records, (u64 *)incoming_records);
+  error_t result;
+  if (load_req->bulk_load)
+  {
+    result = sharded_ohtable_bulk_put_batch(g_table, num_records, (u64 *)incoming_records);
+    if (result == err_SUCCESS && load_req->bulk_load_complete)
+    {
+      TEST_LOG("sharded_ohtable_bulk_build");
+      result = sharded_ohtable_bulk_build(g_table);
+      __atomic_store_n(&g_bulk_load_in_progress, 0, __ATOMIC_RELEASE);
+    }
+  }
+  else
+  {
+    // TEST_LOG("sharded_ohtable_put_batch:%zu", num_records);
+    result = sharded_ohtable_put_batch(g_table, num_records, (u64 *)incoming_records);
+  }
   free(workspace);
   return result;
 }
@@ -585,7 +639,8 @@ int enclave_run(
     unsigned char *in,
     size_t out_size,
     unsigned char *out,
-    size_t *actual_out_size)
+    size_t *actual_out_size,
+    uint32_t *query_strategy)
 {
   RETURN_IF_ERROR(check_init_complete());
   client_t *c;
@@ -657,8 +712,11 @@ int enclave_run(
 
   signal_user_record *user_records;
   GOTO_IF_ERROR(err = MALLOCZ_SIZE(user_records, num_e164s * sizeof(*user_records)), free_e164s);
-  TEST_LOG("sharded_ohtable_get_batch size=%zu", sizeof(*user_records) * num_e164s);
-  GOTO_IF_ERROR(err = sharded_ohtable_get_batch(g_table, num_e164s, (u64 *)e164s, (u64 *)user_records), free_e164s);
+  // The strategy depends only on the number of e164s, which the host already knows, so it can be reported
+  sharded_ohtable_query_strategy strategy = sharded_ohtable_choose_query_strategy(g_table, num_e164s);
+  *query_strategy = strategy;
+  TEST_LOG("sharded_ohtable_get_batch size=%zu strategy=%d", sizeof(*user_records) * num_e164s, strategy);
+  GOTO_IF_ERROR(err = sharded_ohtable_get_batch_with_strategy(g_table, strategy, num_e164s, (u64 *)e164s, (u64 *)user_records), free_e164s);
 
   // process response
   e164_pni_aci_triple *out_triples;
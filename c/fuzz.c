@@ -130,6 +130,7 @@ void query(size_t in_size, uint8_t* in, queryfuzz_target_t target) {
     ASSERT(err_SUCCESS == noise_encrypt_message(tx, buf, bufsize, req, &req_size));
     uint8_t out[128];
     size_t out_size;
+    uint32_t query_strategy;
     if (target == qft_run_request_ciphertext) {
       buf = in; bufsize = in_size;
     } else {
@@ -139,7 +140,7 @@ void query(size_t in_size, uint8_t* in, queryfuzz_target_t target) {
         cli,
         0,
         bufsize, buf,
-        sizeof(out), out, &out_size));
+        sizeof(out), out, &out_size, &query_strategy));
     ASSERT(err_SUCCESS == noise_decrypt_message_inplace(rx, out, &out_size));
   }
   ASSERT(0 == enclave_close_client(cli));
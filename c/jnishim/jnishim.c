@@ -5,6 +5,7 @@
 
 #include <jni.h>
 #include <pthread.h>
+#include <sched.h>
 #include <stdatomic.h>
 #include <stdint.h>
 #include "untrust/cds_u.h"
@@ -13,11 +14,14 @@
 #include <openenclave/host.h>
 #include <openenclave/trace.h>
 
+typedef struct switchless switchless_t;
+
 typedef struct {
   oe_enclave_t* enc;
   size_t num_shards;
   pthread_t* tids;
   atomic_int running_shard_threads;
+  switchless_t* switchless;  // NULL unless the enclave was created with switchless calls
 } cdsi_enclave_t;
 
 // Utility function to shrink a java NIO Buffer.
@@ -93,6 +97,259 @@ pthread_t run_shard(JNIEnv* env, cdsi_enclave_t *enclave, size_t shard_id) {
     return tid;
 }
 
+////////////////////////////////////////////////////////////////////////////////
+// CPU placement
+
+// Utility function to read a Java array of CPU numbers into a CPU set.
+static void cpu_set_from_array(JNIEnv* env, jintArray cpus, cpu_set_t* set) {
+  CPU_ZERO(set);
+  jsize num_cpus = (*env)->GetArrayLength(env, cpus);
+  jint* elements = (*env)->GetIntArrayElements(env, cpus, NULL);
+  for (jsize i = 0; i < num_cpus; i++) {
+    if (elements[i] >= 0 && elements[i] < CPU_SETSIZE) {
+      CPU_SET(elements[i], set);
+    }
+  }
+  (*env)->ReleaseIntArrayElements(env, cpus, elements, JNI_ABORT);
+}
+
+// Returns the `n`th CPU (counting from zero) in `set`, or -1 if there are not that many.
+static int nth_cpu(const cpu_set_t* set, size_t n) {
+  for (int cpu = 0; cpu < CPU_SETSIZE; cpu++) {
+    if (CPU_ISSET(cpu, set) && n-- == 0) {
+      return cpu;
+    }
+  }
+  return -1;
+}
+
+////////////////////////////////////////////////////////////////////////////////
+// Switchless calls
+//
+// In switchless mode, Java submits handshake, rate limit, run and load calls
+// without waiting for them. Host caller threads make the calls, which
+// OpenEnclave hands to enclave worker threads through shared memory instead of
+// transitioning into the enclave (see `transition_using_threads` in cds.edl),
+// and a single Java poller thread collects the results.
+
+typedef enum {
+  switchless_handshake,
+  switchless_rate_limit,
+  switchless_run,
+  switchless_load_data,
+} switchless_op_t;
+
+// Every call's first buffer is its input; any others are outputs
+#define SWITCHLESS_MAX_BUFFERS 4
+
+typedef struct switchless_call {
+  struct switchless_call* next;
+  jlong call_id;
+  switchless_op_t op;
+  uint64_t cli;
+  uint32_t permits;
+  size_t num_buffers;
+  // Global references keep the buffers, and so their memory, alive until the call has completed
+  jobject buffers[SWITCHLESS_MAX_BUFFERS];
+  void* addresses[SWITCHLESS_MAX_BUFFERS];
+  size_t capacities[SWITCHLESS_MAX_BUFFERS];
+  size_t actual_sizes[SWITCHLESS_MAX_BUFFERS];
+  const char* function;
+  oe_result_t result;
+  int retval;
+  uint64_t value;
+} switchless_call_t;
+
+struct switchless {
+  pthread_mutex_t mutex;
+  pthread_cond_t submitted_cond;
+  pthread_cond_t completed_cond;
+  switchless_call_t* submitted_head;
+  switchless_call_t* submitted_tail;
+  switchless_call_t* completed_head;
+  switchless_call_t* completed_tail;
+  size_t outstanding;  // submitted but not yet collected by the poller
+  bool stopping;
+  size_t num_callers;
+  pthread_t* callers;
+  cdsi_enclave_t* enclave;
+};
+
+static void switchless_push(switchless_call_t** head, switchless_call_t** tail, switchless_call_t* call) {
+  call->next = NULL;
+  if (*tail == NULL) {
+    *head = call;
+  } else {
+    (*tail)->next = call;
+  }
+  *tail = call;
+}
+
+static switchless_call_t* switchless_pop(switchless_call_t** head, switchless_call_t** tail) {
+  switchless_call_t* call = *head;
+  if (call != NULL) {
+    *head = call->next;
+    if (*head == NULL) {
+      *tail = NULL;
+    }
+  }
+  return call;
+}
+
+static void switchless_execute(oe_enclave_t* enc, switchless_call_t* call) {
+  switch (call->op) {
+    case switchless_handshake:
+      call->function = "enclave_handshake";
+      call->result = enclave_handshake(enc, &call->retval, call->cli,
+          call->capacities[0], call->addresses[0],
+          call->capacities[1], call->addresses[1], &call->actual_sizes[1]);
+      break;
+    case switchless_rate_limit: {
+      size_t computed_request_size = 0;
+      call->function = "enclave_rate_limit";
+      call->result = enclave_rate_limit(enc, &call->retval, call->cli,
+          call->capacities[0], call->addresses[0],
+          call->capacities[1], call->addresses[1], &call->actual_sizes[1],
+          call->capacities[2], call->addresses[2], &call->actual_sizes[2],
+          call->capacities[3], call->addresses[3], &call->actual_sizes[3],
+          &computed_request_size);
+      call->value = computed_request_size;
+      break;
+    }
+    case switchless_run: {
+      uint32_t query_strategy = 0;
+      call->function = "enclave_run";
+      call->result = enclave_run(enc, &call->retval, call->cli, call->permits,
+          call->capacities[0], call->addresses[0],
+          call->capacities[1], call->addresses[1], &call->actual_sizes[1],
+          &query_strategy);
+      call->value = query_strategy;
+      break;
+    }
+    case switchless_load_data:
+      call->function = "enclave_load_pb";
+      call->result = enclave_load_pb(enc, &call->retval, call->capacities[0], call->addresses[0]);
+      break;
+  }
+}
+
+static void* switchless_caller_fn(void* input) {
+  switchless_t* switchless = input;
+  for (;;) {
+    pthread_mutex_lock(&switchless->mutex);
+    while (switchless->submitted_head == NULL && !switchless->stopping) {
+      pthread_cond_wait(&switchless->submitted_cond, &switchless->mutex);
+    }
+    // Finish every submitted call before stopping
+    switchless_call_t* call = switchless_pop(&switchless->submitted_head, &switchless->submitted_tail);
+    pthread_mutex_unlock(&switchless->mutex);
+    if (call == NULL) {
+      return 0;
+    }
+
+    switchless_execute(switchless->enclave->enc, call);
+
+    pthread_mutex_lock(&switchless->mutex);
+    switchless_push(&switchless->completed_head, &switchless->completed_tail, call);
+    pthread_cond_signal(&switchless->completed_cond);
+    pthread_mutex_unlock(&switchless->mutex);
+  }
+}
+
+static switchless_t* switchless_create(cdsi_enclave_t* enclave, size_t num_callers) {
+  switchless_t* switchless = calloc(1, sizeof(*switchless));
+  CHECK(switchless != NULL);
+  CHECK(switchless->callers = calloc(num_callers, sizeof(switchless->callers[0])));
+  pthread_mutex_init(&switchless->mutex, NULL);
+  pthread_cond_init(&switchless->submitted_cond, NULL);
+  pthread_cond_init(&switchless->completed_cond, NULL);
+  switchless->enclave = enclave;
+  switchless->num_callers = num_callers;
+  for (size_t i = 0; i < num_callers; i++) {
+    CHECK(0 == pthread_create(&switchless->callers[i], NULL, &switchless_caller_fn, switchless));
+    char name_buf[16];
+    CHECK(snprintf(name_buf, sizeof(name_buf), "switchless-%zu", i) > 0);
+    CHECK(0 == pthread_setname_np(switchless->callers[i], name_buf));
+  }
+  return switchless;
+}
+
+// Stops accepting calls, and waits for every submitted call to be made. May be called more than once.
+static void switchless_stop(switchless_t* switchless) {
+  pthread_mutex_lock(&switchless->mutex);
+  switchless->stopping = true;
+  size_t num_callers = switchless->num_callers;
+  switchless->num_callers = 0;
+  pthread_cond_broadcast(&switchless->submitted_cond);
+  pthread_cond_broadcast(&switchless->completed_cond);
+  pthread_mutex_unlock(&switchless->mutex);
+
+  for (size_t i = 0; i < num_callers; i++) {
+    pthread_join(switchless->callers[i], 0);
+  }
+}
+
+// Must only be called once the poller has stopped.
+static void switchless_destroy(JNIEnv* env, switchless_t* switchless) {
+  switchless_stop(switchless);
+  switchless_call_t* call;
+  while ((call = switchless_pop(&switchless->completed_head, &switchless->completed_tail)) != NULL) {
+    for (size_t i = 0; i < call->num_buffers; i++) {
+      (*env)->DeleteGlobalRef(env, call->buffers[i]);
+    }
+    free(call);
+  }
+  pthread_mutex_destroy(&switchless->mutex);
+  pthread_cond_destroy(&switchless->submitted_cond);
+  pthread_cond_destroy(&switchless->completed_cond);
+  free(switchless->callers);
+  free(switchless);
+}
+
+// Queues a call for a caller thread; takes ownership of `call`.
+static void switchless_submit(
+    JNIEnv* env, cdsi_enclave_t* cdsi_enc, switchless_call_t* call, size_t num_buffers, jobject buffers[]) {
+  switchless_t* switchless = cdsi_enc->switchless;
+  if (switchless == NULL) {
+    free(call);
+    (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/IllegalStateException"),
+        "Switchless calls are not enabled");
+    return;
+  }
+
+  call->num_buffers = num_buffers;
+  for (size_t i = 0; i < num_buffers; i++) {
+    call->buffers[i] = (*env)->NewGlobalRef(env, buffers[i]);
+    call->addresses[i] = (*env)->GetDirectBufferAddress(env, buffers[i]);
+    call->capacities[i] = (*env)->GetDirectBufferCapacity(env, buffers[i]);
+  }
+
+  pthread_mutex_lock(&switchless->mutex);
+  if (switchless->stopping) {
+    pthread_mutex_unlock(&switchless->mutex);
+    for (size_t i = 0; i < num_buffers; i++) {
+      (*env)->DeleteGlobalRef(env, call->buffers[i]);
+    }
+    free(call);
+    (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/IllegalStateException"), "Switchless calls have stopped");
+    return;
+  }
+  switchless->outstanding++;
+  switchless_push(&switchless->submitted_head, &switchless->submitted_tail, call);
+  pthread_cond_signal(&switchless->submitted_cond);
+  pthread_mutex_unlock(&switchless->mutex);
+}
+
+static switchless_call_t* switchless_call_create(jlong call_id, switchless_op_t op, uint64_t cli, uint32_t permits) {
+  switchless_call_t* call = calloc(1, sizeof(*call));
+  CHECK(call != NULL);
+  call->call_id = call_id;
+  call->op = op;
+  call->cli = cli;
+  call->permits = permits;
+  return call;
+}
+
 ////////////////////////////////////////////////////////////////////////////////
 // Logging callback
 
@@ -151,7 +408,8 @@ void JNI_OnUnload(JavaVM *vm, void *reserved) {
 }
 
 JNIEXPORT jlong JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeEnclaveInit
-  (JNIEnv *env, jclass c, jlong available_bytes, jdouble load_factor, jint num_shards, jstring path, jboolean simulate) {
+  (JNIEnv *env, jclass c, jlong available_bytes, jdouble load_factor, jint num_shards, jstring path, jboolean simulate,
+   jint switchless_workers) {
   size_t stash_overflow_size = 100;
   uint32_t flags = 0;
   if (simulate) {
@@ -168,11 +426,23 @@ JNIEXPORT jlong JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeEnclaveInit
   // are correctly caught by our logging.
   CHECK(OE_OK == oe_log_set_callback(NULL, host_log_slf4j));
 
+  // Switchless ecalls are made by enclave worker threads, each of which occupies a TCS for the life of the
+  // enclave; host workers are only needed for switchless ocalls, which we don't make
+  oe_enclave_setting_context_switchless_t switchless_setting = {
+    .max_host_workers = 0,
+    .max_enclave_workers = switchless_workers,
+  };
+  oe_enclave_setting_t settings[] = {{
+    .setting_type = OE_ENCLAVE_SETTING_CONTEXT_SWITCHLESS,
+    .u.context_switchless_setting = &switchless_setting,
+  }};
+
   const char* enclave_path = (*env)->GetStringUTFChars(env, path, 0);
   oe_result_t result = OE_OK;
   LOG_DEBUG("Loading enclave at %s", enclave_path);
   if (OE_OK != (result = oe_create_cds_enclave(
-        enclave_path, OE_ENCLAVE_TYPE_AUTO, flags, NULL, 0, &cdsi_enclave->enc))) {
+        enclave_path, OE_ENCLAVE_TYPE_AUTO, flags, switchless_workers > 0 ? settings : NULL,
+        switchless_workers > 0 ? 1 : 0, &cdsi_enclave->enc))) {
     (*env)->ReleaseStringUTFChars(env, path, enclave_path);
     enclave_function_name = "oe_create_cds_enclave";
     goto error;
@@ -193,6 +463,10 @@ JNIEXPORT jlong JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeEnclaveInit
     CHECK(cdsi_enclave->tids[i] == 0);
     cdsi_enclave->tids[i] = run_shard(env, cdsi_enclave, i);
   }
+  if (switchless_workers > 0) {
+    // One caller for each enclave worker; more would only fall back to ordinary ecalls
+    cdsi_enclave->switchless = switchless_create(cdsi_enclave, switchless_workers);
+  }
   TEST_LOG("%p: EnclaveInit success", cdsi_enclave->enc);
   LOG_INFO("Initialized enclave with %d shards and %zu bytes of EPC memory", num_shards, available_bytes);
   return (uint64_t) cdsi_enclave;
@@ -329,13 +603,14 @@ JNIEXPORT jint JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeClientRate
   return computed_request_size;
 }
 
-JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeClientRun
+JNIEXPORT jint JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeClientRun
   (JNIEnv *env, jclass c, jlong enc, jlong cli, jint permits, jobject in, jobject out) {
   cdsi_enclave_t* cdsi_enc = (cdsi_enclave_t*)enc;
   TEST_LOG("%p,%p: Run", cdsi_enc->enc, (void*)cli);
   size_t in_size = (*env)->GetDirectBufferCapacity(env, in);
   size_t out_size = (*env)->GetDirectBufferCapacity(env, out);
   size_t actual_out_size = 0;
+  uint32_t query_strategy = 0;
   TEST_LOG("in_size=%ld,out_size=%ld\n", in_size, out_size);
   int retval = 0;
   oe_result_t oe_result = enclave_run(
@@ -347,18 +622,20 @@ JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeClientRun
     (*env)->GetDirectBufferAddress(env, in),
     out_size,
     (*env)->GetDirectBufferAddress(env, out),
-    &actual_out_size
+    &actual_out_size,
+    &query_strategy
   );
   if (oe_result != OE_OK) {
     throw_oe_error(env, "enclave_run", oe_result);
-    return;
+    return -1;
   } else if (retval != 0) {
     TEST_LOG("%p,%p: Run error: %d", cdsi_enc->enc, (void*)cli, retval);
     throw_error(env, retval);
-    return;
+    return -1;
   }
   limit_buffer(env, out, actual_out_size);
-  TEST_LOG("%p,%p: Run success", cdsi_enc->enc, (void*)cli);
+  TEST_LOG("%p,%p: Run success: strategy %u", cdsi_enc->enc, (void*)cli, query_strategy);
+  return query_strategy;
 }
 
 JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeClientRetryResponse
@@ -435,6 +712,11 @@ JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeEnclaveClose
   int retval=0;
   char* enclave_function_name;
 
+  if (cdsi_enc->switchless != NULL) {
+    switchless_destroy(env, cdsi_enc->switchless);
+    cdsi_enc->switchless = NULL;
+  }
+
   if(OE_OK != (result=enclave_stop_shards(cdsi_enc->enc, &retval))) {
     TEST_LOG("enclave_stop_shards result: %d (%s)", result, oe_result_str(result));
     enclave_function_name = "enclave_stop_shards";
@@ -497,6 +779,128 @@ JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeEnclaveTableSt
   return;
 }
 
+JNIEXPORT jboolean JNICALL Java_org_signal_cdsi_enclave_Enclave_nativePinShardThreads
+  (JNIEnv *env, jclass c, jlong enc, jintArray cpus) {
+  cdsi_enclave_t* cdsi_enc = (cdsi_enclave_t*)enc;
+  cpu_set_t shard_cpus;
+  cpu_set_from_array(env, cpus, &shard_cpus);
+  if (CPU_COUNT(&shard_cpus) == 0) {
+    return JNI_FALSE;
+  }
+
+  // Give each shard a core of its own if there are enough; otherwise let the shards share all of them
+  bool dedicated = (size_t) CPU_COUNT(&shard_cpus) >= cdsi_enc->num_shards;
+  for (size_t i = 0; i < cdsi_enc->num_shards; ++i) {
+    cpu_set_t shard_cpu;
+    if (dedicated) {
+      CPU_ZERO(&shard_cpu);
+      CPU_SET(nth_cpu(&shard_cpus, i), &shard_cpu);
+    } else {
+      shard_cpu = shard_cpus;
+    }
+    int err = pthread_setaffinity_np(cdsi_enc->tids[i], sizeof(shard_cpu), &shard_cpu);
+    if (err != 0) {
+      LOG_WARN("Failed to pin shard %zu: %d", i, err);
+      return JNI_FALSE;
+    }
+  }
+  LOG_INFO("Pinned %zu shard threads to %d CPUs", cdsi_enc->num_shards, CPU_COUNT(&shard_cpus));
+  return JNI_TRUE;
+}
+
+JNIEXPORT jboolean JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeSetThreadAffinity
+  (JNIEnv *env, jclass c, jint tid, jintArray cpus) {
+  cpu_set_t set;
+  cpu_set_from_array(env, cpus, &set);
+  if (CPU_COUNT(&set) == 0) {
+    return JNI_FALSE;
+  }
+  return sched_setaffinity(tid, sizeof(set), &set) == 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeSubmitClientHandshake
+  (JNIEnv *env, jclass c, jlong enc, jlong call_id, jlong cli, jobject in, jobject out) {
+  jobject buffers[] = {in, out};
+  switchless_submit(env, (cdsi_enclave_t*)enc,
+      switchless_call_create(call_id, switchless_handshake, cli, 0), 2, buffers);
+}
+
+JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeSubmitClientRate
+  (JNIEnv *env, jclass c, jlong enc, jlong call_id, jlong cli, jobject in,
+   jobject out, jobject old_token_hash, jobject new_token_hash) {
+  jobject buffers[] = {in, out, old_token_hash, new_token_hash};
+  switchless_submit(env, (cdsi_enclave_t*)enc,
+      switchless_call_create(call_id, switchless_rate_limit, cli, 0), 4, buffers);
+}
+
+JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeSubmitClientRun
+  (JNIEnv *env, jclass c, jlong enc, jlong call_id, jlong cli, jint permits, jobject in, jobject out) {
+  jobject buffers[] = {in, out};
+  switchless_submit(env, (cdsi_enclave_t*)enc,
+      switchless_call_create(call_id, switchless_run, cli, permits), 2, buffers);
+}
+
+JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeSubmitLoadData
+  (JNIEnv *env, jclass c, jlong enc, jlong call_id, jobject load) {
+  jobject buffers[] = {load};
+  switchless_submit(env, (cdsi_enclave_t*)enc,
+      switchless_call_create(call_id, switchless_load_data, 0, 0), 1, buffers);
+}
+
+JNIEXPORT jlong JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeAwaitSwitchlessCompletion
+  (JNIEnv *env, jclass c, jlong enc, jlongArray completed_call_id) {
+  switchless_t* switchless = ((cdsi_enclave_t*)enc)->switchless;
+
+  pthread_mutex_lock(&switchless->mutex);
+  while (switchless->completed_head == NULL && !(switchless->stopping && switchless->outstanding == 0)) {
+    pthread_cond_wait(&switchless->completed_cond, &switchless->mutex);
+  }
+  switchless_call_t* call = switchless_pop(&switchless->completed_head, &switchless->completed_tail);
+  if (call != NULL) {
+    switchless->outstanding--;
+  }
+  pthread_mutex_unlock(&switchless->mutex);
+
+  jlong call_id = call != NULL ? call->call_id : 0;
+  (*env)->SetLongArrayRegion(env, completed_call_id, 0, 1, &call_id);
+  if (call == NULL) {
+    // Stopped, and every call has been collected
+    return 0;
+  }
+
+  if (call->result == OE_OK && call->retval == 0) {
+    for (size_t i = 1; i < call->num_buffers; i++) {
+      limit_buffer(env, call->buffers[i], call->actual_sizes[i]);
+    }
+  }
+  for (size_t i = 0; i < call->num_buffers; i++) {
+    (*env)->DeleteGlobalRef(env, call->buffers[i]);
+  }
+
+  oe_result_t result = call->result;
+  int retval = call->retval;
+  const char* function = call->function;
+  jlong value = call->value;
+  free(call);
+
+  if (result != OE_OK) {
+    throw_oe_error(env, function, result);
+    return -1;
+  } else if (retval != 0) {
+    throw_error(env, retval);
+    return -1;
+  }
+  return value;
+}
+
+JNIEXPORT void JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeStopSwitchless
+  (JNIEnv *env, jclass c, jlong enc) {
+  switchless_t* switchless = ((cdsi_enclave_t*)enc)->switchless;
+  if (switchless != NULL) {
+    switchless_stop(switchless);
+  }
+}
+
 JNIEXPORT jint JNICALL Java_org_signal_cdsi_enclave_Enclave_nativeGetRunningShardThreadCount
   (JNIEnv *env, jclass c, jlong enc) {
 
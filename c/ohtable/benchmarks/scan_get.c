@@ -0,0 +1,118 @@
+// Copyright 2022 Signal Messenger, LLC
+// SPDX-License-Identifier: AGPL-3.0-only
+
+// Finds the batch size at which `ohtable_scan_get_batch` becomes faster than calling `ohtable_get` for each key, and
+// compares it to the crossover predicted by `ohtable_scan_get_is_cheaper`.
+//
+// Usage: scan_get.bench [table capacity in records]...
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <sys/random.h>
+
+#include "ohtable/ohtable.h"
+#include "util/util.h"
+#include "util/tests.h"
+
+#define RECORD_SIZE_QWORDS 7
+#define LOAD 0.8
+
+// Per-key lookups cost the same for every key, so time at most this many and scale up
+#define MAX_TIMED_GETS 4096
+
+static double elapsed_seconds(struct timespec begin, struct timespec end)
+{
+    return (end.tv_sec - begin.tv_sec) + (end.tv_nsec - begin.tv_nsec) / 1000000000.0;
+}
+
+static double time_gets(ohtable *table, size_t num_queries, const u64 keys[])
+{
+    size_t num_timed = num_queries < MAX_TIMED_GETS ? num_queries : MAX_TIMED_GETS;
+    u64 record[RECORD_SIZE_QWORDS];
+    struct timespec begin, end;
+    clock_gettime(CLOCK_MONOTONIC, &begin);
+    for (size_t i = 0; i < num_timed; ++i)
+    {
+        CHECK(err_SUCCESS == ohtable_get(table, keys[i], record));
+    }
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    return elapsed_seconds(begin, end) * num_queries / num_timed;
+}
+
+static double time_scan(ohtable *table, size_t num_queries, const u64 keys[], u64 results[])
+{
+    struct timespec begin, end;
+    clock_gettime(CLOCK_MONOTONIC, &begin);
+    CHECK(err_SUCCESS == ohtable_scan_get_batch(table, num_queries, keys, results));
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    return elapsed_seconds(begin, end);
+}
+
+static void run_benchmark(size_t capacity)
+{
+    ohtable *table = ohtable_create(capacity, RECORD_SIZE_QWORDS, TEST_STASH_SIZE, getentropy);
+    size_t table_capacity = ohtable_capacity(table);
+    size_t num_records = LOAD * table_capacity;
+
+    u64 *records;
+    CHECK(records = calloc(table_capacity, RECORD_SIZE_QWORDS * sizeof(*records)));
+    for (size_t i = 0; i < num_records; ++i)
+    {
+        getentropy(records + i * RECORD_SIZE_QWORDS, RECORD_SIZE_QWORDS * sizeof(*records));
+    }
+    CHECK(err_SUCCESS == ohtable_bulk_load(table, num_records, records));
+    free(records);
+
+    printf("table capacity %zu records, %zu items\n", table_capacity, ohtable_num_items(table));
+    printf("%10s %14s %14s %10s %10s\n", "queries", "get (s)", "scan (s)", "faster", "predicted");
+
+    size_t measured_crossover = 0;
+    size_t predicted_crossover = 0;
+    for (size_t num_queries = 16; num_queries <= table_capacity; num_queries *= 2)
+    {
+        u64 *keys;
+        u64 *results;
+        CHECK(keys = calloc(num_queries, sizeof(*keys)));
+        CHECK(results = calloc(num_queries, RECORD_SIZE_QWORDS * sizeof(*results)));
+        getentropy(keys, num_queries * sizeof(*keys));
+
+        double get_seconds = time_gets(table, num_queries, keys);
+        double scan_seconds = time_scan(table, num_queries, keys, results);
+        bool scan_faster = scan_seconds < get_seconds;
+        bool scan_predicted = ohtable_scan_get_is_cheaper(table, num_queries);
+
+        printf("%10zu %14.6f %14.6f %10s %10s\n", num_queries, get_seconds, scan_seconds,
+               scan_faster ? "scan" : "get", scan_predicted ? "scan" : "get");
+        if (scan_faster && measured_crossover == 0) measured_crossover = num_queries;
+        if (scan_predicted && predicted_crossover == 0) predicted_crossover = num_queries;
+
+        free(keys);
+        free(results);
+
+        // Scans only get relatively cheaper from here
+        if (measured_crossover != 0 && predicted_crossover != 0 && num_queries >= 2 * measured_crossover) break;
+    }
+    printf("crossover: measured %zu, predicted %zu\n\n", measured_crossover, predicted_crossover);
+
+    ohtable_destroy(table);
+}
+
+int main(int argc, char *argv[])
+{
+    if (argc < 2)
+    {
+        size_t default_capacities[] = {1 << 16, 1 << 18, 1 << 20};
+        for (size_t i = 0; i < sizeof(default_capacities) / sizeof(default_capacities[0]); ++i)
+        {
+            run_benchmark(default_capacities[i]);
+        }
+    }
+    for (int i = 1; i < argc; ++i)
+    {
+        run_benchmark(strtoull(argv[i], NULL, 10));
+    }
+    return 0;
+}
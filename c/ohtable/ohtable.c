@@ -210,6 +210,10 @@ size_t ohtable_num_items(const ohtable* ohtable) {
     return ohtable->num_items;
 }
 
+size_t ohtable_oram_access_count(const ohtable* ohtable) {
+    return oram_access_count(ohtable->oram);
+}
+
 double ohtable_mean_displacement(const ohtable *ohtable)
 {
     return ((double)ohtable->total_displacement) / ohtable->num_items;
@@ -424,6 +428,369 @@ error_t ohtable_get(const ohtable *ohtable, u64 key, u64 record[])
     return err_SUCCESS;
 }
 
+// Sort key for a record during a bulk load. Entries are ordered by `primary`, then `secondary`, then the record's
+// key, then `seq`.
+typedef struct {
+    u64 primary;
+    u64 secondary;
+    u64 seq;
+} bulk_load_sort_key;
+
+typedef struct {
+    u64* records;
+    bulk_load_sort_key* sort_keys;
+    size_t record_size_qwords;
+} bulk_load_entries;
+
+static inline bool comp_bulk_load_entries(const bulk_load_entries* entries, size_t idx1, size_t idx2) {
+    const bulk_load_sort_key* k1 = entries->sort_keys + idx1;
+    const bulk_load_sort_key* k2 = entries->sort_keys + idx2;
+    u64 key1 = entries->records[idx1 * entries->record_size_qwords];
+    u64 key2 = entries->records[idx2 * entries->record_size_qwords];
+
+    return (k1->primary > k2->primary)
+        | ((k1->primary == k2->primary) & ((k1->secondary > k2->secondary)
+            | ((k1->secondary == k2->secondary) & ((key1 > key2)
+                | ((key1 == key2) & (k1->seq > k2->seq))))));
+}
+
+static void cond_swap_bulk_load_entries(bool cond, bulk_load_entries* entries, size_t idx1, size_t idx2) {
+    size_t record_size_qwords = entries->record_size_qwords;
+    cond_swap_record(cond, entries->records + idx1 * record_size_qwords, entries->records + idx2 * record_size_qwords,
+            record_size_qwords);
+    cond_obv_swap_u64(cond, &entries->sort_keys[idx1].primary, &entries->sort_keys[idx2].primary);
+    cond_obv_swap_u64(cond, &entries->sort_keys[idx1].secondary, &entries->sort_keys[idx2].secondary);
+    cond_obv_swap_u64(cond, &entries->sort_keys[idx1].seq, &entries->sort_keys[idx2].seq);
+}
+
+// Bitonic merge and sort with the same structure as those used to build ORAM paths in `stash.c`, applied to bulk
+// load entries.
+static void bulk_load_bitonic_merge(bulk_load_entries* entries, size_t lb, size_t ub, bool direction) {
+    size_t n = ub - lb;
+    if(n > 1) {
+        size_t pow2 = first_pow2_leq(n);
+        if(pow2 == n) pow2 >>= 1;
+        for(size_t i = lb; i < ub - pow2; ++i) {
+            bool cond = direction == comp_bulk_load_entries(entries, i, i + pow2);
+            cond_swap_bulk_load_entries(cond, entries, i, i + pow2);
+        }
+        bulk_load_bitonic_merge(entries, lb, lb + pow2, direction);
+        bulk_load_bitonic_merge(entries, lb + pow2, ub, direction);
+    }
+}
+
+static void bulk_load_bitonic_sort(bulk_load_entries* entries, size_t lb, size_t ub, bool direction) {
+    size_t n = ub - lb;
+    if(n > 1) {
+        size_t half_n = n >> 1;
+        bulk_load_bitonic_sort(entries, lb, lb + half_n, !direction);
+        bulk_load_bitonic_sort(entries, lb + half_n, ub, direction);
+        bulk_load_bitonic_merge(entries, lb, ub, direction);
+    }
+}
+
+typedef struct {
+    size_t record_size_qwords;
+    const u64* records;
+} bulk_load_accessor_args;
+
+static error_t bulk_load_accessor(u64* block_data, void* vargs) {
+    bulk_load_accessor_args* args = vargs;
+    size_t records_per_block = BLOCK_DATA_SIZE_QWORDS / args->record_size_qwords;
+    memcpy(block_data, args->records, records_per_block * args->record_size_qwords * sizeof(*block_data));
+    return err_SUCCESS;
+}
+
+error_t ohtable_bulk_load(ohtable *ohtable, size_t num_records, u64 records[])
+{
+    if(ohtable->num_items > 0) {
+        return err_OHTABLE__BULK_LOAD__NOT_EMPTY;
+    }
+
+    size_t record_size_qwords = ohtable->record_size_qwords;
+    size_t capacity = ohtable->capacity;
+    size_t num_entries = num_records > capacity ? num_records : capacity;
+
+    bulk_load_sort_key* sort_keys;
+    CHECK(sort_keys = calloc(num_entries, sizeof(*sort_keys)));
+    bulk_load_entries entries = {.records = records, .sort_keys = sort_keys, .record_size_qwords = record_size_qwords};
+
+    // Order the records as Robin Hood hashing would lay them out along the table: by home slot and, among records
+    // with the same home, by descending full hash. Copies of the same key end up adjacent, oldest first. Empty
+    // records, and the scratch space after the records, sort to the end.
+    for(size_t i = 0; i < num_records; ++i) {
+        u64* record = records + i * record_size_qwords;
+        u64 h = raw_hash(record[0]);
+        u64 home = ct_mod(h, capacity, ohtable->capacity_ct_m_prime, ohtable->capacity_ct_shift1, ohtable->capacity_ct_shift2);
+        sort_keys[i].primary = U64_TERNARY(record_empty(record), UINT64_MAX, home);
+        sort_keys[i].secondary = ~h;
+        sort_keys[i].seq = i;
+    }
+    memset(records + num_records * record_size_qwords, 0xff,
+            (num_entries - num_records) * record_size_qwords * sizeof(*records));
+    for(size_t i = num_records; i < num_entries; ++i) {
+        sort_keys[i].primary = UINT64_MAX;
+    }
+    bulk_load_bitonic_sort(&entries, 0, num_records, true);
+
+    // A record is superseded by a later record with the same key; superseded records are dropped like empty ones
+    size_t num_items = 0;
+    for(size_t i = 0; i < num_records; ++i) {
+        bool superseded = false;
+        if(i + 1 < num_records) {
+            superseded = records[i * record_size_qwords] == records[(i + 1) * record_size_qwords];
+        }
+        sort_keys[i].primary = U64_TERNARY(superseded, UINT64_MAX, sort_keys[i].primary);
+        num_items += U64_TERNARY(sort_keys[i].primary != UINT64_MAX, 1, 0);
+    }
+
+    if(((double)num_items)/capacity > 0.98) {
+        // Same limit as `ohtable_put`, and like it, depends only on the number of items
+        free(sort_keys);
+        return err_OHTABLE__TABLE_FULL;
+    }
+
+    // Linear probing packs each record into the first free slot at or after its home. Packing the records into
+    // slots without wrapping around the end of the table, the furthest any run of records reaches is the largest
+    // value of (home + number of records from that one to the last). Whatever reaches past the end of the table
+    // wraps around to its start, and so the records that do not wrap start after that many slots.
+    u64 reach = 0;
+    u64 remaining = 0;
+    for(size_t i = num_records; i-- > 0;) {
+        bool real = sort_keys[i].primary != UINT64_MAX;
+        remaining += U64_TERNARY(real, 1, 0);
+        u64 run_end = sort_keys[i].primary + remaining;
+        reach = U64_TERNARY(real & (run_end > reach), run_end, reach);
+    }
+    u64 next_slot = U64_TERNARY(reach > capacity, reach - capacity, 0);
+
+    size_t max_offset = 0;
+    size_t total_displacement = 0;
+    for(size_t i = 0; i < num_records; ++i) {
+        bool real = sort_keys[i].primary != UINT64_MAX;
+        u64 home = sort_keys[i].primary;
+        u64 position = U64_TERNARY(home > next_slot, home, next_slot);
+        u64 offset = position - home;
+        u64 slot = U64_TERNARY(position >= capacity, position - capacity, position);
+
+        next_slot = U64_TERNARY(real, position + 1, next_slot);
+        max_offset = U64_TERNARY(real & (offset > max_offset), offset, max_offset);
+        total_displacement += U64_TERNARY(real, offset, 0);
+
+        sort_keys[i].primary = U64_TERNARY(real, slot, UINT64_MAX);
+        sort_keys[i].secondary = 0;
+    }
+
+    // Order the records by slot, leaving the dropped records after all of the others, and empty the dropped records
+    bulk_load_bitonic_sort(&entries, 0, num_records, true);
+    for(size_t i = 0; i < num_records; ++i) {
+        u64* record = records + i * record_size_qwords;
+        bool dropped = sort_keys[i].primary == UINT64_MAX;
+        for(size_t q = 0; q < record_size_qwords; ++q) {
+            record[q] = U64_TERNARY(dropped, UINT64_MAX, record[q]);
+        }
+    }
+
+    // Move each record from its rank to its slot. Every record moves at least as far as the one before it, and so
+    // moving records by each power of two in turn, from largest to smallest, never moves a record onto another that
+    // has yet to move; this is the reverse of an order-preserving oblivious compaction.
+    for(size_t distance = first_pow2_leq(capacity); distance > 0; distance >>= 1) {
+        for(size_t i = capacity - distance; i-- > 0;) {
+            u64 slot = sort_keys[i].primary;
+            bool move = (slot != UINT64_MAX) & (((slot - i) & distance) != 0);
+            cond_swap_record(move, records + i * record_size_qwords, records + (i + distance) * record_size_qwords,
+                    record_size_qwords);
+            cond_obv_swap_u64(move, &sort_keys[i].primary, &sort_keys[i + distance].primary);
+        }
+    }
+    free(sort_keys);
+
+    // Every block is written exactly once, in order
+    bulk_load_accessor_args args = {.record_size_qwords = record_size_qwords};
+    for(u64 block_id = 0; block_id < ohtable->num_blocks; ++block_id) {
+        args.records = records + block_id * ohtable->items_per_block * record_size_qwords;
+        RETURN_IF_ERROR(oram_function_access(ohtable->oram, block_id, bulk_load_accessor, &args));
+    }
+
+    ohtable->num_items = num_items;
+    ohtable->max_offset = max_offset;
+    ohtable->max_trace_length = max_offset;
+    ohtable->total_displacement = total_displacement;
+    return err_SUCCESS;
+}
+
+typedef struct {
+    const ohtable* ohtable;
+    bulk_load_entries entries;
+    // Number of table records in each chunk; the chunk occupies entries [0, chunk_size) and the queries follow it
+    size_t chunk_size;
+    size_t num_queries;
+    // Number of table records in the current chunk so far
+    size_t fill;
+    u64* carry;
+} scan_get_args;
+
+// Joins the chunk of table records in `[0, chunk_size)` with the queries, which are sorted by key in
+// `[chunk_size, chunk_size + num_queries)`, and leaves the queries there, still sorted by key.
+static void scan_get_join_chunk(scan_get_args* args)
+{
+    bulk_load_entries* entries = &args->entries;
+    bulk_load_sort_key* sort_keys = entries->sort_keys;
+    size_t record_size_qwords = entries->record_size_qwords;
+    size_t chunk_size = args->chunk_size;
+    size_t num_entries = chunk_size + args->num_queries;
+
+    // A descending run followed by an ascending one merges into a single ascending run whatever their lengths. In it
+    // each table record comes right before any queries for its key.
+    bulk_load_bitonic_sort(entries, 0, chunk_size, false);
+    bulk_load_bitonic_merge(entries, 0, num_entries, true);
+
+    // Table records hold unique keys, so carrying the most recent one forward finds the match for every query. Each
+    // query is also given its rank among the queries, which is where it goes back to.
+    memset(args->carry, 0xff, record_size_qwords * sizeof(*args->carry));
+    u64 carry_key = UINT64_MAX;
+    u64 rank = 0;
+    for(size_t i = 0; i < num_entries; ++i) {
+        u64* record = entries->records + i * record_size_qwords;
+        bool is_query = sort_keys[i].seq != UINT64_MAX;
+        cond_copy_record(!is_query, args->carry, record, record_size_qwords);
+        carry_key = U64_TERNARY(is_query, carry_key, sort_keys[i].primary);
+        cond_copy_record(is_query & (carry_key == sort_keys[i].primary), record, args->carry, record_size_qwords);
+        sort_keys[i].secondary = U64_TERNARY(is_query, (chunk_size + rank), sort_keys[i].secondary);
+        rank += U64_TERNARY(is_query, 1, 0);
+    }
+
+    // Move the queries back to the end, keeping their order. Every query moves at least as far as the one after it,
+    // and so moving queries by each power of two in turn, from smallest to largest, never moves a query onto another
+    // that has yet to move.
+    for(size_t distance = 1; distance < num_entries; distance <<= 1) {
+        for(size_t i = num_entries - distance; i-- > 0;) {
+            bool is_query = sort_keys[i].seq != UINT64_MAX;
+            bool move = is_query & (((sort_keys[i].secondary - i) & distance) != 0);
+            cond_swap_bulk_load_entries(move, entries, i, i + distance);
+        }
+    }
+    for(size_t i = chunk_size; i < num_entries; ++i) {
+        sort_keys[i].secondary = 1;
+    }
+    args->fill = 0;
+}
+
+static void scan_get_visitor(u64 block_id, const u64* block_data, void* vargs)
+{
+    scan_get_args* args = vargs;
+    size_t record_size_qwords = args->entries.record_size_qwords;
+    size_t items_per_block = args->ohtable->items_per_block;
+    bool empty_block = block_id == EMPTY_BLOCK_ID;
+
+    for(size_t i = 0; i < items_per_block; ++i) {
+        size_t idx = args->fill + i;
+        u64* record = args->entries.records + idx * record_size_qwords;
+        for(size_t q = 0; q < record_size_qwords; ++q) {
+            record[q] = U64_TERNARY(empty_block, UINT64_MAX, block_data[i * record_size_qwords + q]);
+        }
+        args->entries.sort_keys[idx].primary = record[0];
+        args->entries.sort_keys[idx].secondary = 0;
+        args->entries.sort_keys[idx].seq = UINT64_MAX;
+    }
+    args->fill += items_per_block;
+
+    if(args->fill == args->chunk_size) {
+        scan_get_join_chunk(args);
+    }
+}
+
+// Smallest chunk of table records joined with the queries at a time, in blocks. Chunks are otherwise as large as the
+// batch of queries, which keeps the cost of each join dominated by sorting the table records.
+#define SCAN_GET_MIN_CHUNK_BLOCKS 64
+
+static size_t scan_get_chunk_blocks(const ohtable *ohtable, size_t num_queries)
+{
+    size_t chunk_blocks = (num_queries + ohtable->items_per_block - 1) / ohtable->items_per_block;
+    return max(chunk_blocks, (size_t)SCAN_GET_MIN_CHUNK_BLOCKS);
+}
+
+error_t ohtable_scan_get_batch(const ohtable *ohtable, size_t num_queries, const u64 keys[], u64 results[])
+{
+    if(num_queries == 0) {
+        return err_SUCCESS;
+    }
+
+    size_t record_size_qwords = ohtable->record_size_qwords;
+    size_t chunk_size = scan_get_chunk_blocks(ohtable, num_queries) * ohtable->items_per_block;
+    size_t num_entries = chunk_size + num_queries;
+
+    scan_get_args args = {.ohtable = ohtable, .chunk_size = chunk_size, .num_queries = num_queries, .fill = 0};
+    args.entries.record_size_qwords = record_size_qwords;
+    CHECK(args.entries.records = malloc(num_entries * record_size_qwords * sizeof(*args.entries.records)));
+    CHECK(args.entries.sort_keys = calloc(num_entries, sizeof(*args.entries.sort_keys)));
+    CHECK(args.carry = malloc(record_size_qwords * sizeof(*args.carry)));
+
+    // Each query's record starts out empty and picks up the matching table record, if there is one
+    memset(args.entries.records + chunk_size * record_size_qwords, 0xff,
+            num_queries * record_size_qwords * sizeof(*args.entries.records));
+    for(size_t i = 0; i < num_queries; ++i) {
+        args.entries.sort_keys[chunk_size + i].primary = keys[i];
+        args.entries.sort_keys[chunk_size + i].secondary = 1;
+        args.entries.sort_keys[chunk_size + i].seq = i;
+    }
+    bulk_load_bitonic_sort(&args.entries, chunk_size, num_entries, true);
+
+    // Every block in the ORAM, wherever it is, is joined with the queries once; the last chunk is padded with
+    // empty blocks
+    oram_scan_blocks(ohtable->oram, scan_get_visitor, &args);
+    u64 empty_block_data[BLOCK_DATA_SIZE_QWORDS];
+    memset(empty_block_data, 0xff, sizeof(empty_block_data));
+    while(args.fill > 0) {
+        scan_get_visitor(EMPTY_BLOCK_ID, empty_block_data, &args);
+    }
+
+    // Put the queries back in their original order
+    for(size_t i = chunk_size; i < num_entries; ++i) {
+        args.entries.sort_keys[i].primary = args.entries.sort_keys[i].seq;
+    }
+    bulk_load_bitonic_sort(&args.entries, chunk_size, num_entries, true);
+    memcpy(results, args.entries.records + chunk_size * record_size_qwords,
+            num_queries * record_size_qwords * sizeof(*results));
+
+    free(args.carry);
+    free(args.entries.sort_keys);
+    free(args.entries.records);
+    return err_SUCCESS;
+}
+
+// Cost model for choosing between `ohtable_get` and `ohtable_scan_get_batch`, in units of one oblivious
+// compare-and-swap of two scan entries. Calibrated with ohtable/benchmarks/scan_get.c: an ORAM access, including the
+// position map's accesses and sorting the stash, costs about this many units per squared level of the tree.
+#define SCAN_GET_ORAM_ACCESS_COST_PER_LEVEL_SQUARED 35
+
+static double bitonic_sort_cost(size_t n)
+{
+    double lg = ceil_log2(n);
+    return n / 4.0 * lg * (lg + 1);
+}
+
+bool ohtable_scan_get_is_cheaper(const ohtable *ohtable, size_t num_queries)
+{
+    // The same number of ORAM accesses as `ohtable_get`
+    size_t accesses_per_get = 1 + (ohtable->max_offset + ohtable->items_per_block - 1) / ohtable->items_per_block;
+    double levels = oram_num_levels(ohtable->oram);
+    double get_cost = (double)num_queries * accesses_per_get * SCAN_GET_ORAM_ACCESS_COST_PER_LEVEL_SQUARED
+        * levels * levels;
+
+    // Each chunk is sorted, merged with the queries, joined and compacted; the queries are sorted once before the
+    // scan and once after it
+    size_t chunk_blocks = scan_get_chunk_blocks(ohtable, num_queries);
+    size_t chunk_size = chunk_blocks * ohtable->items_per_block;
+    size_t num_entries = chunk_size + num_queries;
+    size_t num_chunks = (oram_scan_num_blocks(ohtable->oram) + chunk_blocks - 1) / chunk_blocks;
+    double lg = ceil_log2(num_entries);
+    double chunk_cost = bitonic_sort_cost(chunk_size) + num_entries * (1.5 * lg + 1);
+    double scan_cost = num_chunks * chunk_cost + 2 * bitonic_sort_cost(num_queries);
+
+    return scan_cost < get_cost;
+}
+
 #ifdef IS_TEST
 #include <stdio.h>
 #include <sys/random.h>
@@ -703,6 +1070,59 @@ error_t test_wraparound() {
     return err_SUCCESS;
 }
 
+error_t test_bulk_load_wraparound() {
+    ohtable *table = ohtable_create((BLOCK_DATA_SIZE_QWORDS / RECORD_SIZE_QWORDS) * 16, RECORD_SIZE_QWORDS, TEST_STASH_SIZE, getentropy);
+    size_t capacity = table->capacity;
+
+    // collisions near the end of the table, which wrap around to its start, and collisions at its start, which the
+    // wrapped records displace
+    u64 base = ((UINT64_MAX >> 1) / capacity) * capacity;
+    u64 keys[2 * NUM_COLLISIONS];
+    keys[0] = find_collision_for_hash(base + capacity - NUM_COLLISIONS / 2, capacity, true);
+    keys[NUM_COLLISIONS] = find_collision_for_hash(base, capacity, true);
+    for(size_t i = 1; i < NUM_COLLISIONS; ++i) {
+        keys[i] = find_collision_for_hash(raw_hash(keys[0]), capacity, i % 2 == 0);
+        keys[NUM_COLLISIONS + i] = find_collision_for_hash(raw_hash(keys[NUM_COLLISIONS]), capacity, i % 2 == 0);
+    }
+
+    u64 records[capacity * RECORD_SIZE_QWORDS];
+    memset(records, 0, sizeof(records));
+    for(size_t i = 0; i < 2 * NUM_COLLISIONS; ++i) {
+        records[i * RECORD_SIZE_QWORDS] = keys[i];
+        records[i * RECORD_SIZE_QWORDS + 1] = i;
+    }
+    RETURN_IF_ERROR(ohtable_bulk_load(table, 2 * NUM_COLLISIONS, records));
+
+    TEST_ASSERT(table->num_items == 2 * NUM_COLLISIONS);
+    // the last collision at the start of the table is displaced by all of the others there and the wrapped records
+    TEST_ASSERT(table->max_offset == NUM_COLLISIONS - 1 + NUM_COLLISIONS / 2);
+
+    for(size_t i = 0; i < 2 * NUM_COLLISIONS; ++i) {
+        u64 record[RECORD_SIZE_QWORDS];
+        RETURN_IF_ERROR(ohtable_get(table, keys[i], record));
+        TEST_ASSERT(record[0] == keys[i]);
+        TEST_ASSERT(record[1] == i);
+    }
+
+    // Robin Hood updates still find the wrapped records
+    for(size_t i = 0; i < 2 * NUM_COLLISIONS; ++i) {
+        u64 record[RECORD_SIZE_QWORDS];
+        memset(record, 0, sizeof(record));
+        record[0] = keys[i];
+        record[1] = 100 + i;
+        RETURN_IF_ERROR(ohtable_put(table, record));
+    }
+    TEST_ASSERT(table->num_items == 2 * NUM_COLLISIONS);
+
+    for(size_t i = 0; i < 2 * NUM_COLLISIONS; ++i) {
+        u64 record[RECORD_SIZE_QWORDS];
+        RETURN_IF_ERROR(ohtable_get(table, keys[i], record));
+        TEST_ASSERT(record[1] == 100 + i);
+    }
+    ohtable_destroy(table);
+    return err_SUCCESS;
+}
+
 error_t test_create_for_available_memory() {
     size_t memsize_1GiB = (1ul << 30);
     ohtable* table1 = ohtable_create_for_available_mem(RECORD_SIZE_QWORDS, memsize_1GiB, 1.0, TEST_STASH_SIZE, getentropy);
@@ -726,6 +1146,7 @@ void private_ohtable_tests()
     RUN_TEST(test_rh_accessor_placement());
     RUN_TEST(test_multiswap());
     RUN_TEST(test_wraparound());
+    RUN_TEST(test_bulk_load_wraparound());
     RUN_TEST(test_create_for_available_memory());
 }
 #endif
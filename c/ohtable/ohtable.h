@@ -64,6 +64,14 @@ size_t ohtable_capacity(const ohtable* ohtable);
  * @return size_t 
  */
 size_t ohtable_num_items(const ohtable* ohtable);
+
+/**
+ * @brief Number of accesses made to the table's ORAM since it was created or last cleared
+ *
+ * @param ohtable
+ * @return size_t
+ */
+size_t ohtable_oram_access_count(const ohtable* ohtable);
 /**
  * @brief The mean displacement of entries from their hash in a table.
  *
@@ -82,6 +90,24 @@ double ohtable_mean_displacement(const ohtable *ohtable);
  */
 error_t ohtable_put(ohtable *ohtable, const u64 record[]);
 
+/**
+ * @brief Build an empty table from a set of records in a single pass.
+ *
+ * Produces the same table as putting the records one at a time, in order, but rather than performing at least one
+ * ORAM access per record, the records are placed with oblivious sorts and scans outside the ORAM and then each of
+ * the table's blocks is written with a single ORAM access. The sequence of memory accesses depends only on
+ * `num_records` and the size of the table.
+ *
+ * @param ohtable Table to build. Must be empty.
+ * @param num_records Number of records in `records`.
+ * @param records Records to insert, laid out in an array of `num_records * record_size_qwords` `u64`s. If a key
+ *  appears more than once, the last record for that key is kept. The array is used as scratch space and must have room
+ *  for at least `max(num_records, ohtable_capacity(ohtable))` records; its contents are undefined on return.
+ * @return error_t err_OHTABLE__BULK_LOAD__NOT_EMPTY if the table is not empty, err_OHTABLE__TABLE_FULL if the
+ *  records would overfill the table, or an error from an ORAM access
+ */
+error_t ohtable_bulk_load(ohtable *ohtable, size_t num_records, u64 records[]);
+
 /**
  * @brief Retrieve an item from the table
  *
@@ -93,6 +119,35 @@ error_t ohtable_put(ohtable *ohtable, const u64 record[]);
  **/
 error_t ohtable_get(const ohtable *ohtable, u64 key, u64 record[]);
 
+/**
+ * @brief Retrieve a batch of items from the table with an oblivious join against every block in the table's ORAM,
+ * instead of with ORAM accesses for each key.
+ *
+ * The blocks are read directly from the ORAM's storage, a chunk at a time, and each chunk is joined with the queries
+ * using oblivious sorts and scans. The sequence of memory accesses depends only on `num_queries` and the size of the
+ * table's ORAM. This does far more work than `ohtable_get` for a single key, but its cost grows much more slowly with
+ * the number of keys; see `ohtable_scan_get_is_cheaper`.
+ *
+ * @param ohtable Get records from this table.
+ * @param num_queries Number of keys in `keys`.
+ * @param keys Keys of the records to read.
+ * @param results Buffer of `num_queries * record_size_qwords` `u64`s. The record for `keys[i]` is written to the
+ *  `i`th record; if there is no such record, it will be identically UINT64_MAX.
+ * @return error_t
+ */
+error_t ohtable_scan_get_batch(const ohtable *ohtable, size_t num_queries, const u64 keys[], u64 results[]);
+
+/**
+ * @brief Estimate whether `ohtable_scan_get_batch` is cheaper than calling `ohtable_get` for each key of a batch.
+ *
+ * The estimate depends only on `num_queries` and the size of the table, never on the keys or the table's contents.
+ *
+ * @param ohtable
+ * @param num_queries Number of keys in the batch.
+ * @return true if a scan is expected to be faster
+ */
+bool ohtable_scan_get_is_cheaper(const ohtable *ohtable, size_t num_queries);
+
 // Interface note: when the table statistics are flat structs it would be simpler to return them
 // by value. However the ORAM structures backing this table are recursive and some detailed reporting we
 // may want in the future will require arrays with sizes determined at runtime. These will require
@@ -3,6 +3,7 @@
 
 #include <inttypes.h>
 #include <stdio.h>
+#include <string.h>
 #include <sys/random.h>
 
 #include "ohtable/ohtable.h"
@@ -119,12 +120,181 @@ error_t test_full_table() {
     return err_SUCCESS;
 }
 
+error_t test_bulk_load() {
+    size_t cap = 30000;
+    ohtable *ohtable = ohtable_create(cap, 7, TEST_STASH_SIZE, getentropy);
+    size_t capacity = ohtable_capacity(ohtable);
+    size_t num_keys = 0.95 * capacity;
+
+    // Every key is loaded once, and every tenth key is loaded again later with new values
+    size_t num_records = num_keys + num_keys / 10;
+    record* records;
+    CHECK(records = calloc(num_records > capacity ? num_records : capacity, sizeof(*records)));
+    for (u64 i = 0; i < num_keys; ++i)
+    {
+        records[i] = (record){.key = i, .a = 2 * i, .b = 3 * i, .c = 4 * i, .d = 5 * i, .e = 6 * i};
+    }
+    for (u64 i = 0; i < num_keys / 10; ++i)
+    {
+        u64 key = 10 * i;
+        records[num_keys + i] = (record){.key = key, .a = 7 * key, .b = 8 * key};
+    }
+
+    RETURN_IF_ERROR(ohtable_bulk_load(ohtable, num_records, (u64 *)records));
+    free(records);
+    TEST_ASSERT(ohtable_num_items(ohtable) == num_keys);
+
+    for (u64 i = 0; i < num_keys; ++i)
+    {
+        record recovered;
+        RETURN_IF_ERROR(ohtable_get(ohtable, i, (u64 *)&recovered));
+        TEST_ASSERT(i == recovered.key);
+        TEST_ASSERT((i % 10 == 0 ? 7 * i : 2 * i) == recovered.a);
+        TEST_ASSERT((i % 10 == 0 ? 8 * i : 3 * i) == recovered.b);
+        TEST_ASSERT((i % 10 == 0 ? 0 : 4 * i) == recovered.c);
+    }
+
+    // Keys that were never loaded are absent. A lookup that reaches neither the key nor an empty slot leaves its
+    // output untouched.
+    for (u64 i = num_keys; i < capacity; ++i)
+    {
+        record recovered;
+        memset(&recovered, 0xff, sizeof(recovered));
+        RETURN_IF_ERROR(ohtable_get(ohtable, i, (u64 *)&recovered));
+        TEST_ASSERT(UINT64_MAX == recovered.key);
+    }
+
+    // The table accepts ordinary updates and inserts after a bulk load
+    for (u64 i = 0; i < 100; ++i)
+    {
+        record r0 = {.key = i, .a = 9 * i};
+        RETURN_IF_ERROR(ohtable_put(ohtable, (const u64 *)&r0));
+    }
+    record inserted = {.key = num_keys, .a = 1};
+    RETURN_IF_ERROR(ohtable_put(ohtable, (const u64 *)&inserted));
+    TEST_ASSERT(ohtable_num_items(ohtable) == num_keys + 1);
+
+    for (u64 i = 0; i <= num_keys; ++i)
+    {
+        record recovered;
+        RETURN_IF_ERROR(ohtable_get(ohtable, i, (u64 *)&recovered));
+        TEST_ASSERT(i == recovered.key);
+        if (i < 100)
+        {
+            TEST_ASSERT(9 * i == recovered.a);
+        }
+    }
+
+    ohtable_destroy(ohtable);
+    return err_SUCCESS;
+}
+
+error_t test_bulk_load_requires_empty_table() {
+    ohtable *ohtable = ohtable_create(1000, 7, TEST_STASH_SIZE, getentropy);
+    size_t capacity = ohtable_capacity(ohtable);
+
+    record* records;
+    CHECK(records = calloc(capacity, sizeof(*records)));
+    records[0] = (record){.key = 1};
+
+    RETURN_IF_ERROR(ohtable_put(ohtable, (const u64 *)&records[0]));
+    TEST_ASSERT(ohtable_bulk_load(ohtable, 1, (u64 *)records) == err_OHTABLE__BULK_LOAD__NOT_EMPTY);
+
+    ohtable_clear(ohtable);
+    for (u64 i = 0; i < capacity; ++i)
+    {
+        records[i] = (record){.key = i};
+    }
+    TEST_ASSERT(ohtable_bulk_load(ohtable, capacity, (u64 *)records) == err_OHTABLE__TABLE_FULL);
+
+    free(records);
+    ohtable_destroy(ohtable);
+    return err_SUCCESS;
+}
+
+error_t test_scan_get_batch() {
+    size_t cap = 30000;
+    ohtable *ohtable = ohtable_create(cap, 7, TEST_STASH_SIZE, getentropy);
+    size_t num_keys = 0.8 * ohtable_capacity(ohtable);
+
+    for (u64 i = 0; i < num_keys; ++i)
+    {
+        record r0 = {.key = 2 * i, .a = 2 * i, .b = 3 * i, .c = 4 * i, .d = 5 * i, .e = 6 * i, .f = 7 * i};
+        RETURN_IF_ERROR(ohtable_put(ohtable, (const u64 *)&r0));
+    }
+
+    // Every other key is absent, some keys are repeated, and the batch is much smaller than a chunk of the table
+    size_t batch_sizes[] = {1, 1000, 5000};
+    for (size_t b = 0; b < sizeof(batch_sizes) / sizeof(batch_sizes[0]); ++b)
+    {
+        size_t num_queries = batch_sizes[b];
+        u64* keys;
+        record* results;
+        CHECK(keys = calloc(num_queries, sizeof(*keys)));
+        CHECK(results = calloc(num_queries, sizeof(*results)));
+        for (size_t i = 0; i < num_queries; ++i)
+        {
+            u64 r;
+            getentropy(&r, sizeof(r));
+            keys[i] = i % 7 == 6 ? keys[i / 2] : r % (2 * num_keys);
+        }
+
+        RETURN_IF_ERROR(ohtable_scan_get_batch(ohtable, num_queries, keys, (u64 *)results));
+
+        for (size_t i = 0; i < num_queries; ++i)
+        {
+            if (keys[i] % 2 == 0)
+            {
+                u64 j = keys[i] / 2;
+                TEST_ASSERT(keys[i] == results[i].key);
+                TEST_ASSERT(2 * j == results[i].a);
+                TEST_ASSERT(3 * j == results[i].b);
+                TEST_ASSERT(7 * j == results[i].f);
+            }
+            else
+            {
+                TEST_ASSERT(UINT64_MAX == results[i].key);
+                TEST_ASSERT(UINT64_MAX == results[i].a);
+                TEST_ASSERT(UINT64_MAX == results[i].f);
+            }
+        }
+        free(keys);
+        free(results);
+    }
+
+    ohtable_destroy(ohtable);
+    return err_SUCCESS;
+}
+
+error_t test_scan_get_is_cheaper() {
+    ohtable *ohtable = ohtable_create(30000, 7, TEST_STASH_SIZE, getentropy);
+
+    TEST_ASSERT(!ohtable_scan_get_is_cheaper(ohtable, 1));
+    TEST_ASSERT(ohtable_scan_get_is_cheaper(ohtable, ohtable_capacity(ohtable)));
+
+    // Once a scan is cheaper, it stays cheaper for larger batches
+    bool cheaper = false;
+    for (size_t num_queries = 1; num_queries <= ohtable_capacity(ohtable); num_queries += 97)
+    {
+        bool scan_cheaper = ohtable_scan_get_is_cheaper(ohtable, num_queries);
+        TEST_ASSERT(scan_cheaper | !cheaper);
+        cheaper = scan_cheaper;
+    }
+
+    ohtable_destroy(ohtable);
+    return err_SUCCESS;
+}
+
 void public_ohtable_tests()
 {
     RUN_TEST(put_get_cycle_works());
     RUN_TEST(loaded_table());
     RUN_TEST(test_ohtable_stats_and_clear());
     RUN_TEST(test_full_table());
+    RUN_TEST(test_bulk_load());
+    RUN_TEST(test_bulk_load_requires_empty_table());
+    RUN_TEST(test_scan_get_batch());
+    RUN_TEST(test_scan_get_is_cheaper());
 }
 
 int main()
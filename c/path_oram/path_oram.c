@@ -132,6 +132,16 @@ size_t oram_capacity_blocks(const oram *oram)
     return oram->capacity_blocks;
 }
 
+size_t oram_num_levels(const oram *oram)
+{
+    return oram->num_levels;
+}
+
+size_t oram_access_count(const oram *oram)
+{
+    return oram->statistics.access_count;
+}
+
 size_t oram_size_bytes(size_t num_levels, size_t num_blocks, size_t stash_overflow_size) {
     size_t num_leaves = (1ul << (num_levels - 1));
     size_t bucket_store_size = (2*num_leaves - 1)*ENCRYPTED_BUCKET_SIZE;
@@ -323,6 +333,31 @@ error_t oram_put_partial(oram *oram, u64 block_id, size_t start, size_t len, u64
     return err_ORAM__ACCESS_UNALLOCATED_BLOCK;
 }
 
+void oram_scan_blocks(const oram* oram, block_visitor_func visitor, void* visitor_args)
+{
+    block bucket_blocks[BLOCKS_PER_BUCKET];
+    size_t num_buckets = tree_path_num_nodes(oram->num_levels);
+    for (u64 bucket_id = 0; bucket_id < num_buckets; ++bucket_id)
+    {
+        bucket_store_read_bucket_blocks(oram->bucket_store, bucket_id, bucket_blocks);
+        for (size_t i = 0; i < BLOCKS_PER_BUCKET; ++i)
+        {
+            visitor(bucket_blocks[i].id, bucket_blocks[i].data, visitor_args);
+        }
+    }
+
+    const block* overflow_blocks = stash_overflow_blocks(oram->stash);
+    for (size_t i = 0; i < stash_overflow_capacity(oram->stash); ++i)
+    {
+        visitor(overflow_blocks[i].id, overflow_blocks[i].data, visitor_args);
+    }
+}
+
+size_t oram_scan_num_blocks(const oram* oram)
+{
+    return tree_path_num_nodes(oram->num_levels) * BLOCKS_PER_BUCKET + stash_overflow_capacity(oram->stash);
+}
+
 u64 oram_allocate_block(oram *oram)
 {
     // Acceptable if: not executed in an oram_access
@@ -11,6 +11,8 @@ typedef struct oram oram;
 
 typedef error_t (*accessor_func)(u64* rw_block_data, void* args);
 
+typedef void (*block_visitor_func)(u64 block_id, const u64* block_data, void* args);
+
 /**
  * @brief Uses available memory to create a new recursive ORAM block store. Implements a modified version of the
  * Path ORAM algorithm (https://eprint.iacr.org/2013/280.pdf) with an ORAM-backed
@@ -67,6 +69,22 @@ size_t oram_block_size(const oram *);
  */
 size_t oram_capacity_blocks(const oram *oram);
 
+/**
+ * @brief Get the number of levels in the ORAM's bucket tree. Every access reads and writes one bucket on each level.
+ *
+ * @param oram
+ * @return size_t
+ */
+size_t oram_num_levels(const oram *oram);
+
+/**
+ * @brief Get the number of accesses made to this ORAM since it was created or last cleared.
+ *
+ * @param oram
+ * @return size_t
+ */
+size_t oram_access_count(const oram *oram);
+
 /**
  * @brief Read a block of data from an ORAM.
  *
@@ -112,6 +130,29 @@ error_t oram_put_partial(oram *, u64 block_id, size_t start, size_t len, u64 dat
  */
 error_t oram_function_access(oram* oram, u64 block_id, accessor_func accessor, void* accessor_args);
 
+/**
+ * @brief Visit every block slot in the ORAM without performing an access: every block of every bucket in the bucket
+ * store, in bucket order, then every slot of the overflow stash. Empty slots are visited too, with a `block_id` of
+ * `UINT64_MAX` and arbitrary data, so the sequence of visits depends only on the size of the tree and of the overflow
+ * stash. Every block that has been written is visited exactly once, with its current data.
+ *
+ * A scan does not change the position of any block. It is the responsibility of the visitor to ensure that no information about the memory is leaked through memory
+ * access patterns.
+ *
+ * @param oram
+ * @param visitor function called once for each slot, with the slot's block ID and data.
+ * @param visitor_args additional arguments for the visitor function.
+ */
+void oram_scan_blocks(const oram* oram, block_visitor_func visitor, void* visitor_args);
+
+/**
+ * @brief Number of slots `oram_scan_blocks` will visit.
+ *
+ * @param oram
+ * @return size_t
+ */
+size_t oram_scan_num_blocks(const oram* oram);
+
 /**
  * @brief Allocate an ORAM block and get the `block_id` for the new block.
  *
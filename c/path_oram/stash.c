@@ -102,6 +102,14 @@ const block* stash_path_blocks(const stash* stash) {
     return stash->path_blocks;
 }
 
+const block* stash_overflow_blocks(const stash* stash) {
+    return stash->overflow_blocks;
+}
+
+size_t stash_overflow_capacity(const stash* stash) {
+    return stash->overflow_capacity;
+}
+
 static void stash_extend_overflow(stash* stash) {
     TEST_LOG("extending overflow from %zu to %zu", stash->overflow_capacity, stash->overflow_capacity + STASH_GROWTH_INCREMENT);
     size_t new_num_blocks = stash->num_blocks + STASH_GROWTH_INCREMENT;
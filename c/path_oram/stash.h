@@ -83,6 +83,17 @@ void stash_build_path(stash* stash, const tree_path* path);
  */
 const block* stash_path_blocks(const stash* stash);
 
+/**
+ * @brief Get a read-only view of every slot in the overflow stash, including empty ones. There are
+ *        `stash_overflow_capacity(stash)` slots.
+ * 
+ * @param stash 
+ * @return const block* 
+ */
+const block* stash_overflow_blocks(const stash* stash);
+
+size_t stash_overflow_capacity(const stash* stash);
+
 /**
  * @brief Clear all items from the stash
  * 
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 
 #include <stdio.h>
+#include <stdlib.h>
 #include <assert.h>
 #include <string.h>
 #include <sys/random.h>
@@ -79,6 +80,70 @@ int test_oram_clear()
     return err_SUCCESS;
 }
 
+typedef struct {
+    size_t num_visits;
+    size_t num_blocks;
+    size_t *visits_per_block;
+    bool data_matches;
+} scan_test_args;
+
+static void scan_test_visitor(u64 block_id, const u64* block_data, void* vargs)
+{
+    scan_test_args* args = vargs;
+    args->num_visits++;
+    if (block_id == EMPTY_BLOCK_ID) return;
+
+    if (block_id >= args->num_blocks) {
+        args->data_matches = false;
+        return;
+    }
+    args->visits_per_block[block_id]++;
+    for (size_t i = 0; i < BLOCK_DATA_SIZE_QWORDS; ++i)
+    {
+        args->data_matches &= block_data[i] == block_id * BLOCK_DATA_SIZE_QWORDS + i;
+    }
+}
+
+int test_scan_blocks()
+{
+    size_t capacity = 1 << 20;
+    size_t num_blocks = 1331;
+    oram *oram = oram_create(capacity, TEST_STASH_SIZE, getentropy);
+    oram_allocate_contiguous(oram, num_blocks);
+
+    for (size_t b = 0; b < num_blocks; ++b)
+    {
+        u64 buf[BLOCK_DATA_SIZE_QWORDS];
+        for (size_t i = 0; i < BLOCK_DATA_SIZE_QWORDS; ++i)
+        {
+            buf[i] = b * BLOCK_DATA_SIZE_QWORDS + i;
+        }
+        RETURN_IF_ERROR(oram_put(oram, b, buf));
+    }
+
+    // shuffle the blocks around some more
+    for (size_t b = 0; b < num_blocks; b += 3)
+    {
+        u64 buf[BLOCK_DATA_SIZE_QWORDS];
+        RETURN_IF_ERROR(oram_get(oram, b, buf));
+    }
+
+    scan_test_args args = {.num_blocks = num_blocks, .data_matches = true};
+    CHECK(args.visits_per_block = calloc(num_blocks, sizeof(*args.visits_per_block)));
+    oram_scan_blocks(oram, scan_test_visitor, &args);
+
+    TEST_ASSERT(args.num_visits == oram_scan_num_blocks(oram));
+    TEST_ASSERT(args.data_matches);
+    for (size_t b = 0; b < num_blocks; ++b)
+    {
+        TEST_ASSERT(args.visits_per_block[b] == 1);
+    }
+
+    free(args.visits_per_block);
+    oram_destroy(oram);
+    return err_SUCCESS;
+}
+
 error_t test_create_for_avail_mem() {
 
     // 2+ GiB
@@ -103,6 +168,7 @@ int main(int argc, char *argv[])
     run_path_oram_tests();
     RUN_TEST(get_put_repeat());
     RUN_TEST(test_oram_clear());
+    RUN_TEST(test_scan_blocks());
     RUN_TEST(test_create_for_avail_mem());
     return 0;
 }
@@ -0,0 +1,237 @@
+// Copyright 2022 Signal Messenger, LLC
+// SPDX-License-Identifier: AGPL-3.0-only
+
+// Compares query throughput and latency of a sharded table whose shard and client threads float freely across cores
+// with one whose threads are pinned the way the JNI shim pins them: each shard to its own core, or all shards to a
+// shared set if there are fewer cores than shards, and client threads (standing in for JNI workers) to the remaining
+// cores.
+//
+// Usage: affinity.bench [shards] [client threads] [seconds per run]
+
+#define _GNU_SOURCE
+
+#include <inttypes.h>
+#include <pthread.h>
+#include <sched.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <sys/random.h>
+
+#include "sharded_ohtable/sharded_ohtable.h"
+#include "util/util.h"
+#include "util/tests.h"
+
+#define RECORD_SIZE_QWORDS 7
+#define RECORDS_PER_SHARD 32768
+#define LOAD 0.8
+#define QUERIES_PER_BATCH 64
+#define MAX_BATCHES_PER_CLIENT (1 << 20)
+
+static u8 hash_key[8] = {233, 144, 89, 55, 34, 21, 13, 8};
+
+typedef struct
+{
+    sharded_ohtable *table;
+    size_t shard_id;
+} shard_args;
+
+typedef struct
+{
+    sharded_ohtable *table;
+    size_t num_records;
+    double seconds;
+    cpu_set_t cpus;
+    bool pin;
+    size_t num_batches;
+    double *latencies;
+} client_args;
+
+static double elapsed_seconds(struct timespec begin, struct timespec end)
+{
+    return (end.tv_sec - begin.tv_sec) + (end.tv_nsec - begin.tv_nsec) / 1000000000.0;
+}
+
+static void *shard_thread(void *input)
+{
+    shard_args *args = input;
+    sharded_ohtable_run_shard(args->table, args->shard_id);
+    return 0;
+}
+
+static void *client_thread(void *input)
+{
+    client_args *args = input;
+    if (args->pin)
+    {
+        CHECK(0 == pthread_setaffinity_np(pthread_self(), sizeof(args->cpus), &args->cpus));
+    }
+
+    u64 keys[QUERIES_PER_BATCH];
+    u64 *results;
+    CHECK(results = calloc(QUERIES_PER_BATCH, RECORD_SIZE_QWORDS * sizeof(*results)));
+
+    struct timespec started, begin, end;
+    clock_gettime(CLOCK_MONOTONIC, &started);
+    end = started;
+    while (elapsed_seconds(started, end) < args->seconds && args->num_batches < MAX_BATCHES_PER_CLIENT)
+    {
+        for (size_t i = 0; i < QUERIES_PER_BATCH; ++i)
+        {
+            u64 r;
+            getentropy(&r, sizeof(r));
+            keys[i] = 1 + r % args->num_records;
+        }
+        clock_gettime(CLOCK_MONOTONIC, &begin);
+        CHECK(err_SUCCESS == sharded_ohtable_get_batch_with_strategy(
+                                 args->table, sharded_ohtable_query_strategy_oram, QUERIES_PER_BATCH, keys, results));
+        clock_gettime(CLOCK_MONOTONIC, &end);
+        args->latencies[args->num_batches++] = elapsed_seconds(begin, end);
+    }
+    free(results);
+    return 0;
+}
+
+static int compare_doubles(const void *a, const void *b)
+{
+    double x = *(const double *)a, y = *(const double *)b;
+    return (x > y) - (x < y);
+}
+
+// Splits the CPUs this process may use into a set for shard threads and a set for everything else. Returns false if
+// there are too few CPUs to dedicate any to shards.
+static bool split_cpus(size_t num_shards, cpu_set_t *shard_cpus, cpu_set_t *other_cpus)
+{
+    cpu_set_t available;
+    CHECK(0 == sched_getaffinity(0, sizeof(available), &available));
+    size_t num_available = CPU_COUNT(&available);
+    if (num_available < 2) return false;
+
+    // Leave at least one core for clients
+    size_t num_shard_cpus = num_shards < num_available - 1 ? num_shards : num_available - 1;
+    CPU_ZERO(shard_cpus);
+    CPU_ZERO(other_cpus);
+    for (size_t cpu = 0, assigned = 0; cpu < CPU_SETSIZE; ++cpu)
+    {
+        if (!CPU_ISSET(cpu, &available)) continue;
+        if (assigned++ < num_shard_cpus)
+        {
+            CPU_SET(cpu, shard_cpus);
+        }
+        else
+        {
+            CPU_SET(cpu, other_cpus);
+        }
+    }
+    return true;
+}
+
+static void pin_shard(pthread_t tid, size_t shard_id, size_t num_shards, const cpu_set_t *shard_cpus)
+{
+    size_t num_cpus = CPU_COUNT(shard_cpus);
+    cpu_set_t cpus = *shard_cpus;
+    if (num_cpus >= num_shards)
+    {
+        // One core per shard
+        CPU_ZERO(&cpus);
+        for (size_t cpu = 0, seen = 0; cpu < CPU_SETSIZE; ++cpu)
+        {
+            if (CPU_ISSET(cpu, shard_cpus) && seen++ == shard_id)
+            {
+                CPU_SET(cpu, &cpus);
+                break;
+            }
+        }
+    }
+    CHECK(0 == pthread_setaffinity_np(tid, sizeof(cpus), &cpus));
+}
+
+static void run_benchmark(const char *mode, bool pin, size_t num_shards, size_t num_clients, double seconds)
+{
+    cpu_set_t shard_cpus, other_cpus;
+    if (pin && !split_cpus(num_shards, &shard_cpus, &other_cpus))
+    {
+        printf("%-10s skipped: pinning needs at least two CPUs\n", mode);
+        return;
+    }
+
+    size_t capacity = num_shards * RECORDS_PER_SHARD;
+    sharded_ohtable *table =
+        sharded_ohtable_create(RECORD_SIZE_QWORDS, capacity, num_shards, hash_key, TEST_STASH_SIZE, getentropy);
+
+    pthread_t shard_tids[num_shards];
+    shard_args shards[num_shards];
+    for (size_t i = 0; i < num_shards; ++i)
+    {
+        shards[i] = (shard_args){.table = table, .shard_id = i};
+        CHECK(0 == pthread_create(&shard_tids[i], NULL, shard_thread, &shards[i]));
+        if (pin) pin_shard(shard_tids[i], i, num_shards, &shard_cpus);
+    }
+
+    size_t num_records = LOAD * capacity;
+    u64 *records;
+    CHECK(records = calloc(num_records, RECORD_SIZE_QWORDS * sizeof(*records)));
+    for (size_t i = 0; i < num_records; ++i)
+    {
+        records[i * RECORD_SIZE_QWORDS] = i + 1;
+    }
+    CHECK(err_SUCCESS == sharded_ohtable_put_batch(table, num_records, records));
+    free(records);
+
+    pthread_t client_tids[num_clients];
+    client_args clients[num_clients];
+    for (size_t i = 0; i < num_clients; ++i)
+    {
+        clients[i] = (client_args){.table = table, .num_records = num_records, .seconds = seconds, .pin = pin};
+        if (pin) clients[i].cpus = other_cpus;
+        CHECK(clients[i].latencies = calloc(MAX_BATCHES_PER_CLIENT, sizeof(double)));
+        CHECK(0 == pthread_create(&client_tids[i], NULL, client_thread, &clients[i]));
+    }
+
+    size_t num_batches = 0;
+    for (size_t i = 0; i < num_clients; ++i)
+    {
+        pthread_join(client_tids[i], NULL);
+        num_batches += clients[i].num_batches;
+    }
+
+    double *latencies;
+    CHECK(latencies = calloc(num_batches, sizeof(*latencies)));
+    for (size_t i = 0, n = 0; i < num_clients; ++i)
+    {
+        memcpy(latencies + n, clients[i].latencies, clients[i].num_batches * sizeof(double));
+        n += clients[i].num_batches;
+        free(clients[i].latencies);
+    }
+    qsort(latencies, num_batches, sizeof(*latencies), compare_doubles);
+
+    printf("%-10s %14.0f %12.1f %12.1f %12.1f\n", mode, num_batches * QUERIES_PER_BATCH / seconds,
+           latencies[num_batches / 2] * 1e6, latencies[num_batches * 99 / 100] * 1e6,
+           latencies[num_batches - 1] * 1e6);
+    free(latencies);
+
+    for (size_t i = 0; i < num_shards; ++i)
+    {
+        sharded_ohtable_stop_shard(table, i);
+        pthread_join(shard_tids[i], NULL);
+    }
+    sharded_ohtable_destroy(table);
+}
+
+int main(int argc, char *argv[])
+{
+    size_t num_shards = argc > 1 ? strtoull(argv[1], NULL, 10) : 4;
+    size_t num_clients = argc > 2 ? strtoull(argv[2], NULL, 10) : 4;
+    double seconds = argc > 3 ? strtod(argv[3], NULL) : 5.0;
+
+    cpu_set_t available;
+    CHECK(0 == sched_getaffinity(0, sizeof(available), &available));
+    printf("%zu shards, %zu client threads, %d CPUs, %.1fs per run, %d keys per batch\n", num_shards, num_clients,
+           CPU_COUNT(&available), seconds, QUERIES_PER_BATCH);
+    printf("%-10s %14s %12s %12s %12s\n", "placement", "queries/s", "p50 (us)", "p99 (us)", "max (us)");
+
+    run_benchmark("unpinned", false, num_shards, num_clients, seconds);
+    run_benchmark("pinned", true, num_shards, num_clients, seconds);
+    return 0;
+}
@@ -7,21 +7,52 @@
 #include "util/util.h"
 #include "queue.h"
 
-#define QUEUE_SIZE 20
+// Must be a power of two so that positions wrap around the ring consistently.
+#define QUEUE_SIZE 64
+// Number of times a blocked reader or writer retries before it parks. Parking
+// inside an enclave costs an OCALL to sleep and another to be woken, so a short
+// spin pays for itself; a long one starves the thread being waited for whenever
+// the two share a core.
+#define QUEUE_SPINS 128
+#define CACHE_LINE_BYTES 64
+
+typedef struct
+{
+    // A slot at ring position `pos` is free for the producer claiming `pos`
+    // when `seq == pos`, and holds that producer's item when `seq == pos + 1`.
+    size_t seq;
+    queue_item item;
+} queue_slot;
+
 struct queue
 {
-    queue_item items[QUEUE_SIZE];
+    // Producers and the consumer each write one of these on every operation;
+    // keep them on separate cache lines.
+    size_t tail;  // next position to be claimed by a producer
+    u8 tail_padding[CACHE_LINE_BYTES - sizeof(size_t)];
+    size_t head;  // next position to be read by the consumer
+    u8 head_padding[CACHE_LINE_BYTES - sizeof(size_t)];
+    size_t max_depth;
+
+    queue_slot items[QUEUE_SIZE];
 
-    size_t num_items;
-    size_t add;
-    size_t rem;
     bool closed;  // when closed, don't accept any more writes
 
+    // Used only to park and wake blocked threads, never to add or remove items.
     pthread_mutex_t mutex;
     pthread_cond_t consumer_con;
     pthread_cond_t producer_con;
+    bool consumer_parked;
+    size_t producers_parked;
 };
 
+static inline void cpu_relax()
+{
+#if defined(__x86_64__) || defined(__i386__)
+    __builtin_ia32_pause();
+#endif
+}
+
 size_t queue_size_bytes() {
     return sizeof(queue);
 }
@@ -31,6 +62,10 @@ queue *queue_create()
     queue *q;
     CHECK(q = calloc(1, sizeof(*q)));
     memset(q, 0, sizeof(*q));
+    for (size_t i = 0; i < QUEUE_SIZE; ++i)
+    {
+        q->items[i].seq = i;
+    }
     pthread_mutex_init(&q->mutex, NULL);
     pthread_cond_init(&q->consumer_con, NULL);
     pthread_cond_init(&q->producer_con, NULL);
@@ -39,7 +74,7 @@ queue *queue_create()
 void queue_close(queue* q)
 {
   pthread_mutex_lock(&q->mutex);
-  q->closed = true;
+  __atomic_store_n(&q->closed, true, __ATOMIC_SEQ_CST);
   pthread_cond_broadcast(&q->producer_con);
   pthread_mutex_unlock(&q->mutex);
 }
@@ -55,50 +90,166 @@ void queue_destroy(queue *q)
     }
 }
 
+size_t queue_depth(const queue *q)
+{
+    // Read head first: it never passes tail, so the difference can't underflow.
+    size_t head = __atomic_load_n(&q->head, __ATOMIC_ACQUIRE);
+    size_t tail = __atomic_load_n(&q->tail, __ATOMIC_ACQUIRE);
+    return tail - head;
+}
+
+size_t queue_max_depth(const queue *q)
+{
+    return __atomic_load_n(&q->max_depth, __ATOMIC_RELAXED);
+}
+
+static void queue_record_depth(queue *q, size_t depth)
+{
+    size_t max_depth = __atomic_load_n(&q->max_depth, __ATOMIC_RELAXED);
+    while (depth > max_depth
+           && !__atomic_compare_exchange_n(&q->max_depth, &max_depth, depth, true, __ATOMIC_RELAXED, __ATOMIC_RELAXED))
+    {
+        // a failed exchange reloads max_depth
+    }
+}
+
+static bool queue_try_add_item(queue *q, queue_item item)
+{
+    size_t pos = __atomic_load_n(&q->tail, __ATOMIC_RELAXED);
+    for (;;)
+    {
+        queue_slot *slot = &q->items[pos % QUEUE_SIZE];
+        size_t seq = __atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE);
+        if (seq == pos)
+        {
+            // The slot is free; claim it by advancing tail. On failure `pos` is
+            // reloaded with the position another producer left behind.
+            if (__atomic_compare_exchange_n(&q->tail, &pos, pos + 1, true, __ATOMIC_RELAXED, __ATOMIC_RELAXED))
+            {
+                slot->item = item;
+                __atomic_store_n(&slot->seq, pos + 1, __ATOMIC_RELEASE);
+                // The consumer may already have read past this item, in which case it didn't wait at all.
+                size_t head = __atomic_load_n(&q->head, __ATOMIC_RELAXED);
+                if (head < pos + 1) queue_record_depth(q, pos + 1 - head);
+                return true;
+            }
+        }
+        else if ((ptrdiff_t)(seq - pos) < 0)
+        {
+            // The slot still holds an item from one lap ago: the queue is full.
+            return false;
+        }
+        else
+        {
+            // Another producer claimed this position; catch up.
+            pos = __atomic_load_n(&q->tail, __ATOMIC_RELAXED);
+        }
+    }
+}
+
+static size_t queue_take_items(queue *q, queue_item items[], size_t max_items)
+{
+    size_t head = __atomic_load_n(&q->head, __ATOMIC_RELAXED);
+    size_t n = 0;
+    while (n < max_items)
+    {
+        queue_slot *slot = &q->items[head % QUEUE_SIZE];
+        if (__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) != head + 1) break;
+        items[n++] = slot->item;
+        // Free the slot for the producer that claims this position on the next lap.
+        __atomic_store_n(&slot->seq, head + QUEUE_SIZE, __ATOMIC_RELEASE);
+        head++;
+    }
+    if (n > 0) __atomic_store_n(&q->head, head, __ATOMIC_RELEASE);
+    return n;
+}
+
+// A thread parks by setting its flag and then checking the queue once more; the
+// other side publishes its change and then checks the flag. The fences ensure
+// that at least one of them sees the other, so a wakeup is never lost.
+static void queue_wake_consumer(queue *q)
+{
+    __atomic_thread_fence(__ATOMIC_SEQ_CST);
+    if (__atomic_load_n(&q->consumer_parked, __ATOMIC_RELAXED))
+    {
+        pthread_mutex_lock(&q->mutex);
+        pthread_cond_signal(&q->consumer_con);
+        pthread_mutex_unlock(&q->mutex);
+    }
+}
+
+static void queue_wake_producers(queue *q)
+{
+    __atomic_thread_fence(__ATOMIC_SEQ_CST);
+    if (__atomic_load_n(&q->producers_parked, __ATOMIC_RELAXED) > 0)
+    {
+        pthread_mutex_lock(&q->mutex);
+        pthread_cond_broadcast(&q->producer_con);
+        pthread_mutex_unlock(&q->mutex);
+    }
+}
+
+static bool queue_full(const queue *q)
+{
+    return queue_depth(q) >= QUEUE_SIZE;
+}
+
 error_t queue_add_item(queue *q, queue_item item)
 {
-    pthread_mutex_lock(&q->mutex);
-    CHECK(q->num_items <= QUEUE_SIZE);
-    while (q->num_items == QUEUE_SIZE && !q->closed)
-    { /* block if buffer is full */
-        pthread_cond_wait(&q->producer_con, &q->mutex);
+    for (size_t spins = 0;; ++spins)
+    {
+        if (__atomic_load_n(&q->closed, __ATOMIC_SEQ_CST)) return err_QUEUE__CLOSED;
+        if (queue_try_add_item(q, item)) break;
+        if (spins < QUEUE_SPINS)
+        {
+            cpu_relax();
+            continue;
+        }
+        pthread_mutex_lock(&q->mutex);
+        __atomic_add_fetch(&q->producers_parked, 1, __ATOMIC_SEQ_CST);
+        __atomic_thread_fence(__ATOMIC_SEQ_CST);
+        while (queue_full(q) && !__atomic_load_n(&q->closed, __ATOMIC_SEQ_CST))
+        { /* block if buffer is full */
+            pthread_cond_wait(&q->producer_con, &q->mutex);
+        }
+        __atomic_sub_fetch(&q->producers_parked, 1, __ATOMIC_SEQ_CST);
+        pthread_mutex_unlock(&q->mutex);
+        spins = 0;
+    }
+    queue_wake_consumer(q);
+    return err_SUCCESS;
+}
+
+size_t queue_next_items(queue *q, queue_item items[], size_t max_items, bool block)
+{
+    size_t n = queue_take_items(q, items, max_items);
+    for (size_t spins = 0; n == 0 && block && spins < QUEUE_SPINS; ++spins)
+    {
+        cpu_relax();
+        n = queue_take_items(q, items, max_items);
     }
-    error_t err = err_SUCCESS;
-    if (q->closed) {
-      err = err_QUEUE__CLOSED;
-    } else {
-      q->items[q->add] = item;
-      q->add = (q->add + 1) % QUEUE_SIZE;
-      q->num_items++;
-      pthread_cond_signal(&q->consumer_con);
+    if (n == 0 && block)
+    {
+        pthread_mutex_lock(&q->mutex);
+        __atomic_store_n(&q->consumer_parked, true, __ATOMIC_SEQ_CST);
+        __atomic_thread_fence(__ATOMIC_SEQ_CST);
+        while (0 == (n = queue_take_items(q, items, max_items)))
+        { /* block if buffer is empty */
+            pthread_cond_wait(&q->consumer_con, &q->mutex);
+        }
+        __atomic_store_n(&q->consumer_parked, false, __ATOMIC_SEQ_CST);
+        pthread_mutex_unlock(&q->mutex);
     }
-    if (q->num_items < QUEUE_SIZE)
+    if (n > 0)
     {
-        pthread_cond_signal(&q->producer_con);
+        queue_wake_producers(q);
     }
-    pthread_mutex_unlock(&q->mutex);
-    return err;
+    return n;
 }
 
 queue_item queue_next_item(queue *q, bool block)
 {
     queue_item result = NULL;
-    pthread_mutex_lock(&q->mutex); /* overflow */
-    if (block || q->num_items > 0) {
-      while (q->num_items == 0)
-      { /* block if buffer is empty */
-          pthread_cond_wait(&q->consumer_con, &q->mutex);
-      }
-      /* if executing here, buffer not empty so remove element */
-      result = q->items[q->rem];
-      q->rem = (q->rem + 1) % QUEUE_SIZE;
-      q->num_items--;
-      pthread_cond_signal(&q->producer_con);
-      if (q->num_items > 0)
-      {
-          pthread_cond_signal(&q->consumer_con);
-      }
-    }
-    pthread_mutex_unlock(&q->mutex);
+    queue_next_items(q, &result, 1, block);
     return result;
 }
@@ -8,9 +8,12 @@
 #include <stdbool.h>
 #include "util/util.h"
 /**
- * @brief A thread-safe blocking FIFO queue. Inserts will block until
- * there is room. Reads will block until items are available.
+ * @brief A thread-safe bounded FIFO queue with many producers and a single
+ * consumer. Adding and removing items is lock-free; a producer that finds the
+ * queue full, or a consumer that finds it empty, spins for a while and then
+ * blocks until it can make progress.
  *
+ * Only one thread may read from a queue at a time.
  */
 
 typedef struct queue queue;
@@ -28,5 +31,15 @@ void queue_close(queue* queue);
 error_t queue_add_item(queue *queue, queue_item item);
 /** Get the next item from the queue, blocking if `block`. */
 queue_item queue_next_item(queue *queue, bool block);
+/**
+ * Get up to `max_items` items from the queue in FIFO order, blocking until at
+ * least one is available if `block`. Returns the number of items written to `items`.
+ */
+size_t queue_next_items(queue *queue, queue_item items[], size_t max_items, bool block);
+
+/** Number of items currently waiting in the queue. */
+size_t queue_depth(const queue *queue);
+/** Largest number of items that have waited in the queue at once. */
+size_t queue_max_depth(const queue *queue);
 
 #endif // LIBORAM_SHARDED_OHTABLE_QUEUE_H
@@ -3,11 +3,16 @@
 
 #include <inttypes.h>
 #include <stdlib.h>
+#include <string.h>
 #include <pthread.h>
+#include <time.h>
 #include "ohtable/ohtable.h"
 #include "shard.h"
 #include "util/util.h"
 
+// Maximum number of requests a shard takes off its queue at once
+#define SHARD_DEQUEUE_BATCH 16
+
 struct shard
 {
     u64 lb;
@@ -16,6 +21,20 @@ struct shard
     int keep_alive;
     ohtable *table;
     queue *requests;
+
+    // records staged for a bulk build of `table`
+    u64 *bulk_records;
+    size_t bulk_num_records;
+    size_t bulk_capacity_records;
+
+    // Written only by the shard thread. Statistics reports read them without synchronization,
+    // like the table's own statistics, and so may see slightly stale values.
+    size_t requests_handled;
+    size_t request_items;
+    size_t max_request_items;
+    u64 wait_nanos;
+    u64 execute_nanos;
+    size_t oram_access_latency_histogram[SHARD_ORAM_LATENCY_BUCKETS];
 };
 
 typedef struct {
@@ -163,13 +182,24 @@ void shard_destroy(shard *shard)
         }
         ohtable_destroy(shard->table);
         queue_destroy(shard->requests);
+        free(shard->bulk_records);
         free(shard);
     }
 }
 
 
 ohtable_statistics* shard_report_ohtable_statisitics(shard* shard) {
-    return ohtable_statistics_create(shard->table);
+    ohtable_statistics* stats = ohtable_statistics_create(shard->table);
+    stats->queue_depth = queue_depth(shard->requests);
+    stats->max_queue_depth = queue_max_depth(shard->requests);
+    stats->requests = shard->requests_handled;
+    stats->request_items = shard->request_items;
+    stats->max_request_items = shard->max_request_items;
+    stats->wait_nanos = shard->wait_nanos;
+    stats->execute_nanos = shard->execute_nanos;
+    memcpy(stats->oram_access_latency_histogram, shard->oram_access_latency_histogram,
+           sizeof(stats->oram_access_latency_histogram));
+    return stats;
 }
 
 sharded_ohtable_request* shard_clear(shard *shard)
@@ -179,12 +209,61 @@ sharded_ohtable_request* shard_clear(shard *shard)
     return r;
 }
 
+static void shard_bulk_discard(shard *shard)
+{
+    free(shard->bulk_records);
+    shard->bulk_records = NULL;
+    shard->bulk_num_records = 0;
+    shard->bulk_capacity_records = 0;
+}
+
 static void shard_do_clear(shard *shard)
 {
+    shard_bulk_discard(shard);
     ohtable_clear(shard->table);
     shard_add_zero_record(shard);
 }
 
+static void shard_bulk_reserve(shard *shard, size_t num_records)
+{
+    if (num_records <= shard->bulk_capacity_records) return;
+
+    // The build needs room for a full table, so reserve that up front; beyond it, grow in small steps since
+    // staging already costs as much memory as the table's records.
+    size_t capacity = ohtable_capacity(shard->table);
+    while (capacity < num_records) capacity += capacity / 8 + 1;
+    CHECK(shard->bulk_records = realloc(shard->bulk_records, capacity * shard->record_size_qwords * sizeof(u64)));
+    shard->bulk_capacity_records = capacity;
+}
+
+static void shard_do_bulk_stage(shard *shard, const u64 *records, size_t num_records)
+{
+    shard_bulk_reserve(shard, shard->bulk_num_records + num_records);
+    memcpy(shard->bulk_records + shard->bulk_num_records * shard->record_size_qwords, records,
+           num_records * shard->record_size_qwords * sizeof(u64));
+    shard->bulk_num_records += num_records;
+}
+
+static error_t shard_do_bulk_build(shard *shard)
+{
+    // Stage the zero record along with everything else; batches are padded with copies of it, so it may
+    // already be staged, and every copy is identical.
+    u64 *zero_record;
+    CHECK(zero_record = calloc(shard->record_size_qwords, sizeof(*zero_record)));
+    shard_do_bulk_stage(shard, zero_record, 1);
+    free(zero_record);
+
+    ohtable_clear(shard->table);
+    error_t err = ohtable_bulk_load(shard->table, shard->bulk_num_records, shard->bulk_records);
+    shard_bulk_discard(shard);
+
+    if (err != err_SUCCESS) {
+        // leave an empty, usable table behind
+        shard_do_clear(shard);
+    }
+    return err;
+}
+
 u64 shard_lb(const shard *shard)
 {
     return shard->lb;
@@ -201,14 +280,23 @@ bool shard_contains(const shard *shard, u64 key)
     return (shard->lb <= key) & (key < shard->ub);
 }
 
-static sharded_ohtable_request *shard_next_request(shard *shard)
+sharded_ohtable_request* shard_insert(shard *shard, const u64 *record, size_t num_records)
 {
-    return (sharded_ohtable_request *)queue_next_item(shard->requests, true);
+    sharded_ohtable_request *r = shard_request_create(shard_request_insert, record, NULL, NULL, num_records);
+    CHECK(err_SUCCESS == queue_add_item(shard->requests, r));
+    return r;
 }
 
-sharded_ohtable_request* shard_insert(shard *shard, const u64 *record, size_t num_records)
+sharded_ohtable_request* shard_bulk_stage(shard *shard, const u64 *record, size_t num_records)
 {
-    sharded_ohtable_request *r = shard_request_create(shard_request_insert, record, NULL, NULL, num_records);
+    sharded_ohtable_request *r = shard_request_create(shard_request_bulk_stage, record, NULL, NULL, num_records);
+    CHECK(err_SUCCESS == queue_add_item(shard->requests, r));
+    return r;
+}
+
+sharded_ohtable_request* shard_bulk_build(shard *shard)
+{
+    sharded_ohtable_request *r = shard_request_create(shard_request_bulk_build, NULL, NULL, NULL, 0);
     CHECK(err_SUCCESS == queue_add_item(shard->requests, r));
     return r;
 }
@@ -220,6 +308,18 @@ sharded_ohtable_request* shard_query(shard *shard, const u64 *key, u64* response
     return r;
 }
 
+sharded_ohtable_request* shard_scan_query(shard *shard, const u64 *key, u64* response, size_t num_queries)
+{
+    sharded_ohtable_request *r = shard_request_create(shard_request_scan_query, key, response, NULL, num_queries);
+    CHECK(err_SUCCESS == queue_add_item(shard->requests, r));
+    return r;
+}
+
+bool shard_scan_query_is_cheaper(const shard *shard, size_t num_queries)
+{
+    return ohtable_scan_get_is_cheaper(shard->table, num_queries);
+}
+
 void shard_handle_request(shard *shard, sharded_ohtable_request *req)
 {
     CHECK(req);
@@ -238,6 +338,18 @@ void shard_handle_request(shard *shard, sharded_ohtable_request *req)
           if (err_SUCCESS != (req->err = ohtable_get(shard->table, req->request[i], req->response + shard->record_size_qwords * i))) break;
         }
         break;
+    case shard_request_scan_query:
+        CHECK(req->request);
+        CHECK(req->response);
+        req->err = ohtable_scan_get_batch(shard->table, req->batch_size, req->request, req->response);
+        break;
+    case shard_request_bulk_stage:
+        CHECK(req->request);
+        shard_do_bulk_stage(shard, req->request, req->batch_size);
+        break;
+    case shard_request_bulk_build:
+        req->err = shard_do_bulk_build(shard);
+        break;
     case shard_request_stop:
         shard->keep_alive = 0;
         break;
@@ -254,18 +366,72 @@ void shard_handle_request(shard *shard, sharded_ohtable_request *req)
     if (req->wait) shard_waiter_finish(req->wait);
 }
 
+static u64 shard_now_nanos()
+{
+    // Inside an enclave, reading the clock is an OCALL; it's read once per request, never per ORAM access.
+    struct timespec ts;
+    if (0 != clock_gettime(CLOCK_MONOTONIC, &ts)) return 0;
+    return (u64)ts.tv_sec * 1000000000 + (u64)ts.tv_nsec;
+}
+
+static void shard_record_request(shard *shard, size_t batch_size, u64 elapsed_nanos, size_t oram_accesses)
+{
+    shard->execute_nanos += elapsed_nanos;
+    if (batch_size > 0)
+    {
+        shard->requests_handled++;
+        shard->request_items += batch_size;
+        shard->max_request_items = batch_size > shard->max_request_items ? batch_size : shard->max_request_items;
+    }
+    if (oram_accesses > 0)
+    {
+        // Every access in a request is oblivious and so takes about as long as any other; attribute
+        // the request's mean access latency to each of them.
+        u64 latency_micros = elapsed_nanos / oram_accesses / 1000;
+        size_t bucket = 0;
+        while (bucket < SHARD_ORAM_LATENCY_BUCKETS - 1
+               && latency_micros >= ((u64)SHARD_ORAM_LATENCY_BUCKET_MICROS << bucket))
+        {
+            bucket++;
+        }
+        shard->oram_access_latency_histogram[bucket] += oram_accesses;
+    }
+}
+
 void shard_run(shard *shard)
 {
+    queue_item reqs[SHARD_DEQUEUE_BATCH];
     shard->keep_alive = 1;
+    u64 now = shard_now_nanos();
     while (shard->keep_alive)
     {
-        sharded_ohtable_request *req = shard_next_request(shard);
-        shard_handle_request(shard, req);
+        size_t num_reqs = queue_next_items(shard->requests, reqs, SHARD_DEQUEUE_BATCH, true);
+        u64 dequeued = shard_now_nanos();
+        shard->wait_nanos += dequeued - now;
+        now = dequeued;
+        // Requests taken off the queue are all handled, even those after a stop, so none is left without a response.
+        for (size_t i = 0; i < num_reqs; ++i)
+        {
+            sharded_ohtable_request *req = reqs[i];
+            // A request may be freed by its submitter as soon as it's handled
+            size_t batch_size = req->batch_size;
+            size_t accesses_before = ohtable_oram_access_count(shard->table);
+
+            shard_handle_request(shard, req);
+
+            // Clearing the table resets its access count
+            size_t accesses_after = ohtable_oram_access_count(shard->table);
+            size_t oram_accesses = accesses_after >= accesses_before ? accesses_after - accesses_before : 0;
+            u64 handled = shard_now_nanos();
+            shard_record_request(shard, batch_size, handled - now, oram_accesses);
+            now = handled;
+        }
     }
 }
 void shard_stop(shard *shard)
 {
-    shard->keep_alive = 0;
+    // Only the shard thread clears keep_alive, when it handles this request; clearing it here
+    // could let the thread exit between batches without ever answering the request.
     shard_request_waiter* w = shard_waiter_create();
     sharded_ohtable_request *req = shard_request_create(shard_request_stop, NULL, NULL, w, 0);
     CHECK(err_SUCCESS == queue_add_item(shard->requests, req));
@@ -290,6 +456,11 @@ static u64 mt_queries[RECORDS_TO_INSERT];
 static u64 mt_responses[RECORD_SIZE_QWORDS * RECORDS_TO_INSERT];
 static sharded_ohtable_request* mt_requests[RECORDS_TO_INSERT];
 
+static sharded_ohtable_request *shard_next_request(shard *shard)
+{
+    return (sharded_ohtable_request *)queue_next_item(shard->requests, true);
+}
+
 static void* consumer_mt(void* v_shard) {
   shard* shard = v_shard;
   for (int i = 0; i < RECORDS_TO_INSERT + /*number of shard_wait calls*/ 1; i++) {
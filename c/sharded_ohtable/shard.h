@@ -25,6 +25,9 @@ typedef enum
     shard_request_stop,
     shard_request_clear,
     shard_request_wait,
+    shard_request_bulk_stage,
+    shard_request_bulk_build,
+    shard_request_scan_query,
 } sharded_ohtable_request_type;
 
 typedef struct sharded_ohtable_request sharded_ohtable_request;
@@ -92,6 +95,24 @@ bool shard_contains(const shard *shard, u64 key);
  */
 sharded_ohtable_request* shard_insert(shard *shard, const u64 *record, size_t num_records);
 
+/**
+ * @brief Stage records for a bulk build of a shard's table. Staged records are not visible
+ * until `shard_bulk_build` is called; clearing the shard discards them.
+ *
+ * @param shard shard to hold records
+ * @param record records to stage.  Copied by the shard; must live longer than the request.
+ * @return async request.  Call shard_wait() before using.
+ */
+sharded_ohtable_request* shard_bulk_stage(shard *shard, const u64 *record, size_t num_records);
+
+/**
+ * @brief Replace a shard's table with one built from all of its staged records in a single pass.
+ *
+ * @param shard shard to build
+ * @return async request.  Call shard_wait() before using.
+ */
+sharded_ohtable_request* shard_bulk_build(shard *shard);
+
 /**
  * @brief Check the table to see if a record is present for a given key.
  *
@@ -103,6 +124,26 @@ sharded_ohtable_request* shard_insert(shard *shard, const u64 *record, size_t nu
  */
 sharded_ohtable_request* shard_query(shard *shard, const u64 *key, u64* response, size_t num_queries);
 
+/**
+ * @brief Look up a batch of keys with a single oblivious scan of the table (see `ohtable_scan_get_batch`).
+ *
+ * @param shard shard to query
+ * @param key keys to lookup.  Must live longer than the request.
+ * @param response where to put the responses for these queries (must match
+ *        backing ohtable's record size).  Must live longer than the request.
+ * @return async request.  Call shard_wait() before using.
+ */
+sharded_ohtable_request* shard_scan_query(shard *shard, const u64 *key, u64* response, size_t num_queries);
+
+/**
+ * @brief Estimate whether a scan query is cheaper than looking up each key of a batch (see
+ * `ohtable_scan_get_is_cheaper`).
+ *
+ * @param shard
+ * @param num_queries Number of keys in the batch.
+ */
+bool shard_scan_query_is_cheaper(const shard *shard, size_t num_queries);
+
 /**
  * @brief Wait synchronously for all previously submitted requests to complete.
  */
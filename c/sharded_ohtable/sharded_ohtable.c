@@ -65,10 +65,12 @@ shard_batched_queries batch_queries(const sharded_ohtable *table, size_t num_que
     size_t response_size_bytes = 0;
     switch (type) {
       case shard_request_query:
+      case shard_request_scan_query:
         query_size_bytes = REQUEST_QUERY_BYTES;
         response_size_bytes = RESPONSE_QUERY_BYTES;
         break;
       case shard_request_insert:
+      case shard_request_bulk_stage:
         query_size_bytes = REQUEST_INSERT_BYTES;
         response_size_bytes = RESPONSE_INSERT_BYTES;
         break;
@@ -145,6 +147,12 @@ shard_batched_queries batch_queries(const sharded_ohtable *table, size_t num_que
                 result.queries + idx * query_size_u64,
                 result.batch_size);
             break;
+          case shard_request_bulk_stage:
+            result.requests[sh] = shard_bulk_stage(
+                shard,
+                result.queries + idx * query_size_u64,
+                result.batch_size);
+            break;
           case shard_request_query:
             result.requests[sh] = shard_query(
                 shard,
@@ -152,6 +160,13 @@ shard_batched_queries batch_queries(const sharded_ohtable *table, size_t num_que
                 result.responses + idx * response_size_u64,
                 result.batch_size);
             break;
+          case shard_request_scan_query:
+            result.requests[sh] = shard_scan_query(
+                shard,
+                result.queries + idx * query_size_u64,
+                result.responses + idx * response_size_u64,
+                result.batch_size);
+            break;
           default:
             CHECK(false);
         }
@@ -264,13 +279,76 @@ error_t sharded_ohtable_put_batch(
     return err;
 }
 
+error_t sharded_ohtable_bulk_put_batch(
+    sharded_ohtable *table,
+    size_t num_inserts,
+    const u64 records[])
+{
+    // Records reach each shard's staging area exactly as they would reach its table in a put, padded
+    // to the same size for every shard.
+    shard_batched_queries batches = batch_queries(table, num_inserts, records, shard_request_bulk_stage);
+    error_t err = err_SUCCESS;
+    for (size_t sh = 0; sh < batches.num_shards; sh++) {
+      sharded_ohtable_request* req = batches.requests[sh];
+      if (err_SUCCESS != (err = shard_request_error(req))) break;
+    }
+    batched_destroy(&batches);
+    return err;
+}
+
+error_t sharded_ohtable_bulk_build(sharded_ohtable *table)
+{
+    sharded_ohtable_request** requests;
+    CHECK(requests = calloc(table->num_shards, sizeof(*requests)));
+
+    // Shards build their tables in parallel
+    for (size_t sh = 0; sh < table->num_shards; sh++) {
+      requests[sh] = shard_bulk_build(table->shards[sh]);
+    }
+    for (size_t sh = 0; sh < table->num_shards; sh++) {
+      shard_wait(table->shards[sh]);
+    }
+
+    error_t err = err_SUCCESS;
+    for (size_t sh = 0; sh < table->num_shards; sh++) {
+      if (err == err_SUCCESS) err = shard_request_error(requests[sh]);
+      shard_request_destroy(requests[sh]);
+    }
+    free(requests);
+    return err;
+}
+
+sharded_ohtable_query_strategy sharded_ohtable_choose_query_strategy(const sharded_ohtable *table, size_t num_queries)
+{
+    // Every shard answers at least its share of the batch; how the keys are actually distributed is secret
+    size_t queries_per_shard = (num_queries + table->num_shards - 1) / table->num_shards;
+    bool scan_cheaper = queries_per_shard > 0;
+    for (size_t sh = 0; sh < table->num_shards; sh++) {
+      scan_cheaper &= shard_scan_query_is_cheaper(table->shards[sh], queries_per_shard);
+    }
+    return scan_cheaper ? sharded_ohtable_query_strategy_scan : sharded_ohtable_query_strategy_oram;
+}
+
 error_t sharded_ohtable_get_batch(
     const sharded_ohtable *table,
     size_t num_queries,
     u64 keys[num_queries],
     u64 results[])
 {
-    shard_batched_queries batches = batch_queries(table, num_queries, keys, shard_request_query);
+    sharded_ohtable_query_strategy strategy = sharded_ohtable_choose_query_strategy(table, num_queries);
+    return sharded_ohtable_get_batch_with_strategy(table, strategy, num_queries, keys, results);
+}
+
+error_t sharded_ohtable_get_batch_with_strategy(
+    const sharded_ohtable *table,
+    sharded_ohtable_query_strategy strategy,
+    size_t num_queries,
+    u64 keys[num_queries],
+    u64 results[])
+{
+    sharded_ohtable_request_type type =
+        strategy == sharded_ohtable_query_strategy_scan ? shard_request_scan_query : shard_request_query;
+    shard_batched_queries batches = batch_queries(table, num_queries, keys, type);
     error_t err = err_SUCCESS;
     size_t idx = 0;
     memset(results, 0xff, RESPONSE_QUERY_BYTES * num_queries);
@@ -9,6 +9,17 @@
 
 typedef struct sharded_ohtable sharded_ohtable;
 
+/**
+ * @brief How a batch of queries is answered.
+ */
+typedef enum
+{
+    // An ORAM lookup for each key
+    sharded_ohtable_query_strategy_oram = 0,
+    // A single oblivious scan of each shard's table, joined with all of the keys at once
+    sharded_ohtable_query_strategy_scan = 1,
+} sharded_ohtable_query_strategy;
+
 /**
  * @brief Uses available memory to create sharded oblivious hashtable.
  * 
@@ -83,6 +94,31 @@ void sharded_ohtable_stop_shard(sharded_ohtable *table, size_t shard_id);
  */
 error_t sharded_ohtable_put_batch(sharded_ohtable *table, size_t num_inserts, const u64 records[]);
 
+/**
+ * @brief Stage multiple records for a bulk build of the table. Staged records are not visible until
+ * `sharded_ohtable_bulk_build` is called, and clearing the table discards them.
+ *
+ * @param table Stage the records for this table.
+ * @param num_inserts Number of records to stage.
+ * @param records Records to stage, laid out in an array of `num_inserts * record_size_qwords` `u64`s.
+ * @return err_SUCCESS if successful
+ */
+error_t sharded_ohtable_bulk_put_batch(sharded_ohtable *table, size_t num_inserts, const u64 records[]);
+
+/**
+ * @brief Replace the contents of every shard's table with a table built from the records staged for it by
+ * `sharded_ohtable_bulk_put_batch`, as if they had been put in the order they were staged. Each shard builds its
+ * table in a single pass (see `ohtable_bulk_load`) instead of upserting its records one at a time. Blocks.
+ *
+ * In addition to the memory used by the tables, staging uses memory for every staged record (including the padding
+ * that hides which shard each record belongs to) and building needs room for a full table's worth of records and
+ * their sort keys; it is all released once the table has been built.
+ *
+ * @param table
+ * @return err_SUCCESS if successful. If a shard could not be built, that shard's table is left empty.
+ */
+error_t sharded_ohtable_bulk_build(sharded_ohtable *table);
+
 /**
  * @brief Retrieve multiple items from the table.
  *
@@ -97,6 +133,30 @@ error_t sharded_ohtable_put_batch(sharded_ohtable *table, size_t num_inserts, co
  */
 error_t sharded_ohtable_get_batch(const sharded_ohtable *table, size_t num_queries, u64 keys[num_queries], u64 results[]);
 
+/**
+ * @brief Choose the cheaper strategy for answering a batch of queries. The choice depends only on the number of
+ * queries and the size of the table, never on the keys or the table's contents. Scans are chosen only if they are
+ * cheaper for every shard.
+ *
+ * @param table Table that will be queried.
+ * @param num_queries Number of keys in the batch.
+ * @return sharded_ohtable_query_strategy
+ */
+sharded_ohtable_query_strategy sharded_ohtable_choose_query_strategy(const sharded_ohtable *table, size_t num_queries);
+
+/**
+ * @brief Retrieve multiple items from the table with the given strategy. `sharded_ohtable_get_batch` uses the
+ * strategy chosen by `sharded_ohtable_choose_query_strategy`; results are the same with either strategy.
+ *
+ * @param table Get records from this table.
+ * @param strategy How the queries are answered.
+ * @param num_queries Number of record keys being passed.
+ * @param keys Keys of the records being requested.
+ * @param results As for `sharded_ohtable_get_batch`.
+ * @return err_SUCCESS if successful
+ */
+error_t sharded_ohtable_get_batch_with_strategy(const sharded_ohtable *table, sharded_ohtable_query_strategy strategy, size_t num_queries, u64 keys[num_queries], u64 results[]);
+
 /**
  * @brief Collect health statistics for each shard's table. 
  * 
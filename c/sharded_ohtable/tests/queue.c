@@ -119,6 +119,102 @@ int test_closed_write()
     return 0;
 }
 
+int test_batched_read()
+{
+    queue *q = queue_create();
+
+    int data[10] = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    for (int i = 0; i < 10; ++i)
+    {
+        TEST_ERR(queue_add_item(q, data + i));
+    }
+    TEST_ASSERT(10 == queue_depth(q));
+
+    queue_item items[8];
+    TEST_ASSERT(8 == queue_next_items(q, items, 8, true));
+    for (int i = 0; i < 8; ++i)
+    {
+        TEST_ASSERT(*(int *)items[i] == data[i]);
+    }
+    TEST_ASSERT(2 == queue_depth(q));
+
+    TEST_ASSERT(2 == queue_next_items(q, items, 8, false));
+    TEST_ASSERT(*(int *)items[0] == data[8]);
+    TEST_ASSERT(*(int *)items[1] == data[9]);
+    TEST_ASSERT(0 == queue_next_items(q, items, 8, false));
+
+    TEST_ASSERT(0 == queue_depth(q));
+    TEST_ASSERT(10 == queue_max_depth(q));
+
+    queue_destroy(q);
+    return err_SUCCESS;
+}
+
+#define NUM_PRODUCERS 4
+
+typedef struct
+{
+    queue *q;
+    // values of the form producer_id * NUM_TEST_INSERTS + i
+    int data[NUM_TEST_INSERTS];
+} producer_args;
+
+void *tagged_producer(void *in)
+{
+    producer_args *args = in;
+    for (size_t i = 0; i < NUM_TEST_INSERTS; ++i)
+    {
+        TEST_ERR(queue_add_item(args->q, args->data + i));
+    }
+    return 0;
+}
+
+int test_multiple_producers()
+{
+    queue *q = queue_create();
+
+    pthread_t prod_tids[NUM_PRODUCERS];
+    producer_args *args;
+    CHECK(args = calloc(NUM_PRODUCERS, sizeof(*args)));
+    for (int p = 0; p < NUM_PRODUCERS; ++p)
+    {
+        args[p].q = q;
+        for (int i = 0; i < NUM_TEST_INSERTS; ++i)
+        {
+            args[p].data[i] = p * NUM_TEST_INSERTS + i;
+        }
+        pthread_create(&prod_tids[p], NULL, tagged_producer, args + p);
+    }
+
+    // Items from different producers interleave, but each producer's items arrive in order.
+    int next[NUM_PRODUCERS] = {0};
+    size_t received = 0;
+    queue_item items[SMALL_INSERT_BATCH_SIZE];
+    while (received < NUM_PRODUCERS * NUM_TEST_INSERTS)
+    {
+        size_t n = queue_next_items(q, items, SMALL_INSERT_BATCH_SIZE, true);
+        for (size_t i = 0; i < n; ++i)
+        {
+            int value = *(int *)items[i];
+            int p = value / NUM_TEST_INSERTS;
+            TEST_ASSERT(value % NUM_TEST_INSERTS == next[p]);
+            next[p]++;
+        }
+        received += n;
+    }
+
+    for (int p = 0; p < NUM_PRODUCERS; ++p)
+    {
+        pthread_join(prod_tids[p], NULL);
+        TEST_ASSERT(next[p] == NUM_TEST_INSERTS);
+    }
+    TEST_ASSERT(0 == queue_depth(q));
+
+    free(args);
+    queue_destroy(q);
+    return err_SUCCESS;
+}
+
 int main()
 {
     init_test_data();
@@ -126,5 +222,7 @@ int main()
     RUN_TEST(test_multi_thread_read_then_write());
     RUN_TEST(test_nonblocking_read());
     RUN_TEST(test_closed_write());
+    RUN_TEST(test_batched_read());
+    RUN_TEST(test_multiple_producers());
     return 0;
 }
@@ -6,6 +6,7 @@
 #include <stdlib.h>
 #include <string.h>
 #include <sys/random.h>
+#include "ohtable/ohtable.h"
 #include "sharded_ohtable/shard.h"
 #include "util/util.h"
 #include "util/tests.h"
@@ -118,6 +119,21 @@ int test_shard_load()
         shard_request_destroy(mt_requests[i]);
     }
 
+    ohtable_statistics* stats = shard_report_ohtable_statisitics(shard);
+    TEST_ASSERT(stats->requests == 2 * RECORDS_TO_INSERT);
+    TEST_ASSERT(stats->request_items == 2 * RECORDS_TO_INSERT);
+    TEST_ASSERT(stats->max_request_items == 1);
+    TEST_ASSERT(stats->execute_nanos > 0);
+    TEST_ASSERT(stats->queue_depth == 0);
+    size_t histogram_accesses = 0;
+    for (size_t i = 0; i < SHARD_ORAM_LATENCY_BUCKETS; ++i) {
+        histogram_accesses += stats->oram_access_latency_histogram[i];
+    }
+    // every access but the ones that inserted the zero records at creation was made by a request
+    TEST_ASSERT(histogram_accesses >= 2 * RECORDS_TO_INSERT);
+    TEST_ASSERT(histogram_accesses < stats->oram_access_count);
+    ohtable_statistics_destroy(stats);
+
     shard_stop(shard);
 
     void *worker_retval;
@@ -142,6 +142,47 @@ int test_insert_query_load()
     return err_SUCCESS;
 }
 
+int test_scan_query()
+{
+    prepare_queries_and_inserts();
+
+    sharded_ohtable *table = sharded_ohtable_create(RECORD_SIZE_QWORDS, 100000, NUM_SHARDS, hash_key, TEST_STASH_SIZE, getentropy);
+    pthread_t shard_tids[NUM_SHARDS];
+    for (size_t i = 0; i < NUM_SHARDS; ++i)
+    {
+        shard_tids[i] = start_shard_thread(table, i);
+    }
+
+    TEST_ERR(sharded_ohtable_put_batch(table, RECORDS_TO_INSERT, insert_records));
+
+    // Small batches are answered with ORAM lookups, and batches as large as the table with scans
+    TEST_ASSERT(sharded_ohtable_choose_query_strategy(table, 1) == sharded_ohtable_query_strategy_oram);
+    TEST_ASSERT(sharded_ohtable_choose_query_strategy(table, 100000) == sharded_ohtable_query_strategy_scan);
+
+    u64 results[RECORD_SIZE_QWORDS * RECORDS_TO_INSERT];
+
+    TEST_ERR(sharded_ohtable_get_batch_with_strategy(table, sharded_ohtable_query_strategy_scan, RECORDS_TO_INSERT, queries, results));
+    TEST_ASSERT(validate_all_matches(results, queries, RECORDS_TO_INSERT));
+
+    TEST_ERR(sharded_ohtable_get_batch_with_strategy(table, sharded_ohtable_query_strategy_scan, RECORDS_TO_INSERT, notfound_queries, results));
+    for (int i = 0; i < RECORDS_TO_INSERT; i++) {
+      TEST_ASSERT(results[i*RECORD_SIZE_QWORDS] == UINT64_MAX);
+    }
+
+    TEST_ERR(sharded_ohtable_get_batch_with_strategy(table, sharded_ohtable_query_strategy_scan, RECORDS_TO_INSERT / 2, queries, results));
+    TEST_ASSERT(validate_all_matches(results, queries, RECORDS_TO_INSERT / 2));
+
+    for (size_t i = 0; i < NUM_SHARDS; ++i)
+    {
+        sharded_ohtable_stop_shard(table, i);
+        pthread_join(shard_tids[i], 0);
+    }
+
+    sharded_ohtable_destroy(table);
+
+    return err_SUCCESS;
+}
+
 int test_large_load()
 {
     prepare_queries_and_inserts();
@@ -230,6 +271,89 @@ int test_large_load()
 }
 
 
+int test_bulk_build()
+{
+    prepare_queries_and_inserts();
+
+    sharded_ohtable *table = sharded_ohtable_create(RECORD_SIZE_QWORDS, 50000, NUM_SHARDS, hash_key, TEST_STASH_SIZE, getentropy);
+    pthread_t shard_tids[NUM_SHARDS];
+    for (size_t i = 0; i < NUM_SHARDS; ++i)
+    {
+        shard_tids[i] = start_shard_thread(table, i);
+    }
+
+    // records put before a bulk build are replaced by the built table
+    TEST_ERR(sharded_ohtable_put_batch(table, RECORDS_TO_INSERT, insert_records));
+
+    // stage the first half of the records, then all of them with new values
+    TEST_ERR(sharded_ohtable_bulk_put_batch(table, RECORDS_TO_INSERT / 2, insert_records));
+    u64 updated_records[RECORD_SIZE_QWORDS * RECORDS_TO_INSERT];
+    memcpy(updated_records, insert_records, sizeof(updated_records));
+    for (size_t i = 0; i < RECORDS_TO_INSERT; ++i)
+    {
+        updated_records[RECORD_SIZE_QWORDS * i + 1] = i + 1;
+    }
+    TEST_ERR(sharded_ohtable_bulk_put_batch(table, RECORDS_TO_INSERT, updated_records));
+
+    // staged records aren't visible until the table is built
+    u64 results[RECORD_SIZE_QWORDS * RECORDS_TO_INSERT];
+    TEST_ERR(sharded_ohtable_get_batch(table, RECORDS_TO_INSERT, queries, results));
+    for (size_t i = 0; i < RECORDS_TO_INSERT; ++i)
+    {
+        TEST_ASSERT(results[RECORD_SIZE_QWORDS * i + 1] == 0);
+    }
+
+    TEST_ERR(sharded_ohtable_bulk_build(table));
+
+    TEST_ERR(sharded_ohtable_get_batch(table, RECORDS_TO_INSERT, queries, results));
+    TEST_ASSERT(validate_all_matches(results, queries, RECORDS_TO_INSERT));
+    for (size_t j = 0; j < RECORDS_TO_INSERT; ++j)
+    {
+        for (size_t i = 0; i < RECORDS_TO_INSERT; ++i)
+        {
+            if (results[RECORD_SIZE_QWORDS * j] == queries[i])
+            {
+                TEST_ASSERT(results[RECORD_SIZE_QWORDS * j + 1] == i + 1);
+            }
+        }
+    }
+
+    TEST_ERR(sharded_ohtable_get_batch(table, RECORDS_TO_INSERT, notfound_queries, results));
+    for (int i = 0; i < RECORDS_TO_INSERT; i++) {
+      TEST_ASSERT(results[i*RECORD_SIZE_QWORDS] == UINT64_MAX);
+    }
+
+    // the table takes ordinary puts once built
+    TEST_ERR(sharded_ohtable_put_batch(table, RECORDS_TO_INSERT, insert_records));
+    TEST_ERR(sharded_ohtable_get_batch(table, RECORDS_TO_INSERT, queries, results));
+    TEST_ASSERT(validate_all_matches(results, queries, RECORDS_TO_INSERT));
+    for (size_t i = 0; i < RECORDS_TO_INSERT; ++i)
+    {
+        TEST_ASSERT(results[RECORD_SIZE_QWORDS * i + 1] == 0);
+    }
+
+    ohtable_statistics** stats = sharded_ohtable_report_statistics(table);
+    size_t num_items = 0;
+    for (size_t i = 0; i < NUM_SHARDS; ++i)
+    {
+        num_items += stats[i]->num_items;
+        ohtable_statistics_destroy(stats[i]);
+    }
+    free(stats);
+    // every shard also holds the zero record
+    TEST_ASSERT(num_items == RECORDS_TO_INSERT + NUM_SHARDS);
+
+    for (size_t i = 0; i < NUM_SHARDS; ++i)
+    {
+        sharded_ohtable_stop_shard(table, i);
+        pthread_join(shard_tids[i], 0);
+    }
+
+    sharded_ohtable_destroy(table);
+
+    return err_SUCCESS;
+}
+
 int test_create_for_mem()
 {
     prepare_queries_and_inserts();
@@ -285,7 +409,9 @@ int test_create_for_mem()
 int main()
 {
     RUN_TEST(test_insert_query_load());
+    RUN_TEST(test_scan_query());
     RUN_TEST(test_large_load());
+    RUN_TEST(test_bulk_build());
     RUN_TEST(test_create_for_mem());
     return 0;
 }
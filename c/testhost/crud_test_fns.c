@@ -232,10 +232,11 @@ int run(enclave_client_state *ecs, size_t num_triples, e164_pni_aci_triple *trip
     uint8_t *out;
     CHECK(out = calloc(out_size, 1));
     size_t actual_out_size = 0;
+    uint32_t query_strategy = 0;
 
     result = enclave_run(ecs->enclave, &retval, ecs->client_id,
                          0, buf_inout.size, ct_buf,
-                         out_size, out, &actual_out_size);
+                         out_size, out, &actual_out_size, &query_strategy);
 
     if (result != OE_OK)
     {
@@ -419,11 +419,12 @@ int test_invalid_client_ids(oe_enclave_t* enclave)
     uint8_t in_buf[8];
     uint8_t out_buf[8];
     size_t out_buf_size = sizeof(out_buf);
+    uint32_t query_strategy = 0;
     int retval = err_SUCCESS;
 
     TEST_LOG("Trying client call with invalid client ID");
     ENCLAVE_TEST_ASSERT(0 == enclave_run(
-        enclave, &retval, 123, 0, sizeof(in_buf), in_buf, out_buf_size, out_buf, &out_buf_size));
+        enclave, &retval, 123, 0, sizeof(in_buf), in_buf, out_buf_size, out_buf, &out_buf_size, &query_strategy));
     ENCLAVE_TEST_ASSERT(err_ENCLAVE__GENERAL__CLIENT_GET_FAILED == retval);
 
     TEST_LOG("Trying client close with invalid client ID");
@@ -39,6 +39,7 @@ typedef enum {
   err_ENCLAVE__LOADPB__SECRET_TOO_LARGE,
   err_ENCLAVE__LOADPB__TUPLES_INVALID,
   err_ENCLAVE__LOADPB__REQUEST_PB_DECODE,
+  err_ENCLAVE__LOADPB__BULK_LOAD_STATE,
 
   err_ENCLAVE__NEWCLIENT__ = 300,  // enclave_new_client
   err_ENCLAVE__NEWCLIENT__EREPORT_TOO_LARGE,
@@ -88,6 +89,7 @@ typedef enum {
   err_OHTABLE__GET__FAILURE,
   err_OHTABLE__ROBIN_HOOD_UPSERT__RECORD_EMPTY,
   err_OHTABLE__TABLE_FULL,
+  err_OHTABLE__BULK_LOAD__NOT_EMPTY,
 
   err_ENCLAVE__RETRYRESPONSE__ = 1000,
   err_ENCLAVE__RETRYRESPONSE__RESPONSE_PB_ENCODE,
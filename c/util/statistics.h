@@ -6,6 +6,11 @@
 
 #include "int_types.h"
 
+// Bucket i of a shard's ORAM access latency histogram counts accesses faster than
+// SHARD_ORAM_LATENCY_BUCKET_MICROS << i microseconds that don't fit an earlier bucket; the last
+// bucket counts everything slower.
+#define SHARD_ORAM_LATENCY_BUCKET_MICROS 8
+#define SHARD_ORAM_LATENCY_BUCKETS 10
 
 typedef struct {
     size_t recursion_depth;
@@ -38,6 +43,19 @@ typedef struct {
     size_t posmap_sum_stash_overflow_count;
     double posmap_stash_overflow_ema10k; // exponential moving average of posmap_stash_overflow_count with weight half-life of 100 accesses 
 
+    // Request queue statistics for the shard that owns the table
+    size_t queue_depth;
+    size_t max_queue_depth;
+
+    // Activity statistics for the shard thread that owns the table
+    size_t requests; // requests carrying records or keys
+    size_t request_items; // sum of those requests' batch sizes
+    size_t max_request_items;
+    u64 wait_nanos; // time spent waiting for requests
+    u64 execute_nanos; // time spent handling requests
+    // ORAM accesses by the mean access latency of the request that made them; see SHARD_ORAM_LATENCY_BUCKET_MICROS
+    size_t oram_access_latency_histogram[SHARD_ORAM_LATENCY_BUCKETS];
+
 } ohtable_statistics;
 
 #endif // _CDSI_STATISTICS_H
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.aws;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding account updates from the Kinesis stream consumed by {@link DynamoDbAccountPopulator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KinesisRecordBenchmark {
+
+  // configured the same way as DynamoDbAccountPopulator's mapper
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+      .configure(DeserializationFeature.FAIL_ON_NULL_CREATOR_PROPERTIES, false)
+      .configure(DeserializationFeature.FAIL_ON_MISSING_CREATOR_PROPERTIES, false);
+
+  private final String e164 = "+18005550123";
+  private String accountJson;
+
+  @Setup
+  public void setUp() throws JsonProcessingException {
+    accountJson = OBJECT_MAPPER.writeValueAsString(
+        new Account(18005550123L, UUID.randomUUID(), UUID.randomUUID(), new byte[16], true));
+  }
+
+  @Benchmark
+  public long e164FromString() {
+    return DynamoDbAccountPopulator.e164FromString(e164);
+  }
+
+  @Benchmark
+  public Account decodeAccount() throws JsonProcessingException {
+    return OBJECT_MAPPER.readValue(accountJson, Account.class);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.auth;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micronaut.security.authentication.AuthenticationResponse;
+import io.micronaut.security.authentication.UsernamePasswordCredentials;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.signal.cdsi.auth.ExternalServiceTokenAuthenticationProvider.TimestampAndSignature;
+import org.signal.cdsi.limits.AllowAllLeakyBucketRateLimiter;
+import org.signal.cdsi.limits.LeakyBucketRateLimitConfiguration;
+import org.signal.cdsi.limits.RateLimitedKeyCache;
+import reactor.core.publisher.Mono;
+
+/**
+ * Measures verifying the external service credentials presented with every discovery request. The
+ * {@code isValidSignatureNewMac} baseline verifies a signature the way the provider used to, creating and initializing
+ * a new {@link Mac} for every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenAuthenticationBenchmark {
+
+  private static final String USERNAME = "12345678901234567890123456789012";
+
+  // zero disables the verified credential cache, so every authentication verifies a signature
+  @Param({"0", "100000"})
+  private long verifiedCredentialCacheSize;
+
+  private ExternalServiceTokenAuthenticationProvider authenticationProvider;
+
+  private byte[] sharedSecret;
+  private String token;
+  private TimestampAndSignature timestampAndSignature;
+  private UsernamePasswordCredentials credentials;
+
+  @Setup
+  public void setUp() throws InvalidKeyException, NoSuchAlgorithmException {
+    sharedSecret = new byte[32];
+    ThreadLocalRandom.current().nextBytes(sharedSecret);
+
+    final AuthenticationConfiguration configuration = new AuthenticationConfiguration();
+    configuration.setSharedSecret(Base64.getEncoder().encodeToString(sharedSecret));
+    configuration.setTokenExpiration(Duration.ofDays(1));
+    configuration.setVerifiedCredentialCacheSize(verifiedCredentialCacheSize);
+
+    final Clock clock = Clock.systemUTC();
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    authenticationProvider = new ExternalServiceTokenAuthenticationProvider(configuration,
+        meterRegistry,
+        new AllowAllLeakyBucketRateLimiter(new LeakyBucketRateLimitConfiguration(
+            ExternalServiceTokenAuthenticationProvider.CONNECTIONS_RATE_LIMITER_NAME)),
+        new RateLimitedKeyCache(clock, meterRegistry, 1000, Duration.ofHours(1)),
+        clock);
+
+    final long epochSeconds = clock.instant().getEpochSecond();
+    final Mac mac = Mac.getInstance(ExternalServiceTokenAuthenticationProvider.ALGORITHM);
+    mac.init(new SecretKeySpec(sharedSecret, ExternalServiceTokenAuthenticationProvider.ALGORITHM));
+
+    final byte[] signature =
+        Arrays.copyOf(mac.doFinal((USERNAME + ":" + epochSeconds).getBytes(StandardCharsets.UTF_8)), 10);
+
+    token = epochSeconds + ":" + HexFormat.of().formatHex(signature);
+    timestampAndSignature = ExternalServiceTokenAuthenticationProvider.parseToken(token);
+    credentials = new UsernamePasswordCredentials(USERNAME, token);
+  }
+
+  @Benchmark
+  public TimestampAndSignature parseToken() {
+    return ExternalServiceTokenAuthenticationProvider.parseToken(token);
+  }
+
+  @Benchmark
+  public boolean isValidSignature() {
+    return authenticationProvider.isValidSignature(USERNAME,
+        timestampAndSignature.timestamp(), timestampAndSignature.signature());
+  }
+
+  @Benchmark
+  public boolean isValidSignatureNewMac() throws NoSuchAlgorithmException, InvalidKeyException {
+    final Mac hmac = Mac.getInstance(ExternalServiceTokenAuthenticationProvider.ALGORITHM);
+    hmac.init(new SecretKeySpec(sharedSecret, ExternalServiceTokenAuthenticationProvider.ALGORITHM));
+
+    final String prefix = USERNAME + ":" + timestampAndSignature.timestamp().getEpochSecond();
+
+    final byte[] ourSuffix = Arrays.copyOf(hmac.doFinal(prefix.getBytes()), 10);
+    return MessageDigest.isEqual(ourSuffix, timestampAndSignature.signature());
+  }
+
+  @Benchmark
+  public AuthenticationResponse authenticate() {
+    return Mono.from(authenticationProvider.authenticate(null, credentials)).block();
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks headlessly, accepting the usual JMH command-line options, but writing results as JSON to
+ * {@value #DEFAULT_RESULT_FILE} unless told otherwise so that results can be compared between builds.
+ */
+public class BenchmarkRunner {
+
+  static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(final String... args) throws CommandLineOptionException, RunnerException, IOException {
+    final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+    if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList()) {
+      // defer to JMH's own handling of informational options
+      Main.main(args);
+      return;
+    }
+
+    final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+
+    if (!commandLineOptions.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+
+    if (!commandLineOptions.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT_FILE);
+    }
+
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.signal.cdsi.proto.EnclaveLoad;
+import org.signal.cdsi.util.UUIDUtil;
+
+/**
+ * Measures encoding directory entries into the message passed to the enclave by {@link Enclave#loadData}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryEntryBenchmark {
+
+  // account updates from the stream arrive in batches of up to a few thousand
+  @Param({"1", "4096"})
+  private int entryCount;
+
+  private List<DirectoryEntry> entries;
+  private DirectoryEntry entry;
+  private final ByteString tokenSecret = ByteString.copyFrom("benchmark-token-secret", StandardCharsets.UTF_8);
+
+  @Setup
+  public void setUp() {
+    entries = new ArrayList<>(entryCount);
+
+    for (int i = 0; i < entryCount; i++) {
+      final long e164 = 18005550000L + i;
+      entries.add(i % 10 == 0
+          ? DirectoryEntry.deletionEntry(e164)
+          : new DirectoryEntry(e164, randomUuid(), randomUuid(), randomUuid()));
+    }
+
+    entry = new DirectoryEntry(18005550123L, randomUuid(), randomUuid(), randomUuid());
+  }
+
+  private static byte[] randomUuid() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    return UUIDUtil.toByteArray(new UUID(random.nextLong(), random.nextLong()));
+  }
+
+  @Benchmark
+  public ByteString writeTo() throws InvalidEntryException, IOException {
+    try (final ByteString.Output output = ByteString.newOutput()) {
+      entry.writeTo(output);
+      return output.toByteString();
+    }
+  }
+
+  /**
+   * Mirrors the encoding done by {@link Enclave#loadData}, which can't itself run without an enclave.
+   */
+  @Benchmark
+  public EnclaveLoad loadDataEncoding() throws InvalidEntryException, IOException {
+    try (final ByteString.Output triples = ByteString.newOutput()) {
+      for (final DirectoryEntry directoryEntry : entries) {
+        directoryEntry.writeTo(triples);
+      }
+
+      return EnclaveLoad.newBuilder()
+          .setE164AciPniUakTuples(triples.toByteString())
+          .setClearAll(false)
+          .setSharedTokenSecret(tokenSecret)
+          .build();
+    }
+  }
+}
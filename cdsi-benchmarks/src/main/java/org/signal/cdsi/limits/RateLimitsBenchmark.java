@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimitsBenchmark {
+
+  private final TokenRateLimitConfiguration configuration = new TokenRateLimitConfiguration();
+  private final Instant now = Instant.now();
+  private final Instant lastUpdated = now.minusSeconds(30);
+
+  @Setup
+  public void setUp() {
+    configuration.setBucketSize(5000);
+    configuration.setLeakRateScalar(100);
+    configuration.setLeakRateDuration(Duration.ofSeconds(1));
+  }
+
+  @Benchmark
+  public double calculateBucketUtilization() throws RateLimitExceededException {
+    return RateLimits.calculateBucketUtilization(configuration, lastUpdated, now, 3000, 500);
+  }
+
+  @Benchmark
+  public Duration calculateBucketUtilizationExceeded() {
+    try {
+      RateLimits.calculateBucketUtilization(configuration, lastUpdated, now, 4900, 2000);
+      throw new AssertionError("Expected bucket to overflow");
+    } catch (final RateLimitExceededException e) {
+      return e.getRetryDuration();
+    }
+  }
+}
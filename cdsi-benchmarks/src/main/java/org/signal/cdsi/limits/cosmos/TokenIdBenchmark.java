@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.cosmos;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures deriving cosmos item IDs from token hashes, which happens for every prepared and validated token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenIdBenchmark {
+
+  private ByteBuffer heapTokenHash;
+  private ByteBuffer directTokenHash;
+
+  @Setup
+  public void setUp() {
+    final byte[] hash = new byte[32];
+    ThreadLocalRandom.current().nextBytes(hash);
+
+    heapTokenHash = ByteBuffer.wrap(hash);
+    // token hashes produced by the enclave live in direct buffers
+    directTokenHash = ByteBuffer.allocateDirect(hash.length).put(hash).flip();
+  }
+
+  @Benchmark
+  public String base64EncodeHeap() {
+    return CosmosTokenRateLimiter.base64Encode(heapTokenHash);
+  }
+
+  @Benchmark
+  public String base64EncodeDirect() {
+    return CosmosTokenRateLimiter.base64Encode(directTokenHash);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares resolving a counter from the registry on every use with resolving it once through {@link EnumMeters} or
+ * {@link MeterCache}. Every benchmark increments the same counter, identified by the same name and tags.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeterLookupBenchmark {
+
+  private static final String COUNTER_NAME = MetricsUtil.name(MeterLookupBenchmark.class, "counter");
+  private static final String OUTCOME_TAG_NAME = "outcome";
+
+  private enum Outcome {
+    SUCCESS,
+    FAILURE
+  }
+
+  private final Tag successTag = Tag.of(OUTCOME_TAG_NAME, "success");
+  private final Tag platformTag = Tag.of("platform", "android");
+
+  private SimpleMeterRegistry meterRegistry;
+  private EnumMeters<Outcome, Counter> enumMeters;
+  private MeterCache<Tag, Counter> meterCache;
+
+  @Setup
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    enumMeters = new EnumMeters<>(Outcome.class, outcome -> meterRegistry.counter(COUNTER_NAME,
+        Tags.of(Tag.of(OUTCOME_TAG_NAME, outcome.name().toLowerCase()), platformTag)));
+    meterCache = new MeterCache<>(tag -> meterRegistry.counter(COUNTER_NAME, Tags.of(successTag, tag)));
+  }
+
+  @Benchmark
+  public Counter registryLookup() {
+    final Counter counter = meterRegistry.counter(COUNTER_NAME, Tags.of(successTag, platformTag));
+    counter.increment();
+    return counter;
+  }
+
+  @Benchmark
+  public Counter enumMeters() {
+    final Counter counter = enumMeters.get(Outcome.SUCCESS);
+    counter.increment();
+    return counter;
+  }
+
+  @Benchmark
+  public Counter meterCache() {
+    final Counter counter = meterCache.get(platformTag);
+    counter.increment();
+    return counter;
+  }
+}
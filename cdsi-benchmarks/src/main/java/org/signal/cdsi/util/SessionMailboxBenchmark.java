@@ -0,0 +1,219 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares running a session's steps through a {@link SessionMailbox} with chaining them onto a
+ * {@link CompletableFuture}, which is how websocket sessions were previously sequenced.
+ * <p>
+ * The {@code mailbox} and {@code futureChain} benchmarks measure the time per step; run them with {@code -prof gc} to
+ * see allocation per step as {@code gc.alloc.rate.norm}. The {@code *Memory} benchmarks open
+ * {@value #LIVE_SESSIONS} sessions that are each waiting on an asynchronous step with another step queued behind it,
+ * and report the bytes allocated (on any thread) and the heap retained per session as auxiliary counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionMailboxBenchmark {
+
+  private static final int STEPS = 1024;
+  private static final int LIVE_SESSIONS = 100_000;
+
+  private ExecutorService executor;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class SessionMemory {
+
+    public long allocatedBytesPerSession;
+    public long retainedBytesPerSession;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      allocatedBytesPerSession = 0;
+      retainedBytesPerSession = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STEPS)
+  public void mailbox() throws InterruptedException {
+    final SessionMailbox mailbox = new SessionMailbox(executor);
+    final CountDownLatch done = new CountDownLatch(STEPS);
+
+    for (int i = 0; i < STEPS; i++) {
+      mailbox.post(() -> {
+        done.countDown();
+        return null;
+      });
+    }
+
+    done.await();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STEPS)
+  public void futureChain() {
+    CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+
+    // Like the old WebSocketHandler, each step is composed synchronously and runs on whichever thread completes the
+    // previous one
+    for (int i = 0; i < STEPS; i++) {
+      chain = chain.thenCompose(ignored -> CompletableFuture.completedFuture(null));
+    }
+
+    chain.join();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public Object mailboxMemory(final SessionMemory memory) throws InterruptedException {
+    final CompletableFuture<Void>[] pendingSteps = newPendingSteps();
+    final SessionMailbox[] sessions = new SessionMailbox[LIVE_SESSIONS];
+    final CountDownLatch started = new CountDownLatch(LIVE_SESSIONS);
+
+    final long retainedBefore = usedHeap();
+    final long allocatedBefore = allocatedBytes();
+
+    for (int i = 0; i < LIVE_SESSIONS; i++) {
+      final CompletableFuture<Void> pendingStep = pendingSteps[i];
+
+      sessions[i] = new SessionMailbox(executor);
+      sessions[i].post(() -> {
+        started.countDown();
+        return pendingStep;
+      });
+      sessions[i].post(() -> null);
+    }
+
+    // make sure every session is actually waiting on its first step, rather than still sitting in the executor's queue
+    started.await();
+
+    recordSessionMemory(memory, allocatedBefore, retainedBefore);
+    finishPendingSteps(pendingSteps);
+
+    return sessions;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public Object futureChainMemory(final SessionMemory memory) {
+    final CompletableFuture<Void>[] pendingSteps = newPendingSteps();
+    @SuppressWarnings("unchecked") final CompletableFuture<Void>[] sessions = new CompletableFuture[LIVE_SESSIONS];
+
+    final long retainedBefore = usedHeap();
+    final long allocatedBefore = allocatedBytes();
+
+    for (int i = 0; i < LIVE_SESSIONS; i++) {
+      final CompletableFuture<Void> pendingStep = pendingSteps[i];
+
+      sessions[i] = CompletableFuture.completedFuture(null);
+      sessions[i] = sessions[i].thenCompose(ignored -> pendingStep);
+      sessions[i] = sessions[i].thenCompose(ignored -> CompletableFuture.completedFuture(null));
+    }
+
+    recordSessionMemory(memory, allocatedBefore, retainedBefore);
+    finishPendingSteps(pendingSteps);
+
+    return sessions;
+  }
+
+  // stands in for the asynchronous work (e.g. an enclave call) each session is waiting on; not counted against sessions
+  private static CompletableFuture<Void>[] newPendingSteps() {
+    @SuppressWarnings("unchecked") final CompletableFuture<Void>[] pendingSteps = new CompletableFuture[LIVE_SESSIONS];
+
+    for (int i = 0; i < LIVE_SESSIONS; i++) {
+      pendingSteps[i] = new CompletableFuture<>();
+    }
+
+    return pendingSteps;
+  }
+
+  private static void finishPendingSteps(final CompletableFuture<Void>[] pendingSteps) {
+    for (final CompletableFuture<Void> pendingStep : pendingSteps) {
+      pendingStep.complete(null);
+    }
+  }
+
+  private static void recordSessionMemory(final SessionMemory memory, final long allocatedBefore,
+      final long retainedBefore) {
+
+    memory.allocatedBytesPerSession = (allocatedBytes() - allocatedBefore) / LIVE_SESSIONS;
+    memory.retainedBytesPerSession = (usedHeap() - retainedBefore) / LIVE_SESSIONS;
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by all live threads, including the executor's workers.
+   */
+  private static long allocatedBytes() {
+    final com.sun.management.ThreadMXBean threadMXBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    long allocatedBytes = 0;
+
+    for (final long allocated : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+      // -1 marks threads that exited since their IDs were listed
+      allocatedBytes += Math.max(allocated, 0);
+    }
+
+    return allocatedBytes;
+  }
+
+  /**
+   * Returns the heap occupied by reachable objects, collecting garbage first so that only live objects are counted.
+   */
+  private static long usedHeap() {
+    final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+
+    return memoryMXBean.getHeapMemoryUsage().getUsed();
+  }
+}
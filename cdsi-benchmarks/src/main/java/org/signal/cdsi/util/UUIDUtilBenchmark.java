@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.util;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UUIDUtilBenchmark {
+
+  private final UUID uuid = UUID.randomUUID();
+
+  @Benchmark
+  public ByteString toByteString() {
+    return UUIDUtil.toByteString(uuid);
+  }
+
+  @Benchmark
+  public byte[] toByteArray() {
+    return UUIDUtil.toByteArray(uuid);
+  }
+
+  @Benchmark
+  public ByteBuffer toByteBuffer() {
+    return UUIDUtil.toByteBuffer(uuid);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.util;
+
+import io.micrometer.core.instrument.Tag;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserAgentUtilBenchmark {
+
+  @Param({
+      "Signal-Android/6.2.3 Android/30",
+      "Signal-iOS/6.10.0.1 iOS/16.1",
+      "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36",
+  })
+  private String userAgent;
+
+  @Benchmark
+  public Tag platformFromHeader() {
+    return UserAgentUtil.platformFromHeader(userAgent);
+  }
+}
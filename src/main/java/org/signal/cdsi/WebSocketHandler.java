@@ -5,18 +5,15 @@
 
 package org.signal.cdsi;
 
-import static org.signal.cdsi.metrics.MetricsUtil.name;
-
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import io.micrometer.core.annotation.Counted;
-import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
-import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.Timer.Sample;
+import io.micronaut.http.HttpRequest;
 import io.micronaut.http.annotation.Header;
 import io.micronaut.runtime.http.scope.RequestScope;
 import io.micronaut.security.annotation.Secured;
@@ -27,13 +24,19 @@ import io.micronaut.websocket.annotation.OnClose;
 import io.micronaut.websocket.annotation.OnMessage;
 import io.micronaut.websocket.annotation.OnOpen;
 import io.micronaut.websocket.annotation.ServerWebSocket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import jakarta.inject.Named;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.Nullable;
+import org.signal.cdsi.WebSocketMetrics.EnclaveErrorSource;
+import org.signal.cdsi.WebSocketMetrics.EnclaveOperation;
 import org.signal.cdsi.enclave.CdsiEnclaveException;
 import org.signal.cdsi.enclave.Enclave;
 import org.signal.cdsi.enclave.EnclaveClient;
@@ -41,8 +44,14 @@ import org.signal.cdsi.enclave.EnclaveClient.State;
 import org.signal.cdsi.enclave.EnclaveException;
 import org.signal.cdsi.enclave.OpenEnclaveException;
 import org.signal.cdsi.limits.RateLimitExceededException;
+import org.signal.cdsi.limits.RateLimitedKeyCache;
 import org.signal.cdsi.limits.RetryAfterMessage;
+import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.trace.SessionTrace;
+import org.signal.cdsi.trace.SessionTrace.Stage;
+import org.signal.cdsi.trace.SessionTraceRecorder;
 import org.signal.cdsi.util.CompletionExceptions;
+import org.signal.cdsi.util.SessionMailbox;
 import org.signal.cdsi.util.UserAgentUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,35 +69,37 @@ public class WebSocketHandler {
       .configure(DeserializationFeature.FAIL_ON_NULL_CREATOR_PROPERTIES, false)
       .configure(DeserializationFeature.FAIL_ON_MISSING_CREATOR_PROPERTIES, false);
 
-  private static final String CLOSE_COUNTER_NAME = name(WebSocketHandler.class, "close");
-  private static final String SESSION_TIMER_NAME = name(WebSocketHandler.class, "session");
-  private static final String ENCLAVE_OP_TIMER_NAME = name(WebSocketHandler.class, "enclaveOperation");
-  private static final String OPEN_WEBSOCKET_GAUGE_NAME = name(WebSocketHandler.class, "openWebsockets");
-  private static final String ENCLAVE_ERROR_CODES_COUNTER_NAME = name(WebSocketHandler.class, "enclaveErrorCodes");
-  private static final String ENCLAVE_ERROR_CODES_TAG_CODE = "code";
-
-  private static final AtomicInteger OPEN_WEBSOCKET_COUNT = new AtomicInteger(0);
+  static final String SESSION_EXECUTOR_NAME = "websocket-session";
 
   private final Enclave enclave;
   private EnclaveClient client;
-  private final MeterRegistry meterRegistry;
+  private final WebSocketMetrics metrics;
+  private final RateLimitedKeyCache rateLimitedKeyCache;
+  private final TokenRateLimiter tokenRateLimiter;
+  private final SessionTraceRecorder sessionTraceRecorder;
   private String userId;
   private Tag platformTag;
 
-  // `chain` is an in-order chain of events done by this websocket.  Each websocket
-  // action (open, message, close) resets the chain by adding steps to it.  This
-  // guarantees in-order execution of events.
-  private CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+  // Each websocket event (open, message, close) posts a step to the mailbox, which runs them one at a time, each after
+  // the previous one's asynchronous work has finished. This guarantees in-order execution of events.
+  private final SessionMailbox mailbox;
   private boolean closed = false;
 
   // records the duration of this websocket session
   private Sample sessionSample;
+  private final WebSocketSessionEvent sessionEvent = new WebSocketSessionEvent();
+  private SessionTrace trace;
+  private int closeCode;
 
-  public WebSocketHandler(Enclave enclave, MeterRegistry meterRegistry) {
+  public WebSocketHandler(Enclave enclave, WebSocketMetrics metrics, RateLimitedKeyCache rateLimitedKeyCache,
+      TokenRateLimiter tokenRateLimiter, SessionTraceRecorder sessionTraceRecorder,
+      @Named(SESSION_EXECUTOR_NAME) ExecutorService sessionExecutor) {
     this.enclave = enclave;
-    this.meterRegistry = meterRegistry;
-
-    this.meterRegistry.gauge(OPEN_WEBSOCKET_GAUGE_NAME, OPEN_WEBSOCKET_COUNT);
+    this.mailbox = new SessionMailbox(sessionExecutor);
+    this.metrics = metrics;
+    this.rateLimitedKeyCache = rateLimitedKeyCache;
+    this.tokenRateLimiter = tokenRateLimiter;
+    this.sessionTraceRecorder = sessionTraceRecorder;
   }
 
   /** If the websocket has not already been closed, close it erroneously. */
@@ -111,18 +122,17 @@ public class WebSocketHandler {
 
     // See https://grpc.github.io/grpc/core/md_doc_statuscodes.html
     if (cause instanceof RateLimitExceededException rle) {
+      rateLimitedKeyCache.recordRateLimited(userId, rle.getRetryDuration());
       closeReason = new CloseReason(4008, retryAfterCloseReason(rle.getRetryDuration()));
     } else if (cause instanceof IOException) {
       closeReason = new CloseReason(4014, cause.getMessage());
     } else if (cause instanceof IllegalArgumentException) {
       closeReason = new CloseReason(4003, cause.getMessage());
     } else if (cause instanceof CdsiEnclaveException enclaveException) {
-      meterRegistry.counter(ENCLAVE_ERROR_CODES_COUNTER_NAME, List.of(
-          Tag.of(ENCLAVE_ERROR_CODES_TAG_CODE, "cdsi_" + enclaveException.getCode()), platformTag)).increment();
+      metrics.enclaveErrorCounter(EnclaveErrorSource.CDSI, enclaveException.getCode(), platformTag).increment();
       closeReason = new CloseReason(statusCodeFromCdsiEnclaveException(enclaveException), cause.getMessage());
     } else if (cause instanceof OpenEnclaveException enclaveException) {
-      meterRegistry.counter(ENCLAVE_ERROR_CODES_COUNTER_NAME, List.of(
-          Tag.of(ENCLAVE_ERROR_CODES_TAG_CODE, "oe_" + enclaveException.getCode()), platformTag)).increment();
+      metrics.enclaveErrorCounter(EnclaveErrorSource.OPEN_ENCLAVE, enclaveException.getCode(), platformTag).increment();
       closeReason = new CloseReason(4013, cause.getMessage());
     } else {
       closeReason = new CloseReason(4013, cause.getMessage());
@@ -168,39 +178,65 @@ public class WebSocketHandler {
 
   @OnOpen
   @Counted("cdsi.WebSocketHandler.onOpen.count")
-  public void onOpen(final WebSocketSession session, String enclaveId, @Nullable @Header("User-Agent") String userAgentString) {
+  public void onOpen(final WebSocketSession session, String enclaveId,
+      @Nullable @Header("User-Agent") String userAgentString, final HttpRequest<?> request) {
     logger.trace("Opening websocket session for {} for enclave={}", session.getId(), enclaveId);
-    OPEN_WEBSOCKET_COUNT.incrementAndGet();
+    metrics.websocketOpened();
+
+    // the trace is normally started as soon as the request arrives, so it covers authentication and load shedding
+    this.trace = request.getAttribute(SessionTrace.REQUEST_ATTRIBUTE, SessionTrace.class)
+        .orElseGet(sessionTraceRecorder::startTrace);
 
     this.userId = session.getUserPrincipal().get().getName();
     this.platformTag = UserAgentUtil.platformFromHeader(userAgentString);
     this.sessionSample = Timer.start();
-    chain = chain
-        .thenCompose(v -> enclave.newClient(userId))
+
+    sessionEvent.begin();
+    sessionEvent.sessionId = session.getId();
+    sessionEvent.platform = platformTag.getValue();
+    trace.setSession(session.getId(), platformTag.getValue());
+
+    final Optional<Duration> knownRetryDuration = rateLimitedKeyCache.getRetryDuration(userId);
+    if (knownRetryDuration.isPresent()) {
+      // This user is known to still be rate limited; turn them away before doing any enclave work
+      logger.debug("Websocket for session {} closed due to known rate limit", session.getId());
+      closed = true;
+      this.close(session, new CloseReason(4008, retryAfterCloseReason(knownRetryDuration.get())));
+      return;
+    }
+
+    // Start loading rate limit state now so it's ready by the time the client has completed its handshake
+    tokenRateLimiter.prefetch(userId);
+
+    mailbox.post(() -> trace.trace(Stage.NEW_CLIENT, () -> enclave.newClient(userId, trace))
         .thenCompose(client -> {
           WebSocketHandler.this.client = client;
-          return session.sendAsync(client.getEreport());
+          sessionEvent.bytesSent += client.getEreport().remaining();
+          trace.recordMessage(false, client.getEreport().remaining());
+          return trace.trace(Stage.SEND, () -> session.sendAsync(client.getEreport()));
         })
-        .thenAccept(ignore -> {})
-        .exceptionally(err -> closeWithError(session, err));
+        .exceptionally(err -> {
+          closeWithError(session, err);
+          return null;
+        }));
   }
 
 
   @OnMessage(maxPayloadLength = 10<<20)
-  public void onMessage(final WebSocketSession session, final byte[] message) {
+  public void onMessage(final WebSocketSession session, final ByteBuf message) {
     logger.trace("Received websocket message for userId {} on session {}", userId, session.getId());
-    final ByteBuffer msg = ByteBuffer.allocateDirect(message.length).put(message).flip();
-    chain = chain
-        .thenCompose(v -> {
-          logger.trace("Processing websocket message for userId {} on session {}", userId, session.getId());
-          return switch (client.getState()) {
-            case UNINITIALIZED -> time("handshake", client.handshake(msg));
-            case ATTESTED -> time("rateLimit", client.rateLimit(msg));
-            case RATELIMIT -> time("complete", client.complete(msg));
-            default -> throw new IllegalStateException("Enclave client received message in invalid state");
-          };
-        })
-        .thenCompose(response -> session.sendAsync(response))
+
+    // The frame is released as soon as this method returns, so hold our own reference until the enclave is done with
+    // it. The enclave can read a single direct buffer in place; anything else (e.g. a message that arrived in several
+    // fragments) gets copied into one.
+    final ByteBuf msg = message.isDirect() && message.nioBufferCount() == 1
+        ? message.retainedSlice()
+        : ByteBufAllocator.DEFAULT.directBuffer(message.readableBytes())
+            .writeBytes(message, message.readerIndex(), message.readableBytes());
+
+    mailbox.post(() -> processMessage(session, msg)
+        .whenComplete((ignored, cause) -> msg.release())
+        .thenCompose(response -> send(session, response))
         .thenAccept(v -> {
           logger.trace("Client state: {}", client.getState());
           if (client.getState() == State.COMPLETE) {
@@ -209,7 +245,34 @@ public class WebSocketHandler {
             closed = true;
           }
         })
-        .exceptionally(err -> closeWithError(session, err));
+        .exceptionally(err -> closeWithError(session, err)));
+  }
+
+  private CompletableFuture<ByteBuf> processMessage(final WebSocketSession session, final ByteBuf msg) {
+    logger.trace("Processing websocket message for userId {} on session {}", userId, session.getId());
+
+    if (client == null) {
+      // the enclave client was never created (opening the session failed), so there's nothing to process this with
+      return CompletableFuture.failedFuture(new IllegalStateException("Received message without an enclave client"));
+    }
+
+    sessionEvent.bytesReceived += msg.readableBytes();
+    trace.recordMessage(true, msg.readableBytes());
+
+    final ByteBuffer request = msg.nioBuffer();
+    try {
+      return switch (client.getState()) {
+        case UNINITIALIZED ->
+            time(EnclaveOperation.HANDSHAKE, trace.trace(Stage.HANDSHAKE, () -> client.handshake(request)))
+                .thenApply(Unpooled::wrappedBuffer);
+        case ATTESTED ->
+            time(EnclaveOperation.RATE_LIMIT, client.rateLimit(request)).thenApply(Unpooled::wrappedBuffer);
+        case RATELIMIT -> time(EnclaveOperation.COMPLETE, client.complete(request));
+        default -> throw new IllegalStateException("Enclave client received message in invalid state");
+      };
+    } catch (final RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
   }
 
   private static class ClosedEarlyException extends Exception {}
@@ -217,30 +280,50 @@ public class WebSocketHandler {
   @OnClose
   public void onClose(final WebSocketSession session) {
     logger.trace("Closing websocket session {} for userId {}", session.getId(), userId);
-    OPEN_WEBSOCKET_COUNT.decrementAndGet();
-
-    chain = chain
-        .thenApply(v -> closeWithError(session, new ClosedEarlyException()))
-        .thenAccept(ignored -> sessionSample.stop(meterRegistry.timer(SESSION_TIMER_NAME, Tags.of(platformTag))));
-    // We use whenComplete to make sure that even if issues arise with other parts of processing,
-    // the closeAsync method will be called.  Note also that we don't check for or wait for it to
-    // complete, we just start it.
-    chain.whenComplete((v, e) -> {
-      if (client != null) {
-        client.closeAsync();
+    metrics.websocketClosed();
+
+    mailbox.post(() -> {
+      try {
+        closeWithError(session, new ClosedEarlyException());
+        sessionSample.stop(metrics.sessionTimer(platformTag));
+
+        sessionEvent.finalState = client != null ? client.getState().name() : "NONE";
+        sessionEvent.commit();
+
+        trace.finish(closeCode, client != null ? client.getState().name() : null);
+        sessionTraceRecorder.sessionFinished(trace);
+      } finally {
+        // Make sure that even if issues arise with other parts of processing, the closeAsync method will be called.
+        // Note also that we don't check for or wait for it to complete, we just start it.
+        if (client != null) {
+          client.closeAsync();
+        }
+      }
+      return null;
+    });
+  }
+
+  private CompletableFuture<ByteBuf> send(final WebSocketSession session, final ByteBuf response) {
+    sessionEvent.bytesSent += response.readableBytes();
+    trace.recordMessage(false, response.readableBytes());
+
+    return trace.trace(Stage.SEND, () -> session.sendAsync(response)).whenComplete((ignored, cause) -> {
+      // Netty releases frames it has tried to write, but if we never got that far, the response is still ours
+      if (cause != null && response.refCnt() > 0) {
+        response.release();
       }
     });
   }
 
-  private <T> CompletableFuture<T> time(String operationName, CompletableFuture<T> future) {
+  private <T> CompletableFuture<T> time(EnclaveOperation operation, CompletableFuture<T> future) {
     Sample start = Timer.start();
-    return future.whenComplete((ignored1, ignored2) ->
-        start.stop(meterRegistry.timer(ENCLAVE_OP_TIMER_NAME, "type", operationName)));
+    return future.whenComplete((ignored1, ignored2) -> start.stop(metrics.enclaveOperationTimer(operation)));
   }
 
   private void close(WebSocketSession session, CloseReason closeReason) {
-    this.meterRegistry.counter(CLOSE_COUNTER_NAME, "closeCode", Integer.toString(closeReason.getCode()))
-        .increment();
+    metrics.closeCounter(closeReason.getCode()).increment();
+    closeCode = closeReason.getCode();
+    sessionEvent.closeCode = closeCode;
     session.close(closeReason);
   }
 }
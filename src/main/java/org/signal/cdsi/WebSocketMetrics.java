@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.signal.cdsi.metrics.EnumMeters;
+import org.signal.cdsi.metrics.MeterCache;
+
+/**
+ * Meters for {@link WebSocketHandler}. Handlers are created for each websocket session, so the meters they record to
+ * are resolved once here rather than looked up by every session.
+ */
+@Singleton
+class WebSocketMetrics {
+
+  private static final String CLOSE_COUNTER_NAME = name(WebSocketHandler.class, "close");
+  private static final String SESSION_TIMER_NAME = name(WebSocketHandler.class, "session");
+  private static final String ENCLAVE_OP_TIMER_NAME = name(WebSocketHandler.class, "enclaveOperation");
+  private static final String OPEN_WEBSOCKET_GAUGE_NAME = name(WebSocketHandler.class, "openWebsockets");
+  private static final String ENCLAVE_ERROR_CODES_COUNTER_NAME = name(WebSocketHandler.class, "enclaveErrorCodes");
+  private static final String ENCLAVE_ERROR_CODES_TAG_CODE = "code";
+
+  enum EnclaveOperation {
+    HANDSHAKE("handshake"),
+    RATE_LIMIT("rateLimit"),
+    COMPLETE("complete");
+
+    private final String tagValue;
+
+    EnclaveOperation(final String tagValue) {
+      this.tagValue = tagValue;
+    }
+  }
+
+  enum EnclaveErrorSource {
+    CDSI("cdsi_"),
+    OPEN_ENCLAVE("oe_");
+
+    private final String codePrefix;
+
+    EnclaveErrorSource(final String codePrefix) {
+      this.codePrefix = codePrefix;
+    }
+  }
+
+  private record EnclaveErrorKey(EnclaveErrorSource source, int code, Tag platformTag) {}
+
+  private final AtomicInteger openWebsocketCount;
+
+  private final MeterCache<Integer, Counter> closeCounters;
+  private final MeterCache<Tag, Timer> sessionTimers;
+  private final MeterCache<EnclaveErrorKey, Counter> enclaveErrorCounters;
+  private final EnumMeters<EnclaveOperation, Timer> enclaveOperationTimers;
+
+  WebSocketMetrics(final MeterRegistry meterRegistry) {
+    openWebsocketCount = meterRegistry.gauge(OPEN_WEBSOCKET_GAUGE_NAME, new AtomicInteger(0));
+
+    closeCounters = new MeterCache<>(closeCode ->
+        meterRegistry.counter(CLOSE_COUNTER_NAME, "closeCode", Integer.toString(closeCode)));
+
+    sessionTimers = new MeterCache<>(platformTag -> meterRegistry.timer(SESSION_TIMER_NAME, Tags.of(platformTag)));
+
+    enclaveErrorCounters = new MeterCache<>(key -> meterRegistry.counter(ENCLAVE_ERROR_CODES_COUNTER_NAME, List.of(
+        Tag.of(ENCLAVE_ERROR_CODES_TAG_CODE, key.source().codePrefix + key.code()), key.platformTag())));
+
+    enclaveOperationTimers = new EnumMeters<>(EnclaveOperation.class,
+        operation -> meterRegistry.timer(ENCLAVE_OP_TIMER_NAME, "type", operation.tagValue));
+  }
+
+  void websocketOpened() {
+    openWebsocketCount.incrementAndGet();
+  }
+
+  void websocketClosed() {
+    openWebsocketCount.decrementAndGet();
+  }
+
+  Counter closeCounter(final int closeCode) {
+    return closeCounters.get(closeCode);
+  }
+
+  Timer sessionTimer(final Tag platformTag) {
+    return sessionTimers.get(platformTag);
+  }
+
+  Counter enclaveErrorCounter(final EnclaveErrorSource source, final int code, final Tag platformTag) {
+    return enclaveErrorCounters.get(new EnclaveErrorKey(source, code, platformTag));
+  }
+
+  Timer enclaveOperationTimer(final EnclaveOperation operation) {
+    return enclaveOperationTimers.get(operation);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A flight recorder event for a websocket session, lasting from when the session opens until it has been closed.
+ */
+@Name(WebSocketSessionEvent.NAME)
+@Label("WebSocket Session")
+@Category({"CDSI", "WebSocket"})
+@StackTrace(false)
+@Threshold("1 s")
+public class WebSocketSessionEvent extends Event {
+
+  public static final String NAME = "org.signal.cdsi.WebSocketSession";
+
+  @Label("Session ID")
+  String sessionId;
+
+  @Label("Platform")
+  String platform;
+
+  @Label("Final State")
+  @Description("The state of the session's enclave client when the session closed")
+  String finalState;
+
+  @Label("Close Code")
+  int closeCode;
+
+  @Label("Bytes Received")
+  @DataAmount
+  long bytesReceived;
+
+  @Label("Bytes Sent")
+  @DataAmount
+  long bytesSent;
+}
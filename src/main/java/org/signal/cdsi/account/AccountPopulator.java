@@ -5,9 +5,26 @@
 
 package org.signal.cdsi.account;
 
+import java.util.concurrent.CompletableFuture;
+import org.signal.cdsi.enclave.DirectoryLoader;
+
 public interface AccountPopulator {
 
   boolean hasFinishedInitialAccountPopulation();
 
   boolean isHealthy();
+
+  /**
+   * Reads every account from this populator's source and passes it to the given loader, as when a new enclave table is
+   * built. Updates continue to be loaded into the enclave as usual while the replay is running.
+   *
+   * @param loader the loader to which accounts should be passed
+   *
+   * @return a future that completes when every account has been passed to the loader, or that fails with an
+   * {@link UnsupportedOperationException} if this populator can't replay its source
+   */
+  default CompletableFuture<Void> replayAccounts(final DirectoryLoader loader) {
+    return CompletableFuture.failedFuture(
+        new UnsupportedOperationException(getClass().getSimpleName() + " does not support replaying accounts"));
+  }
 }
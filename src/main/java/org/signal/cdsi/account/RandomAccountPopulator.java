@@ -12,13 +12,16 @@ import jakarta.annotation.PostConstruct;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 import java.util.ArrayList;
-import java.util.UUID;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.DirectoryLoader;
 import org.signal.cdsi.enclave.Enclave;
-import org.signal.cdsi.util.UUIDUtil;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.startup.StartupPhases;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +37,10 @@ public class RandomAccountPopulator implements AccountPopulator {
   private final Enclave enclave;
   private final int accounts;
   private final ExecutorService executorService;
+  private final StartupPhases startupPhases;
+
+  // Accounts are generated from this seed, so that replaying them produces the same accounts as the initial population
+  private final long seed = ThreadLocalRandom.current().nextLong();
 
   private final AtomicBoolean accountsPopulated = new AtomicBoolean(false);
 
@@ -43,39 +50,60 @@ public class RandomAccountPopulator implements AccountPopulator {
 
   public RandomAccountPopulator(final Enclave enclave,
       @Value("${random-account-populator.accounts:0}") final int accounts,
-      @Named(TaskExecutors.IO) ExecutorService executorService) {
+      @Named(TaskExecutors.IO) ExecutorService executorService,
+      final StartupPhases startupPhases) {
     this.enclave = enclave;
     this.accounts = accounts;
     this.executorService = executorService;
+    this.startupPhases = startupPhases;
   }
 
   @PostConstruct
   void populateAccounts() {
-    CompletableFuture.runAsync(() -> {
+    startupPhases.run("randomAccountPopulation", () -> CompletableFuture.runAsync(() -> {
       final long start = System.currentTimeMillis();
 
-      final ArrayList<DirectoryEntry> entries = new ArrayList<>(BATCH_SIZE);
-      long e164 = 18000000000L;
+      final InitialDirectoryLoader initialLoader = enclave.startInitialLoad();
+      loadRandomAccounts(initialLoader);
+      initialLoader.finish().join();
 
-      for (int i = 0; i < accounts; i++) {
-        entries.add(new DirectoryEntry(e164++,
-            UUIDUtil.toByteArray(UUID.randomUUID()),
-            UUIDUtil.toByteArray(UUID.randomUUID()),
-            UUIDUtil.toByteArray(UUID.randomUUID())));
+      logger.info("Populated enclave with {} random accounts in {} milliseconds.", accounts, System.currentTimeMillis() - start);
+      accountsPopulated.set(true);
+    }, executorService));
+  }
 
-        if (entries.size() % BATCH_SIZE == 0) {
-          enclave.loadData(entries, false).join();
-          entries.clear();
-        }
-      }
+  /**
+   * Generates the same accounts, with the same phone numbers and identifiers, as the initial population.
+   */
+  @Override
+  public CompletableFuture<Void> replayAccounts(final DirectoryLoader loader) {
+    return CompletableFuture.runAsync(() -> loadRandomAccounts(loader), executorService);
+  }
 
-      if (!entries.isEmpty()) {
-        enclave.loadData(entries, false).join();
+  private void loadRandomAccounts(final DirectoryLoader loader) {
+    final ArrayList<DirectoryEntry> entries = new ArrayList<>(BATCH_SIZE);
+    final Random random = new Random(seed);
+    long e164 = 18000000000L;
+
+    for (int i = 0; i < accounts; i++) {
+      entries.add(new DirectoryEntry(e164++, randomBytes(random), randomBytes(random), randomBytes(random)));
+
+      if (entries.size() % BATCH_SIZE == 0) {
+        loader.load(entries).join();
+        entries.clear();
       }
+    }
 
-      logger.info("Populated enclave with {} random accounts in {} milliseconds.", accounts, System.currentTimeMillis() - start);
-      accountsPopulated.set(true);
-    }, executorService);
+    if (!entries.isEmpty()) {
+      loader.load(entries).join();
+    }
+  }
+
+  private static byte[] randomBytes(final Random random) {
+    final byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+
+    return bytes;
   }
 
   @Override
@@ -24,10 +24,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nullable;
 import org.signal.cdsi.account.AccountPopulator;
 import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.DirectoryLoader;
 import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.startup.StartupPhases;
 import org.signal.cdsi.util.UUIDUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +70,7 @@ class DynamoDbAccountPopulator implements AccountPopulator, SubscribeToShardResp
   private final KinesisAsyncClient kinesisAsyncClient;
   private final KinesisStreamConsumerSupplier streamConsumerSource;
   private final Clock clock;
+  private final StartupPhases startupPhases;
 
   private final String accountTableName;
   private final String updateStreamName;
@@ -85,6 +90,7 @@ class DynamoDbAccountPopulator implements AccountPopulator, SubscribeToShardResp
 
   private volatile boolean healthy = true;
   private volatile boolean finishedInitialAccountPopulation;
+  private final CompletableFuture<Void> initialAccountPopulation = new CompletableFuture<>();
   private volatile boolean shouldRenewSubscription;
 
   @VisibleForTesting
@@ -120,13 +126,15 @@ class DynamoDbAccountPopulator implements AccountPopulator, SubscribeToShardResp
       final KinesisStreamConsumerSupplier streamConsumerSource,
       final MeterRegistry meterRegistry,
       final Clock clock,
-      final AccountTableConfiguration accountTableConfiguration) {
+      final AccountTableConfiguration accountTableConfiguration,
+      final StartupPhases startupPhases) {
 
     this.enclave = enclave;
     this.dynamoDbAsyncClient = dynamoDbAsyncClient;
     this.kinesisAsyncClient = kinesisAsyncClient;
     this.streamConsumerSource = streamConsumerSource;
     this.clock = clock;
+    this.startupPhases = startupPhases;
 
     this.accountTableName = accountTableConfiguration.getTableName();
     this.updateStreamName = accountTableConfiguration.getStreamName();
@@ -141,39 +149,57 @@ class DynamoDbAccountPopulator implements AccountPopulator, SubscribeToShardResp
 
   @PostConstruct
   void populateAccounts() {
-    setShardId(kinesisAsyncClient.describeStream(DescribeStreamRequest.builder()
-            .streamName(updateStreamName)
-            .build())
-        .thenApply(describeStreamResponse -> {
-          if (describeStreamResponse.streamDescription().shards().size() != 1) {
-            throw new IllegalStateException("Steam must have exactly one shard");
-          }
-
-          return describeStreamResponse.streamDescription().shards().get(0).shardId();
-        })
-        .join());
-
     // We want to get all the updates since we started reading the snapshot, but it's possible that our clock and
     // Kinesis' clock disagree. To compensate, we give ourselves a little padding on the start time. This may lead to
     // some duplicated events, but that's not a problem in practice.
     populateStartTime = clock.instant().minus(MAXIMUM_CLOCK_DRIFT);
 
-    getAccountSnapshot()
-        .bufferTimeout(BATCH_SIZE, BATCH_TIMEOUT)
-        .doOnComplete(() -> {
-          logger.info("Finished loading {} entries from account table",
-              Double.valueOf(entriesFromTableCounter.count()).longValue());
+    // Reading the snapshot, finding the stream's shard and registering a stream consumer (which happens in the
+    // background when the consumer supplier is constructed) are independent; only subscribing to the stream needs all
+    // three to have finished.
+    final CompletableFuture<Void> snapshotLoaded = startupPhases.run("accountSnapshot", () -> {
+      // Nothing else loads entries until the snapshot has been loaded, and so the snapshot may be bulk-loaded
+      final InitialDirectoryLoader initialLoader = enclave.startInitialLoad();
+
+      return getAccountSnapshot()
+          .bufferTimeout(BATCH_SIZE, BATCH_TIMEOUT)
+          .doOnNext(entries -> {
+            initialLoader.load(entries).join();
+            entriesFromTableCounter.increment(entries.size());
+          })
+          .then()
+          .toFuture()
+          .thenCompose(ignored -> initialLoader.finish())
+          .thenRun(() -> logger.info("Finished loading {} entries from account table",
+              Double.valueOf(entriesFromTableCounter.count()).longValue()));
+    });
+
+    final CompletableFuture<String> shardIdLookup = startupPhases.run("kinesisShardLookup", () ->
+        kinesisAsyncClient.describeStream(DescribeStreamRequest.builder()
+                .streamName(updateStreamName)
+                .build())
+            .thenApply(describeStreamResponse -> {
+              if (describeStreamResponse.streamDescription().shards().size() != 1) {
+                throw new IllegalStateException("Steam must have exactly one shard");
+              }
+
+              return describeStreamResponse.streamDescription().shards().get(0).shardId();
+            }));
 
+    final CompletableFuture<String> consumerReady = streamConsumerSource.getConsumerArn().toFuture();
+
+    startupPhases.runAfter("accountStreamCatchUp", List.of(snapshotLoaded, shardIdLookup, consumerReady), () -> {
+          setShardId(shardIdLookup.join());
           shouldRenewSubscription = true;
-          this.subscribeToShard();
-        })
-        .doOnError(throwable -> {
-          logger.error("Failed to load account snapshot", throwable);
-          healthy = false;
+          subscribeToShard();
+
+          return initialAccountPopulation;
         })
-        .subscribe(entries -> {
-          enclave.loadData(entries, false).join();
-          entriesFromTableCounter.increment(entries.size());
+        .whenComplete((ignored, cause) -> {
+          if (cause != null) {
+            logger.error("Failed to populate accounts", cause);
+            healthy = false;
+          }
         });
   }
 
@@ -221,6 +247,20 @@ class DynamoDbAccountPopulator implements AccountPopulator, SubscribeToShardResp
     return healthy;
   }
 
+  /**
+   * Reads a new snapshot of the account table. Updates from the account stream continue to be loaded into the enclave
+   * while the snapshot is read, and so callers that need a current copy of the directory must also apply any updates
+   * that arrive while the replay is running.
+   */
+  @Override
+  public CompletableFuture<Void> replayAccounts(final DirectoryLoader loader) {
+    return getAccountSnapshot()
+        .bufferTimeout(BATCH_SIZE, BATCH_TIMEOUT)
+        .doOnNext(entries -> loader.load(entries).join())
+        .then()
+        .toFuture();
+  }
+
   @VisibleForTesting
   Flux<DirectoryEntry> getAccountSnapshot() {
     final List<Flux<DirectoryEntry>> segmentPublishers = new ArrayList<>(accountTableReadSegments);
@@ -378,6 +418,7 @@ class DynamoDbAccountPopulator implements AccountPopulator, SubscribeToShardResp
       }
 
       finishedInitialAccountPopulation = true;
+      initialAccountPopulation.complete(null);
     }
   }
 
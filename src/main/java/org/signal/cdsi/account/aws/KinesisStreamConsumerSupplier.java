@@ -7,6 +7,8 @@ package org.signal.cdsi.account.aws;
 
 import jakarta.annotation.PreDestroy;
 import jakarta.inject.Singleton;
+import javax.annotation.Nullable;
+import org.signal.cdsi.startup.StartupPhases;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Mono;
@@ -24,11 +26,13 @@ import java.net.UnknownHostException;
 import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A Kinesis stream consumer supplier registers a Kinesis stream consumer, waits for the consumer to be ready, then
- * provides the consumer ARN when ready. At application shutdown, the supplier will make a best effort to destroy the
+ * provides the consumer ARN when ready. Registration runs as a startup phase in the background, so it proceeds
+ * concurrently with the rest of startup. At application shutdown, the supplier will make a best effort to destroy the
  * Kinesis stream consumer.
  */
 @Singleton
@@ -36,48 +40,64 @@ class KinesisStreamConsumerSupplier {
 
   private final KinesisAsyncClient kinesisAsyncClient;
 
-  private final String streamArn;
-  private final String consumerArn;
+  @Nullable
+  private volatile String consumerArn;
 
   private final One<String> consumerArnSink = Sinks.one();
 
   private static final Logger logger = LoggerFactory.getLogger(KinesisStreamConsumerSupplier.class);
 
   public KinesisStreamConsumerSupplier(final KinesisAsyncClient kinesisAsyncClient,
-      final AccountTableConfiguration accountTableConfiguration) {
+      final AccountTableConfiguration accountTableConfiguration,
+      final StartupPhases startupPhases) {
 
     this.kinesisAsyncClient = kinesisAsyncClient;
 
-    streamArn = kinesisAsyncClient.describeStream(DescribeStreamRequest.builder()
-            .streamName(accountTableConfiguration.getStreamName())
-            .build())
-        .thenApply(describeStreamResponse -> describeStreamResponse.streamDescription().streamARN())
-        .join();
+    startupPhases.run("kinesisConsumerRegistration",
+            () -> registerConsumer(accountTableConfiguration.getStreamName()).thenCompose(registeredConsumerArn -> {
+              logger.info("Registered stream consumer {}", registeredConsumerArn);
+              consumerArn = registeredConsumerArn;
 
+              pollConsumerStatus(registeredConsumerArn);
+              return getConsumerArn().toFuture();
+            }))
+        .whenComplete((ignored, cause) -> {
+          if (cause != null) {
+            logger.error("Failed to register stream consumer", cause);
+            consumerArnSink.tryEmitError(cause);
+          }
+        });
+  }
+
+  private CompletableFuture<String> registerConsumer(final String streamName) {
     final String consumerName = getLocalHostname();
 
-    consumerArn = kinesisAsyncClient.registerStreamConsumer(RegisterStreamConsumerRequest.builder()
-            .consumerName(consumerName)
-            .streamARN(streamArn)
+    return kinesisAsyncClient.describeStream(DescribeStreamRequest.builder()
+            .streamName(streamName)
             .build())
-        .thenApply(registerStreamConsumerResponse -> registerStreamConsumerResponse.consumer().consumerARN())
-        .exceptionallyCompose(throwable -> {
-          if (throwable instanceof ResourceInUseException) {
-            // The consumer already exists (presumably because the application restarted)
-            return kinesisAsyncClient.describeStreamConsumer(DescribeStreamConsumerRequest.builder()
-                    .streamARN(streamArn)
-                    .consumerName(consumerName)
-                    .build())
-                .thenApply(response -> response.consumerDescription().consumerARN());
-          } else {
-            // Something unexpected went wrong
-            return CompletableFuture.failedFuture(throwable);
-          }
-        })
-        .join();
+        .thenApply(describeStreamResponse -> describeStreamResponse.streamDescription().streamARN())
+        .thenCompose(streamArn -> kinesisAsyncClient.registerStreamConsumer(RegisterStreamConsumerRequest.builder()
+                .consumerName(consumerName)
+                .streamARN(streamArn)
+                .build())
+            .thenApply(registerStreamConsumerResponse -> registerStreamConsumerResponse.consumer().consumerARN())
+            .exceptionallyCompose(throwable -> {
+              if (unwrap(throwable) instanceof ResourceInUseException) {
+                // The consumer already exists (presumably because the application restarted)
+                return kinesisAsyncClient.describeStreamConsumer(DescribeStreamConsumerRequest.builder()
+                        .streamARN(streamArn)
+                        .consumerName(consumerName)
+                        .build())
+                    .thenApply(response -> response.consumerDescription().consumerARN());
+              } else {
+                // Something unexpected went wrong
+                return CompletableFuture.failedFuture(throwable);
+              }
+            }));
+  }
 
-    logger.info("Registered stream consumer {}", consumerArn);
-    pollConsumerStatus();
+  private static Throwable unwrap(final Throwable throwable) {
+    return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
   }
 
   private static String getLocalHostname() {
@@ -99,7 +119,7 @@ class KinesisStreamConsumerSupplier {
     return consumerArnSink.asMono();
   }
 
-  private void pollConsumerStatus() {
+  private void pollConsumerStatus(final String consumerArn) {
     kinesisAsyncClient.describeStreamConsumer(DescribeStreamConsumerRequest.builder()
             .consumerARN(consumerArn)
             .build())
@@ -111,7 +131,7 @@ class KinesisStreamConsumerSupplier {
             }
             case CREATING -> {
               logger.debug("Waiting for consumer to be ready");
-              CompletableFuture.runAsync(this::pollConsumerStatus,
+              CompletableFuture.runAsync(() -> pollConsumerStatus(consumerArn),
                   CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
             }
             case DELETING -> {
@@ -128,6 +148,13 @@ class KinesisStreamConsumerSupplier {
 
   @PreDestroy
   void deregisterConsumer() {
+    final String consumerArn = this.consumerArn;
+
+    if (consumerArn == null) {
+      // Registration never finished, so there's nothing to clean up
+      return;
+    }
+
     kinesisAsyncClient.deregisterStreamConsumer(DeregisterStreamConsumerRequest.builder()
             .consumerARN(consumerArn)
             .build())
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.azure;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.context.annotation.Requires;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Positive;
+
+@ConfigurationProperties("accountContainer")
+@Requires(property = "account-container.endpoint")
+@Requires(property = "account-container.key")
+@Requires(property = "account-container.database")
+@Requires(property = "account-container.container")
+class AccountContainerConfiguration {
+
+  @NotBlank
+  private String endpoint;
+
+  @NotBlank
+  private String key;
+
+  @NotBlank
+  private String database;
+
+  @NotBlank
+  private String container;
+
+  @Positive
+  private int feedRangeConcurrency = 16;
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public void setEndpoint(final String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(final String key) {
+    this.key = key;
+  }
+
+  public String getDatabase() {
+    return database;
+  }
+
+  public void setDatabase(final String database) {
+    this.database = database;
+  }
+
+  public String getContainer() {
+    return container;
+  }
+
+  public void setContainer(final String container) {
+    this.container = container;
+  }
+
+  /**
+   * Returns the number of the account container's feed ranges that are read at the same time.
+   */
+  public int getFeedRangeConcurrency() {
+    return feedRangeConcurrency;
+  }
+
+  public void setFeedRangeConcurrency(final int feedRangeConcurrency) {
+    this.feedRangeConcurrency = feedRangeConcurrency;
+  }
+}
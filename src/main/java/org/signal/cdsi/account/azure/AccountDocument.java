@@ -0,0 +1,15 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.azure;
+
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * An account document in the account container; the document's ID is the account's ACI.
+ */
+record AccountDocument(UUID id, long e164, UUID pni, @Nullable byte[] uak, boolean canonicallyDiscoverable) {
+}
@@ -2,131 +2,432 @@
  * Copyright 2022 Signal Messenger, LLC
  * SPDX-License-Identifier: AGPL-3.0-only
  */
+
 package org.signal.cdsi.account.azure;
 
-import com.azure.cosmos.util.CosmosPagedIterable; // Correct package for CosmosPagedIterable
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import com.azure.cosmos.CosmosAsyncClient;
 import com.azure.cosmos.CosmosAsyncContainer;
-import com.azure.cosmos.models.CosmosItemRequestOptions;
-import com.azure.cosmos.models.CosmosItemResponse;
-import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.CosmosChangeFeedRequestOptions;
+import com.azure.cosmos.models.FeedRange;
+import com.azure.cosmos.models.FeedResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.annotation.Creator;
+import io.micronaut.scheduling.annotation.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
 import org.signal.cdsi.account.AccountPopulator;
+import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.DirectoryLoader;
+import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.startup.StartupPhases;
+import org.signal.cdsi.util.UUIDUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.stream.StreamSupport;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
- * An AccountPopulator implementation for Azure using Cosmos DB.
+ * The Cosmos DB account populator populates an {@link Enclave} with account data from a Cosmos DB container, and keeps
+ * the enclave up to date by following the container's change feed.
+ * <p>
+ * The populator follows the change feed in its "all versions and deletes" mode, which reports every creation,
+ * replacement, and deletion of a document (including deletions by TTL expiry), and carries a deleted document's last
+ * version; accounts may therefore be removed either by making them undiscoverable or by deleting their documents.
+ * That mode can't be read from the beginning of the container, though, so the initial population comes from reading
+ * the container's feed ranges from their beginnings in the "latest version" mode, which delivers the current version of
+ * every document in the container; the populator reads each feed range in parallel and loads every discoverable
+ * account into the enclave. Before it does, it takes a continuation token for the current end of each feed range's
+ * all-versions-and-deletes feed, and from then on polls each feed range for changes from its token, keeping the token
+ * that follows the last page of changes it loaded. Changes made while the container is being read may be loaded twice,
+ * once with the initial population and once from the change feed, but loading a change is idempotent, and no change is
+ * missed. The populator reports that it has finished its initial population once it has read every feed range's changes
+ * to its end after loading the initial population.
+ * <p>
+ * The all-versions-and-deletes mode requires continuous backups to be enabled on the Cosmos DB account, and only retains
+ * changes for the account's continuous backup period.
+ *
+ * @see <a href="https://learn.microsoft.com/en-us/azure/cosmos-db/nosql/change-feed-pull-model">Azure Cosmos DB
+ * documentation - Change feed pull model</a>
+ * @see <a href="https://learn.microsoft.com/en-us/azure/cosmos-db/nosql/change-feed-modes">Azure Cosmos DB
+ * documentation - Change feed modes</a>
  */
-public class CosmosDbAccountPopulator implements AccountPopulator {
+@Singleton
+@Requires(beans = AccountContainerConfiguration.class)
+class CosmosDbAccountPopulator implements AccountPopulator {
 
-    private static final Logger logger = LoggerFactory.getLogger(CosmosDbAccountPopulator.class);
+  private final Enclave enclave;
+  private final CosmosAsyncContainer container;
+  private final StartupPhases startupPhases;
+  private final int feedRangeConcurrency;
 
-    // The Cosmos container from which to read and update account documents.
-    private final CosmosAsyncContainer container;
+  private final Counter entriesFromContainerCounter;
+  private final Counter entriesFromChangeFeedCounter;
+  private final AtomicLong accounts;
 
-    public CosmosDbAccountPopulator(CosmosAsyncContainer container) {
-        this.container = container;
-    }
+  // The net number of accounts added by the change feed since the populator started
+  private final AtomicLong accountsAddedFromChangeFeed = new AtomicLong();
 
-    /**
-     * Reads an account document in a blocking manner.
-     *
-     * @param id  the document id
-     * @param key the partition key (for example, a string version of the e164 number)
-     * @return the AccountDocument read from Cosmos DB
-     */
-    public AccountDocument readAccountDocument(String id, String key) {
-        CosmosItemResponse<AccountDocument> response = container
-                .readItem(id, new PartitionKey(key), new CosmosItemRequestOptions(), AccountDocument.class)
-                .block();
-        return response.getItem();
-    }
+  // The continuation token for each of the container's feed ranges; null until the initial population has been loaded
+  @Nullable
+  private volatile AtomicReferenceArray<String> continuationTokens;
+
+  private final AtomicBoolean changeFeedReadInProgress = new AtomicBoolean();
+
+  private volatile boolean healthy = true;
+  private volatile boolean finishedInitialAccountPopulation;
+  private final CompletableFuture<Void> initialAccountPopulation = new CompletableFuture<>();
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+      .configure(DeserializationFeature.FAIL_ON_NULL_CREATOR_PROPERTIES, false)
+      .configure(DeserializationFeature.FAIL_ON_MISSING_CREATOR_PROPERTIES, false);
+
+  private static final String DELETE_OPERATION = "delete";
+
+  private static final int PAGE_SIZE = 1000;
+  private static final int BATCH_SIZE = 4096;
+  private static final Duration BATCH_TIMEOUT = Duration.ofSeconds(1);
+
+  private static final Logger logger = LoggerFactory.getLogger(CosmosDbAccountPopulator.class);
+
+  @Creator
+  CosmosDbAccountPopulator(final Enclave enclave,
+      @Named(CosmosDbClientFactory.ACCOUNTS) final CosmosAsyncClient cosmosAsyncClient,
+      final AccountContainerConfiguration accountContainerConfiguration,
+      final MeterRegistry meterRegistry,
+      final StartupPhases startupPhases) {
+
+    this(enclave,
+        cosmosAsyncClient.getDatabase(accountContainerConfiguration.getDatabase())
+            .getContainer(accountContainerConfiguration.getContainer()),
+        accountContainerConfiguration.getFeedRangeConcurrency(),
+        meterRegistry,
+        startupPhases);
+  }
+
+  @VisibleForTesting
+  CosmosDbAccountPopulator(final Enclave enclave,
+      final CosmosAsyncContainer container,
+      final int feedRangeConcurrency,
+      final MeterRegistry meterRegistry,
+      final StartupPhases startupPhases) {
 
-  
-   /**
-     * Returns the total number of account documents in the container.
-     * Uses the async API and blocks for the result.
-     *
-     * @return the count of documents
-     */
-    public long getTotalAccounts() {
-        return container
-                .readAllItems(new PartitionKey(""), AccountDocument.class)
-                .byPage()
-                .map(page -> StreamSupport.stream(page.getElements().spliterator(), false).count())
-                .reduce(0L, Long::sum)
-                .block();
+    this.enclave = enclave;
+    this.container = container;
+    this.feedRangeConcurrency = feedRangeConcurrency;
+    this.startupPhases = startupPhases;
+
+    this.entriesFromContainerCounter =
+        meterRegistry.counter(name(CosmosDbAccountPopulator.class, "entriesProcessed"), "dataSource", "container");
+
+    this.entriesFromChangeFeedCounter =
+        meterRegistry.counter(name(CosmosDbAccountPopulator.class, "entriesProcessed"), "dataSource", "changeFeed");
+
+    this.accounts = meterRegistry.gauge(name(CosmosDbAccountPopulator.class, "accounts"), new AtomicLong(0));
+  }
+
+  @PostConstruct
+  void populateAccounts() {
+    final CompletableFuture<Void> initialPopulationLoaded = startupPhases.run("accountContainerRead", () ->
+        container.getFeedRanges().toFuture().thenCompose(feedRanges ->
+            // Mark where to start following changes before reading the container, so that no change is missed
+            startChangeFeed(feedRanges).thenCompose(feedRangeContinuationTokens -> {
+              // Nothing else loads entries until the initial population has been loaded, and so it may be bulk-loaded
+              final InitialDirectoryLoader initialLoader = enclave.startInitialLoad();
+
+              return loadAccounts(feedRanges, initialLoader)
+                  .thenCompose(loadedAccounts -> {
+                    accounts.set(loadedAccounts);
+                    entriesFromContainerCounter.increment(loadedAccounts);
+
+                    return initialLoader.finish();
+                  })
+                  .thenRun(() -> {
+                    logger.info("Finished loading {} entries from {} feed ranges of account container",
+                        accounts.get(), feedRanges.size());
+
+                    // Changes may be loaded once the initial population has been loaded
+                    continuationTokens = feedRangeContinuationTokens;
+                  });
+            })));
+
+    startupPhases.runAfter("accountChangeFeedCatchUp", List.of(initialPopulationLoaded), () -> initialAccountPopulation)
+        .whenComplete((ignored, cause) -> {
+          if (cause != null) {
+            logger.error("Failed to populate accounts", cause);
+            healthy = false;
+          }
+        });
+  }
+
+  @Scheduled(fixedDelay = "${accountContainer.pollInterval:1s}")
+  void pollChangeFeed() {
+    // Reading the change feed finishes asynchronously, so the scheduler's thread isn't held while it runs
+    loadChangeFeed();
+  }
+
+  /**
+   * Reads every feed range's changes since its continuation token and loads them into the enclave, unless a previous
+   * read is still running. Failures are logged and retried from the last page loaded on the next poll.
+   *
+   * @return a future that completes when the changes have been loaded or the read has failed
+   */
+  @VisibleForTesting
+  CompletableFuture<Void> loadChangeFeed() {
+    final AtomicReferenceArray<String> localContinuationTokens = continuationTokens;
+
+    if (localContinuationTokens == null || !changeFeedReadInProgress.compareAndSet(false, true)) {
+      return CompletableFuture.completedFuture(null);
     }
 
+    return Flux.range(0, localContinuationTokens.length())
+        .flatMap(feedRange -> loadChanges(localContinuationTokens, feedRange), feedRangeConcurrency)
+        .reduce(0L, Long::sum)
+        .toFuture()
+        .thenAccept(changes -> {
+          logger.trace("Loaded {} changes from account container change feed", changes);
+
+          // Every feed range has been read to its end
+          if (!finishedInitialAccountPopulation) {
+            logger.info("Accounts synchronized after processing {} entries from account container change feed",
+                Double.valueOf(entriesFromChangeFeedCounter.count()).longValue());
 
-    /**
-     * Single definition of updateTotalAccountsMetric().
-     *
-     * @return the total number of accounts (as a metric value)
-     */
-    public long updateTotalAccountsMetric() {
-        return getTotalAccounts();
+            finishedInitialAccountPopulation = true;
+            initialAccountPopulation.complete(null);
+          }
+        })
+        .exceptionally(cause -> {
+          logger.warn("Failed to read account container change feed", cause);
+          return null;
+        })
+        .whenComplete((ignored, cause) -> changeFeedReadInProgress.set(false));
+  }
+
+  @Override
+  public boolean hasFinishedInitialAccountPopulation() {
+    return finishedInitialAccountPopulation;
+  }
+
+  @Override
+  public boolean isHealthy() {
+    return healthy;
+  }
+
+  /**
+   * Returns the approximate number of discoverable accounts. The count is reset whenever the whole container is read,
+   * either for the initial population or for a replay, and is adjusted by the insertions and deletions loaded from the
+   * change feed, including those loaded while a replay is running. Only deletions carry the document's previous
+   * version, and so an update can't tell whether a discoverable account was already discoverable; such updates inflate
+   * the count until the next full read.
+   */
+  long getTotalAccounts() {
+    return accounts.get();
+  }
+
+  /**
+   * Reads every account from the beginning of the container's change feed. Changes continue to be loaded into the
+   * enclave while the container is read, and so callers that need a current copy of the directory must also apply any
+   * changes that arrive while the replay is running.
+   */
+  @Override
+  public CompletableFuture<Void> replayAccounts(final DirectoryLoader loader) {
+    final long accountsAddedBeforeReplay = accountsAddedFromChangeFeed.get();
+
+    return container.getFeedRanges().toFuture()
+        .thenCompose(feedRanges -> loadAccounts(feedRanges, loader))
+        .thenAccept(replayedAccounts ->
+            // Changes loaded while the container was being read would be lost if the count were simply replaced
+            accounts.set(replayedAccounts + accountsAddedFromChangeFeed.get() - accountsAddedBeforeReplay));
+  }
+
+  /**
+   * Reads the current end of every feed range's all-versions-and-deletes change feed.
+   *
+   * @return a future that yields the continuation token for the end of each feed range's change feed
+   */
+  private CompletableFuture<AtomicReferenceArray<String>> startChangeFeed(final List<FeedRange> feedRanges) {
+    final AtomicReferenceArray<String> feedRangeContinuationTokens = new AtomicReferenceArray<>(feedRanges.size());
+
+    return Flux.range(0, feedRanges.size())
+        .flatMap(feedRange -> readChangeFeed(
+                CosmosChangeFeedRequestOptions.createForProcessingFromNow(feedRanges.get(feedRange))
+                    .allVersionsAndDeletes())
+                .doOnNext(page -> feedRangeContinuationTokens.set(feedRange, page.getContinuationToken())),
+            feedRangeConcurrency)
+        .then()
+        .toFuture()
+        .thenApply(ignored -> feedRangeContinuationTokens);
+  }
+
+  /**
+   * Reads the latest version of every document in every feed range, in parallel, and passes every discoverable account
+   * to the given loader.
+   *
+   * @return a future that yields the number of accounts loaded
+   */
+  private CompletableFuture<Long> loadAccounts(final List<FeedRange> feedRanges, final DirectoryLoader loader) {
+    final List<Integer> feedRangeIndexes = IntStream.range(0, feedRanges.size())
+        .boxed()
+        .collect(Collectors.toCollection(ArrayList::new));
+
+    // Shuffle the list to make it less likely that we'll have two consumers trying to read the same feed ranges at the
+    // same time
+    Collections.shuffle(feedRangeIndexes);
+
+    return Flux.fromIterable(feedRangeIndexes)
+        .flatMap(feedRange -> readChangeFeed(
+                CosmosChangeFeedRequestOptions.createForProcessingFromBeginning(feedRanges.get(feedRange)))
+                .flatMapIterable(FeedResponse::getResults),
+            feedRangeConcurrency)
+        .mapNotNull(document -> directoryEntryFromDocument(document, false))
+        .bufferTimeout(BATCH_SIZE, BATCH_TIMEOUT)
+        .concatMap(entries -> Mono.fromFuture(loader.load(entries)).thenReturn((long) entries.size()))
+        .reduce(0L, Long::sum)
+        .toFuture();
+  }
+
+  /**
+   * Loads one feed range's changes since its continuation token, a page at a time, advancing the continuation token
+   * past each page once it has been loaded.
+   *
+   * @return a publisher of the number of changes loaded
+   */
+  private Mono<Long> loadChanges(final AtomicReferenceArray<String> feedRangeContinuationTokens, final int feedRange) {
+    return readChangeFeed(CosmosChangeFeedRequestOptions.createForProcessingFromContinuation(
+            feedRangeContinuationTokens.get(feedRange)).allVersionsAndDeletes())
+        .concatMap(page -> Mono.fromFuture(handleChanges(page.getResults()))
+            .doOnNext(ignored -> feedRangeContinuationTokens.set(feedRange, page.getContinuationToken())))
+        .reduce(0L, Long::sum);
+  }
+
+  private Flux<FeedResponse<JsonNode>> readChangeFeed(final CosmosChangeFeedRequestOptions options) {
+    options.setMaxItemCount(PAGE_SIZE);
+
+    // Reading the change feed ends once it has caught up with the feed range
+    return container.queryChangeFeed(options, JsonNode.class).byPage();
+  }
+
+  /**
+   * Loads a page of changes from the all-versions-and-deletes change feed into the enclave.
+   *
+   * @return a future that yields the number of entries loaded
+   */
+  @VisibleForTesting
+  CompletableFuture<Long> handleChanges(final List<JsonNode> changes) {
+    final List<DirectoryEntry> directoryEntries = changes.stream()
+        .map(CosmosDbAccountPopulator::directoryEntryFromChange)
+        .filter(Objects::nonNull)
+        .toList();
+
+    if (directoryEntries.isEmpty()) {
+      return CompletableFuture.completedFuture(0L);
     }
 
-    /**
-     * Converts a long value to a String.
-     *
-     * @param value a long value
-     * @return the string representation of the value
-     */
-    public String convertLongToString(long value) {
-        return String.valueOf(value);
+    final long deletions = directoryEntries.stream().filter(DirectoryEntry::isDeletion).count();
+
+    return enclave.loadData(directoryEntries, false)
+        .thenApply(ignored -> {
+          entriesFromChangeFeedCounter.increment(directoryEntries.size());
+
+          final long accountsAdded = directoryEntries.size() - 2 * deletions;
+          accountsAddedFromChangeFeed.addAndGet(accountsAdded);
+          accounts.addAndGet(accountsAdded);
+
+          return (long) directoryEntries.size();
+        });
+  }
+
+  /**
+   * Converts a change from the all-versions-and-deletes change feed to a directory entry. A change carries the
+   * document's current version under {@code current} and its type under {@code metadata.operationType}; a deleted
+   * document has no current version, and is identified by its previous version under {@code previous}.
+   *
+   * @param change the change from the change feed
+   *
+   * @return a directory entry for the changed account, or {@code null} if the change is malformed or deletes a document
+   * that was already undiscoverable
+   */
+  @VisibleForTesting
+  @Nullable
+  static DirectoryEntry directoryEntryFromChange(final JsonNode change) {
+    if (!DELETE_OPERATION.equals(change.path("metadata").path("operationType").asText())) {
+      if (!change.path("current").isObject()) {
+        logger.error("Discarded change to account document; missing current version");
+        return null;
+      }
+
+      return directoryEntryFromDocument(change.path("current"), true);
     }
 
-    /**
-     * Updates an account document (blocking upsert example).
-     *
-     * @param id     the document id
-     * @param key    the partition key
-     * @param newDoc the updated document
-     */
-    public void updateAccountDocument(String id, String key, AccountDocument newDoc) {
-        container.upsertItem(newDoc, new PartitionKey(key), new CosmosItemRequestOptions()).block();
+    final JsonNode previous = change.path("previous");
+    final long e164 = previous.path("e164").asLong();
+
+    if (e164 <= 0) {
+      logger.error("Discarded deletion of account document {}; missing previous version", previous.path("id").asText());
+      return null;
     }
 
-    // ---------------------------------------------------------------------
-    // Inner class representing an account document stored in Cosmos DB.
-    // Adjust fields as needed.
-    // ---------------------------------------------------------------------
-    public static class AccountDocument {
-        private String id;
-        private long e164;
-        // Add other fields as necessary
-
-        // Getters and setters
-        public String getId() {
-            return id;
-        }
-        public void setId(String id) {
-            this.id = id;
-        }
-        public long getE164() {
-            return e164;
-        }
-        public void setE164(long e164) {
-            this.e164 = e164;
-        }
-        // Optionally, override toString(), equals(), and hashCode()
+    // An undiscoverable account was removed from the enclave when it became undiscoverable
+    return previous.path("canonicallyDiscoverable").asBoolean() ? DirectoryEntry.deletionEntry(e164) : null;
+  }
+
+  /**
+   * Converts an account document to a directory entry.
+   *
+   * @param document the account document
+   * @param includeDeletions whether to return a deletion entry if the account isn't discoverable; there's no point in
+   *                         deleting an entry during the initial population, as the entry doesn't exist
+   *
+   * @return a directory entry for the account, or {@code null} if the document is malformed or the account isn't
+   * discoverable and deletions aren't included
+   */
+  @VisibleForTesting
+  @Nullable
+  static DirectoryEntry directoryEntryFromDocument(final JsonNode document, final boolean includeDeletions) {
+    final AccountDocument account;
+
+    try {
+      account = OBJECT_MAPPER.treeToValue(document, AccountDocument.class);
+    } catch (final JsonProcessingException e) {
+      logger.error("Discarded account document {}; could not parse JSON", document.path("id").asText(), e);
+      return null;
     }
 
-    // ---------------------------------------------------------------------
-    // AccountPopulator interface implementations.
-    // Adjust these if your interface differs.
-    // ---------------------------------------------------------------------
-    @Override
-    public boolean hasFinishedInitialAccountPopulation() {
-        // For example purposes, return true (adjust as needed)
-        return true;
+    if (account.e164() <= 0 || (account.canonicallyDiscoverable() && (account.id() == null || account.pni() == null))) {
+      logger.error("Discarded account document {}; missing required fields", document.path("id").asText());
+      return null;
     }
 
-    @Override
-    public boolean isHealthy() {
-        // For example purposes, return true (adjust as needed)
-        return true;
+    if (account.canonicallyDiscoverable()) {
+      return new DirectoryEntry(account.e164(),
+          UUIDUtil.toByteArray(account.id()),
+          UUIDUtil.toByteArray(account.pni()),
+          account.uak());
     }
+
+    return includeDeletions ? DirectoryEntry.deletionEntry(account.e164()) : null;
+  }
 }
@@ -2,32 +2,36 @@
  * Copyright 2022 Signal Messenger, LLC
  * SPDX-License-Identifier: AGPL-3.0-only
  */
+
 package org.signal.cdsi.account.azure;
 
+import com.azure.cosmos.ConsistencyLevel;
 import com.azure.cosmos.CosmosAsyncClient;
 import com.azure.cosmos.CosmosClientBuilder;
-import com.azure.cosmos.ConsistencyLevel;
-// Use Jakarta inject (Micronaut uses jakarta.inject now)
+import io.micronaut.context.annotation.Bean;
+import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Requires;
+import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 
 /**
- * Factory for creating a CosmosAsyncClient using settings from AzureAccountTableConfiguration.
+ * Creates the Cosmos DB client for the account container. The client is named so it can't be mistaken for the client
+ * behind the rate limiter's container.
  */
-@Singleton
-public class CosmosDbClientFactory {
-
-    private final AzureAccountTableConfiguration config;
+@Factory
+@Requires(beans = AccountContainerConfiguration.class)
+class CosmosDbClientFactory {
 
-    public CosmosDbClientFactory(AzureAccountTableConfiguration config) {
-        this.config = config;
-    }
+  static final String ACCOUNTS = "accounts";
 
-    @Singleton
-    public CosmosAsyncClient cosmosAsyncClient() {
-        return new CosmosClientBuilder()
-                .endpoint(config.getCosmosDbEndpoint())  // Make sure your configuration defines getCosmosDbEndpoint()
-                .key(config.getCosmosDbKey())            // ...and getCosmosDbKey()
-                .consistencyLevel(ConsistencyLevel.SESSION)
-                .buildAsyncClient();
-    }
+  @Singleton
+  @Named(ACCOUNTS)
+  @Bean(preDestroy = "close")
+  CosmosAsyncClient accountsCosmosAsyncClient(final AccountContainerConfiguration configuration) {
+    return new CosmosClientBuilder()
+        .endpoint(configuration.getEndpoint())
+        .key(configuration.getKey())
+        .consistencyLevel(ConsistencyLevel.SESSION)
+        .buildAsyncClient();
+  }
 }
@@ -10,6 +10,7 @@ import io.micronaut.context.annotation.Context;
 import java.time.Duration;
 import java.util.Base64;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
 import javax.validation.constraints.Size;
 
 @Context
@@ -22,6 +23,10 @@ public class AuthenticationConfiguration {
 
   private Duration tokenExpiration = Duration.ofDays(1);
 
+  // how many recently-verified credentials to remember so reconnecting clients can skip signature verification
+  @PositiveOrZero
+  private long verifiedCredentialCacheSize = 100_000;
+
   public byte[] getSharedSecret() {
     return sharedSecret;
   }
@@ -37,4 +42,12 @@ public class AuthenticationConfiguration {
   public void setTokenExpiration(final Duration tokenExpiration) {
     this.tokenExpiration = tokenExpiration;
   }
+
+  public long getVerifiedCredentialCacheSize() {
+    return verifiedCredentialCacheSize;
+  }
+
+  public void setVerifiedCredentialCacheSize(final long verifiedCredentialCacheSize) {
+    this.verifiedCredentialCacheSize = verifiedCredentialCacheSize;
+  }
 }
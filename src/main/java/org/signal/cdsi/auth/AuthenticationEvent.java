@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.auth;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A flight recorder event for an authentication attempt, including the connection rate limit check that follows a
+ * successful credential check.
+ */
+@Name(AuthenticationEvent.NAME)
+@Label("Authentication")
+@Category({"CDSI", "Authentication"})
+@StackTrace(false)
+@Threshold("20 ms")
+public class AuthenticationEvent extends Event {
+
+  public static final String NAME = "org.signal.cdsi.Authentication";
+
+  @Label("Platform")
+  String platform;
+
+  @Label("Outcome")
+  String outcome;
+
+  @Label("Failure Reason")
+  String failureReason;
+
+  @Label("Cached Credential")
+  @Description("Whether the credential's signature had already been verified")
+  boolean cachedCredential;
+
+  AuthenticationEvent(final String platform) {
+    this.platform = platform;
+  }
+}
@@ -8,6 +8,9 @@ package org.signal.cdsi.auth;
 import static org.signal.cdsi.metrics.MetricsUtil.name;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 import io.micronaut.http.HttpRequest;
@@ -17,21 +20,27 @@ import io.micronaut.security.authentication.AuthenticationRequest;
 import io.micronaut.security.authentication.AuthenticationResponse;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
 import org.reactivestreams.Publisher;
 import org.signal.cdsi.limits.LeakyBucketRateLimiter;
+import org.signal.cdsi.limits.RateLimitExceededException;
+import org.signal.cdsi.limits.RateLimitedKeyCache;
+import org.signal.cdsi.metrics.MeterCache;
+import org.signal.cdsi.trace.SessionTrace;
+import org.signal.cdsi.trace.SessionTrace.Stage;
+import org.signal.cdsi.util.CompletionExceptions;
 import org.signal.cdsi.util.UserAgentUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,11 +53,20 @@ import reactor.core.publisher.Mono;
 @Singleton
 public class ExternalServiceTokenAuthenticationProvider implements AuthenticationProvider {
 
-  private final byte[] sharedSecret;
   private final Duration tokenExpiration;
-  private final MeterRegistry meterRegistry;
+
+  private final MeterCache<Tag, Counter> authenticationSuccessCounters;
+  private final MeterCache<AuthenticationFailure, Counter> authenticationFailureCounters;
+
+  // Initializing a MAC is comparatively expensive, so each thread keeps its own ready-to-use instance
+  private final ThreadLocal<HmacState> hmacState;
+
+  // Credentials whose signatures we've already verified, mapped to the timestamp they carry
+  private final Cache<VerifiedCredential, Instant> verifiedCredentials;
+  private final Counter verifiedCredentialCacheHitCounter;
 
   private final LeakyBucketRateLimiter rateLimiter;
+  private final RateLimitedKeyCache rateLimitedKeyCache;
   private final Clock clock;
 
   public static final String CONNECTIONS_RATE_LIMITER_NAME = "connections";
@@ -56,7 +74,11 @@ public class ExternalServiceTokenAuthenticationProvider implements Authenticatio
   @VisibleForTesting
   static final String ALGORITHM = "HmacSHA256";
 
+  private static final int SIGNATURE_LENGTH = 10;
+
   private static final String AUTHENTICATION_COUNTER_NAME = name(ExternalServiceTokenAuthenticationProvider.class, "authentications");
+  private static final String VERIFIED_CREDENTIAL_CACHE_HIT_COUNTER_NAME =
+      name(ExternalServiceTokenAuthenticationProvider.class, "verifiedCredentialCacheHit");
   private static final String OUTCOME_TAG_NAME = "outcome";
   private static final String FAILURE_REASON_TAG_NAME = "failureReason";
 
@@ -65,25 +87,69 @@ public class ExternalServiceTokenAuthenticationProvider implements Authenticatio
   @VisibleForTesting
   record TimestampAndSignature(Instant timestamp, byte[] signature) {}
 
+  private record VerifiedCredential(String username, String token) {}
+
+  private record AuthenticationFailure(String reason, Tag platformTag) {}
+
+  private static class HmacState {
+
+    private final Mac hmac;
+
+    // Scratch space for the MAC output and the decimal timestamp, reused across calls on the same thread
+    private final byte[] output;
+    private final byte[] timestampDigits = new byte[20];
+
+    private HmacState(final byte[] sharedSecret) throws NoSuchAlgorithmException, InvalidKeyException {
+      hmac = Mac.getInstance(ALGORITHM);
+      hmac.init(new SecretKeySpec(sharedSecret, ALGORITHM));
+      output = new byte[hmac.getMacLength()];
+    }
+  }
+
   public ExternalServiceTokenAuthenticationProvider(AuthenticationConfiguration configuration,
       final MeterRegistry meterRegistry,
       @Named(CONNECTIONS_RATE_LIMITER_NAME) LeakyBucketRateLimiter rateLimiter,
+      RateLimitedKeyCache rateLimitedKeyCache,
       Clock clock) throws InvalidKeyException {
 
-    this.sharedSecret = configuration.getSharedSecret();
+    final byte[] sharedSecret = configuration.getSharedSecret();
     this.tokenExpiration = configuration.getTokenExpiration();
-    this.meterRegistry = meterRegistry;
     this.rateLimiter = rateLimiter;
+    this.rateLimitedKeyCache = rateLimitedKeyCache;
     this.clock = clock;
 
     try {
       // Fail fast and propagate an InvalidKeyException if the key isn't valid
-      final Mac hmac = Mac.getInstance(ALGORITHM);
-      hmac.init(new SecretKeySpec(sharedSecret, ALGORITHM));
+      new HmacState(sharedSecret);
     } catch (final NoSuchAlgorithmException e) {
       // All Java implementations are required to support HmacSHA256, so this really can't ever happen
       throw new AssertionError(e);
     }
+
+    this.hmacState = ThreadLocal.withInitial(() -> {
+      try {
+        return new HmacState(sharedSecret);
+      } catch (final NoSuchAlgorithmException | InvalidKeyException e) {
+        // We just checked both of these above
+        throw new AssertionError(e);
+      }
+    });
+
+    // A cached credential still has its timestamp checked on every use, so this expiry only needs to be long enough to
+    // cover a credential's remaining lifetime
+    this.verifiedCredentials = CacheBuilder.newBuilder()
+        .maximumSize(configuration.getVerifiedCredentialCacheSize())
+        .expireAfterWrite(tokenExpiration)
+        .build();
+    this.verifiedCredentialCacheHitCounter = meterRegistry.counter(VERIFIED_CREDENTIAL_CACHE_HIT_COUNTER_NAME);
+
+    this.authenticationSuccessCounters = new MeterCache<>(platformTag ->
+        meterRegistry.counter(AUTHENTICATION_COUNTER_NAME, List.of(Tag.of(OUTCOME_TAG_NAME, "success"), platformTag)));
+    this.authenticationFailureCounters = new MeterCache<>(failure ->
+        meterRegistry.counter(AUTHENTICATION_COUNTER_NAME, List.of(
+            Tag.of(OUTCOME_TAG_NAME, "failure"),
+            Tag.of(FAILURE_REASON_TAG_NAME, failure.reason()),
+            failure.platformTag())));
   }
 
   @Override
@@ -91,54 +157,97 @@ public class ExternalServiceTokenAuthenticationProvider implements Authenticatio
       AuthenticationRequest<?, ?> authenticationRequest) {
     final Tag platformTag = UserAgentUtil.platformFromHeader(
         httpRequest == null ? null : httpRequest.getHeaders().get("user-agent"));
-    return Mono.create(mono -> {
+    final long started = System.nanoTime();
+    final Optional<SessionTrace> trace = httpRequest == null
+        ? Optional.empty()
+        : httpRequest.getAttribute(SessionTrace.REQUEST_ATTRIBUTE, SessionTrace.class);
+
+    return Mono.<AuthenticationResponse>create(mono -> {
+      final AuthenticationEvent event = new AuthenticationEvent(platformTag.getValue());
+      event.begin();
+
       try {
         final String username = (String) authenticationRequest.getIdentity();
-        final TimestampAndSignature timestampAndSignature = parseToken((String) authenticationRequest.getSecret());
+        final String token = (String) authenticationRequest.getSecret();
+
+        if (isValid(username, token, event)) {
+          final Optional<Duration> knownRetryDuration = rateLimitedKeyCache.getRetryDuration(username);
+
+          if (knownRetryDuration.isPresent()) {
+            // We already know this user is rate limited; don't bother asking the backing store again
+            recordAuthenticationFailure("rate_limit_exceeded", platformTag, event);
+            mono.error(new RateLimitExceededException(knownRetryDuration.get()));
+            return;
+          }
 
-        if (isValid(username, timestampAndSignature.timestamp(), timestampAndSignature.signature())) {
           rateLimiter.validate(username, 1).whenComplete((unused, err) -> {
             if (err != null) {
-              incrementAuthenticationFailureCounter("rate_limit_exceeded", platformTag);
+              if (CompletionExceptions.unwrap(err) instanceof RateLimitExceededException rateLimitExceededException) {
+                rateLimitedKeyCache.recordRateLimited(username, rateLimitExceededException.getRetryDuration());
+              }
+
+              recordAuthenticationFailure("rate_limit_exceeded", platformTag, event);
               mono.error(err);
             } else {
-              incrementAuthenticationSuccessCounter(platformTag);
+              recordAuthenticationSuccess(platformTag, event);
               mono.success(AuthenticationResponse.success(username));
             }
           });
         } else {
-          incrementAuthenticationFailureCounter(AuthenticationFailureReason.CREDENTIALS_DO_NOT_MATCH, platformTag);
+          recordAuthenticationFailure(AuthenticationFailureReason.CREDENTIALS_DO_NOT_MATCH, platformTag, event);
           mono.error(AuthenticationResponse.exception(AuthenticationFailureReason.CREDENTIALS_DO_NOT_MATCH));
         }
       } catch (final Exception e) {
         log.warn("Unexpected authentication exception", e);
 
-        incrementAuthenticationFailureCounter(AuthenticationFailureReason.UNKNOWN, platformTag);
+        recordAuthenticationFailure(AuthenticationFailureReason.UNKNOWN, platformTag, event);
         mono.error(AuthenticationResponse.exception(AuthenticationFailureReason.UNKNOWN));
       }
-    });
+    })
+        .doOnSuccess(ignored -> trace.ifPresent(t -> t.record(Stage.AUTHENTICATION, started, false)))
+        .doOnError(ignored -> trace.ifPresent(t -> t.record(Stage.AUTHENTICATION, started, true)));
   }
 
-  private void incrementAuthenticationSuccessCounter(Tag platformTag) {
-    meterRegistry.counter(AUTHENTICATION_COUNTER_NAME, List.of(
-        Tag.of(OUTCOME_TAG_NAME, "success"), platformTag)).increment();
+  private void recordAuthenticationSuccess(Tag platformTag, final AuthenticationEvent event) {
+    authenticationSuccessCounters.get(platformTag).increment();
+
+    event.outcome = "success";
+    event.commit();
   }
 
-  private void incrementAuthenticationFailureCounter(
-      final AuthenticationFailureReason authenticationFailureReason, Tag platformTag) {
-    incrementAuthenticationFailureCounter(authenticationFailureReason.name().toLowerCase(), platformTag);
+  private void recordAuthenticationFailure(
+      final AuthenticationFailureReason authenticationFailureReason, Tag platformTag, final AuthenticationEvent event) {
+    recordAuthenticationFailure(authenticationFailureReason.name().toLowerCase(), platformTag, event);
   }
 
-  private void incrementAuthenticationFailureCounter(final String reason, Tag platformTag) {
-    meterRegistry.counter(AUTHENTICATION_COUNTER_NAME,
-        List.of(
-            Tag.of(OUTCOME_TAG_NAME, "failure"),
-            Tag.of(FAILURE_REASON_TAG_NAME, reason),
-            platformTag)).increment();
+  private void recordAuthenticationFailure(final String reason, Tag platformTag,
+      final AuthenticationEvent event) {
+    authenticationFailureCounters.get(new AuthenticationFailure(reason, platformTag)).increment();
+
+    event.outcome = "failure";
+    event.failureReason = reason;
+    event.commit();
   }
 
-  private boolean isValid(final String username, final Instant timestamp, final byte[] signature) {
-    return isValidTime(timestamp) && isValidSignature(username, timestamp, signature);
+  private boolean isValid(final String username, final String token, final AuthenticationEvent event) {
+    final VerifiedCredential credential = new VerifiedCredential(username, token);
+    final Instant verifiedTimestamp = verifiedCredentials.getIfPresent(credential);
+
+    if (verifiedTimestamp != null) {
+      verifiedCredentialCacheHitCounter.increment();
+      event.cachedCredential = true;
+      return isValidTime(verifiedTimestamp);
+    }
+
+    final TimestampAndSignature timestampAndSignature = parseToken(token);
+    final Instant timestamp = timestampAndSignature.timestamp();
+
+    if (isValidTime(timestamp) && isValidSignature(username, timestamp, timestampAndSignature.signature())) {
+      verifiedCredentials.put(credential, timestamp);
+      return true;
+    }
+
+    return false;
   }
 
   @VisibleForTesting
@@ -148,19 +257,54 @@ public class ExternalServiceTokenAuthenticationProvider implements Authenticatio
 
   @VisibleForTesting
   boolean isValidSignature(final String username, final Instant timestamp, final byte[] signature) {
-    try {
-      final Mac hmac = Mac.getInstance(ALGORITHM);
-      hmac.init(new SecretKeySpec(sharedSecret, ALGORITHM));
+    if (signature.length != SIGNATURE_LENGTH) {
+      return false;
+    }
+
+    final HmacState state = hmacState.get();
 
-      final String prefix = username + ":" + timestamp.getEpochSecond();
+    // The signed prefix is "username:timestamp"
+    state.hmac.update(username.getBytes(StandardCharsets.UTF_8));
+    state.hmac.update((byte) ':');
+    final int timestampStart = writeDecimal(timestamp.getEpochSecond(), state.timestampDigits);
+    state.hmac.update(state.timestampDigits, timestampStart, state.timestampDigits.length - timestampStart);
 
-      final byte[] ourSuffix = Arrays.copyOf(hmac.doFinal(prefix.getBytes()), 10);  // truncate to 10 bytes
-      return MessageDigest.isEqual(ourSuffix, signature);
-    } catch (final NoSuchAlgorithmException | InvalidKeyException e) {
-      // We checked the key at construction time and all Java implementations are required to support HmacSHA256, so
-      // neither of these cases can ever actually happen.
+    try {
+      state.hmac.doFinal(state.output, 0);
+    } catch (final ShortBufferException e) {
+      // The output buffer is sized to the MAC length
       throw new AssertionError(e);
     }
+
+    // Compare against the signature (our MAC truncated to 10 bytes) in constant time
+    int difference = 0;
+    for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+      difference |= state.output[i] ^ signature[i];
+    }
+
+    return difference == 0;
+  }
+
+  /**
+   * Writes the ASCII decimal representation of a value to the end of the given buffer.
+   *
+   * @return the index of the first byte written
+   */
+  private static int writeDecimal(final long value, final byte[] buffer) {
+    // Work with non-positive values so that Long.MIN_VALUE doesn't overflow
+    long remaining = value < 0 ? value : -value;
+    int position = buffer.length;
+
+    do {
+      buffer[--position] = (byte) ('0' - (remaining % 10));
+      remaining /= 10;
+    } while (remaining != 0);
+
+    if (value < 0) {
+      buffer[--position] = '-';
+    }
+
+    return position;
   }
 
   @VisibleForTesting
@@ -182,8 +326,8 @@ public class ExternalServiceTokenAuthenticationProvider implements Authenticatio
     final byte[] signature;
 
     try {
-      signature = Hex.decodeHex(token.substring(separatorIndex + 1).toCharArray());
-    } catch (final DecoderException e) {
+      signature = HexFormat.of().parseHex(token, separatorIndex + 1, token.length());
+    } catch (final IllegalArgumentException e) {
       throw new IllegalArgumentException("Failed to parse token signature", e);
     }
 
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Accepts batches of directory entries, as when the directory is replayed into a new enclave table.
+ */
+@FunctionalInterface
+public interface DirectoryLoader {
+
+  /**
+   * Loads a batch of directory entries.
+   *
+   * @param entries the entries to load
+   *
+   * @return a future that completes when the entries have been loaded
+   */
+  CompletableFuture<Void> load(List<DirectoryEntry> entries);
+}
@@ -15,40 +15,53 @@ import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
 import io.micronaut.context.annotation.Context;
 import io.micronaut.scheduling.annotation.Scheduled;
 import jakarta.inject.Named;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
 import java.util.stream.LongStream;
+import javax.annotation.Nullable;
 import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.metrics.EnumMeters;
 import org.signal.cdsi.proto.EnclaveLoad;
 import org.signal.cdsi.proto.TableStatistics;
+import org.signal.cdsi.proto.Value;
+import org.signal.cdsi.startup.StartupPhases;
+import org.signal.cdsi.trace.SessionTrace;
+import org.signal.cdsi.trace.SessionTrace.Stage;
 import org.signal.libsignal.cds2.AttestationDataException;
 import org.signal.libsignal.cds2.Cds2Metrics;
 import org.slf4j.Logger;
@@ -57,19 +70,43 @@ import org.slf4j.LoggerFactory;
 @Context
 public class Enclave implements AutoCloseable {
 
-  private final long id;
+  private volatile EnclaveInstance currentInstance;
+  private final Map<Long, EnclaveInstance> instances = new ConcurrentHashMap<>();
 
   private final TokenRateLimiter tokenRateLimiter;
   private final MeterRegistry meterRegistry;
   private final ExecutorService jniExecutor;
   private final Clock clock;
+  private final StartupPhases startupPhases;
 
   private final ByteString tokenSecret;
   private final int numShards;
   private final int maxOutstandingRequests;
   private final boolean omitPermitsUsed;
+  private final String enclaveResource;
+  private final double loadFactor;
+  private final boolean simulated;
+  private final boolean bulkInitialLoad;
+  private final Duration callWatchdogTimeout;
+  private final Duration bulkBuildCallTimeout;
+  @Nullable
+  private final EnclaveCpuPlacement cpuPlacement;
+  private final int switchlessWorkers;
+  private volatile long availableEpcMemory;
+
+  private final Object resizeLock = new Object();
+
+  // Loads made while a resize is replaying the directory into a new instance; guarded by resizeLock
+  @Nullable
+  private List<EnclaveLoad> resizeJournal;
+
+  // Whether tuples are being staged in the current instance for a bulk build of its table; guarded by resizeLock
+  private boolean bulkLoadInProgress;
 
   private final AtomicBoolean isClosed = new AtomicBoolean(false);
+  // Switchless calls that have been submitted, by call ID; call IDs are never 0
+  private final Map<Long, CompletableFuture<Long>> switchlessCalls = new ConcurrentHashMap<>();
+  private final AtomicLong nextSwitchlessCallId = new AtomicLong(0);
   private final AtomicInteger outstandingRequestCount = new AtomicInteger(0);
 
   private final AtomicReference<Instant> lastAttestationTimestamp = new AtomicReference<>();
@@ -77,7 +114,8 @@ public class Enclave implements AutoCloseable {
   private final Map<String, AtomicLong> attestationMetrics = new HashMap<>();
   @VisibleForTesting
   final AtomicLong activeEntries;
-  private final long capacity;
+  // The most recently fetched table statistics, from which table and shard metrics are published
+  private volatile TableStatistics lastTableStatistics = TableStatistics.getDefaultInstance();
 
   private final DistributionSummary requestSizeDistributionSummary;
 
@@ -86,14 +124,181 @@ public class Enclave implements AutoCloseable {
   @VisibleForTesting
   static final String JNI_EXECUTOR_NAME = "enclave-jni";
 
-  private static final String CLIENT_CREATE_TIMER_NAME = name(Enclave.class, "nativeClientCreate");
-  private static final String LOAD_DATA_TIMER_NAME = name(Enclave.class, "nativeLoadData");
-  private static final String HANDSHAKE_TIMER_NAME = name(Enclave.class, "nativeClientHandshake");
-  private static final String RATE_LIMIT_TIMER_NAME = name(Enclave.class, "nativeClientRateLimit");
-  private static final String RUN_TIMER_NAME = name(Enclave.class, "nativeClientRun");
-  private static final String ATTEST_TIMER_NAME = name(Enclave.class, "nativeAttest");
-  private static final String CLOSE_CLIENT_TIMER_NAME = name(Enclave.class, "nativeClientClose");
-  private static final String TABLE_STATISTICS_TIMER_NAME = name(Enclave.class, "nativeEnclaveTableStatistics");
+  private static final int CALIBRATION_BATCH_SIZE = 4096;
+
+  // Upper bounds of all but the last bucket of each shard's ORAM access latency histogram; mirrors
+  // SHARD_ORAM_LATENCY_BUCKET_MICROS and SHARD_ORAM_LATENCY_BUCKETS in c/util/statistics.h
+  private static final long[] ORAM_ACCESS_LATENCY_BUCKET_MICROS = {8, 16, 32, 64, 128, 256, 512, 1024, 2048};
+
+  // Room for one serialized ShardStatistics entity
+  private static final int SHARD_STATISTICS_BYTES = 2048;
+  private static final long CALIBRATION_E164_BASE = 18000000000L;
+
+  private static final EnclaveCpuPlacement.ThreadAffinity NATIVE_THREAD_AFFINITY =
+      new EnclaveCpuPlacement.ThreadAffinity() {
+        @Override
+        public boolean pinShardThreads(final long enclaveHandle, final int[] cpus) {
+          return nativePinShardThreads(enclaveHandle, cpus);
+        }
+
+        @Override
+        public boolean setThreadAffinity(final int threadId, final int[] cpus) {
+          return nativeSetThreadAffinity(threadId, cpus);
+        }
+      };
+
+  /**
+   * Native operations, each of which is timed by its own timer; {@link #RUN} has one timer per {@link QueryStrategy}
+   */
+  private enum NativeOperation {
+    CLIENT_CREATE("nativeClientCreate"),
+    LOAD_DATA("nativeLoadData"),
+    HANDSHAKE("nativeClientHandshake"),
+    RATE_LIMIT("nativeClientRateLimit"),
+    RUN("nativeClientRun"),
+    ATTEST("nativeAttest"),
+    CLOSE_CLIENT("nativeClientClose"),
+    TABLE_STATISTICS("nativeEnclaveTableStatistics");
+
+    private final String timerName;
+
+    NativeOperation(final String timerName) {
+      this.timerName = name(Enclave.class, timerName);
+    }
+  }
+
+  private final EnumMeters<NativeOperation, Timer> nativeOperationTimers;
+
+  /**
+   * The ways in which the enclave can look up a request's e164s, in the order of the values reported by
+   * {@code nativeClientRun}
+   */
+  private enum QueryStrategy {
+    // One ORAM access (or a few) per e164
+    ORAM,
+    // A single oblivious pass over every shard's whole table, cheaper for large requests
+    SCAN
+  }
+
+  private final EnumMeters<QueryStrategy, Timer> runTimers;
+  private final EnclaveCallWatchdog callWatchdog;
+
+  private final AtomicReference<ShardThreadHeartbeat> lastShardThreadHeartbeat = new AtomicReference<>();
+
+  /**
+   * A sample of the number of shard threads running in the enclave.
+   *
+   * @param runningShardThreads the number of running shard threads
+   * @param timestamp the time at which the sample was taken
+   */
+  public record ShardThreadHeartbeat(int runningShardThreads, Instant timestamp) {
+  }
+
+  /**
+   * A native enclave instance. The enclave normally has exactly one, but a resize builds a replacement table in a
+   * second instance while the first continues to serve. Every client and every native call holds a reference to the
+   * instance it uses, and the enclave holds one for its current instance; an instance is closed when its last
+   * reference is released, and so clients created before a resize finish their sessions against the table they started
+   * with.
+   */
+  private class EnclaveInstance {
+
+    private final long handle;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    @Nullable
+    private final Thread switchlessPoller;
+
+    EnclaveInstance(final long handle) {
+      this.handle = handle;
+      instances.put(handle, this);
+
+      if (switchlessWorkers > 0) {
+        switchlessPoller = new Thread(this::pollSwitchlessCompletions, "enclave-switchless-poller-" + handle);
+        switchlessPoller.setDaemon(true);
+        switchlessPoller.start();
+      } else {
+        switchlessPoller = null;
+      }
+    }
+
+    /**
+     * Completes switchless calls as they finish, until the instance's switchless calls have been stopped and every
+     * submitted call has finished.
+     */
+    private void pollSwitchlessCompletions() {
+      final long[] callId = new long[1];
+
+      while (true) {
+        long value = 0;
+        EnclaveException failure = null;
+
+        try {
+          value = nativeAwaitSwitchlessCompletion(handle, callId);
+        } catch (final EnclaveException e) {
+          failure = e;
+        }
+
+        if (callId[0] == 0) {
+          return;
+        }
+
+        final CompletableFuture<Long> call = switchlessCalls.remove(callId[0]);
+
+        if (call == null) {
+          logger.warn("Completed unknown switchless call {}", callId[0]);
+        } else if (failure != null) {
+          call.completeExceptionally(failure);
+        } else {
+          call.complete(value);
+        }
+      }
+    }
+
+    boolean retain() {
+      int count;
+
+      do {
+        count = references.get();
+
+        if (count == 0) {
+          return false;
+        }
+      } while (!references.compareAndSet(count, count + 1));
+
+      return true;
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        try {
+          close();
+        } catch (final EnclaveException e) {
+          logger.warn("Failed to close retired enclave instance", e);
+        }
+      }
+    }
+
+    void close() throws EnclaveException {
+      if (closed.compareAndSet(false, true)) {
+        instances.remove(handle);
+
+        if (switchlessPoller != null) {
+          // Finishes every submitted call; the poller exits once it has completed them all
+          nativeStopSwitchless(handle);
+
+          try {
+            switchlessPoller.join();
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+
+        nativeEnclaveClose(handle);
+      }
+    }
+  }
 
   private static final AtomicReference<String> LOADED_LIBRARY = new AtomicReference<>();
 
@@ -101,7 +306,12 @@ public class Enclave implements AutoCloseable {
   static void loadSharedLibrary(String enclaveId) throws IOException {
     String old = LOADED_LIBRARY.getAndSet(enclaveId);
     if (old == null) {
-      System.load(extractResource("libjnishim-" + enclaveId + ".so").getAbsolutePath());
+      // The library stays mapped once it's loaded, so its file can be removed right away
+      try (final EnclaveArtifactExtractor.Artifact library =
+          EnclaveArtifactExtractor.extract("libjnishim-" + enclaveId + ".so")) {
+
+        System.load(library.path().toAbsolutePath().toString());
+      }
     } else if (!old.equals(enclaveId)) {
       throw new IllegalStateException("Attempt to load different enclave ID shared library, only one can be loaded per run of CDSI");
     }
@@ -125,6 +335,7 @@ public class Enclave implements AutoCloseable {
    * @param jniExecutor an executor service to manage access to native enclave functions; must not allow more than
    *                    {@code NumTCS} (defined in the enclave's build configuration file) concurrent operations
    * @param clock a time source used to identify the time of the most recent successful attestation
+   * @param startupPhases reports the duration of each phase of the enclave's initialization
    *
    * @throws IOException if the enclave binary or its JNI shim library could not be read for any reason
    * @throws EnclaveException if the enclave reported a problem of any kind during initialization
@@ -133,25 +344,80 @@ public class Enclave implements AutoCloseable {
       final TokenRateLimiter tokenRateLimiter,
       final MeterRegistry meterRegistry,
       @Named(JNI_EXECUTOR_NAME) final ExecutorService jniExecutor,
-      final Clock clock) throws IOException, EnclaveException {
+      final Clock clock,
+      final StartupPhases startupPhases) throws IOException, EnclaveException {
 
     this.tokenRateLimiter = tokenRateLimiter;
     this.meterRegistry = meterRegistry;
     this.jniExecutor = jniExecutor;
     this.clock = clock;
+    this.startupPhases = startupPhases;
+    // Runs are timed by runTimers instead, as a timer can't be registered both with and without tags
+    this.nativeOperationTimers = new EnumMeters<>(NativeOperation.class, operation -> operation == NativeOperation.RUN
+        ? null
+        : meterRegistry.timer(operation.timerName));
+    this.runTimers = new EnumMeters<>(QueryStrategy.class,
+        strategy -> meterRegistry.timer(NativeOperation.RUN.timerName, "strategy", strategy.name().toLowerCase()));
+    this.callWatchdogTimeout = enclaveConfiguration.getCallWatchdogTimeout();
+    this.bulkBuildCallTimeout = enclaveConfiguration.getBulkBuildCallTimeout();
+    this.callWatchdog = new EnclaveCallWatchdog(clock, callWatchdogTimeout, meterRegistry);
 
     this.tokenSecret = ByteString.copyFrom(enclaveConfiguration.getTokenSecret(), StandardCharsets.UTF_8);
     this.maxOutstandingRequests = enclaveConfiguration.getMaxOutstandingRequests();
-    this.numShards = enclaveConfiguration.getShards();
     this.omitPermitsUsed = enclaveConfiguration.isOmitPermitsUsed();
+    this.simulated = enclaveConfiguration.isSimulated();
+    this.bulkInitialLoad = enclaveConfiguration.isBulkInitialLoad();
+    this.availableEpcMemory = enclaveConfiguration.getAvailableEpcMemory();
+    this.switchlessWorkers = enclaveConfiguration.getSwitchlessWorkers();
 
+    // Each switchless worker holds a TCS, and each caller thread needs one when it falls back to an ordinary ecall
+    final int nonShardTcs = getMaxConcurrentCalls(jniExecutor) + 2 * switchlessWorkers;
+
+    final long artifactsStart = System.nanoTime();
     loadSharedLibrary(enclaveConfiguration.getEnclaveId());
+    this.enclaveResource = "enclave-" + enclaveConfiguration.getEnclaveId() + ".signed";
+    startupPhases.record("enclaveArtifacts", Duration.ofNanos(System.nanoTime() - artifactsStart));
+
+    // Restrict existing threads before any shard threads start, so that shard threads and everything else inherit the
+    // restriction unless they're pinned elsewhere
+    this.cpuPlacement =
+        EnclaveCpuPlacement.fromConfiguration(enclaveConfiguration, NATIVE_THREAD_AFFINITY).orElse(null);
+
+    if (cpuPlacement != null) {
+      cpuPlacement.restrictProcessThreads();
 
-    this.id = nativeEnclaveInit(enclaveConfiguration.getAvailableEpcMemory(),
-        enclaveConfiguration.getLoadFactor(),
-        this.numShards,
-        extractResource("enclave-" + enclaveConfiguration.getEnclaveId() + ".signed").getAbsolutePath(),
-        enclaveConfiguration.isSimulated());
+      if (cpuPlacement.getJniCpuCount() > 0 && getMaxConcurrentCalls(jniExecutor) > cpuPlacement.getJniCpuCount()) {
+        logger.warn("JNI executor runs {} threads on {} JNI CPUs; threads will contend for cores",
+            getMaxConcurrentCalls(jniExecutor), cpuPlacement.getJniCpuCount());
+      }
+    }
+
+    if (enclaveConfiguration.isAutoTune()) {
+      final long calibrationStart = System.nanoTime();
+      final EnclaveAutoTuner.Tuning tuning =
+          new EnclaveAutoTuner(enclaveConfiguration, nonShardTcs, this::calibrate).tune();
+      startupPhases.record("enclaveCalibration", Duration.ofNanos(System.nanoTime() - calibrationStart));
+
+      this.numShards = tuning.shards();
+      this.loadFactor = tuning.loadFactor();
+    } else {
+      this.numShards = enclaveConfiguration.getShards();
+      this.loadFactor = enclaveConfiguration.getLoadFactor();
+    }
+
+    // Every shard thread holds a TCS for the life of the enclave, too
+    if (numShards + nonShardTcs > enclaveConfiguration.getNumTcs()) {
+      throw new IllegalStateException(String.format(
+          "%d shard threads, %d JNI threads and %d switchless workers need %d TCS, but the enclave only has %d",
+          numShards, getMaxConcurrentCalls(jniExecutor), switchlessWorkers, numShards + nonShardTcs,
+          enclaveConfiguration.getNumTcs()));
+    }
+
+    final long initStart = System.nanoTime();
+    this.currentInstance = new EnclaveInstance(
+        placeShardThreads(
+            createEnclave(availableEpcMemory, loadFactor, numShards, simulated, switchlessWorkers)));
+    startupPhases.record("enclaveInit", Duration.ofNanos(System.nanoTime() - initStart));
 
     this.requestSizeDistributionSummary = DistributionSummary.builder(name(getClass(), "requestSize"))
         .distributionStatisticExpiry(Duration.ofHours(2))
@@ -159,10 +425,13 @@ public class Enclave implements AutoCloseable {
     this.openClientCount = meterRegistry.gauge(name(getClass(), "openClients"), new AtomicInteger(0));
     this.activeEntries = meterRegistry.gauge(name(getClass(), "activeEntries"), new AtomicLong(0));
 
-    this.capacity = getCapacity(getTableStatistics().join());
+    // Table statistics are only reported as metrics, and so there's no need to hold up startup while we fetch them
+    startupPhases.run("enclaveTableStatistics", this::refreshTableStatistics);
+
+    meterRegistry.gauge(name(getClass(), "entries"), this, enclave -> getEntryCount(enclave.lastTableStatistics));
+    meterRegistry.gauge(name(getClass(), "capacity"), this, enclave -> getCapacity(enclave.lastTableStatistics));
 
-    meterRegistry.gauge(name(getClass(), "entries"), this, enclave -> getEntryCount(enclave.getTableStatistics().join()));
-    meterRegistry.gauge(name(getClass(), "capacity"), this, enclave -> enclave.capacity);
+    registerShardMeters();
 
     // publish the server's clock time so metric consumers may compare it to expiration times in
     // the attestation metrics
@@ -172,37 +441,90 @@ public class Enclave implements AutoCloseable {
         this,
         TimeUnit.SECONDS,
         enclave -> enclave.clock.instant().getEpochSecond());
+
+    runWatchdog();
+  }
+
+  /**
+   * Samples the number of running shard threads and reports native calls that have stalled. Neither requires a call
+   * into the enclave, and so this runs on its own schedule rather than competing with client requests when a health
+   * check needs the results.
+   */
+  @Scheduled(fixedDelay = "${enclave.watchdogInterval:5s}")
+  void runWatchdog() {
+    if (!isClosed.get()) {
+      lastShardThreadHeartbeat.set(new ShardThreadHeartbeat(getRunningShardThreadCount(), clock.instant()));
+    }
+
+    callWatchdog.checkForStalledCalls();
+  }
+
+  @Scheduled(fixedDelay = "${enclave.tableStatisticsInterval:15s}")
+  void pollTableStatistics() {
+    if (!isClosed.get()) {
+      // Fetching statistics finishes asynchronously, so the scheduler's thread isn't held while it runs
+      refreshTableStatistics();
+    }
+  }
+
+  /**
+   * Fetches the table statistics from which table and shard metrics are published. Metrics report the most recently
+   * fetched statistics rather than fetching them when they're published, so that publishing metrics never waits for a
+   * native call. Failures are logged, and metrics continue to report the last statistics fetched.
+   *
+   * @return a future that completes when the statistics have been fetched or the fetch has failed
+   */
+  public CompletableFuture<Void> refreshTableStatistics() {
+    return getTableStatistics()
+        .thenAccept(tableStatistics -> lastTableStatistics = tableStatistics)
+        .exceptionally(cause -> {
+          logger.warn("Failed to fetch table statistics", cause);
+          return null;
+        });
   }
 
   @Scheduled(fixedDelay = "${enclave.attestationRefreshInterval:10m}", initialDelay = "${enclave.attestationInitialDelay:0s}")
   void renewAttestation() {
-    try {
-      runAsync(ATTEST_TIMER_NAME, () -> {
-        try {
-          nativeEnclaveAttest(id);
-
-          synchronized (lastAttestationTimestamp) {
-            lastAttestationTimestamp.set(clock.instant());
-            lastAttestationTimestamp.notifyAll();
-          }
+    final EnclaveInstance instance = acquireCurrentInstance();
 
-          // fetch the ereport we just made
-          final ByteBuffer ereport = ByteBuffer.allocateDirect(32 << 10);
-          nativeClientClose(id, nativeClientCreate(id, ereport));
-          publishAttestationMetrics(ByteBuffer.allocate(ereport.remaining()).put(ereport).array());
-        } catch (final EnclaveException | AttestationDataException e) {
-          throw new CompletionException(e);
-        }
-      }).join();
+    try {
+      attest(instance).join();
     } catch (final CompletionException e) {
       if (e.getCause() instanceof RejectedExecutionException) {
         logger.debug("Attempted to renew attestation after enclave closure");
       } else {
         logger.warn("Failed to renew attestation", e);
       }
+    } finally {
+      instance.release();
     }
   }
 
+  private CompletableFuture<Void> attest(final EnclaveInstance instance) {
+    final long attestationStart = System.nanoTime();
+
+    return runAsync(NativeOperation.ATTEST, new EnclaveCallEvent(0, 0), () -> {
+      try {
+        nativeEnclaveAttest(instance.handle);
+
+        synchronized (lastAttestationTimestamp) {
+          if (lastAttestationTimestamp.getAndSet(clock.instant()) == null) {
+            startupPhases.record("initialAttestation", Duration.ofNanos(System.nanoTime() - attestationStart));
+          }
+
+          lastAttestationTimestamp.notifyAll();
+        }
+
+        // fetch the ereport we just made
+        final ByteBuffer ereport = ByteBuffer.allocateDirect(32 << 10);
+        nativeClientClose(instance.handle, nativeClientCreate(instance.handle, ereport));
+        publishAttestationMetrics(ByteBuffer.allocate(ereport.remaining()).put(ereport).array());
+      } catch (final EnclaveException | AttestationDataException e) {
+        throw new CompletionException(e);
+      }
+    });
+  }
+
   private void publishAttestationMetrics(final byte[] ereport) throws AttestationDataException {
 
     // Lazily instantiate this gauge on successful attestation to avoid situations where we report a
@@ -258,91 +580,474 @@ public class Enclave implements AutoCloseable {
     return isClosed.get();
   }
 
-  private static File extractResource(final String resource) throws IOException {
-
-    final File tempFile = Files.createTempFile("resource", "").toFile();
-    tempFile.deleteOnExit();
-
-    logger.debug("Extracting resource '{}' into '{}'", resource, tempFile.getAbsolutePath());
-
-    try (final OutputStream out = new FileOutputStream(tempFile);
-        final InputStream in = Enclave.class.getResourceAsStream(resource)) {
-
-      if (in == null) {
-        throw new IOException("No such resource: " + resource);
-      }
-
-      in.transferTo(out);
-    }
-
-    return tempFile;
-  }
-
+  /**
+   * Returns a direct buffer whose entire capacity is the remaining content of the given buffer, as the JNI shim
+   * expects. Direct buffers are sliced rather than copied.
+   */
   private static ByteBuffer direct(ByteBuffer in) {
-    if (in.isDirect()) return in;
+    if (in.isDirect()) return in.slice();
     return ByteBuffer.allocateDirect(in.remaining()).put(in).flip();
    }
 
   public CompletableFuture<EnclaveClient> newClient(String key) {
-    return supplyAsync(CLIENT_CREATE_TIMER_NAME, () -> {
+    return newClient(key, null);
+  }
+
+  /**
+   * Creates a new client for a session.
+   *
+   * @param key the client's rate limit key
+   * @param trace the trace of the client's session, if it's being traced
+   */
+  public CompletableFuture<EnclaveClient> newClient(String key, @Nullable SessionTrace trace) {
+    final EnclaveCallEvent event = new EnclaveCallEvent(0, 0);
+    final EnclaveInstance instance = acquireCurrentInstance();
+
+    return supplyAsync(NativeOperation.CLIENT_CREATE, event, () -> {
       final ByteBuffer ereport = ByteBuffer.allocateDirect(32 << 10);
       final long clientId;
       try {
-        clientId = nativeClientCreate(id, ereport);
+        clientId = nativeClientCreate(instance.handle, ereport);
       } catch (final EnclaveException e) {
         throw new CompletionException(e);
       }
+      event.clientId = clientId;
+      event.bytesOut = ereport.limit();
 
-      final EnclaveClient client = new EnclaveClient(this, clientId, key, this.tokenRateLimiter, ereport);
+      final EnclaveClient client =
+          new EnclaveClient(this, instance.handle, clientId, key, this.tokenRateLimiter, ereport, trace);
       openClientCount.addAndGet(1);
       return client;
+    }).whenComplete((client, cause) -> {
+      // A client holds its reference to the instance until it's closed
+      if (cause != null) {
+        instance.release();
+      }
     });
   }
 
   public CompletableFuture<Void> loadData(final List<DirectoryEntry> entries, final boolean clearAll) {
+    final EnclaveLoad load = buildLoad(entries, clearAll, this::countActiveEntry);
+
+    final EnclaveInstance instance;
+
+    synchronized (resizeLock) {
+      if (resizeJournal != null) {
+        resizeJournal.add(load);
+      }
+
+      instance = acquireCurrentInstance();
+    }
+
+    return loadData(instance, load).whenComplete((ignored, cause) -> instance.release());
+  }
+
+  /**
+   * Returns a loader for the initial population of the directory. If the enclave is configured for bulk initial loads,
+   * the loader stages every entry in the enclave and builds the table from all of them at once when the load is
+   * finished, which is much faster than inserting each entry in turn; otherwise, it loads entries as
+   * {@link #loadData(List, boolean)} does. Entries must not be loaded by other means until the initial load has
+   * finished.
+   *
+   * @return a loader for the initial population of the directory
+   */
+  public InitialDirectoryLoader startInitialLoad() {
+    return new InitialDirectoryLoader(this, bulkInitialLoad);
+  }
+
+  /**
+   * Stages a batch of entries for a bulk build of the current instance's table, building the table if this is the last
+   * batch. Batches must be loaded one at a time and in order.
+   *
+   * @param entries the entries to stage
+   * @param first whether this is the first batch of the bulk load, which clears the table
+   * @param complete whether this is the last batch of the bulk load, after which the table is built
+   *
+   * @return a future that completes when the entries have been staged and, for the last batch, the table built
+   *
+   * @see InitialDirectoryLoader
+   */
+  CompletableFuture<Void> loadBulkData(final List<DirectoryEntry> entries, final boolean first,
+      final boolean complete) {
+
+    final EnclaveLoad load = buildLoad(entries, first, this::countActiveEntry).toBuilder()
+        .setBulkLoad(true)
+        .setBulkLoadComplete(complete)
+        .build();
+
+    final EnclaveInstance instance;
+
+    synchronized (resizeLock) {
+      if (first) {
+        if (resizeJournal != null) {
+          return CompletableFuture.failedFuture(
+              new IllegalStateException("Can't start a bulk load while a resize is in progress"));
+        }
+
+        if (bulkLoadInProgress) {
+          return CompletableFuture.failedFuture(new IllegalStateException("A bulk load is already in progress"));
+        }
+
+        bulkLoadInProgress = true;
+      } else if (!bulkLoadInProgress) {
+        return CompletableFuture.failedFuture(new IllegalStateException("No bulk load is in progress"));
+      }
+
+      instance = acquireCurrentInstance();
+    }
+
+    // Building the table visits every entry several times, and may take much longer than any other call
+    return loadData(instance, load, complete ? bulkBuildCallTimeout : callWatchdogTimeout)
+        .whenComplete((ignored, cause) -> {
+          if (complete || cause != null) {
+            synchronized (resizeLock) {
+              bulkLoadInProgress = false;
+            }
+          }
+
+          instance.release();
+        });
+  }
+
+  private void countActiveEntry(final DirectoryEntry entry) {
+    if (entry.isDeletion()) {
+      activeEntries.decrementAndGet();
+    } else {
+      activeEntries.incrementAndGet();
+    }
+  }
+
+  private CompletableFuture<Void> loadData(final EnclaveInstance instance, final EnclaveLoad load) {
+    return loadData(instance, load, callWatchdogTimeout);
+  }
+
+  private CompletableFuture<Void> loadData(final EnclaveInstance instance, final EnclaveLoad load,
+      final Duration watchdogTimeout) {
+
+    final EnclaveCallEvent event = new EnclaveCallEvent(0, load.getSerializedSize());
+
+    if (switchlessWorkers > 0) {
+      return callSwitchless(NativeOperation.LOAD_DATA, event, watchdogTimeout,
+          callId -> nativeSubmitLoadData(instance.handle, callId, direct(load.toByteString().asReadOnlyByteBuffer())),
+          ignored -> null);
+    }
+
+    return runAsync(NativeOperation.LOAD_DATA, event, watchdogTimeout,
+        () -> {
+          try {
+            nativeLoadData(instance.handle, direct(load.toByteString().asReadOnlyByteBuffer()));
+          } catch (final EnclaveException e) {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  private EnclaveLoad buildLoad(final List<DirectoryEntry> entries, final boolean clearAll,
+      final Consumer<DirectoryEntry> validEntryConsumer) {
+
     try (final ByteString.Output triples = ByteString.newOutput()) {
       entries.forEach(entry -> {
         try {
           entry.writeTo(triples);
-          if (entry.isDeletion()) {
-            activeEntries.decrementAndGet();
-          } else {
-            activeEntries.incrementAndGet();
-          }
+          validEntryConsumer.accept(entry);
         } catch (InvalidEntryException e) {
           logger.warn("Invalid entry received", e);
         }
       });
 
-      final EnclaveLoad load = EnclaveLoad.newBuilder()
+      return EnclaveLoad.newBuilder()
           .setE164AciPniUakTuples(triples.toByteString())
           .setClearAll(clearAll)
           .setSharedTokenSecret(tokenSecret)
           .build();
-
-      return runAsync(LOAD_DATA_TIMER_NAME,
-          () -> {
-            try {
-              nativeLoadData(id, direct(load.toByteString().asReadOnlyByteBuffer()));
-            } catch (final EnclaveException e) {
-              throw new CompletionException(e);
-            }
-          });
     } catch (final IOException e) {
       // This can never happen for an in-memory ByteString
       throw new AssertionError(e);
     }
   }
 
+  /**
+   * Replaces the enclave's table with one built from a different amount of memory. A new native enclave instance is
+   * initialized, and the directory is replayed into it while the current instance continues to serve clients and
+   * receive updates. Updates loaded while the replay is running are recorded and applied to the new instance once the
+   * replay has finished, and then new clients are created in the new instance. Clients created before the switch keep
+   * using the old instance, which is closed when the last of them has closed.
+   * <p>
+   * The host must have enough memory for both instances while the resize is running.
+   *
+   * @param availableEpcMemory the memory available to the new instance's table, in bytes
+   * @param replay loads every account into the given loader and returns a future that completes when it has done so
+   * @param executor an executor on which to initialize the new instance and to switch to it; both may block for some
+   *                 time
+   *
+   * @return a future that completes once new clients are being created in the new instance
+   */
+  CompletableFuture<Void> resize(final long availableEpcMemory,
+      final Function<DirectoryLoader, CompletableFuture<Void>> replay,
+      final Executor executor) {
+
+    synchronized (resizeLock) {
+      if (isClosed.get()) {
+        return CompletableFuture.failedFuture(new IllegalStateException("Enclave has been closed"));
+      }
+
+      if (resizeJournal != null) {
+        return CompletableFuture.failedFuture(new IllegalStateException("A resize is already in progress"));
+      }
+
+      if (bulkLoadInProgress) {
+        return CompletableFuture.failedFuture(
+            new IllegalStateException("Can't resize while a bulk load is in progress"));
+      }
+
+      resizeJournal = new ArrayList<>();
+    }
+
+    logger.info("Building new enclave table with {} bytes of available memory", availableEpcMemory);
+
+    final AtomicReference<EnclaveInstance> newInstance = new AtomicReference<>();
+
+    return CompletableFuture.supplyAsync(() -> {
+          try {
+            return placeShardThreads(
+                createEnclave(availableEpcMemory, loadFactor, numShards, simulated, switchlessWorkers));
+          } catch (final EnclaveException e) {
+            throw new CompletionException(e);
+          }
+        }, executor)
+        .thenCompose(handle -> {
+          synchronized (resizeLock) {
+            newInstance.set(new EnclaveInstance(handle));
+
+            if (isClosed.get()) {
+              throw new CompletionException(new IllegalStateException("Enclave was closed during resize"));
+            }
+          }
+
+          return replay.apply(entries -> loadData(newInstance.get(), buildLoad(entries, false, entry -> {})));
+        })
+        .thenCompose(ignored -> attest(newInstance.get()))
+        .thenRunAsync(() -> switchInstance(newInstance.get(), availableEpcMemory), executor)
+        .whenComplete((ignored, cause) -> {
+          if (cause != null) {
+            synchronized (resizeLock) {
+              resizeJournal = null;
+            }
+
+            if (newInstance.get() != null) {
+              newInstance.get().release();
+            }
+          }
+        });
+  }
+
+  private void switchInstance(final EnclaveInstance newInstance, final long newAvailableEpcMemory) {
+    final EnclaveInstance oldInstance;
+
+    synchronized (resizeLock) {
+      if (isClosed.get()) {
+        throw new IllegalStateException("Enclave was closed during resize");
+      }
+
+      // Catch up on updates that arrived while the directory was being replayed
+      for (final EnclaveLoad load : resizeJournal) {
+        loadData(newInstance, load).join();
+      }
+
+      logger.info("Switching to new enclave table after applying {} updates made during resize", resizeJournal.size());
+
+      resizeJournal = null;
+      oldInstance = currentInstance;
+      currentInstance = newInstance;
+      availableEpcMemory = newAvailableEpcMemory;
+    }
+
+    oldInstance.release();
+
+    refreshTableStatistics();
+  }
+
+  /**
+   * Registers meters for each shard's queue and activity statistics, tagged by shard. Like the table-wide meters, they
+   * report the most recently fetched table statistics.
+   */
+  private void registerShardMeters() {
+    for (int shard = 0; shard < numShards; shard++) {
+      final int shardIndex = shard;
+      final Tags shardTags = Tags.of("shard", String.valueOf(shard));
+      final ToLongFunction<String> statistic =
+          statisticName -> getShardStatisticValue(lastTableStatistics, shardIndex, statisticName);
+
+      meterRegistry.gauge(name(getClass(), "shardQueueDepth"), shardTags, this,
+          enclave -> statistic.applyAsLong("queue_depth"));
+      meterRegistry.gauge(name(getClass(), "maxShardQueueDepth"), shardTags, this,
+          enclave -> statistic.applyAsLong("max_queue_depth"));
+      meterRegistry.gauge(name(getClass(), "maxShardRequestItems"), shardTags, this,
+          enclave -> statistic.applyAsLong("max_request_items"));
+
+      meterRegistry.more().counter(name(getClass(), "shardRequestItems"), shardTags, this,
+          enclave -> statistic.applyAsLong("request_items"));
+      meterRegistry.more().timer(name(getClass(), "shardRequests"), shardTags, this,
+          enclave -> statistic.applyAsLong("requests"),
+          enclave -> statistic.applyAsLong("execute_nanos"), TimeUnit.NANOSECONDS);
+      meterRegistry.more().counter(name(getClass(), "shardWaitTime"), shardTags, this,
+          enclave -> statistic.applyAsLong("wait_nanos") / 1e9);
+
+      // Publish the latency histogram's buckets cumulatively, as Prometheus histograms do
+      for (int bucket = 0; bucket <= ORAM_ACCESS_LATENCY_BUCKET_MICROS.length; bucket++) {
+        final int lastBucket = bucket;
+        final String upperBound = bucket < ORAM_ACCESS_LATENCY_BUCKET_MICROS.length
+            ? String.valueOf(ORAM_ACCESS_LATENCY_BUCKET_MICROS[bucket])
+            : "+Inf";
+
+        meterRegistry.more().counter(name(getClass(), "shardOramAccessLatencyMicros"), shardTags.and("le", upperBound),
+            this, enclave -> IntStream.rangeClosed(0, lastBucket)
+                .mapToLong(b -> statistic.applyAsLong(getOramAccessLatencyBucketName(b)))
+                .sum());
+      }
+    }
+  }
+
+  /**
+   * Returns the name of the shard statistic that counts ORAM accesses in the given latency histogram bucket.
+   */
+  @VisibleForTesting
+  static String getOramAccessLatencyBucketName(final int bucket) {
+    return bucket < ORAM_ACCESS_LATENCY_BUCKET_MICROS.length
+        ? "oram_access_latency_lt_" + ORAM_ACCESS_LATENCY_BUCKET_MICROS[bucket] + "us"
+        : "oram_access_latency_ge_" + ORAM_ACCESS_LATENCY_BUCKET_MICROS[ORAM_ACCESS_LATENCY_BUCKET_MICROS.length - 1]
+            + "us";
+  }
+
+  /**
+   * Creates a new enclave from a freshly extracted copy of the enclave binary. The enclave is fully loaded once it has
+   * been created, so the extracted copy is removed right away.
+   *
+   * @return a handle for the new enclave
+   */
+  private long createEnclave(final long availableMemory, final double loadFactor, final int numShards,
+      final boolean simulated, final int switchlessWorkers) throws EnclaveException {
+
+    try (final EnclaveArtifactExtractor.Artifact enclaveBinary = EnclaveArtifactExtractor.extract(enclaveResource)) {
+      return nativeEnclaveInit(availableMemory, loadFactor, numShards, enclaveBinary.path().toAbsolutePath().toString(),
+          simulated, switchlessWorkers);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Builds a single-shard table in a simulated-mode enclave, fills it with random entries and measures it.
+   *
+   * @see EnclaveAutoTuner
+   */
+  private EnclaveAutoTuner.Calibration calibrate(final long availableMemory, final double loadFactor,
+      final long entries) throws EnclaveException {
+
+    final long handle = createEnclave(availableMemory, loadFactor, 1, true, 0);
+
+    try {
+      final List<DirectoryEntry> batch = new ArrayList<>(CALIBRATION_BATCH_SIZE);
+      final Random random = new Random();
+
+      for (long i = 0; i < entries; i++) {
+        batch.add(new DirectoryEntry(CALIBRATION_E164_BASE + i,
+            randomBytes(random, 16), randomBytes(random, 16), randomBytes(random, 16)));
+
+        if (batch.size() == CALIBRATION_BATCH_SIZE || i == entries - 1) {
+          nativeLoadData(handle, direct(buildLoad(batch, false, entry -> {}).toByteString().asReadOnlyByteBuffer()));
+          batch.clear();
+        }
+      }
+
+      final ByteBuffer out = ByteBuffer.allocateDirect(SHARD_STATISTICS_BYTES);
+      nativeEnclaveTableStatistics(handle, out);
+
+      final TableStatistics tableStatistics = TableStatistics.parseFrom(out);
+
+      return new EnclaveAutoTuner.Calibration(getCapacity(tableStatistics),
+          getShardStatisticValues(tableStatistics, "oram_recursion_depth").max().orElse(0),
+          getShardStatisticValues(tableStatistics, "stash_overflow_ema10k").max().orElse(0) / 10_000.0);
+    } catch (final InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Could not parse calibration table statistics", e);
+    } finally {
+      nativeEnclaveClose(handle);
+    }
+  }
+
+  private static byte[] randomBytes(final Random random, final int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Pins a newly-initialized enclave instance's shard threads to their dedicated cores, if CPU placement is configured.
+   *
+   * @return the given enclave handle
+   */
+  private long placeShardThreads(final long enclaveHandle) {
+    if (cpuPlacement != null) {
+      cpuPlacement.pinShardThreads(enclaveHandle);
+    }
+
+    return enclaveHandle;
+  }
+
+  /**
+   * Returns the maximum number of native calls the given executor will run at once.
+   */
+  private static int getMaxConcurrentCalls(final ExecutorService executor) {
+    // JNI executors are thread pools in practice, and their core size is the number of threads they run
+    return executor instanceof ThreadPoolExecutor threadPoolExecutor ? threadPoolExecutor.getCorePoolSize() : 1;
+  }
+
+  /**
+   * Returns the number of shards in the enclave's table.
+   */
+  public int getShardCount() {
+    return numShards;
+  }
+
+  /**
+   * Returns the memory available to the current instance's table, in bytes.
+   */
+  long getAvailableEpcMemory() {
+    return availableEpcMemory;
+  }
+
+  private EnclaveInstance acquireCurrentInstance() {
+    while (true) {
+      final EnclaveInstance instance = currentInstance;
+
+      // An instance can only run out of references after it's been replaced, so try again with its replacement
+      if (instance.retain()) {
+        return instance;
+      }
+    }
+  }
+
   CompletableFuture<ByteBuffer> clientHandshake(final EnclaveClient client, final ByteBuffer in) {
     final ByteBuffer out = ByteBuffer.allocateDirect(1024);
 
-    return supplyAsync(HANDSHAKE_TIMER_NAME, () -> {
+    final EnclaveCallEvent event = new EnclaveCallEvent(client.getId(), in.remaining());
+
+    if (switchlessWorkers > 0) {
+      return callSwitchless(NativeOperation.HANDSHAKE, event, callWatchdogTimeout,
+          callId -> nativeSubmitClientHandshake(client.getEnclaveHandle(), callId, client.getId(), direct(in), out),
+          ignored -> {
+            event.bytesOut = out.limit();
+            return out;
+          });
+    }
+
+    return supplyAsync(NativeOperation.HANDSHAKE, event, () -> {
       try {
-        nativeClientHandshake(id, client.getId(), Enclave.direct(in), out);
+        nativeClientHandshake(client.getEnclaveHandle(), client.getId(), Enclave.direct(in), out);
       } catch (final EnclaveException e) {
         throw new CompletionException(e);
       }
+      event.bytesOut = out.limit();
       return out;
     });
   }
@@ -353,31 +1058,67 @@ public class Enclave implements AutoCloseable {
     // 32b proto field, +protofield metadata, +noise encryption overhead
     final ByteBuffer out = ByteBuffer.allocateDirect(128);
 
-    requestSizeDistributionSummary.record(request.remaining());
-
-    return supplyAsync(
-        RATE_LIMIT_TIMER_NAME,
-            () -> {
-              try {
-                return nativeClientRate(id, client.getId(), Enclave.direct(request), out, oldTokenHash, newTokenHash);
-              } catch (final EnclaveException e) {
-                throw new CompletionException(e);
-              }
-            })
-        .thenCompose(size -> tokenRateLimiter
-            .prepare(client.getRateLimitKey(), size, oldTokenHash, newTokenHash)
+    final int requestSize = request.remaining();
+    requestSizeDistributionSummary.record(requestSize);
+
+    final EnclaveCallEvent event = new EnclaveCallEvent(client.getId(), requestSize);
+
+    final Function<Integer, Integer> finish = size -> {
+      event.bytesOut = out.limit();
+      // the enclave leaves the old token hash empty if the client didn't present a token
+      client.recordRateLimit(requestSize, size, oldTokenHash.hasRemaining());
+      return size;
+    };
+
+    return client.trace(Stage.ENCLAVE_RATE_LIMIT, () -> switchlessWorkers > 0
+            ? callSwitchless(NativeOperation.RATE_LIMIT, event, callWatchdogTimeout,
+                callId -> nativeSubmitClientRate(client.getEnclaveHandle(), callId, client.getId(),
+                    Enclave.direct(request), out, oldTokenHash, newTokenHash),
+                size -> finish.apply(size.intValue()))
+            : supplyAsync(
+                NativeOperation.RATE_LIMIT,
+                event,
+                () -> {
+                  try {
+                    return finish.apply(nativeClientRate(client.getEnclaveHandle(), client.getId(),
+                        Enclave.direct(request), out, oldTokenHash, newTokenHash));
+                  } catch (final EnclaveException e) {
+                    throw new CompletionException(e);
+                  }
+                }))
+        .thenCompose(size -> client.trace(Stage.TOKEN_PREPARE, () -> tokenRateLimiter
+            .prepare(client.getRateLimitKey(), size, oldTokenHash, newTokenHash))
             .thenApply(ignore -> out));
   }
 
   CompletableFuture<ByteBuffer> clientRun(final EnclaveClient client, final int permitsUsed, final ByteBuffer clientAck,
       final ByteBuffer out) {
-    return supplyAsync(RUN_TIMER_NAME, () -> {
+    final EnclaveCallEvent event = new EnclaveCallEvent(client.getId(), clientAck.remaining());
+
+    // Calls that fail before the enclave reports a strategy are timed as per-key lookups, the enclave's default
+    final QueryStrategy[] strategy = {QueryStrategy.ORAM};
+    final Supplier<Timer> timer = () -> runTimers.get(strategy[0]);
+
+    final Function<Integer, ByteBuffer> finish = queryStrategy -> {
+      strategy[0] = QueryStrategy.values()[queryStrategy];
+      event.bytesOut = out.limit();
+      return out;
+    };
+
+    if (switchlessWorkers > 0) {
+      return callSwitchless(NativeOperation.RUN, timer, event, callWatchdogTimeout,
+          callId -> nativeSubmitClientRun(client.getEnclaveHandle(), callId, client.getId(),
+              omitPermitsUsed ? 0 : permitsUsed, direct(clientAck), out),
+          queryStrategy -> finish.apply(queryStrategy.intValue()));
+    }
+
+    return supplyAsync(NativeOperation.RUN, timer, event, callWatchdogTimeout, () -> {
           try {
-            nativeClientRun(id, client.getId(), omitPermitsUsed ? 0 : permitsUsed, direct(clientAck), out);
+            return finish.apply(nativeClientRun(client.getEnclaveHandle(), client.getId(),
+                omitPermitsUsed ? 0 : permitsUsed, direct(clientAck), out));
           } catch (final EnclaveException e) {
             throw new CompletionException(e);
           }
-          return out;
         });
   }
 
@@ -388,34 +1129,50 @@ public class Enclave implements AutoCloseable {
       logger.warn("Failed to shut down JNI executor after 60 seconds");
     }
 
-    if (isClosed.compareAndSet(false, true)) {
-      nativeEnclaveClose(id);
+    synchronized (resizeLock) {
+      if (isClosed.compareAndSet(false, true)) {
+        // No more native calls can run once the executor has shut down, and so every instance can be closed even if
+        // clients still hold references to it
+        for (final EnclaveInstance instance : List.copyOf(instances.values())) {
+          instance.close();
+        }
+      }
     }
   }
 
-  CompletableFuture<Void> closeClient(long clientId) {
-    return runAsync(CLOSE_CLIENT_TIMER_NAME, () -> {
+  CompletableFuture<Void> closeClient(final long enclaveHandle, final long clientId) {
+    return runAsync(NativeOperation.CLOSE_CLIENT, new EnclaveCallEvent(clientId, 0), () -> {
       try {
-        nativeClientClose(id, clientId);
+        nativeClientClose(enclaveHandle, clientId);
       } catch (final EnclaveException e) {
         throw new CompletionException(e);
       }
       // Only decrement this if we succeeded in closing.
       openClientCount.addAndGet(-1);
+
+      final EnclaveInstance instance = instances.get(enclaveHandle);
+
+      if (instance != null) {
+        instance.release();
+      }
     });
   }
 
   CompletableFuture<TableStatistics> getTableStatistics() {
-    final ByteBuffer out = ByteBuffer.allocateDirect(this.numShards * 1024);
+    final ByteBuffer out = ByteBuffer.allocateDirect(this.numShards * SHARD_STATISTICS_BYTES);
+
+    final EnclaveCallEvent event = new EnclaveCallEvent(0, 0);
+    final EnclaveInstance instance = acquireCurrentInstance();
 
-    return supplyAsync(TABLE_STATISTICS_TIMER_NAME, () -> {
+    return supplyAsync(NativeOperation.TABLE_STATISTICS, event, () -> {
       try {
-        nativeEnclaveTableStatistics(id, out);
+        nativeEnclaveTableStatistics(instance.handle, out);
       } catch (final EnclaveException e) {
         throw new CompletionException(e);
       }
+      event.bytesOut = out.limit();
       return out;
-    }).thenApply(ignored -> {
+    }).whenComplete((ignored, cause) -> instance.release()).thenApply(ignored -> {
       try {
         return TableStatistics.parseFrom(out);
       } catch (final InvalidProtocolBufferException e) {
@@ -424,25 +1181,129 @@ public class Enclave implements AutoCloseable {
     });
   }
 
-  private <T> CompletableFuture<T> supplyAsync(final String timerName, final Supplier<T> toWrap) {
+  private <T> CompletableFuture<T> supplyAsync(final NativeOperation operation, final EnclaveCallEvent event,
+      final Supplier<T> toWrap) {
+    return supplyAsync(operation, event, callWatchdogTimeout, toWrap);
+  }
+
+  private <T> CompletableFuture<T> supplyAsync(final NativeOperation operation, final EnclaveCallEvent event,
+      final Duration watchdogTimeout, final Supplier<T> toWrap) {
+    return supplyAsync(operation, () -> nativeOperationTimers.get(operation), event, watchdogTimeout, toWrap);
+  }
+
+  /**
+   * @param timer supplies the timer for the call once it has finished, and so may depend on the call's result
+   */
+  private <T> CompletableFuture<T> supplyAsync(final NativeOperation operation, final Supplier<Timer> timer,
+      final EnclaveCallEvent event, final Duration watchdogTimeout, final Supplier<T> toWrap) {
+    event.operation = operation.name();
+    event.begin();
+    final long submitted = System.nanoTime();
     try {
-      var out = CompletableFuture.supplyAsync(() -> meterRegistry.timer(timerName).record(toWrap), jniExecutor);
+      var out = CompletableFuture.supplyAsync(() -> {
+        if (cpuPlacement != null) {
+          cpuPlacement.pinJniThread();
+        }
+
+        final long started = System.nanoTime();
+        event.queueTime = started - submitted;
+        final long callId = callWatchdog.callStarted(operation.name(), watchdogTimeout);
+        boolean successful = false;
+        try {
+          final T result = toWrap.get();
+          successful = true;
+          return result;
+        } finally {
+          event.nativeTime = System.nanoTime() - started;
+          timer.get().record(event.nativeTime, TimeUnit.NANOSECONDS);
+          callWatchdog.callFinished(callId, successful);
+        }
+      }, jniExecutor);
       outstandingRequestCount.addAndGet(1);
-      out.whenComplete((unusedVal, unusedErr) -> outstandingRequestCount.addAndGet(-1));
+      out.whenComplete((unusedVal, unusedErr) -> {
+        outstandingRequestCount.addAndGet(-1);
+        event.commit();
+      });
       return out;
     } catch (final RejectedExecutionException e) {
       return CompletableFuture.failedFuture(e);
     }
   }
 
-  private CompletableFuture<Void> runAsync(final String timerName, final Runnable toWrap) {
+  private CompletableFuture<Void> runAsync(final NativeOperation operation, final EnclaveCallEvent event,
+      final Runnable toWrap) {
+    return runAsync(operation, event, callWatchdogTimeout, toWrap);
+  }
+
+  private CompletableFuture<Void> runAsync(final NativeOperation operation, final EnclaveCallEvent event,
+      final Duration watchdogTimeout, final Runnable toWrap) {
+    return supplyAsync(operation, event, watchdogTimeout, () -> {
+      toWrap.run();
+      return null;
+    });
+  }
+
+  /**
+   * Submits a switchless call. Submitting doesn't wait for the call, and so occupies no JNI executor thread; the
+   * instance's switchless poller completes the call, and the result is finished on the JNI executor, as it would be
+   * for an ordinary call.
+   *
+   * @param submit submits the call with the given call ID
+   * @param finish turns the call's native return value into its result
+   */
+  private <T> CompletableFuture<T> callSwitchless(final NativeOperation operation, final EnclaveCallEvent event,
+      final Duration watchdogTimeout, final LongConsumer submit, final Function<Long, T> finish) {
+
+    return callSwitchless(operation, () -> nativeOperationTimers.get(operation), event, watchdogTimeout, submit,
+        finish);
+  }
+
+  /**
+   * @param timer supplies the timer for the call once it has been finished, and so may depend on the call's result
+   */
+  private <T> CompletableFuture<T> callSwitchless(final NativeOperation operation, final Supplier<Timer> timer,
+      final EnclaveCallEvent event, final Duration watchdogTimeout, final LongConsumer submit,
+      final Function<Long, T> finish) {
+
+    event.operation = operation.name();
+    event.begin();
+
+    final long callId = nextSwitchlessCallId.incrementAndGet();
+    final long started = System.nanoTime();
+    final long watchdogCallId = callWatchdog.callStarted(operation.name(), watchdogTimeout);
+    final CompletableFuture<Long> call = new CompletableFuture<>();
+
+    switchlessCalls.put(callId, call);
+    outstandingRequestCount.incrementAndGet();
+
+    call.whenComplete((ignored, cause) -> {
+      event.nativeTime = System.nanoTime() - started;
+      callWatchdog.callFinished(watchdogCallId, cause == null);
+      outstandingRequestCount.decrementAndGet();
+    });
+
     try {
-      var out = CompletableFuture.runAsync(() -> meterRegistry.timer(timerName).record(toWrap), jniExecutor);
-      outstandingRequestCount.addAndGet(1);
-      out.whenComplete((unusedVal, unusedErr) -> outstandingRequestCount.addAndGet(-1));
-      return out;
+      submit.accept(callId);
+    } catch (final RuntimeException e) {
+      // The instance's switchless calls have been stopped
+      switchlessCalls.remove(callId);
+      call.completeExceptionally(e);
+    }
+
+    final CompletableFuture<T> out = call.thenApplyAsync(finish, this::executeSwitchlessCompletion);
+    out.whenComplete((ignored, cause) -> {
+      timer.get().record(event.nativeTime, TimeUnit.NANOSECONDS);
+      event.commit();
+    });
+    return out;
+  }
+
+  private void executeSwitchlessCompletion(final Runnable completion) {
+    try {
+      jniExecutor.execute(completion);
     } catch (final RejectedExecutionException e) {
-      return CompletableFuture.failedFuture(e);
+      // Calls submitted before the enclave closed still finish once the JNI executor has shut down
+      completion.run();
     }
   }
 
@@ -454,7 +1315,29 @@ public class Enclave implements AutoCloseable {
   }
 
   public int getRunningShardThreadCount() {
-    return Enclave.nativeGetRunningShardThreadCount(id);
+    // A closed instance's handle is no longer valid
+    if (isClosed.get()) {
+      return 0;
+    }
+
+    final EnclaveInstance instance = acquireCurrentInstance();
+
+    try {
+      return Enclave.nativeGetRunningShardThreadCount(instance.handle);
+    } finally {
+      instance.release();
+    }
+  }
+
+  /**
+   * Returns the most recent sample of the number of running shard threads.
+   */
+  public Optional<ShardThreadHeartbeat> getLastShardThreadHeartbeat() {
+    return Optional.ofNullable(lastShardThreadHeartbeat.get());
+  }
+
+  public EnclaveCallWatchdog getCallWatchdog() {
+    return callWatchdog;
   }
 
   @VisibleForTesting
@@ -467,6 +1350,19 @@ public class Enclave implements AutoCloseable {
     return getShardStatisticValues(tableStatistics, "num_items").sum();
   }
 
+  @VisibleForTesting
+  static long getShardStatisticValue(final TableStatistics tableStatistics, final int shard, final String name) {
+    if (shard >= tableStatistics.getShardStatisticsCount()) {
+      return 0;
+    }
+
+    return tableStatistics.getShardStatistics(shard).getValuesList().stream()
+        .filter(value -> value.getName().equals(name))
+        .mapToLong(Value::getValue)
+        .findFirst()
+        .orElse(0);
+  }
+
   private static LongStream getShardStatisticValues(final TableStatistics tableStatistics, final String name) {
     return tableStatistics.getShardStatisticsList().stream()
         .map(shardStatistics -> shardStatistics.getValuesList().stream()
@@ -487,11 +1383,13 @@ public class Enclave implements AutoCloseable {
    * @param num_shards the number of ORAM shards/threads inside the enclave
    * @param enclavePath the path to the enclave shared library object
    * @param simulated whether the enclave should simulate attestation
+   * @param switchlessWorkers the number of enclave worker threads for switchless calls, or 0 to make every call an
+   *                          ordinary ecall
    * @return handle to enclave
    */
   @VisibleForTesting
-  static native long nativeEnclaveInit(long availableMemory, double loadFactor, int num_shards, String enclavePath, boolean simulated)
-      throws EnclaveException;
+  static native long nativeEnclaveInit(long availableMemory, double loadFactor, int num_shards, String enclavePath,
+      boolean simulated, int switchlessWorkers) throws EnclaveException;
 
   /** Load data into an existing enclave
    *
@@ -547,8 +1445,9 @@ public class Enclave implements AutoCloseable {
    * @param permitsUsed Number of new query permits used by this request
    * @param clientAck Noise-encrypted serialized ClientRequest containing ack_token=true
    * @param outFinalResponse Noise-encrypted serialized ClientResponse containing contact information
+   * @return the strategy the enclave used to look up the request's e164s; see {@link QueryStrategy}
    */
-  private static native void nativeClientRun(
+  private static native int nativeClientRun(
       long enclaveHandle,
       long clientHandle,
       int permitsUsed,
@@ -641,6 +1540,31 @@ public class Enclave implements AutoCloseable {
    *   <dt>posmap_stash_overflow_ema10k</dt>
    *   <dd>10,000 times the exponential moving average (EMA) of the size of the ORAM overflow stash for the top-level
    *   position map. The EMA has a half-life of 10,000 accesses.</dd>
+   *
+   *   <dt>queue_depth</dt>
+   *   <dd>Current number of requests waiting in the shard's request queue.</dd>
+   *
+   *   <dt>max_queue_depth</dt>
+   *   <dd>Highest number of requests observed waiting in the shard's request queue.</dd>
+   *
+   *   <dt>requests</dt>
+   *   <dd>Number of requests carrying records or keys that the shard has handled.</dd>
+   *
+   *   <dt>request_items</dt>
+   *   <dd>Total number of records or keys in those requests. Divide by "requests" to get mean batch size.</dd>
+   *
+   *   <dt>max_request_items</dt>
+   *   <dd>Largest number of records or keys in a single request.</dd>
+   *
+   *   <dt>wait_nanos</dt>
+   *   <dd>Time the shard's thread has spent waiting for requests, in nanoseconds.</dd>
+   *
+   *   <dt>execute_nanos</dt>
+   *   <dd>Time the shard's thread has spent handling requests, in nanoseconds.</dd>
+   *
+   *   <dt>oram_access_latency_lt_8us &hellip; oram_access_latency_lt_2048us, oram_access_latency_ge_2048us</dt>
+   *   <dd>A histogram of ORAM accesses by latency with power-of-two bucket bounds. Each access is attributed the mean
+   *   access latency of the request that made it.</dd>
    * </dl>
    *
    * @param enclaveHandle Enclave to use
@@ -652,4 +1576,84 @@ public class Enclave implements AutoCloseable {
       throws EnclaveException;
 
   private static native int nativeGetRunningShardThreadCount(long enclaveHandle);
+
+  /**
+   * Submits a switchless {@code nativeClientHandshake} call without waiting for it. The buffers must not be used until
+   * the call has completed.
+   *
+   * @param enclaveHandle Enclave to use; must have been created with switchless workers
+   * @param callId identifies the call to {@link #nativeAwaitSwitchlessCompletion}; must not be 0
+   *
+   * @throws IllegalStateException if the enclave's switchless calls have been stopped
+   */
+  private static native void nativeSubmitClientHandshake(long enclaveHandle, long callId, long clientHandle, Buffer in,
+      Buffer out);
+
+  /**
+   * Submits a switchless {@code nativeClientRate} call without waiting for it; the call's value is the computed request
+   * size. The buffers must not be used until the call has completed.
+   *
+   * @see #nativeSubmitClientHandshake
+   */
+  private static native void nativeSubmitClientRate(long enclaveHandle, long callId, long clientHandle, Buffer in,
+      Buffer out, Buffer outOldTokenHash, Buffer outNewTokenHash);
+
+  /**
+   * Submits a switchless {@code nativeClientRun} call without waiting for it; the call's value is the query strategy.
+   * The buffers must not be used until the call has completed.
+   *
+   * @see #nativeSubmitClientHandshake
+   */
+  private static native void nativeSubmitClientRun(long enclaveHandle, long callId, long clientHandle, int permitsUsed,
+      Buffer in, Buffer out);
+
+  /**
+   * Submits a switchless {@code nativeLoadData} call without waiting for it. The buffer must not be used until the call
+   * has completed.
+   *
+   * @see #nativeSubmitClientHandshake
+   */
+  private static native void nativeSubmitLoadData(long enclaveHandle, long callId, Buffer pbEnclaveLoad);
+
+  /**
+   * Waits for a switchless call to finish, and finishes it as the equivalent ordinary call would: output buffers are
+   * limited to the data the enclave wrote, and a failed call throws.
+   *
+   * @param enclaveHandle Enclave to use
+   * @param completedCallId receives the ID of the finished call, or 0 once switchless calls have been stopped and every
+   *                        submitted call has been returned
+   *
+   * @return the call's value, if it has one
+   *
+   * @throws EnclaveException if the call failed
+   */
+  private static native long nativeAwaitSwitchlessCompletion(long enclaveHandle, long[] completedCallId)
+      throws EnclaveException;
+
+  /**
+   * Stops accepting switchless calls and waits for every submitted call to finish; must be called, and the poller
+   * stopped, before the enclave is closed.
+   */
+  private static native void nativeStopSwitchless(long enclaveHandle);
+
+  /**
+   * Pins an enclave instance's shard threads to the given cores: each shard to a core of its own if there are at least
+   * as many cores as shards, or else every shard to all of the cores.
+   *
+   * @param enclaveHandle Enclave whose shard threads to pin
+   * @param cpus the cores to pin shard threads to
+   *
+   * @return {@code true} if every shard thread was pinned
+   */
+  private static native boolean nativePinShardThreads(long enclaveHandle, int[] cpus);
+
+  /**
+   * Restricts a thread to the given cores.
+   *
+   * @param threadId the thread's Linux thread ID, or 0 for the calling thread
+   * @param cpus the cores the thread may run on
+   *
+   * @return {@code true} if the thread's affinity was set
+   */
+  private static native boolean nativeSetThreadAffinity(int threadId, int[] cpus);
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts enclave artifacts (signed enclave binaries and JNI shims) from the application's resources so they can be
+ * loaded from the filesystem. Each extraction writes the resource's contents into a newly created temporary file that
+ * only the current user can read or write. Callers delete the file as soon as the artifact has been loaded by closing
+ * the returned {@link Artifact}; files left for the JVM to delete at exit would pile up whenever the process is killed.
+ */
+class EnclaveArtifactExtractor {
+
+  private static final Logger logger = LoggerFactory.getLogger(EnclaveArtifactExtractor.class);
+
+  private EnclaveArtifactExtractor() {
+  }
+
+  /**
+   * An extracted artifact, which is deleted when closed.
+   *
+   * @param path the path of the extracted artifact
+   */
+  record Artifact(Path path) implements AutoCloseable {
+
+    @Override
+    public void close() {
+      try {
+        Files.deleteIfExists(path);
+      } catch (final IOException e) {
+        logger.warn("Failed to delete extracted artifact '{}'", path, e);
+      }
+    }
+  }
+
+  /**
+   * Extracts a private copy of the given resource into a new temporary file.
+   *
+   * @param resource the name of the resource, relative to the {@code org.signal.cdsi.enclave} package
+   *
+   * @return the extracted artifact, which the caller must close once the artifact has been loaded
+   *
+   * @throws IOException if the resource does not exist or could not be extracted
+   */
+  static Artifact extract(final String resource) throws IOException {
+    try (final InputStream in = EnclaveArtifactExtractor.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IOException("No such resource: " + resource);
+      }
+
+      // Files.createTempFile creates a new file (never an existing one) readable and writable only by its owner
+      final Artifact artifact = new Artifact(Files.createTempFile("cdsi-", "-" + resource));
+
+      try {
+        logger.debug("Extracting resource '{}' into '{}'", resource, artifact.path());
+        Files.copy(in, artifact.path(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (final IOException e) {
+        artifact.close();
+        throw e;
+      }
+
+      return artifact;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses an enclave's shard count and load factor from the expected size of the directory and the memory available to
+ * the enclave's table.
+ * <p>
+ * Each shard's ORAM tree is a complete binary tree of fixed-size buckets, and so a shard only uses the largest such
+ * tree that fits in its share of memory; a shard count that leaves each shard just short of the next tree size wastes
+ * almost half of the EPC. The tuner prefers the shard counts that waste the least, and among those prefers more shards
+ * (shallower trees and more parallelism), within the limit set by the enclave's thread control structures: every shard
+ * occupies a TCS for its whole life, as does every JNI thread while it's in a call.
+ * <p>
+ * Table capacity and stash behavior depend on details of the ORAM implementation, and so the tuner measures them
+ * instead of modeling them. Each candidate is calibrated by building a single-shard table in a simulated-mode enclave;
+ * when a shard's share of memory is larger than the calibration budget, the calibration table is scaled down by a
+ * power of two, which preserves the tree's shape. The chosen load factor is the smallest that leaves the configured
+ * headroom above the expected directory size, and a final calibration run fills a table to the expected utilization to
+ * confirm that the stash stays within bounds.
+ */
+class EnclaveAutoTuner {
+
+  private final long expectedDirectorySize;
+  private final long availableEpcMemory;
+  private final int maxShards;
+  private final double headroom;
+  private final double maxLoadFactor;
+  private final long calibrationMemory;
+  private final double maxStashOverflowEma;
+  private final Calibrator calibrator;
+
+  // Mirrors ENCRYPTED_BUCKET_SIZE in c/path_oram/bucket.h
+  @VisibleForTesting
+  static final long BUCKET_SIZE = 4096;
+
+  private static final int CALIBRATED_CANDIDATES = 3;
+
+  private static final Logger logger = LoggerFactory.getLogger(EnclaveAutoTuner.class);
+
+  /**
+   * The result of a calibration run.
+   *
+   * @param capacity the capacity of the calibration table
+   * @param recursionDepth the depth of the calibration table's ORAM position map recursion
+   * @param stashOverflowEma the moving average of the calibration table's stash overflow after it was filled
+   */
+  record Calibration(long capacity, long recursionDepth, double stashOverflowEma) {
+  }
+
+  /**
+   * Builds and measures a single-shard table in a simulated-mode enclave.
+   */
+  @FunctionalInterface
+  interface Calibrator {
+
+    /**
+     * Builds a single-shard table, fills it with the given number of random entries and measures it.
+     *
+     * @param availableMemory the memory available to the table, in bytes
+     * @param loadFactor the table's load factor
+     * @param entries the number of random entries to load into the table
+     *
+     * @return the calibration table's measurements
+     *
+     * @throws EnclaveException if the calibration enclave could not be built or loaded
+     */
+    Calibration calibrate(long availableMemory, double loadFactor, long entries) throws EnclaveException;
+  }
+
+  /**
+   * A tuned enclave configuration.
+   *
+   * @param shards the number of shards
+   * @param loadFactor the table's load factor
+   * @param expectedCapacity the table's expected capacity at this shard count and load factor
+   * @param calibration the measurements of the calibration table filled to the expected utilization
+   */
+  record Tuning(int shards, double loadFactor, long expectedCapacity, Calibration calibration) {
+  }
+
+  /**
+   * @param enclaveConfiguration the enclave's configuration, which supplies the expected directory size, available
+   *                             memory and tuning limits
+   * @param jniThreads the maximum number of concurrent native calls
+   * @param calibrator builds and measures calibration tables
+   */
+  EnclaveAutoTuner(final EnclaveConfiguration enclaveConfiguration, final int jniThreads,
+      final Calibrator calibrator) {
+
+    this.expectedDirectorySize = enclaveConfiguration.getExpectedDirectorySize();
+    this.availableEpcMemory = enclaveConfiguration.getAvailableEpcMemory();
+    this.maxShards = enclaveConfiguration.getNumTcs() - jniThreads;
+    this.headroom = enclaveConfiguration.getAutoTuneHeadroom();
+    this.maxLoadFactor = enclaveConfiguration.getMaxLoadFactor();
+    this.calibrationMemory = enclaveConfiguration.getCalibrationMemory();
+    this.maxStashOverflowEma = enclaveConfiguration.getMaxStashOverflowEma();
+    this.calibrator = calibrator;
+  }
+
+  /**
+   * Chooses a shard count and load factor, validating the choice with calibration runs.
+   *
+   * @return the tuned configuration
+   *
+   * @throws EnclaveException if a calibration enclave could not be built or loaded
+   * @throws IllegalStateException if no configuration can hold the expected directory within the configured limits
+   */
+  Tuning tune() throws EnclaveException {
+    if (maxShards < 1) {
+      throw new IllegalStateException("No TCS left for shard threads after reserving TCS for JNI threads");
+    }
+
+    if (expectedDirectorySize <= 0) {
+      throw new IllegalStateException("Auto-tuning requires a positive expected directory size");
+    }
+
+    final long requiredCapacity = (long) Math.ceil(expectedDirectorySize * (1 + headroom));
+
+    int bestShards = 0;
+    long bestCapacity = 0;
+
+    for (final int shards : getCandidateShardCounts(availableEpcMemory, maxShards, CALIBRATED_CANDIDATES)) {
+      final long shardMemory = availableEpcMemory / shards;
+      final long scale = getCalibrationScale(shardMemory, calibrationMemory);
+
+      // Capacity grows linearly with the load factor, so calibrating at the smallest load factor is enough
+      final long capacity = calibrator.calibrate(shardMemory / scale, 1.0, 0).capacity() * scale * shards;
+
+      logger.debug("{} shards with {} bytes each can hold {} entries at load factor 1.0", shards, shardMemory,
+          capacity);
+
+      if (capacity > bestCapacity || (capacity == bestCapacity && shards > bestShards)) {
+        bestShards = shards;
+        bestCapacity = capacity;
+      }
+    }
+
+    final double loadFactor = Math.max(1.0, (double) requiredCapacity / bestCapacity);
+
+    if (loadFactor > maxLoadFactor) {
+      throw new IllegalStateException(String.format(
+          "%d bytes of EPC can hold at most %d entries at load factor %.2f, but %d entries are required",
+          availableEpcMemory, (long) (bestCapacity * maxLoadFactor), maxLoadFactor, requiredCapacity));
+    }
+
+    final long shardMemory = availableEpcMemory / bestShards;
+    final long scale = getCalibrationScale(shardMemory, calibrationMemory);
+    final long calibrationEntries = expectedDirectorySize / bestShards / scale;
+
+    final Calibration calibration = calibrator.calibrate(shardMemory / scale, loadFactor, calibrationEntries);
+
+    if (calibration.stashOverflowEma() > maxStashOverflowEma) {
+      throw new IllegalStateException(String.format(
+          "Calibration table with load factor %.2f had a stash overflow average of %.2f (maximum %.2f); "
+              + "more EPC is needed for the expected directory size",
+          loadFactor, calibration.stashOverflowEma(), maxStashOverflowEma));
+    }
+
+    final Tuning tuning =
+        new Tuning(bestShards, loadFactor, (long) (bestCapacity * loadFactor), calibration);
+
+    logger.info("Auto-tuned enclave to {} shards with load factor {} for an expected capacity of {} entries; "
+            + "calibration table (1/{} scale) had ORAM recursion depth {} and stash overflow average {}",
+        tuning.shards(), String.format("%.3f", tuning.loadFactor()), tuning.expectedCapacity(), scale,
+        calibration.recursionDepth(), calibration.stashOverflowEma());
+
+    return tuning;
+  }
+
+  /**
+   * Returns the shard counts whose ORAM trees would use the largest fraction of the available memory, most-used first
+   * and, among equals, most shards first.
+   */
+  @VisibleForTesting
+  static int[] getCandidateShardCounts(final long availableEpcMemory, final int maxShards, final int candidates) {
+    return IntStream.rangeClosed(1, maxShards)
+        .boxed()
+        .sorted(Comparator.<Integer>comparingLong(shards -> shards * getTreeBytes(availableEpcMemory / shards))
+            .thenComparingInt(shards -> shards)
+            .reversed())
+        .limit(candidates)
+        .mapToInt(Integer::intValue)
+        .toArray();
+  }
+
+  /**
+   * Returns the size of the largest ORAM bucket tree that fits in the given memory, mirroring
+   * {@code oram_create_for_available_mem}.
+   */
+  @VisibleForTesting
+  static long getTreeBytes(final long availableMemory) {
+    final long buckets = availableMemory / BUCKET_SIZE;
+
+    if (buckets < 1) {
+      return 0;
+    }
+
+    final int levels = 63 - Long.numberOfLeadingZeros(buckets + 1);
+    final long leaves = 1L << (levels - 1);
+
+    return (2 * leaves - 1) * BUCKET_SIZE;
+  }
+
+  /**
+   * Returns the smallest power of two by which the given shard memory must be divided to fit in the calibration
+   * budget.
+   */
+  @VisibleForTesting
+  static long getCalibrationScale(final long shardMemory, final long calibrationMemory) {
+    long scale = 1;
+
+    while (shardMemory / scale > calibrationMemory) {
+      scale *= 2;
+    }
+
+    return scale;
+  }
+}
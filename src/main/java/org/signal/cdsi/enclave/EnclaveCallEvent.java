@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * A flight recorder event for a call into the enclave, lasting from when the call is submitted to the JNI executor
+ * until the native call returns.
+ */
+@Name(EnclaveCallEvent.NAME)
+@Label("Enclave Call")
+@Category({"CDSI", "Enclave"})
+@Description("A call into the enclave, including time spent waiting for a JNI executor thread")
+@StackTrace(false)
+@Threshold("10 ms")
+public class EnclaveCallEvent extends Event {
+
+  public static final String NAME = "org.signal.cdsi.EnclaveCall";
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Client ID")
+  @Description("The enclave's handle for the client, or zero for operations that don't involve a client")
+  long clientId;
+
+  @Label("Bytes In")
+  @DataAmount
+  long bytesIn;
+
+  @Label("Bytes Out")
+  @DataAmount
+  long bytesOut;
+
+  @Label("Queue Time")
+  @Description("Time spent waiting for a JNI executor thread")
+  @Timespan
+  long queueTime;
+
+  @Label("Native Time")
+  @Description("Time spent in the native call")
+  @Timespan
+  long nativeTime;
+
+  EnclaveCallEvent(final long clientId, final long bytesIn) {
+    this.clientId = clientId;
+    this.bytesIn = bytesIn;
+  }
+}
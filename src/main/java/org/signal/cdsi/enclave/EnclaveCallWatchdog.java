@@ -0,0 +1,155 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches native enclave calls as they run. The watchdog records when each call starts and finishes, which lets it
+ * report when the enclave last completed a call successfully (so callers can judge the enclave's health from real
+ * traffic instead of making calls of their own) and which calls have been running for longer than a configured timeout
+ * (which likely indicates a stuck JNI thread).
+ * <p>
+ * Only calls that have started running on a JNI thread are watched; calls waiting for a thread are not.
+ */
+public class EnclaveCallWatchdog {
+
+  private final Clock clock;
+  private final Duration timeout;
+  private final MeterRegistry meterRegistry;
+
+  private final Map<Long, RunningCall> runningCalls = new ConcurrentHashMap<>();
+  private final AtomicLong nextCallId = new AtomicLong();
+  private final AtomicLong lastSuccessfulCallMillis = new AtomicLong(NO_SUCCESSFUL_CALL);
+
+  private static final long NO_SUCCESSFUL_CALL = -1;
+
+  private static final String STALLED_CALL_COUNTER_NAME = name(EnclaveCallWatchdog.class, "stalledCalls");
+
+  private static final Logger logger = LoggerFactory.getLogger(EnclaveCallWatchdog.class);
+
+  /**
+   * A native call that has been running for longer than the watchdog's timeout.
+   *
+   * @param operation the name of the native operation
+   * @param elapsed how long the call has been running
+   */
+  public record StalledCall(String operation, Duration elapsed) {
+  }
+
+  private record RunningCall(String operation, long startMillis, long timeoutMillis, AtomicBoolean reported) {
+
+    boolean isStalled(final long now) {
+      return now - startMillis > timeoutMillis;
+    }
+  }
+
+  public EnclaveCallWatchdog(final Clock clock, final Duration timeout, final MeterRegistry meterRegistry) {
+    this.clock = clock;
+    this.timeout = timeout;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Records that a native call has started running.
+   *
+   * @param operation the name of the native operation
+   *
+   * @return an identifier for the call, to be passed to {@link #callFinished(long, boolean)}
+   */
+  long callStarted(final String operation) {
+    return callStarted(operation, timeout);
+  }
+
+  /**
+   * Records that a native call has started running, with a stall timeout other than the watchdog's default.
+   *
+   * @param operation the name of the native operation
+   * @param timeout how long this call may run before it's considered stalled
+   *
+   * @return an identifier for the call, to be passed to {@link #callFinished(long, boolean)}
+   */
+  long callStarted(final String operation, final Duration timeout) {
+    final long callId = nextCallId.incrementAndGet();
+    runningCalls.put(callId, new RunningCall(operation, clock.millis(), timeout.toMillis(), new AtomicBoolean(false)));
+
+    return callId;
+  }
+
+  /**
+   * Records that a native call has finished.
+   *
+   * @param callId the identifier returned by {@link #callStarted(String)}
+   * @param successful whether the call completed without error
+   */
+  void callFinished(final long callId, final boolean successful) {
+    final RunningCall call = runningCalls.remove(callId);
+
+    if (successful) {
+      lastSuccessfulCallMillis.accumulateAndGet(clock.millis(), Math::max);
+    }
+
+    if (call != null && call.reported().get()) {
+      logger.info("Stalled {} call finished after {}", call.operation(),
+          Duration.ofMillis(clock.millis() - call.startMillis()));
+    }
+  }
+
+  /**
+   * Returns the time at which a native call most recently finished successfully, if any call has.
+   */
+  public Optional<Instant> getLastSuccessfulCall() {
+    final long millis = lastSuccessfulCallMillis.get();
+    return millis == NO_SUCCESSFUL_CALL ? Optional.empty() : Optional.of(Instant.ofEpochMilli(millis));
+  }
+
+  /**
+   * Indicates whether any native call is currently running.
+   */
+  public boolean hasRunningCalls() {
+    return !runningCalls.isEmpty();
+  }
+
+  /**
+   * Returns all calls that have been running for longer than their timeout.
+   */
+  public List<StalledCall> getStalledCalls() {
+    final long now = clock.millis();
+
+    return runningCalls.values().stream()
+        .filter(call -> call.isStalled(now))
+        .map(call -> new StalledCall(call.operation(), Duration.ofMillis(now - call.startMillis())))
+        .toList();
+  }
+
+  /**
+   * Logs and counts calls that have stalled since the last check. Each stalled call is reported once.
+   */
+  void checkForStalledCalls() {
+    final long now = clock.millis();
+
+    runningCalls.values().stream()
+        .filter(call -> call.isStalled(now))
+        .filter(call -> call.reported().compareAndSet(false, true))
+        .forEach(call -> {
+          logger.warn("{} call has been running for {}", call.operation(), Duration.ofMillis(now - call.startMillis()));
+          meterRegistry.counter(STALLED_CALL_COUNTER_NAME, "operation", call.operation()).increment();
+        });
+  }
+}
@@ -6,10 +6,17 @@
 package org.signal.cdsi.enclave;
 
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.trace.SessionTrace;
+import org.signal.cdsi.trace.SessionTrace.Stage;
+import org.signal.cdsi.util.CompletionExceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,10 +29,13 @@ public class EnclaveClient {
   }
 
   private final Enclave enclave;
+  private final long enclaveHandle;
   private final long id;
   private final ByteBuffer ereport;
   private final String rateLimitKey;
   private final TokenRateLimiter tokenRateLimiter;
+  @Nullable
+  private final SessionTrace trace;
   private int requestSize;
   private State state = State.UNINITIALIZED;
   private ByteBuffer newTokenHash = null;
@@ -36,15 +46,19 @@ public class EnclaveClient {
 
   EnclaveClient(
       final Enclave enclave,
+      final long enclaveHandle,
       final long id,
       String rateLimitKey,
       TokenRateLimiter tokenRateLimiter,
-      ByteBuffer ereport) {
+      ByteBuffer ereport,
+      @Nullable SessionTrace trace) {
     this.enclave = enclave;
+    this.enclaveHandle = enclaveHandle;
     this.id = id;
     this.rateLimitKey = rateLimitKey;
     this.ereport = ereport;
     this.tokenRateLimiter = tokenRateLimiter;
+    this.trace = trace;
     this.closed = new AtomicBoolean();
   }
 
@@ -52,6 +66,14 @@ public class EnclaveClient {
     return id;
   }
 
+  /**
+   * Returns the handle of the native enclave instance in which this client was created. A client keeps using the same
+   * instance for its whole session, even if the enclave switches to a new instance in the meantime.
+   */
+  long getEnclaveHandle() {
+    return enclaveHandle;
+  }
+
   public State getState() {
     return this.state;
   }
@@ -64,6 +86,22 @@ public class EnclaveClient {
     return rateLimitKey;
   }
 
+  /**
+   * Runs a stage of this client's work, recording a span for it if the client belongs to a traced session.
+   */
+  <T> CompletableFuture<T> trace(final Stage stage, final Supplier<CompletableFuture<T>> operation) {
+    return trace != null ? trace.trace(stage, operation) : operation.get();
+  }
+
+  /**
+   * Records the outcome of this client's rate limit request if the client belongs to a traced session.
+   */
+  void recordRateLimit(final int requestSize, final int permitsCharged, final boolean tokenPresented) {
+    if (trace != null) {
+      trace.recordRateLimit(requestSize, permitsCharged, tokenPresented);
+    }
+  }
+
   public CompletableFuture<ByteBuffer> handshake(ByteBuffer in) {
     Preconditions.checkState(!closed.get());
     Preconditions.checkState(state == State.UNINITIALIZED);
@@ -84,7 +122,13 @@ public class EnclaveClient {
     return enclave.clientRateLimit(this, request, newTokenHash);
   }
 
-  public CompletableFuture<ByteBuffer> complete(ByteBuffer ack) {
+  /**
+   * Completes the discovery request, returning the enclave's response.
+   *
+   * @param ack the client's acknowledgement of its rate limit token
+   * @return a future that yields the response in a pooled direct buffer; the caller is responsible for releasing it
+   */
+  public CompletableFuture<ByteBuf> complete(ByteBuffer ack) {
     Preconditions.checkState(!closed.get());
     Preconditions.checkState(state == State.RATELIMIT);
     Preconditions.checkState(newTokenHash != null);
@@ -97,10 +141,27 @@ public class EnclaveClient {
     // returns 40 bytes of output (an 8-byte e164, a 16-byte ACI, and a 16-byte PNI).  This
     // is a 5x multiplier (output=input*5).  There's also the potential that a few other singular
     // fields may be added to the proto, so add in a bit of slop (128 bytes).
-    final ByteBuffer out = ByteBuffer.allocateDirect(requestSize * 5 + 128);
-
-    return tokenRateLimiter.validate(rateLimitKey, newTokenHash)
-        .thenCompose(permitsUsed -> enclave.clientRun(this, permitsUsed, ack, out));
+    //
+    // Responses may be several times larger than the (up to 10MB) request, so we take them from the pooled allocator
+    // rather than leaving a large direct buffer for the garbage collector to find.
+    final int maxResponseSize = requestSize * 5 + 128;
+    final ByteBuf out = ByteBufAllocator.DEFAULT.directBuffer(maxResponseSize, maxResponseSize);
+
+    return trace(Stage.TOKEN_VALIDATE, () -> tokenRateLimiter.validate(rateLimitKey, newTokenHash))
+        .thenCompose(permitsUsed -> {
+          if (trace != null) {
+            trace.recordPermitsUsed(permitsUsed);
+          }
+          return trace(Stage.ENCLAVE_RUN,
+              () -> enclave.clientRun(this, permitsUsed, ack, out.nioBuffer(0, maxResponseSize)));
+        })
+        .handle((response, cause) -> {
+          if (cause != null) {
+            out.release();
+            throw CompletionExceptions.wrap(cause);
+          }
+          return out.writerIndex(response.limit());
+        });
   }
 
   /** Closes (asynchronously) the underlying resources utilized by this client.
@@ -125,7 +186,7 @@ public class EnclaveClient {
   public synchronized CompletableFuture<Void> closeAsync() {
     if (!closed.getAndSet(true)) {
       Preconditions.checkState(closedFuture == null);
-      closedFuture = enclave.closeClient(id);
+      closedFuture = enclave.closeClient(enclaveHandle, id);
     }
     return closedFuture;
   }
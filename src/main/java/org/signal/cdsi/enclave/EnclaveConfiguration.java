@@ -7,11 +7,14 @@ package org.signal.cdsi.enclave;
 
 import io.micronaut.context.annotation.ConfigurationProperties;
 import io.micronaut.context.annotation.Context;
+import java.time.Duration;
 
 import javax.validation.constraints.DecimalMax;
 import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
 import org.signal.cdsi.util.ByteSize;
 
 @Context
@@ -41,6 +44,145 @@ public class EnclaveConfiguration {
 
   private boolean simulated;
 
+  /**
+   * How long a native call may run before the enclave call watchdog considers it stalled
+   */
+  @NotNull
+  private Duration callWatchdogTimeout = Duration.ofMinutes(1);
+
+  /**
+   * How often to check for stalled native calls and to sample the number of running shard threads; a liveness check
+   * that finds no shard thread sample newer than three intervals reports the enclave as down
+   */
+  @NotNull
+  private Duration watchdogInterval = Duration.ofSeconds(5);
+
+  /**
+   * If no native call has succeeded for this long and none is running, liveness checks create and close a client to
+   * confirm that the enclave still responds
+   */
+  @NotNull
+  private Duration livenessIdleThreshold = Duration.ofSeconds(30);
+
+  /**
+   * Whether to choose {@link #shards} and {@link #loadFactor} automatically, from the expected directory size and the
+   * available memory, instead of using the configured values
+   */
+  private boolean autoTune = false;
+
+  /**
+   * The number of directory entries the enclave is expected to hold; required when auto-tuning
+   */
+  @PositiveOrZero
+  private long expectedDirectorySize = 0;
+
+  /**
+   * The enclave's number of thread control structures, which must match {@code NumTCS} in the enclave's build
+   * configuration; shard threads and JNI threads must share them
+   */
+  @Positive
+  private int numTcs = 64;
+
+  /**
+   * When auto-tuning, the fraction of the expected directory size to reserve as additional capacity
+   */
+  @DecimalMin("0.0")
+  private double autoTuneHeadroom = 0.25;
+
+  /**
+   * The largest load factor auto-tuning may choose; larger load factors hold more entries but overflow the ORAM stash
+   * more often
+   */
+  @DecimalMin("1.0")
+  @DecimalMax("3.0")
+  private double maxLoadFactor = 2.0;
+
+  /**
+   * The most memory a single auto-tuning calibration table may use, in bytes; larger shards are calibrated at a reduced
+   * scale
+   */
+  @Positive
+  private long calibrationMemory = 64 * 1024 * 1024;
+
+  /**
+   * The largest average stash overflow, in blocks, that a calibration table filled to the expected utilization may
+   * have before auto-tuning rejects the configuration
+   */
+  @DecimalMin("0.0")
+  private double maxStashOverflowEma = 1.0;
+
+  /**
+   * How often to fetch the table statistics from which the enclave's table and shard metrics are published
+   */
+  @NotNull
+  private Duration tableStatisticsInterval = Duration.ofSeconds(15);
+
+  /**
+   * How often to sample the enclave table's size and capacity
+   */
+  @NotNull
+  private Duration capacityCheckInterval = Duration.ofMinutes(1);
+
+  /**
+   * Whether to build a larger enclave table when the table's utilization reaches {@link #tableResizeThreshold}
+   */
+  private boolean tableResizeEnabled = false;
+
+  /**
+   * The fraction of the enclave table's capacity which, once in use, triggers a resize
+   */
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double tableResizeThreshold = 0.85;
+
+  /**
+   * The factor by which a resize grows the memory available to the enclave table
+   */
+  @DecimalMin(value = "1.0", inclusive = false)
+  private double tableGrowthFactor = 2.0;
+
+  /**
+   * The most memory a resize may make available to the enclave table, or 0 for no limit; the host needs room for both
+   * the old and new tables while a resize is running
+   */
+  @PositiveOrZero
+  private long maxAvailableEpcMemory = 0;
+
+  /**
+   * Whether to build the enclave table in a single pass once the initial directory load has been staged, rather than
+   * inserting each entry in turn; staging needs memory for a copy of the directory until the table has been built
+   */
+  private boolean bulkInitialLoad = false;
+
+  /**
+   * How long the call that builds the enclave table from a bulk initial load may run before the call watchdog reports
+   * it as stalled
+   */
+  @NotNull
+  private Duration bulkBuildCallTimeout = Duration.ofHours(1);
+
+  /**
+   * If positive, the number of enclave worker threads that serve handshake, rate limit, run and load calls without an
+   * enclave transition; submitting those calls no longer occupies a JNI executor thread. Each worker occupies a TCS
+   * for the life of the enclave, as does the host thread that hands it calls whenever a call can't be handed off.
+   * Works in simulated mode as well as on SGX hardware
+   */
+  @PositiveOrZero
+  private int switchlessWorkers = 0;
+
+  /**
+   * Cores, in Linux CPU list format (e.g. {@code 2-9}), to dedicate to shard threads; if blank, threads are not pinned.
+   * Each shard gets a core of its own if there are at least as many cores as shards, and no other thread in the
+   * process runs on these cores
+   */
+  private String shardCpus = "";
+
+  /**
+   * Cores, in Linux CPU list format, to dedicate to the JNI executor's threads when {@link #shardCpus} is set; should
+   * be disjoint from the shard cores, and ideally on the same NUMA node, with one core for each JNI executor thread
+   */
+  private String jniCpus = "";
+
   public String getEnclaveId() {
     return enclaveId;
   }
@@ -104,4 +246,172 @@ public class EnclaveConfiguration {
   public void setMaxOutstandingRequests(final int maxOutstandingRequests) {
     this.maxOutstandingRequests = maxOutstandingRequests;
   }
+
+  public Duration getCallWatchdogTimeout() {
+    return callWatchdogTimeout;
+  }
+
+  public void setCallWatchdogTimeout(final Duration callWatchdogTimeout) {
+    this.callWatchdogTimeout = callWatchdogTimeout;
+  }
+
+  public Duration getWatchdogInterval() {
+    return watchdogInterval;
+  }
+
+  public void setWatchdogInterval(final Duration watchdogInterval) {
+    this.watchdogInterval = watchdogInterval;
+  }
+
+  public Duration getLivenessIdleThreshold() {
+    return livenessIdleThreshold;
+  }
+
+  public void setLivenessIdleThreshold(final Duration livenessIdleThreshold) {
+    this.livenessIdleThreshold = livenessIdleThreshold;
+  }
+
+  public Duration getTableStatisticsInterval() {
+    return tableStatisticsInterval;
+  }
+
+  public void setTableStatisticsInterval(final Duration tableStatisticsInterval) {
+    this.tableStatisticsInterval = tableStatisticsInterval;
+  }
+
+  public Duration getCapacityCheckInterval() {
+    return capacityCheckInterval;
+  }
+
+  public void setCapacityCheckInterval(final Duration capacityCheckInterval) {
+    this.capacityCheckInterval = capacityCheckInterval;
+  }
+
+  public boolean isTableResizeEnabled() {
+    return tableResizeEnabled;
+  }
+
+  public void setTableResizeEnabled(final boolean tableResizeEnabled) {
+    this.tableResizeEnabled = tableResizeEnabled;
+  }
+
+  public double getTableResizeThreshold() {
+    return tableResizeThreshold;
+  }
+
+  public void setTableResizeThreshold(final double tableResizeThreshold) {
+    this.tableResizeThreshold = tableResizeThreshold;
+  }
+
+  public double getTableGrowthFactor() {
+    return tableGrowthFactor;
+  }
+
+  public void setTableGrowthFactor(final double tableGrowthFactor) {
+    this.tableGrowthFactor = tableGrowthFactor;
+  }
+
+  public long getMaxAvailableEpcMemory() {
+    return maxAvailableEpcMemory;
+  }
+
+  public void setMaxAvailableEpcMemory(final long maxAvailableEpcMemory) {
+    this.maxAvailableEpcMemory = maxAvailableEpcMemory;
+  }
+
+  public boolean isBulkInitialLoad() {
+    return bulkInitialLoad;
+  }
+
+  public void setBulkInitialLoad(final boolean bulkInitialLoad) {
+    this.bulkInitialLoad = bulkInitialLoad;
+  }
+
+  public Duration getBulkBuildCallTimeout() {
+    return bulkBuildCallTimeout;
+  }
+
+  public void setBulkBuildCallTimeout(final Duration bulkBuildCallTimeout) {
+    this.bulkBuildCallTimeout = bulkBuildCallTimeout;
+  }
+
+  public boolean isAutoTune() {
+    return autoTune;
+  }
+
+  public void setAutoTune(final boolean autoTune) {
+    this.autoTune = autoTune;
+  }
+
+  public long getExpectedDirectorySize() {
+    return expectedDirectorySize;
+  }
+
+  public void setExpectedDirectorySize(final long expectedDirectorySize) {
+    this.expectedDirectorySize = expectedDirectorySize;
+  }
+
+  public int getNumTcs() {
+    return numTcs;
+  }
+
+  public void setNumTcs(final int numTcs) {
+    this.numTcs = numTcs;
+  }
+
+  public double getAutoTuneHeadroom() {
+    return autoTuneHeadroom;
+  }
+
+  public void setAutoTuneHeadroom(final double autoTuneHeadroom) {
+    this.autoTuneHeadroom = autoTuneHeadroom;
+  }
+
+  public double getMaxLoadFactor() {
+    return maxLoadFactor;
+  }
+
+  public void setMaxLoadFactor(final double maxLoadFactor) {
+    this.maxLoadFactor = maxLoadFactor;
+  }
+
+  public long getCalibrationMemory() {
+    return calibrationMemory;
+  }
+
+  public void setCalibrationMemory(final long calibrationMemory) {
+    this.calibrationMemory = calibrationMemory;
+  }
+
+  public double getMaxStashOverflowEma() {
+    return maxStashOverflowEma;
+  }
+
+  public void setMaxStashOverflowEma(final double maxStashOverflowEma) {
+    this.maxStashOverflowEma = maxStashOverflowEma;
+  }
+
+  public String getShardCpus() {
+    return shardCpus;
+  }
+
+  public void setShardCpus(final String shardCpus) {
+    this.shardCpus = shardCpus;
+  }
+
+  public String getJniCpus() {
+    return jniCpus;
+  }
+
+  public void setJniCpus(final String jniCpus) {
+    this.jniCpus = jniCpus;
+  }
+
+  public int getSwitchlessWorkers() {
+    return switchlessWorkers;
+  }
+
+  public void setSwitchlessWorkers(final int switchlessWorkers) {
+    this.switchlessWorkers = switchlessWorkers;
+  }
 }
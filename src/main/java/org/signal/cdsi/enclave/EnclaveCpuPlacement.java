@@ -0,0 +1,237 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pins shard threads and JNI worker threads to dedicated sets of cores, and keeps every other thread in the process off
+ * of those cores.
+ * <p>
+ * Shard threads spend their whole lives inside the enclave walking ORAM paths, and JNI workers hand requests to them
+ * through shared queues; when either migrates between cores, or between NUMA nodes, it loses its cache and pays remote
+ * memory latency on every access. With placement enabled, each shard gets a core of its own if there are at least as
+ * many shard cores as shards (otherwise the shards share the shard cores), each JNI worker is restricted to the JNI
+ * cores the first time it makes a native call, and all other threads, including ones that exist before the enclave
+ * starts and those they go on to create, are restricted to the remaining cores. To keep a shard's memory local, choose
+ * shard and JNI cores from a single NUMA node.
+ * <p>
+ * Core sets use the Linux CPU list format, as in {@code 2-9,12}. Placement is best-effort: a thread that can't be
+ * pinned keeps running where it is and a warning is logged.
+ */
+class EnclaveCpuPlacement {
+
+  private final int[] shardCpus;
+  private final int[] jniCpus;
+  private final int[] otherCpus;
+  private final ThreadAffinity threadAffinity;
+
+  private final ThreadLocal<Boolean> jniThreadPinned = ThreadLocal.withInitial(() -> false);
+
+  private static final Path TASKS_DIRECTORY = Path.of("/proc/self/task");
+  private static final Path STATUS_FILE = Path.of("/proc/self/status");
+  private static final String CPUS_ALLOWED_LIST = "Cpus_allowed_list:";
+
+  private static final Logger logger = LoggerFactory.getLogger(EnclaveCpuPlacement.class);
+
+  /**
+   * Sets the CPU affinity of native threads.
+   */
+  interface ThreadAffinity {
+
+    /**
+     * Pins an enclave instance's shard threads to the given cores.
+     *
+     * @return {@code true} if every shard thread was pinned
+     */
+    boolean pinShardThreads(long enclaveHandle, int[] cpus);
+
+    /**
+     * Restricts a thread to the given cores.
+     *
+     * @param threadId the thread's Linux thread ID, or 0 for the calling thread
+     *
+     * @return {@code true} if the thread was restricted
+     */
+    boolean setThreadAffinity(int threadId, int[] cpus);
+  }
+
+  @VisibleForTesting
+  EnclaveCpuPlacement(final SortedSet<Integer> availableCpus,
+      final SortedSet<Integer> shardCpus,
+      final SortedSet<Integer> jniCpus,
+      final ThreadAffinity threadAffinity) {
+
+    if (shardCpus.isEmpty()) {
+      throw new IllegalArgumentException("CPU placement requires at least one shard CPU");
+    }
+
+    if (!availableCpus.containsAll(shardCpus) || !availableCpus.containsAll(jniCpus)) {
+      throw new IllegalArgumentException("Shard CPUs " + shardCpus + " and JNI CPUs " + jniCpus
+          + " must be a subset of available CPUs " + availableCpus);
+    }
+
+    if (shardCpus.stream().anyMatch(jniCpus::contains)) {
+      throw new IllegalArgumentException("Shard CPUs " + shardCpus + " and JNI CPUs " + jniCpus + " must not overlap");
+    }
+
+    final SortedSet<Integer> otherCpus = new TreeSet<>(availableCpus);
+    otherCpus.removeAll(shardCpus);
+    otherCpus.removeAll(jniCpus);
+
+    if (otherCpus.isEmpty()) {
+      throw new IllegalArgumentException("CPU placement must leave at least one CPU for other threads");
+    }
+
+    this.shardCpus = toArray(shardCpus);
+    this.jniCpus = toArray(jniCpus);
+    this.otherCpus = toArray(otherCpus);
+    this.threadAffinity = threadAffinity;
+  }
+
+  /**
+   * Builds a CPU placement from the enclave's configuration.
+   *
+   * @return the configured placement, or empty if no shard CPUs are configured
+   *
+   * @throws IllegalArgumentException if the configured core sets are malformed or can't be satisfied
+   */
+  static Optional<EnclaveCpuPlacement> fromConfiguration(final EnclaveConfiguration enclaveConfiguration,
+      final ThreadAffinity threadAffinity) {
+
+    final SortedSet<Integer> shardCpus = parseCpuList(enclaveConfiguration.getShardCpus());
+
+    if (shardCpus.isEmpty()) {
+      return Optional.empty();
+    }
+
+    return Optional.of(new EnclaveCpuPlacement(getAvailableCpus(), shardCpus,
+        parseCpuList(enclaveConfiguration.getJniCpus()), threadAffinity));
+  }
+
+  /**
+   * Parses a Linux CPU list, such as {@code 0-3,8,10-11}.
+   *
+   * @param cpuList the list to parse; may be {@code null} or blank
+   *
+   * @return the CPUs in the list, which is empty if the list is {@code null} or blank
+   *
+   * @throws IllegalArgumentException if the list is malformed
+   */
+  @VisibleForTesting
+  static SortedSet<Integer> parseCpuList(final String cpuList) {
+    final SortedSet<Integer> cpus = new TreeSet<>();
+
+    if (cpuList == null || cpuList.isBlank()) {
+      return cpus;
+    }
+
+    for (final String range : cpuList.split(",")) {
+      final String[] bounds = range.trim().split("-", -1);
+
+      try {
+        final int first = Integer.parseInt(bounds[0].trim());
+        final int last = bounds.length == 2 ? Integer.parseInt(bounds[1].trim()) : first;
+
+        if (bounds.length > 2 || first < 0 || last < first) {
+          throw new IllegalArgumentException("Invalid CPU range \"" + range + "\" in CPU list \"" + cpuList + "\"");
+        }
+
+        for (int cpu = first; cpu <= last; cpu++) {
+          cpus.add(cpu);
+        }
+      } catch (final NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid CPU range \"" + range + "\" in CPU list \"" + cpuList + "\"", e);
+      }
+    }
+
+    return cpus;
+  }
+
+  /**
+   * Restricts every thread that currently exists in this process to the cores that aren't dedicated to shards or JNI
+   * workers. Threads inherit their creator's affinity, and so threads started later by any of these are restricted,
+   * too. Must be called before shard threads are started.
+   */
+  void restrictProcessThreads() {
+    final List<Integer> threadIds;
+
+    try (final Stream<Path> tasks = Files.list(TASKS_DIRECTORY)) {
+      threadIds = tasks.map(task -> Integer.parseInt(task.getFileName().toString())).toList();
+    } catch (final IOException e) {
+      logger.warn("Failed to list threads; other threads will not be kept off of shard and JNI CPUs", e);
+      return;
+    }
+
+    // Threads may exit while we're working through the list, and those can't be restricted
+    final long restricted = threadIds.stream()
+        .filter(threadId -> threadAffinity.setThreadAffinity(threadId, otherCpus))
+        .count();
+
+    logger.info("Restricted {} of {} threads to CPUs {}", restricted, threadIds.size(), Arrays.toString(otherCpus));
+  }
+
+  /**
+   * Pins an enclave instance's shard threads to the shard cores.
+   */
+  void pinShardThreads(final long enclaveHandle) {
+    if (!threadAffinity.pinShardThreads(enclaveHandle, shardCpus)) {
+      logger.warn("Failed to pin shard threads to CPUs {}", Arrays.toString(shardCpus));
+    }
+  }
+
+  /**
+   * Restricts the calling JNI worker thread to the JNI cores, if any are configured and the thread hasn't already been
+   * restricted. Called before each native call.
+   */
+  void pinJniThread() {
+    if (jniCpus.length == 0 || jniThreadPinned.get()) {
+      return;
+    }
+
+    // Don't try again if this fails; a thread that can't be pinned keeps working where it is
+    jniThreadPinned.set(true);
+
+    if (!threadAffinity.setThreadAffinity(0, jniCpus)) {
+      logger.warn("Failed to pin JNI thread {} to CPUs {}", Thread.currentThread().getName(),
+          Arrays.toString(jniCpus));
+    }
+  }
+
+  /**
+   * Returns the number of cores dedicated to JNI workers, or 0 if JNI workers aren't pinned.
+   */
+  int getJniCpuCount() {
+    return jniCpus.length;
+  }
+
+  private static SortedSet<Integer> getAvailableCpus() {
+    try (final Stream<String> lines = Files.lines(STATUS_FILE)) {
+      return lines.filter(line -> line.startsWith(CPUS_ALLOWED_LIST))
+          .findFirst()
+          .map(line -> parseCpuList(line.substring(CPUS_ALLOWED_LIST.length())))
+          .orElseThrow(() -> new IllegalStateException("Could not determine available CPUs"));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static int[] toArray(final SortedSet<Integer> cpus) {
+    return cpus.stream().mapToInt(Integer::intValue).toArray();
+  }
+}
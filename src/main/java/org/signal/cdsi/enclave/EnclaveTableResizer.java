@@ -0,0 +1,188 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.Scheduled;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+import javax.annotation.Nullable;
+import org.signal.cdsi.account.AccountPopulator;
+import org.signal.cdsi.proto.TableStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples the enclave table's size and capacity and, if enabled, grows the table before it fills up. A
+ * table's capacity is fixed when its enclave instance is initialized, and so growing it means building a new instance
+ * with more memory and replaying the directory into it (see {@link Enclave#resize}). Utilization and headroom are
+ * published whether or not resizing is enabled.
+ */
+@Singleton
+public class EnclaveTableResizer {
+
+  private final Enclave enclave;
+  private final AccountPopulator accountPopulator;
+  private final EnclaveConfiguration enclaveConfiguration;
+  private final ExecutorService executorService;
+  private final MeterRegistry meterRegistry;
+
+  private final AtomicReference<CapacitySample> lastSample = new AtomicReference<>();
+  private final AtomicBoolean resizing = new AtomicBoolean(false);
+
+  private static final String RESIZE_TIMER_NAME = name(EnclaveTableResizer.class, "resize");
+
+  private static final Logger logger = LoggerFactory.getLogger(EnclaveTableResizer.class);
+
+  /**
+   * A sample of the enclave table's size.
+   *
+   * @param entries the number of entries in the table
+   * @param capacity the number of entries the table can hold
+   * @param availableEpcMemory the memory available to the table, in bytes
+   */
+  record CapacitySample(long entries, long capacity, long availableEpcMemory) {
+
+    double utilization() {
+      return capacity == 0 ? 0 : (double) entries / capacity;
+    }
+
+    long headroomEntries() {
+      return Math.max(0, capacity - entries);
+    }
+
+    /**
+     * Returns an estimate of the memory, in bytes, that the table's unused capacity accounts for.
+     */
+    long memoryHeadroom() {
+      return capacity == 0 ? 0 : (long) ((double) availableEpcMemory * headroomEntries() / capacity);
+    }
+  }
+
+  public EnclaveTableResizer(final Enclave enclave,
+      final AccountPopulator accountPopulator,
+      final EnclaveConfiguration enclaveConfiguration,
+      @Named(TaskExecutors.IO) final ExecutorService executorService,
+      final MeterRegistry meterRegistry) {
+
+    this.enclave = enclave;
+    this.accountPopulator = accountPopulator;
+    this.enclaveConfiguration = enclaveConfiguration;
+    this.executorService = executorService;
+    this.meterRegistry = meterRegistry;
+
+    registerSampleGauge("utilization", CapacitySample::utilization, null);
+    registerSampleGauge("headroomEntries", CapacitySample::headroomEntries, null);
+    registerSampleGauge("memoryHeadroom", CapacitySample::memoryHeadroom, "bytes");
+
+    Gauge.builder(name(EnclaveTableResizer.class, "availableEpcMemory"), enclave, Enclave::getAvailableEpcMemory)
+        .baseUnit("bytes")
+        .register(meterRegistry);
+
+    meterRegistry.gauge(name(EnclaveTableResizer.class, "resizing"), resizing, r -> r.get() ? 1 : 0);
+  }
+
+  private void registerSampleGauge(final String name, final ToDoubleFunction<CapacitySample> function,
+      @Nullable final String baseUnit) {
+
+    Gauge.builder(name(EnclaveTableResizer.class, name), lastSample,
+            sample -> Optional.ofNullable(sample.get()).map(function::applyAsDouble).orElse(0.0))
+        .baseUnit(baseUnit)
+        .register(meterRegistry);
+  }
+
+  @Scheduled(fixedDelay = "${enclave.capacityCheckInterval:1m}")
+  void checkCapacity() {
+    final TableStatistics tableStatistics;
+
+    try {
+      tableStatistics = enclave.getTableStatistics().join();
+    } catch (final CompletionException e) {
+      logger.warn("Failed to read enclave table statistics", e);
+      return;
+    }
+
+    final CapacitySample sample = new CapacitySample(Enclave.getEntryCount(tableStatistics),
+        Enclave.getCapacity(tableStatistics),
+        enclave.getAvailableEpcMemory());
+
+    lastSample.set(sample);
+
+    if (!enclaveConfiguration.isTableResizeEnabled()
+        || sample.utilization() < enclaveConfiguration.getTableResizeThreshold()) {
+      return;
+    }
+
+    final long resizedAvailableEpcMemory = getResizedAvailableEpcMemory(sample.availableEpcMemory(),
+        enclaveConfiguration.getTableGrowthFactor(), enclaveConfiguration.getMaxAvailableEpcMemory());
+
+    if (resizedAvailableEpcMemory <= sample.availableEpcMemory()) {
+      logger.warn("Enclave table is {}% full, but already has the maximum available memory",
+          Math.round(sample.utilization() * 100));
+      return;
+    }
+
+    // A replay started before the initial population finishes would only duplicate the initial population's work
+    if (accountPopulator.hasFinishedInitialAccountPopulation() && resizing.compareAndSet(false, true)) {
+      logger.info("Enclave table is {}% full; growing available memory from {} to {} bytes",
+          Math.round(sample.utilization() * 100), sample.availableEpcMemory(), resizedAvailableEpcMemory);
+
+      resize(resizedAvailableEpcMemory);
+    }
+  }
+
+  private CompletableFuture<Void> resize(final long availableEpcMemory) {
+    final long start = System.nanoTime();
+
+    return enclave.resize(availableEpcMemory, accountPopulator::replayAccounts, executorService)
+        .whenComplete((ignored, cause) -> {
+          final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+          Timer.builder(RESIZE_TIMER_NAME)
+              .tags("outcome", cause == null ? "success" : "failure")
+              .register(meterRegistry)
+              .record(duration);
+
+          if (cause == null) {
+            logger.info("Resized enclave table in {} ms", duration.toMillis());
+          } else {
+            logger.warn("Failed to resize enclave table after {} ms", duration.toMillis(), cause);
+          }
+
+          resizing.set(false);
+        });
+  }
+
+  @VisibleForTesting
+  static long getResizedAvailableEpcMemory(final long availableEpcMemory, final double growthFactor,
+      final long maxAvailableEpcMemory) {
+
+    final long resizedAvailableEpcMemory = (long) Math.ceil(availableEpcMemory * growthFactor);
+
+    return maxAvailableEpcMemory > 0
+        ? Math.min(resizedAvailableEpcMemory, maxAvailableEpcMemory)
+        : resizedAvailableEpcMemory;
+  }
+
+  @VisibleForTesting
+  Optional<CapacitySample> getLastSample() {
+    return Optional.ofNullable(lastSample.get());
+  }
+}
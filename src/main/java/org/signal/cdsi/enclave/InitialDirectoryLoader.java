@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads the initial population of the directory into an enclave. When the enclave is configured for bulk initial
+ * loads, entries are staged in the enclave and the table is built from all of them when the load is finished; entries
+ * aren't visible to clients until then. Otherwise, each batch is loaded into the table as it arrives.
+ * <p>
+ * Batches are loaded in the order they're given to {@link #load(List)}, even if callers don't wait for earlier
+ * batches to finish loading, and a failed batch fails every batch after it.
+ *
+ * @see Enclave#startInitialLoad()
+ */
+public class InitialDirectoryLoader implements DirectoryLoader {
+
+  private final Enclave enclave;
+  private final boolean bulk;
+
+  private boolean started = false;
+  private boolean finished = false;
+  private CompletableFuture<Void> previousLoad = CompletableFuture.completedFuture(null);
+
+  InitialDirectoryLoader(final Enclave enclave, final boolean bulk) {
+    this.enclave = enclave;
+    this.bulk = bulk;
+  }
+
+  @Override
+  public synchronized CompletableFuture<Void> load(final List<DirectoryEntry> entries) {
+    if (finished) {
+      return CompletableFuture.failedFuture(new IllegalStateException("Initial load has already finished"));
+    }
+
+    final boolean first = !started;
+    started = true;
+
+    previousLoad = previousLoad.thenCompose(ignored -> bulk
+        ? enclave.loadBulkData(entries, first, false)
+        : enclave.loadData(entries, false));
+
+    return previousLoad;
+  }
+
+  /**
+   * Finishes the initial load, building the enclave's table if this is a bulk load.
+   *
+   * @return a future that completes when every batch has been loaded and the table is ready to serve clients
+   */
+  public synchronized CompletableFuture<Void> finish() {
+    if (finished) {
+      return CompletableFuture.failedFuture(new IllegalStateException("Initial load has already finished"));
+    }
+
+    finished = true;
+
+    if (bulk) {
+      final boolean first = !started;
+      previousLoad = previousLoad.thenCompose(ignored -> enclave.loadBulkData(List.of(), first, true));
+    }
+
+    return previousLoad;
+  }
+
+  /**
+   * Indicates whether this loader stages entries for a bulk build of the enclave's table.
+   */
+  public boolean isBulk() {
+    return bulk;
+  }
+}
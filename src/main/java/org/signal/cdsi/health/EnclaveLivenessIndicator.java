@@ -11,12 +11,26 @@ import io.micronaut.management.health.indicator.HealthIndicator;
 import io.micronaut.management.health.indicator.HealthResult;
 import io.micronaut.management.health.indicator.annotation.Liveness;
 import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import org.reactivestreams.Publisher;
 import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.EnclaveCallWatchdog;
+import org.signal.cdsi.enclave.EnclaveCallWatchdog.StalledCall;
 import org.signal.cdsi.enclave.EnclaveClient;
+import org.signal.cdsi.enclave.EnclaveConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reports whether the enclave is responding to native calls. Under traffic, the enclave's own calls are evidence
+ * enough: the enclave is live if a call has succeeded recently or calls are running, and no call has stalled. Only when
+ * the enclave is idle does this indicator create and close a client of its own to confirm that it still responds.
+ */
 @Singleton
 @Liveness
 class EnclaveLivenessIndicator implements HealthIndicator {
@@ -24,13 +38,38 @@ class EnclaveLivenessIndicator implements HealthIndicator {
   private static final String NAME = "EnclaveClientCreation";
 
   private final Enclave enclave;
+  private final Clock clock;
+  private final Duration idleThreshold;
 
-  EnclaveLivenessIndicator(Enclave enclave) {
+  EnclaveLivenessIndicator(final Enclave enclave, final EnclaveConfiguration enclaveConfiguration, final Clock clock) {
     this.enclave = enclave;
+    this.clock = clock;
+    this.idleThreshold = enclaveConfiguration.getLivenessIdleThreshold();
   }
 
   @Override
   public Publisher<HealthResult> getResult() {
+    final EnclaveCallWatchdog callWatchdog = enclave.getCallWatchdog();
+    final List<StalledCall> stalledCalls = callWatchdog.getStalledCalls();
+
+    if (!stalledCalls.isEmpty()) {
+      logger.error("Enclave calls stalled: {}", stalledCalls);
+
+      return Publishers.just(HealthResult.builder(NAME, HealthStatus.DOWN)
+          .details(Map.of("stalledCalls", stalledCalls))
+          .build());
+    }
+
+    final Optional<Instant> lastSuccessfulCall = callWatchdog.getLastSuccessfulCall();
+
+    if (callWatchdog.hasRunningCalls() ||
+        lastSuccessfulCall.map(timestamp -> timestamp.plus(idleThreshold).isAfter(clock.instant())).orElse(false)) {
+
+      return Publishers.just(HealthResult.builder(NAME, HealthStatus.UP)
+          .details(lastSuccessfulCall.map(timestamp -> Map.of("lastSuccessfulCall", timestamp)).orElse(Map.of()))
+          .build());
+    }
+
     logger.trace("creating client for liveness");
 
     return Publishers.fromCompletableFuture(
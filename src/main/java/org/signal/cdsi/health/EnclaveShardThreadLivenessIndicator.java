@@ -5,33 +5,59 @@
 
 package org.signal.cdsi.health;
 
-import io.micronaut.core.async.publisher.Publishers;
 import io.micronaut.health.HealthStatus;
 import io.micronaut.management.health.indicator.HealthIndicator;
 import io.micronaut.management.health.indicator.HealthResult;
 import io.micronaut.management.health.indicator.annotation.Liveness;
 import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
 import org.reactivestreams.Publisher;
 import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.Enclave.ShardThreadHeartbeat;
 import org.signal.cdsi.enclave.EnclaveConfiguration;
 import reactor.core.publisher.Mono;
 
+/**
+ * Reports whether all of the enclave's shard threads are running, as of the enclave's most recent shard thread sample.
+ * A sample older than three watchdog intervals means the watchdog itself has stopped, and is reported as down.
+ */
 @Singleton
 @Liveness
 public class EnclaveShardThreadLivenessIndicator implements HealthIndicator {
 
   private final Enclave enclave;
+  private final Clock clock;
   private final int expectedShardThreadCount;
+  private final Duration maxHeartbeatAge;
+
+  public EnclaveShardThreadLivenessIndicator(final Enclave enclave,
+      final EnclaveConfiguration enclaveConfiguration,
+      final Clock clock) {
 
-  public EnclaveShardThreadLivenessIndicator(final Enclave enclave, final EnclaveConfiguration enclaveConfiguration) {
     this.enclave = enclave;
-    this.expectedShardThreadCount = enclaveConfiguration.getShards();
+    this.clock = clock;
+    this.expectedShardThreadCount = enclave.getShardCount();
+    this.maxHeartbeatAge = enclaveConfiguration.getWatchdogInterval().multipliedBy(3);
   }
 
   @Override
   public Publisher<HealthResult> getResult() {
+    final Optional<ShardThreadHeartbeat> maybeHeartbeat = enclave.getLastShardThreadHeartbeat();
+
+    final boolean healthy = maybeHeartbeat
+        .map(heartbeat -> heartbeat.runningShardThreads() == expectedShardThreadCount
+            && !heartbeat.timestamp().plus(maxHeartbeatAge).isBefore(clock.instant()))
+        .orElse(false);
+
     return Mono.just(HealthResult.builder("allEnclaveShardsRunning")
-        .status(enclave.getRunningShardThreadCount() == expectedShardThreadCount ? HealthStatus.UP : HealthStatus.DOWN)
+        .status(healthy ? HealthStatus.UP : HealthStatus.DOWN)
+        .details(maybeHeartbeat
+            .map(heartbeat -> Map.<String, Object>of("runningShardThreads", heartbeat.runningShardThreads(),
+                "sampledAt", heartbeat.timestamp()))
+            .orElse(Map.of()))
         .build());
   }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.jfr;
+
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.text.ParseException;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.signal.cdsi.WebSocketSessionEvent;
+import org.signal.cdsi.auth.AuthenticationEvent;
+import org.signal.cdsi.enclave.EnclaveCallEvent;
+import org.signal.cdsi.limits.cosmos.TokenRateLimitEvent;
+import org.signal.cdsi.limits.redis.LeakyBucketEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A flight recording that runs for the lifetime of the service, so that slow sessions and the stages that made them
+ * slow can be examined after the fact.
+ */
+@Context
+@Requires(property = "jfr.enabled", value = "true")
+class ContinuousFlightRecording {
+
+  static final String RECORDING_NAME = "cdsi";
+
+  private static final Logger logger = LoggerFactory.getLogger(ContinuousFlightRecording.class);
+
+  private final Recording recording;
+
+  ContinuousFlightRecording(final FlightRecorderConfiguration configuration) throws IOException, ParseException {
+    recording = new Recording(Configuration.getConfiguration(configuration.getSettings()));
+    recording.setName(RECORDING_NAME);
+    recording.setToDisk(true);
+    recording.setMaxAge(configuration.getMaxAge());
+    recording.setMaxSize(configuration.getMaxSize());
+
+    if (configuration.getDestination() != null) {
+      recording.setDestination(configuration.getDestination());
+    }
+
+    recording.enable(EnclaveCallEvent.class).withThreshold(configuration.getEnclaveCallThreshold());
+    recording.enable(TokenRateLimitEvent.class).withThreshold(configuration.getTokenRateLimitThreshold());
+    recording.enable(LeakyBucketEvent.class).withThreshold(configuration.getLeakyBucketThreshold());
+    recording.enable(AuthenticationEvent.class).withThreshold(configuration.getAuthenticationThreshold());
+    recording.enable(WebSocketSessionEvent.class).withThreshold(configuration.getWebSocketSessionThreshold());
+
+    recording.start();
+    logger.info("Started continuous flight recording \"{}\"", RECORDING_NAME);
+  }
+
+  @PreDestroy
+  void stop() {
+    // stopping the recording writes it to its destination, if it has one
+    recording.stop();
+    recording.close();
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.jfr;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.context.annotation.Context;
+import java.nio.file.Path;
+import java.time.Duration;
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+
+/**
+ * Configures a continuous flight recording of the service's own events alongside the JVM's.
+ * <p>
+ * Each of the service's events is only recorded if it lasts at least as long as its threshold, so thresholds can be
+ * set high enough that only outliers are recorded.
+ *
+ * @see ContinuousFlightRecording
+ */
+@Context
+@ConfigurationProperties("jfr")
+public class FlightRecorderConfiguration {
+
+  /**
+   * Whether to start a continuous recording when the service starts
+   */
+  private boolean enabled = false;
+
+  /**
+   * The name of the JDK recording configuration (e.g. "default" or "profile") to use for JVM events
+   */
+  @NotBlank
+  private String settings = "default";
+
+  /**
+   * How long to keep recorded data
+   */
+  @NotNull
+  private Duration maxAge = Duration.ofHours(1);
+
+  /**
+   * The most recorded data to keep, in bytes; zero means no limit
+   */
+  @PositiveOrZero
+  private long maxSize = 256L * 1024 * 1024;
+
+  /**
+   * If present, where to write the recording when the service shuts down; a running recording may be dumped at any
+   * time with {@code jcmd <pid> JFR.dump name=cdsi}
+   */
+  @Nullable
+  private Path destination;
+
+  @NotNull
+  private Duration enclaveCallThreshold = Duration.ofMillis(10);
+
+  @NotNull
+  private Duration tokenRateLimitThreshold = Duration.ofMillis(50);
+
+  @NotNull
+  private Duration leakyBucketThreshold = Duration.ofMillis(20);
+
+  @NotNull
+  private Duration authenticationThreshold = Duration.ofMillis(20);
+
+  @NotNull
+  private Duration webSocketSessionThreshold = Duration.ofSeconds(1);
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public String getSettings() {
+    return settings;
+  }
+
+  public void setSettings(final String settings) {
+    this.settings = settings;
+  }
+
+  public Duration getMaxAge() {
+    return maxAge;
+  }
+
+  public void setMaxAge(final Duration maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public void setMaxSize(final long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  @Nullable
+  public Path getDestination() {
+    return destination;
+  }
+
+  public void setDestination(@Nullable final Path destination) {
+    this.destination = destination;
+  }
+
+  public Duration getEnclaveCallThreshold() {
+    return enclaveCallThreshold;
+  }
+
+  public void setEnclaveCallThreshold(final Duration enclaveCallThreshold) {
+    this.enclaveCallThreshold = enclaveCallThreshold;
+  }
+
+  public Duration getTokenRateLimitThreshold() {
+    return tokenRateLimitThreshold;
+  }
+
+  public void setTokenRateLimitThreshold(final Duration tokenRateLimitThreshold) {
+    this.tokenRateLimitThreshold = tokenRateLimitThreshold;
+  }
+
+  public Duration getLeakyBucketThreshold() {
+    return leakyBucketThreshold;
+  }
+
+  public void setLeakyBucketThreshold(final Duration leakyBucketThreshold) {
+    this.leakyBucketThreshold = leakyBucketThreshold;
+  }
+
+  public Duration getAuthenticationThreshold() {
+    return authenticationThreshold;
+  }
+
+  public void setAuthenticationThreshold(final Duration authenticationThreshold) {
+    this.authenticationThreshold = authenticationThreshold;
+  }
+
+  public Duration getWebSocketSessionThreshold() {
+    return webSocketSessionThreshold;
+  }
+
+  public void setWebSocketSessionThreshold(final Duration webSocketSessionThreshold) {
+    this.webSocketSessionThreshold = webSocketSessionThreshold;
+  }
+}
@@ -15,6 +15,8 @@ import io.micronaut.http.filter.HttpServerFilter;
 import io.micronaut.http.filter.ServerFilterChain;
 import org.reactivestreams.Publisher;
 import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.trace.SessionTrace;
+import org.signal.cdsi.trace.SessionTrace.Stage;
 
 /**
  * Rejects new requests when the enclave is overloaded.
@@ -30,7 +32,13 @@ public class LoadSheddingFilter implements HttpServerFilter {
 
   @Override
   public Publisher<MutableHttpResponse<?>> doFilter(final HttpRequest<?> request, final ServerFilterChain chain) {
-    return enclave.isOverloaded() ?
+    final long started = System.nanoTime();
+    final boolean overloaded = enclave.isOverloaded();
+
+    request.getAttribute(SessionTrace.REQUEST_ATTRIBUTE, SessionTrace.class)
+        .ifPresent(trace -> trace.record(Stage.LOAD_SHEDDING, started, overloaded));
+
+    return overloaded ?
         Publishers.just(HttpResponse.status(HttpStatus.valueOf(508))) :
         chain.proceed(request);
   }
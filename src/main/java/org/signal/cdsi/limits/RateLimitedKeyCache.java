@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * A bounded, local record of keys that were recently rate limited and when they may retry. Consulting this cache
+ * before doing any work for a key lets us turn away a client that reconnects before its retry time without
+ * authenticating it against a backing store or creating an enclave client for it.
+ * <p>
+ * Entries are advisory: a key that is absent from the cache may still be rate limited by the backing store, and
+ * entries are discarded when the cache is full or when their retry time has passed.
+ */
+@Singleton
+public class RateLimitedKeyCache {
+
+  private final Clock clock;
+  private final Duration maxRetryAfter;
+  private final Cache<String, Instant> retryAfterByKey;
+
+  private final Counter hitCounter;
+
+  public RateLimitedKeyCache(final Clock clock,
+      final MeterRegistry meterRegistry,
+      @Value("${rate-limited-key-cache.max-size:100000}") final long maxSize,
+      @Value("${rate-limited-key-cache.max-retry-after:1h}") final Duration maxRetryAfter) {
+
+    this.clock = clock;
+    this.maxRetryAfter = maxRetryAfter;
+
+    // Entries live until their own retry time; the cache-wide expiry just bounds how long we'll hold any entry
+    this.retryAfterByKey = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(maxRetryAfter)
+        .build();
+
+    this.hitCounter = meterRegistry.counter(name(RateLimitedKeyCache.class, "hit"));
+  }
+
+  /**
+   * Records that the given key was rate limited and may not retry until the given duration has elapsed.
+   *
+   * @param key the rate limit key
+   * @param retryDuration how long the key must wait before retrying
+   */
+  public void recordRateLimited(final String key, final Duration retryDuration) {
+    if (retryDuration.isNegative() || retryDuration.isZero()) {
+      return;
+    }
+
+    final Instant retryAt =
+        clock.instant().plus(retryDuration.compareTo(maxRetryAfter) > 0 ? maxRetryAfter : retryDuration);
+    retryAfterByKey.asMap().merge(key, retryAt, (existing, updated) -> existing.isAfter(updated) ? existing : updated);
+  }
+
+  /**
+   * Checks whether the given key is known to be rate limited.
+   *
+   * @param key the rate limit key
+   * @return the remaining time the key must wait before retrying, rounded up to the next whole second, or empty if the
+   * key is not known to be rate limited
+   */
+  public Optional<Duration> getRetryDuration(final String key) {
+    final Instant retryAt = retryAfterByKey.getIfPresent(key);
+
+    if (retryAt == null) {
+      return Optional.empty();
+    }
+
+    final Duration remaining = Duration.between(clock.instant(), retryAt);
+
+    if (remaining.isNegative() || remaining.isZero()) {
+      retryAfterByKey.asMap().remove(key, retryAt);
+      return Optional.empty();
+    }
+
+    hitCounter.increment();
+
+    // Retry-after values are reported to clients in whole seconds; never tell a client to retry before it may
+    return Optional.of(Duration.ofSeconds(remaining.getSeconds() + (remaining.getNano() > 0 ? 1 : 0)));
+  }
+
+  @VisibleForTesting
+  public void invalidateAll() {
+    retryAfterByKey.invalidateAll();
+  }
+}
@@ -7,8 +7,25 @@ package org.signal.cdsi.limits;
 
 import io.micronaut.context.annotation.ConfigurationProperties;
 import io.micronaut.context.annotation.Context;
+import java.time.Duration;
+import javax.validation.constraints.NotNull;
 
 @Context
 @ConfigurationProperties("tokenRateLimit")
 public class TokenRateLimitConfiguration extends RateLimitConfiguration {
+
+  /**
+   * How long state fetched by {@link TokenRateLimiter#prefetch(String)} may be used by a later call to
+   * {@link TokenRateLimiter#prepare}; a zero duration disables prefetching.
+   */
+  @NotNull
+  private Duration prefetchTtl = Duration.ZERO;
+
+  public Duration getPrefetchTtl() {
+    return prefetchTtl;
+  }
+
+  public void setPrefetchTtl(final Duration prefetchTtl) {
+    this.prefetchTtl = prefetchTtl;
+  }
 }
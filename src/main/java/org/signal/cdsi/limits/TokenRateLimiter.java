@@ -21,9 +21,22 @@ import java.util.concurrent.CompletableFuture;
  *      with {@link #validate(String, ByteBuffer)}
  * <li> All subsequent uses of the token are free </li>
  * </ol>
+ * <p>
+ * Because the key for a request is known well before the token, callers may call {@link #prefetch(String)} as soon as
+ * they know the key so that implementations can start fetching state that {@code prepare} will need.
  */
 public interface TokenRateLimiter {
 
+  /**
+   * Hints that {@link #prepare(String, int, ByteBuffer, ByteBuffer)} will soon be called for the given key.
+   * Implementations may start fetching any state that {@code prepare} will need; the default implementation does
+   * nothing.
+   *
+   * @param key identifier for the upcoming request
+   */
+  default void prefetch(String key) {
+  }
+
   CompletableFuture<Void> prepare(String key, int amount, final ByteBuffer oldTokenHash, final ByteBuffer newTokenHash);
 
   /**
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.cosmos;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.context.annotation.Context;
+import java.time.Duration;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+
+/**
+ * Configures the request unit budget the token rate limiter spends against its cosmos container.
+ *
+ * @see RequestUnitBudget
+ */
+@Context
+@ConfigurationProperties("cosmos.requestUnitBudget")
+public class CosmosRequestUnitBudgetConfiguration {
+
+  /**
+   * The request units per second we expect to be able to spend; this should be this instance's share of the
+   * container's provisioned throughput. Zero disables budgeting, though throttling hints from cosmos are still honored.
+   */
+  @PositiveOrZero
+  private double requestUnitsPerSecond = 0;
+
+  /**
+   * The fraction of the budget that must remain available for optional work (garbage collection and prefetching) to
+   * proceed.
+   */
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double optionalWorkReserve = 0.25;
+
+  /**
+   * The longest a required operation will wait for a backoff requested by cosmos to end before failing without
+   * contacting cosmos.
+   */
+  @NotNull
+  private Duration maxBackoffWait = Duration.ofSeconds(1);
+
+  public double getRequestUnitsPerSecond() {
+    return requestUnitsPerSecond;
+  }
+
+  public void setRequestUnitsPerSecond(final double requestUnitsPerSecond) {
+    this.requestUnitsPerSecond = requestUnitsPerSecond;
+  }
+
+  public double getOptionalWorkReserve() {
+    return optionalWorkReserve;
+  }
+
+  public void setOptionalWorkReserve(final double optionalWorkReserve) {
+    this.optionalWorkReserve = optionalWorkReserve;
+  }
+
+  public Duration getMaxBackoffWait() {
+    return maxBackoffWait;
+  }
+
+  public void setMaxBackoffWait(final Duration maxBackoffWait) {
+    this.maxBackoffWait = maxBackoffWait;
+  }
+}
@@ -25,9 +25,13 @@ import com.azure.cosmos.models.CosmosBatchResponse;
 import com.azure.cosmos.models.CosmosItemRequestOptions;
 import com.azure.cosmos.models.CosmosItemResponse;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
 import com.azure.cosmos.models.PartitionKey;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
@@ -42,20 +46,30 @@ import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.util.Base64;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.DoubleAdder;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import org.signal.cdsi.limits.RateLimitExceededException;
 import org.signal.cdsi.limits.RateLimits;
 import org.signal.cdsi.limits.TokenRateLimitConfiguration;
 import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.metrics.EnumMeters;
 import org.signal.cdsi.util.CompletionExceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.function.Tuple2;
 
 /**
  * Provides a rate limiter for tokens backed by a cosmosdb container
@@ -74,15 +88,85 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
   private static final Logger logger = LoggerFactory.getLogger(CosmosTokenRateLimiter.class);
   static final String PARTITION_KEY_PATH = "/key";
   private static final int MAX_COSMOS_BATCH_SIZE = 100;
+  private static final int MAX_PREFETCHED_BUCKETS = 10_000;
 
   private final Clock clock;
   private final TokenRateLimitConfiguration configuration;
   private final CosmosAsyncContainer container;
-  private final MeterRegistry meterRegistry;
   private final boolean gcOldTokens;
 
   private final static String validateCounterName = name(CosmosTokenRateLimiter.class, "validate");
   private final static String tokenGcCounterName = name(CosmosTokenRateLimiter.class, "tokenGc");
+  private final static String prefetchCounterName = name(CosmosTokenRateLimiter.class, "prefetch");
+  private final static String requestChargeName = name(CosmosTokenRateLimiter.class, "requestCharge");
+  private final static String optionalWorkDeferredCounterName =
+      name(CosmosTokenRateLimiter.class, "optionalWorkDeferred");
+  private final static String backoffCounterName = name(CosmosTokenRateLimiter.class, "backoff");
+
+  // Reactor context key for the DoubleAdder that accumulates the request charge of a single prepare or validate call
+  private final static String REQUEST_CHARGE_CONTEXT_KEY = "requestCharge";
+
+  /**
+   * The cosmos operations we issue, for request charge accounting
+   */
+  private enum Operation {
+    BUCKET_READ("bucketRead"),
+    TOKEN_READ("tokenRead"),
+    CREATE("create"),
+    GC_QUERY("gcQuery"),
+    BATCH("batch");
+
+    private final String tagValue;
+
+    Operation(final String tagValue) {
+      this.tagValue = tagValue;
+    }
+  }
+
+  private enum Outcome {
+    SUCCESS("success"),
+    RATE_LIMIT_EXCEEDED("rateLimitExceeded"),
+    UPDATE_CONFLICT("updateConflict"),
+    THROTTLED("throttled"),
+    ERROR("error");
+
+    private final String tagValue;
+
+    Outcome(final String tagValue) {
+      this.tagValue = tagValue;
+    }
+
+    static Outcome of(Throwable e) {
+      e = CompletionExceptions.unwrap(e);
+      if (e instanceof RateLimitExceededException) {
+        return RATE_LIMIT_EXCEEDED;
+      } else if (e instanceof ConflictException) {
+        return UPDATE_CONFLICT;
+      } else if (e instanceof BackoffException || e instanceof RequestRateTooLargeException) {
+        return THROTTLED;
+      }
+      return ERROR;
+    }
+  }
+
+  /**
+   * Indicates that a request was not sent to cosmos because cosmos asked us to back off for longer than we're willing
+   * to wait
+   */
+  private static class BackoffException extends IOException {
+
+    BackoffException(final Duration backoff) {
+      super("Resource exhausted, backing off for " + backoff);
+    }
+  }
+
+  private final RequestUnitBudget requestUnitBudget;
+  private final Duration maxBackoffWait;
+  private final Map<Operation, DistributionSummary> requestChargeDists = new EnumMap<>(Operation.class);
+
+  // Bucket reads started by prefetch, waiting to be claimed by a call to prepare for the same key
+  @Nullable
+  private final Cache<String, CompletableFuture<CosmosItemResponse<TokenBucket>>> prefetchedBuckets;
 
   private final DistributionSummary userTokenCountDist;
 
@@ -90,13 +174,26 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
   private final Timer prepareTimer;
   private final Timer validateTimer;
 
+  private final EnumMeters<Outcome, Counter> validateCounters;
+  private final Counter tokenGcSuccessCounter;
+  private final Counter tokenGcFailedCounter;
+  private final Counter tokenGcUnknownCounter;
+  private final Counter prefetchHitCounter;
+  private final Counter prefetchMissCounter;
+  private final Counter prefetchDeferredCounter;
+  private final Counter gcDeferredCounter;
+  private final Counter backoffDelayedCounter;
+  private final Counter backoffRejectedCounter;
+
   @Creator
   public CosmosTokenRateLimiter(
       CosmosAsyncContainer container,
       Clock clock,
       TokenRateLimitConfiguration configuration,
+      CosmosRequestUnitBudgetConfiguration budgetConfiguration,
+      RequestUnitBudget requestUnitBudget,
       MeterRegistry meterRegistry) {
-    this(container, clock, configuration, meterRegistry, true);
+    this(container, clock, configuration, budgetConfiguration, requestUnitBudget, meterRegistry, true);
   }
 
   @VisibleForTesting
@@ -106,11 +203,42 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
       TokenRateLimitConfiguration configuration,
       MeterRegistry meterRegistry,
       boolean gcOldTokens) {
+    this(container, clock, configuration, new CosmosRequestUnitBudgetConfiguration(), meterRegistry, gcOldTokens);
+  }
+
+  private CosmosTokenRateLimiter(
+      CosmosAsyncContainer container,
+      Clock clock,
+      TokenRateLimitConfiguration configuration,
+      CosmosRequestUnitBudgetConfiguration budgetConfiguration,
+      MeterRegistry meterRegistry,
+      boolean gcOldTokens) {
+    this(container, clock, configuration, budgetConfiguration,
+        new RequestUnitBudget(budgetConfiguration, clock, meterRegistry), meterRegistry, gcOldTokens);
+  }
+
+  @VisibleForTesting
+  CosmosTokenRateLimiter(
+      CosmosAsyncContainer container,
+      Clock clock,
+      TokenRateLimitConfiguration configuration,
+      CosmosRequestUnitBudgetConfiguration budgetConfiguration,
+      RequestUnitBudget requestUnitBudget,
+      MeterRegistry meterRegistry,
+      boolean gcOldTokens) {
     this.clock = clock;
     this.configuration = configuration;
     this.container = container;
-    this.meterRegistry = meterRegistry;
     this.gcOldTokens = gcOldTokens;
+    this.requestUnitBudget = requestUnitBudget;
+    this.maxBackoffWait = budgetConfiguration.getMaxBackoffWait();
+
+    for (final Operation operation : Operation.values()) {
+      requestChargeDists.put(operation, DistributionSummary.builder(requestChargeName)
+          .tag("operation", operation.tagValue)
+          .distributionStatisticExpiry(Duration.ofHours(2))
+          .register(meterRegistry));
+    }
 
     userTokenCountDist = DistributionSummary.builder(name(getClass(), "userTokenCount"))
         .distributionStatisticExpiry(Duration.ofHours(2))
@@ -118,6 +246,130 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
     tokenGcTimer = meterRegistry.timer(name(getClass(), "tokenGcTimer"));
     prepareTimer = meterRegistry.timer(name(getClass(), "prepare"));
     validateTimer = meterRegistry.timer(name(getClass(), "validate"));
+
+    validateCounters = EnumMeters.counters(meterRegistry, validateCounterName, "outcome", Outcome.class,
+        outcome -> outcome.tagValue);
+    tokenGcSuccessCounter = meterRegistry.counter(tokenGcCounterName, "outcome", "success");
+    tokenGcFailedCounter = meterRegistry.counter(tokenGcCounterName, "outcome", "failed");
+    tokenGcUnknownCounter = meterRegistry.counter(tokenGcCounterName, "outcome", "unknown");
+    prefetchHitCounter = meterRegistry.counter(prefetchCounterName, "outcome", "hit");
+    prefetchMissCounter = meterRegistry.counter(prefetchCounterName, "outcome", "miss");
+    prefetchDeferredCounter = meterRegistry.counter(optionalWorkDeferredCounterName, "work", "prefetch");
+    gcDeferredCounter = meterRegistry.counter(optionalWorkDeferredCounterName, "work", "gc");
+    backoffDelayedCounter = meterRegistry.counter(backoffCounterName, "outcome", "delayed");
+    backoffRejectedCounter = meterRegistry.counter(backoffCounterName, "outcome", "rejected");
+
+    prefetchedBuckets = configuration.getPrefetchTtl().isZero() ? null : CacheBuilder.newBuilder()
+        .maximumSize(MAX_PREFETCHED_BUCKETS)
+        .expireAfterWrite(configuration.getPrefetchTtl())
+        .build();
+  }
+
+  @Override
+  public void prefetch(final String key) {
+    if (prefetchedBuckets == null) {
+      return;
+    }
+
+    if (!requestUnitBudget.allowOptionalWork()) {
+      logger.trace("Skipping prefetch for {}, request unit budget is low", key);
+      prefetchDeferredCounter.increment();
+      return;
+    }
+
+    logger.trace("Prefetching token bucket for {}", key);
+    prefetchedBuckets.put(key, readBucketFromStore(key).toFuture());
+  }
+
+  /**
+   * Read the token bucket for a key, using the result of an earlier {@link #prefetch(String)} if one is still fresh
+   *
+   * @param key the partition key of the bucket
+   * @return a Mono that yields the bucket, or fails with {@link NotFoundException} if the bucket does not exist
+   */
+  private Mono<CosmosItemResponse<TokenBucket>> readBucket(final String key) {
+    final CompletableFuture<CosmosItemResponse<TokenBucket>> prefetched =
+        prefetchedBuckets == null ? null : prefetchedBuckets.getIfPresent(key);
+
+    if (prefetched == null) {
+      if (prefetchedBuckets != null) {
+        prefetchMissCounter.increment();
+      }
+      return readBucketFromStore(key);
+    }
+
+    // each prefetched read may only be used once; later calls should observe any changes made in the meantime
+    prefetchedBuckets.invalidate(key);
+    prefetchHitCounter.increment();
+
+    return Mono.fromFuture(prefetched)
+        // a missing bucket is a legitimate result, but any other failure might be transient, so try again
+        .onErrorResume(e -> !(CompletionExceptions.unwrap(e) instanceof NotFoundException),
+            e -> readBucketFromStore(key));
+  }
+
+  private Mono<CosmosItemResponse<TokenBucket>> readBucketFromStore(final String key) {
+    return withRequestCharge(Operation.BUCKET_READ, container.readItem(
+        TokenBucket.ID,
+        new PartitionKey(key),
+        new CosmosItemRequestOptions().setConsistencyLevel(ConsistencyLevel.STRONG),
+        TokenBucket.class), CosmosItemResponse::getRequestCharge);
+  }
+
+  /**
+   * Record the request charge of a cosmos operation against our budget, and note any backoff cosmos requests if it
+   * throttles the operation
+   *
+   * @param operation     the kind of operation, for metrics
+   * @param mono          the cosmos operation
+   * @param requestCharge extracts the request charge from a successful response
+   * @return a Mono that yields the same result as the operation
+   */
+  private <T> Mono<T> withRequestCharge(final Operation operation, final Mono<T> mono,
+      final ToDoubleFunction<T> requestCharge) {
+    return Mono.deferContextual(context -> {
+      // the total charge of the prepare or validate call this operation is a part of, if any
+      final Optional<DoubleAdder> callCharge = context.getOrEmpty(REQUEST_CHARGE_CONTEXT_KEY);
+      return mono
+          .doOnNext(response -> recordRequestCharge(operation, requestCharge.applyAsDouble(response), callCharge))
+          .doOnError(CosmosException.class, e -> recordRequestFailure(operation, e, callCharge));
+    });
+  }
+
+  private void recordRequestCharge(final Operation operation, final double requestCharge,
+      final Optional<DoubleAdder> callCharge) {
+    requestChargeDists.get(operation).record(requestCharge);
+    requestUnitBudget.recordCharge(requestCharge);
+    callCharge.ifPresent(charge -> charge.add(requestCharge));
+  }
+
+  private void recordRequestFailure(final Operation operation, final CosmosException e,
+      final Optional<DoubleAdder> callCharge) {
+    recordRequestCharge(operation, e.getRequestCharge(), callCharge);
+    if (e instanceof RequestRateTooLargeException) {
+      logger.debug("Cosmos throttled {}, backing off for {}", operation.tagValue, e.getRetryAfterDuration());
+      requestUnitBudget.recordThrottle(e.getRetryAfterDuration());
+    }
+  }
+
+  /**
+   * Defer a required operation until any backoff requested by cosmos has passed
+   *
+   * @param operation supplies the operation
+   * @return a Mono that starts the operation once the backoff has passed, or fails with an {@link IOException} if the
+   * backoff is longer than we're willing to wait
+   */
+  private <T> Mono<T> afterBackoff(final Supplier<Mono<T>> operation) {
+    final Duration backoff = requestUnitBudget.getBackoffRemaining();
+    if (backoff.isZero()) {
+      return operation.get();
+    }
+    if (backoff.compareTo(maxBackoffWait) > 0) {
+      backoffRejectedCounter.increment();
+      return Mono.error(new CompletionException(new BackoffException(backoff)));
+    }
+    backoffDelayedCounter.increment();
+    return Mono.delay(backoff).then(Mono.defer(operation));
   }
 
   /**
@@ -131,7 +383,11 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
   private Mono<CosmosBatch> buildBucketUpdate(final String key, final int delta) {
     final CosmosBatch batch = CosmosBatch.createCosmosBatch(new PartitionKey(key));
     Instant now = clock.instant();
-    return container.readItem(TokenBucket.ID, new PartitionKey(key), new CosmosItemRequestOptions(), TokenBucket.class)
+    return withRequestCharge(Operation.BUCKET_READ, container.readItem(
+            TokenBucket.ID,
+            new PartitionKey(key),
+            new CosmosItemRequestOptions(),
+            TokenBucket.class), CosmosItemResponse::getRequestCharge)
         .map(response -> {
           // bucket was present, update it
           TokenBucket bucket = Objects.requireNonNull(response.getItem());
@@ -184,6 +440,9 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
     Preconditions.checkArgument(newTokenHash.hasRemaining());
     final Instant now = clock.instant();
     final Sample sample = Timer.start();
+    final TokenRateLimitEvent event = new TokenRateLimitEvent("prepare");
+    final DoubleAdder requestCharge = new DoubleAdder();
+    event.begin();
     String oldTokenId = base64Encode(oldTokenHash);
     String newTokenId = base64Encode(newTokenHash);
     Preconditions.checkArgument(!Objects.equals(newTokenId, TokenBucket.ID),
@@ -193,27 +452,28 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
     final TokenBucket[] bucketRef = new TokenBucket[1];
 
     // read the token bucket
-    return container.readItem(
-            TokenBucket.ID,
-            new PartitionKey(key),
-            new CosmosItemRequestOptions().setConsistencyLevel(ConsistencyLevel.STRONG),
-            TokenBucket.class)
+    final Mono<CosmosItemResponse<TokenBucket>> bucketAfterGc = readBucket(key)
         .onErrorResume(NotFoundException.class, e -> {
           // there wasn't an existing bucket, create a bucket with no rate limit used
           logger.trace("Creating empty token bucket for {} on first use", key);
           final TokenBucket bucket = TokenBucket.create(key, 0.0, now.toString(), getTtl());
-          return container.createItem(bucket, new PartitionKey(key),
-              new CosmosItemRequestOptions().setContentResponseOnWriteEnabled(true));
+          return withRequestCharge(Operation.CREATE, container.createItem(bucket, new PartitionKey(key),
+              new CosmosItemRequestOptions().setContentResponseOnWriteEnabled(true)),
+              CosmosItemResponse::getRequestCharge);
         })
         // attempt to clean up any old tokens
         .flatMap(bucketResponse -> {
           // save off the TokenBucket for later
           bucketRef[0] = bucketResponse.getItem();
-          return tryGarbageCollect(bucketResponse, key, oldTokenId, now);
-        })
-        .then(getNewTokenCost(key, oldTokenId, amountDelta))
+          return tryGarbageCollect(bucketResponse, key, oldTokenId, now).thenReturn(bucketResponse);
+        });
+
+    // garbage collection never removes the old token, so we can look up its cost while we're working on the bucket
+    return afterBackoff(() -> Mono.zip(bucketAfterGc, getNewTokenCost(key, oldTokenId, amountDelta)))
+        .map(Tuple2::getT2)
         .flatMap(requestSize -> {
           logger.trace("Computed cost for new token {} is {}", KeyToken.of(key, newTokenId), requestSize);
+          event.cost = requestSize;
           if (requestSize > configuration.getBucketSize()) {
             logger.warn(
                 "Will not prepare token: request size {} is more than the configured bucket limit, can never succeed",
@@ -235,11 +495,21 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
           final TokenCost cost = TokenCost.create(key, newTokenId, requestSize, now.toString(), getTtl());
 
           // fails if newTokenId somehow already exists (would be a bug)
-          return this.container.createItem(cost, new PartitionKey(cost.getKey()), new CosmosItemRequestOptions());
+          return withRequestCharge(Operation.CREATE,
+              this.container.createItem(cost, new PartitionKey(cost.getKey()), new CosmosItemRequestOptions()),
+              CosmosItemResponse::getRequestCharge);
         })
+        // classify failures before they're marshalled into less specific exceptions
+        .doOnError(e -> event.outcome = Outcome.of(e).tagValue)
         .onErrorMap(CosmosException.class, CosmosTokenRateLimiter::marshal)
         .doOnError(e -> logger.warn("Failed to persist token cost for {}", KeyToken.of(key, newTokenId), e))
-        .doFinally(ignore -> sample.stop(prepareTimer))
+        .doOnSuccess(ignored -> event.outcome = Outcome.SUCCESS.tagValue)
+        .doFinally(ignore -> {
+          sample.stop(prepareTimer);
+          event.requestUnits = requestCharge.sum();
+          event.commit();
+        })
+        .contextWrite(Context.of(REQUEST_CHARGE_CONTEXT_KEY, requestCharge))
         .toFuture().thenApply(ignored -> null);
   }
 
@@ -313,6 +583,11 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
       logger.trace("Skipping gc (not enabled)");
       return Mono.empty();
     }
+    if (!requestUnitBudget.allowOptionalWork()) {
+      logger.debug("Skipping gc for {}, request unit budget is low", key);
+      gcDeferredCounter.increment();
+      return Mono.empty();
+    }
     logger.trace("Successfully read tokenBucket for {}, initiating garbage collection", key);
     final Sample sample = Timer.start();
     return garbageCollect(
@@ -337,8 +612,16 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
     }
 
     // list all items under the key, skipping the TokenBucket and the current predecessor token
-    return this.container.readAllItems(new PartitionKey(bucket.getKey()), new CosmosQueryRequestOptions(),
-            TokenCost.class)
+    return Flux.deferContextual(context -> {
+          // the query is paged, so each page's charge counts toward the prepare call this gc is a part of
+          final Optional<DoubleAdder> callCharge = context.getOrEmpty(REQUEST_CHARGE_CONTEXT_KEY);
+          return this.container.readAllItems(new PartitionKey(bucket.getKey()), new CosmosQueryRequestOptions(),
+                  TokenCost.class)
+              .byPage()
+              .doOnNext(page -> recordRequestCharge(Operation.GC_QUERY, page.getRequestCharge(), callCharge))
+              .doOnError(CosmosException.class, e -> recordRequestFailure(Operation.GC_QUERY, e, callCharge));
+        })
+        .flatMapIterable(FeedResponse::getResults)
         .filter(tokenFilter)
         .collect(Collectors.toList())
         .flatMap(tokens -> {
@@ -386,12 +669,13 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
           }
           batch.replaceItemOperation(TokenBucket.ID, bucket,
               new CosmosBatchItemRequestOptions().setIfMatchETag(bucketResponse.getETag()));
-          return container.executeCosmosBatch(batch)
+          return withRequestCharge(Operation.BATCH, container.executeCosmosBatch(batch),
+                  CosmosBatchResponse::getRequestCharge)
               .doFinally(signalType ->
-                meterRegistry.counter(tokenGcCounterName, "outcome", switch (signalType) {
-                  case ON_COMPLETE -> "success";
-                  case ON_ERROR -> "failed";
-                  default -> "unknown";
+                (switch (signalType) {
+                  case ON_COMPLETE -> tokenGcSuccessCounter;
+                  case ON_ERROR -> tokenGcFailedCounter;
+                  default -> tokenGcUnknownCounter;
                 }).increment());
           });
   }
@@ -400,17 +684,19 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
   @Override
   public CompletableFuture<Integer> validate(final String key, final ByteBuffer tokenHash) {
     final Sample sample = Timer.start();
+    final TokenRateLimitEvent event = new TokenRateLimitEvent("validate");
+    final DoubleAdder requestCharge = new DoubleAdder();
+    event.begin();
     String tokenId = base64Encode(tokenHash);
     final int[] spent = new int[1];
-    return this.container
-        // read the weight of this token from token storage
-        // because we were the ones that wrote this (in prepare), session
-        // level read consistency is sufficient
-        .readItem(
+    // read the weight of this token from token storage
+    // because we were the ones that wrote this (in prepare), session
+    // level read consistency is sufficient
+    return afterBackoff(() -> withRequestCharge(Operation.TOKEN_READ, this.container.readItem(
             tokenId,
             new PartitionKey(key),
             new CosmosItemRequestOptions(),
-            TokenCost.class)
+            TokenCost.class), CosmosItemResponse::getRequestCharge))
 
         // if the token doesn't have a cost, it's free! can immediately succeed (will short circuit the rest)
         .onErrorResume(NotFoundException.class, e -> {
@@ -431,27 +717,38 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
         .flatMap(batch -> {
           // delete the token cost as part of the batch
           batch.deleteItemOperation(tokenId);
-          return this.container.executeCosmosBatch(batch, new CosmosBatchRequestOptions());
+          return withRequestCharge(Operation.BATCH,
+              this.container.executeCosmosBatch(batch, new CosmosBatchRequestOptions()),
+              CosmosBatchResponse::getRequestCharge);
         })
 
         .doOnError(ex -> {
-          ex = CompletionExceptions.unwrap(ex);
-          if (ex instanceof RateLimitExceededException) {
-            meterRegistry.counter(validateCounterName, "outcome", "rateLimitExceeded").increment();
-          } else if (ex instanceof ConflictException) {
+          final Outcome outcome = Outcome.of(ex);
+          switch (outcome) {
             // Failed due to a RMW conflict. The client should be told to
             // immediately retry
-            logger.info("Failed to update rate limit for {} due to read-then-write lock conflict",
-                KeyToken.of(key, tokenId));
-            meterRegistry.counter(validateCounterName, "outcome", "updateConflict").increment();
-          } else {
-            meterRegistry.counter(validateCounterName, "outcome", "error").increment();
-            logger.error("Failed to update rate limit for {}", KeyToken.of(key, tokenId), ex);
+            case UPDATE_CONFLICT -> logger.info(
+                "Failed to update rate limit for {} due to read-then-write lock conflict", KeyToken.of(key, tokenId));
+            case THROTTLED -> logger.debug(
+                "Failed to update rate limit for {} while cosmos is throttling", KeyToken.of(key, tokenId));
+            case ERROR -> logger.error("Failed to update rate limit for {}", KeyToken.of(key, tokenId),
+                CompletionExceptions.unwrap(ex));
           }
+          validateCounters.get(outcome).increment();
+          event.outcome = outcome.tagValue;
         })
         .onErrorMap(CosmosException.class, CosmosTokenRateLimiter::marshal)
-        .doOnSuccess(ignore -> meterRegistry.counter(validateCounterName, "outcome", "success").increment())
-        .doFinally(ignored -> sample.stop(validateTimer))
+        .doOnSuccess(ignore -> {
+          validateCounters.get(Outcome.SUCCESS).increment();
+          event.outcome = Outcome.SUCCESS.tagValue;
+        })
+        .doFinally(ignored -> {
+          sample.stop(validateTimer);
+          event.cost = spent[0];
+          event.requestUnits = requestCharge.sum();
+          event.commit();
+        })
+        .contextWrite(Context.of(REQUEST_CHARGE_CONTEXT_KEY, requestCharge))
         .toFuture()
         .thenApply(ignored -> spent[0]);
   }
@@ -461,11 +758,11 @@ public class CosmosTokenRateLimiter implements TokenRateLimiter {
     if (oldTokenId.isEmpty()) {
       return Mono.just(amountDelta);
     }
-    return container.readItem(
+    return withRequestCharge(Operation.TOKEN_READ, container.readItem(
             oldTokenId,
             new PartitionKey(userId),
             new CosmosItemRequestOptions().setConsistencyLevel(ConsistencyLevel.STRONG),
-            TokenCost.class)
+            TokenCost.class), CosmosItemResponse::getRequestCharge)
         .map(response -> {
           TokenCost cost = response.getItem();
           logger.trace("Old token {} exists, has cost {}", KeyToken.of(userId, oldTokenId), cost.getCost());
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.cosmos;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Tracks the request units spent against a cosmos container and any backoff cosmos has asked us to observe.
+ * <p>
+ * The budget is a token bucket that refills at the configured request-unit rate and holds at most one second of
+ * request units. Charges are recorded after the fact (cosmos only reports a request's charge once it completes), so the
+ * bucket may go into debt. Optional work should only proceed while {@link #allowOptionalWork()} is true, which leaves
+ * the remaining capacity for requests that clients are waiting on.
+ * <p>
+ * When cosmos throttles a request, the retry-after hint it returns applies to every caller of this budget: no optional
+ * work proceeds until it has passed, and required work may use {@link #getBackoffRemaining()} to wait or fail fast.
+ */
+@Singleton
+public class RequestUnitBudget {
+
+  private final Clock clock;
+  private final double requestUnitsPerSecond;
+  private final double optionalWorkThreshold;
+
+  private double available;
+  private Instant lastRefill;
+  private Instant backoffUntil = Instant.EPOCH;
+
+  public RequestUnitBudget(final CosmosRequestUnitBudgetConfiguration configuration, final Clock clock,
+      final MeterRegistry meterRegistry) {
+    this.clock = clock;
+    this.requestUnitsPerSecond = configuration.getRequestUnitsPerSecond();
+    this.optionalWorkThreshold = requestUnitsPerSecond * configuration.getOptionalWorkReserve();
+
+    this.available = requestUnitsPerSecond;
+    this.lastRefill = clock.instant();
+
+    meterRegistry.gauge(name(RequestUnitBudget.class, "available"), this, RequestUnitBudget::getAvailable);
+  }
+
+  /**
+   * Records request units consumed by a completed (or failed) cosmos operation
+   *
+   * @param requestCharge the request charge reported by cosmos
+   */
+  public synchronized void recordCharge(final double requestCharge) {
+    if (requestUnitsPerSecond <= 0 || requestCharge <= 0) {
+      return;
+    }
+
+    refill(clock.instant());
+    available -= requestCharge;
+  }
+
+  /**
+   * Records that cosmos throttled a request and asked us to wait before retrying
+   *
+   * @param retryAfter the retry-after hint returned by cosmos
+   */
+  public synchronized void recordThrottle(final Duration retryAfter) {
+    if (retryAfter == null || retryAfter.isNegative() || retryAfter.isZero()) {
+      return;
+    }
+
+    final Instant until = clock.instant().plus(retryAfter);
+    if (until.isAfter(backoffUntil)) {
+      backoffUntil = until;
+    }
+  }
+
+  /**
+   * @return how much longer callers should wait before sending requests to cosmos, or {@link Duration#ZERO} if there is
+   * no outstanding backoff
+   */
+  public synchronized Duration getBackoffRemaining() {
+    final Duration remaining = Duration.between(clock.instant(), backoffUntil);
+    return remaining.isNegative() ? Duration.ZERO : remaining;
+  }
+
+  /**
+   * @return true if there is enough budget left over for work that may safely be skipped
+   */
+  public synchronized boolean allowOptionalWork() {
+    final Instant now = clock.instant();
+
+    if (now.isBefore(backoffUntil)) {
+      return false;
+    }
+
+    if (requestUnitsPerSecond <= 0) {
+      return true;
+    }
+
+    refill(now);
+    return available >= optionalWorkThreshold;
+  }
+
+  synchronized double getAvailable() {
+    if (requestUnitsPerSecond > 0) {
+      refill(clock.instant());
+    }
+    return available;
+  }
+
+  private void refill(final Instant now) {
+    final Duration elapsed = Duration.between(lastRefill, now);
+    if (elapsed.isNegative() || elapsed.isZero()) {
+      return;
+    }
+
+    available = Math.min(requestUnitsPerSecond, available + requestUnitsPerSecond * elapsed.toNanos() / 1e9);
+    lastRefill = now;
+  }
+}
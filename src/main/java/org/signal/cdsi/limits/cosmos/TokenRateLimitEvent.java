@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.cosmos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A flight recorder event for a call to prepare or validate a rate limit token.
+ */
+@Name(TokenRateLimitEvent.NAME)
+@Label("Token Rate Limit")
+@Category({"CDSI", "Rate Limits"})
+@StackTrace(false)
+@Threshold("50 ms")
+public class TokenRateLimitEvent extends Event {
+
+  public static final String NAME = "org.signal.cdsi.TokenRateLimit";
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Store")
+  String store = "cosmos";
+
+  @Label("Outcome")
+  String outcome;
+
+  @Label("Cost")
+  @Description("The cost of the token being prepared or validated, in permits")
+  int cost;
+
+  @Label("Request Units")
+  @Description("Cosmos request units charged for the call, including any garbage collection it triggered")
+  double requestUnits;
+
+  TokenRateLimitEvent(final String operation) {
+    this.operation = operation;
+  }
+}
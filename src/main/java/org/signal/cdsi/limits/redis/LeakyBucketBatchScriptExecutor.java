@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.redis;
+
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.annotation.Creator;
+import io.micronaut.retry.annotation.CircuitBreaker;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Evaluates the batched leaky bucket script. This is a bean of its own, rather than a method of
+ * {@link RedisLeakyBucketRateLimiter}, so that the batcher calls it through its circuit breaker.
+ */
+@Singleton
+@Requires(bean = StatefulRedisClusterConnection.class)
+class LeakyBucketBatchScriptExecutor implements LeakyBucketBatcher.BatchScriptExecutor {
+
+  private final StatefulRedisClusterConnection<String, String> redisClusterConnection;
+
+  private final String batchScript;
+  private final String batchSha;
+
+  private static final String BATCH_SCRIPT_RESOURCE_NAME = "validate_rate_limit_batch.lua";
+
+  private static final String[] STRING_ARRAY = new String[0];
+
+  @Creator
+  LeakyBucketBatchScriptExecutor(
+      @Named(LeakyBucketRedisClientFactory.CONNECTION_NAME) final StatefulRedisClusterConnection<String, String> redisClusterConnection)
+      throws IOException {
+
+    this.redisClusterConnection = redisClusterConnection;
+
+    this.batchScript = RedisLeakyBucketRateLimiter.loadScript(BATCH_SCRIPT_RESOURCE_NAME);
+    this.batchSha = RedisLeakyBucketRateLimiter.sha1(batchScript);
+  }
+
+  /**
+   * Evaluates the batched leaky bucket script over several keys, all of which must hash to the same cluster slot.
+   *
+   * @return a future that completes with one overflow amount per key, in key order
+   */
+  @Override
+  @CircuitBreaker(attempts = "${redis-leaky-bucket.circuit-breaker.attempts:3}",
+      delay = "${redis-leaky-bucket.circuit-breaker.delay:500ms}",
+      reset = "${redis-leaky-bucket.circuit-breaker.reset:5s}")
+  public CompletableFuture<List<Object>> execute(final List<String> keys, final List<String> args) {
+    return redisClusterConnection.async()
+        .<List<Object>>evalsha(batchSha, ScriptOutputType.MULTI, keys.toArray(STRING_ARRAY), args.toArray(STRING_ARRAY))
+        .toCompletableFuture()
+        .exceptionallyCompose(throwable -> {
+          if (throwable instanceof RedisNoScriptException) {
+            return redisClusterConnection.async()
+                .<List<Object>>eval(batchScript, ScriptOutputType.MULTI, keys.toArray(STRING_ARRAY),
+                    args.toArray(STRING_ARRAY));
+          } else if (throwable instanceof final RedisException redisException) {
+            throw redisException;
+          }
+
+          throw new RedisException(throwable);
+        }).toCompletableFuture();
+  }
+}
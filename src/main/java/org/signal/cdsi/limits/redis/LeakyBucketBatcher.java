@@ -0,0 +1,180 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.redis;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces concurrent leaky bucket checks into batched script invocations. Checks submitted within a short window are
+ * grouped by cluster slot (a multi-key script may only touch keys in a single slot), and each group is evaluated with a
+ * single round trip. Each submitter's future completes with the overflow for its own key.
+ */
+class LeakyBucketBatcher {
+
+  @FunctionalInterface
+  interface BatchScriptExecutor {
+
+    CompletableFuture<List<Object>> execute(List<String> keys, List<String> args);
+  }
+
+  private record PendingCheck(String bucketKey, int amount, long enqueuedNanos, CompletableFuture<Long> overflow) {
+  }
+
+  private final BatchScriptExecutor scriptExecutor;
+  private final String bucketSizeArgument;
+  private final String leakRatePerMillisArgument;
+  private final LongSupplier currentTimeMillis;
+  private final int maxBatchSize;
+  private final Executor delayedFlushExecutor;
+
+  private final Queue<PendingCheck> pendingChecks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+  private final DistributionSummary batchSizeDistribution;
+  private final Timer batchWaitTimer;
+  private final Timer batchRoundTripTimer;
+  private final Timer timeSavedPerCallTimer;
+
+  LeakyBucketBatcher(final BatchScriptExecutor scriptExecutor,
+      final String bucketSizeArgument,
+      final String leakRatePerMillisArgument,
+      final LongSupplier currentTimeMillis,
+      final RedisLeakyBucketBatchConfiguration configuration,
+      final MeterRegistry meterRegistry,
+      final String limiterName) {
+
+    this.scriptExecutor = scriptExecutor;
+    this.bucketSizeArgument = bucketSizeArgument;
+    this.leakRatePerMillisArgument = leakRatePerMillisArgument;
+    this.currentTimeMillis = currentTimeMillis;
+    this.maxBatchSize = configuration.getMaxBatchSize();
+    this.delayedFlushExecutor =
+        CompletableFuture.delayedExecutor(configuration.getWindow().toNanos(), TimeUnit.NANOSECONDS);
+
+    this.batchSizeDistribution = DistributionSummary.builder(name(RedisLeakyBucketRateLimiter.class, "batchSize"))
+        .tag("name", limiterName)
+        .distributionStatisticExpiry(Duration.ofHours(2))
+        .register(meterRegistry);
+    this.batchWaitTimer = meterRegistry.timer(name(RedisLeakyBucketRateLimiter.class, "batchWait"), "name", limiterName);
+    this.batchRoundTripTimer =
+        meterRegistry.timer(name(RedisLeakyBucketRateLimiter.class, "batchRoundTrip"), "name", limiterName);
+    this.timeSavedPerCallTimer =
+        meterRegistry.timer(name(RedisLeakyBucketRateLimiter.class, "batchTimeSavedPerCall"), "name", limiterName);
+  }
+
+  /**
+   * Queues a leaky bucket check for the next batch.
+   *
+   * @param bucketKey the fully-qualified bucket key
+   * @param amount the number of permits to add to the bucket
+   * @return a future that completes with the overflow amount for this check (zero if the permits were granted)
+   */
+  CompletableFuture<Long> submit(final String bucketKey, final int amount) {
+    final PendingCheck pendingCheck = new PendingCheck(bucketKey, amount, System.nanoTime(), new CompletableFuture<>());
+    pendingChecks.add(pendingCheck);
+
+    if (pendingCount.incrementAndGet() >= maxBatchSize) {
+      flush();
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      delayedFlushExecutor.execute(this::flush);
+    }
+
+    return pendingCheck.overflow();
+  }
+
+  private void flush() {
+    flushScheduled.set(false);
+
+    final Map<Integer, List<PendingCheck>> checksBySlot = new HashMap<>();
+    PendingCheck pendingCheck;
+
+    while ((pendingCheck = pendingChecks.poll()) != null) {
+      pendingCount.decrementAndGet();
+      checksBySlot.computeIfAbsent(SlotHash.getSlot(pendingCheck.bucketKey()), ignored -> new ArrayList<>())
+          .add(pendingCheck);
+    }
+
+    if (checksBySlot.isEmpty()) {
+      return;
+    }
+
+    final long flushNanos = System.nanoTime();
+    final String now = String.valueOf(currentTimeMillis.getAsLong());
+
+    for (final List<PendingCheck> slotChecks : checksBySlot.values()) {
+      for (int i = 0; i < slotChecks.size(); i += maxBatchSize) {
+        execute(slotChecks.subList(i, Math.min(i + maxBatchSize, slotChecks.size())), now, flushNanos);
+      }
+    }
+  }
+
+  private void execute(final List<PendingCheck> batch, final String now, final long flushNanos) {
+    final List<String> keys = new ArrayList<>(batch.size());
+    final List<String> args = new ArrayList<>(batch.size() + 3);
+    args.add(bucketSizeArgument);
+    args.add(leakRatePerMillisArgument);
+    args.add(now);
+
+    for (final PendingCheck pendingCheck : batch) {
+      keys.add(pendingCheck.bucketKey());
+      args.add(String.valueOf(pendingCheck.amount()));
+      batchWaitTimer.record(flushNanos - pendingCheck.enqueuedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    batchSizeDistribution.record(batch.size());
+
+    final CompletableFuture<List<Object>> result;
+    try {
+      result = scriptExecutor.execute(keys, args);
+    } catch (final RuntimeException e) {
+      batch.forEach(check -> check.overflow().completeExceptionally(e));
+      return;
+    }
+
+    result.whenComplete((overflows, cause) -> {
+      final long roundTripNanos = System.nanoTime() - flushNanos;
+      batchRoundTripTimer.record(roundTripNanos, TimeUnit.NANOSECONDS);
+
+      if (cause != null) {
+        batch.forEach(check -> check.overflow().completeExceptionally(cause));
+        return;
+      }
+
+      if (overflows == null || overflows.size() != batch.size()) {
+        final IllegalStateException e = new IllegalStateException("Batched script returned "
+            + (overflows == null ? "no" : overflows.size()) + " results for " + batch.size() + " keys");
+        batch.forEach(check -> check.overflow().completeExceptionally(e));
+        return;
+      }
+
+      // Every check after the first rode along on a round trip it would otherwise have paid for on its own
+      timeSavedPerCallTimer.record(roundTripNanos * (batch.size() - 1) / batch.size(), TimeUnit.NANOSECONDS);
+
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).overflow().complete((Long) overflows.get(i));
+      }
+    });
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.redis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A flight recorder event for a check against a Redis-backed leaky bucket.
+ */
+@Name(LeakyBucketEvent.NAME)
+@Label("Leaky Bucket Check")
+@Category({"CDSI", "Rate Limits"})
+@StackTrace(false)
+@Threshold("20 ms")
+public class LeakyBucketEvent extends Event {
+
+  public static final String NAME = "org.signal.cdsi.LeakyBucket";
+
+  @Label("Limiter")
+  String limiter;
+
+  @Label("Amount")
+  int amount;
+
+  @Label("Batched")
+  @Description("Whether the check was sent to Redis as part of a batch")
+  boolean batched;
+
+  @Label("Outcome")
+  String outcome;
+
+  LeakyBucketEvent(final String limiter, final int amount, final boolean batched) {
+    this.limiter = limiter;
+    this.amount = amount;
+    this.batched = batched;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.redis;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.context.annotation.Context;
+import java.time.Duration;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+
+/**
+ * Controls whether concurrent leaky bucket checks are coalesced into batched script invocations. When enabled, calls
+ * to {@link RedisLeakyBucketRateLimiter#validate(String, int)} wait for up to {@code window} for other calls, and then
+ * all calls whose keys share a cluster slot are evaluated by a single script invocation. So that keys do share slots,
+ * each limiter's bucket keys carry a hash tag that spreads them over {@code hashSlots} cluster slots; enabling or
+ * disabling batching, or changing the number of slots, moves every bucket to a new, empty key.
+ */
+@Context
+@ConfigurationProperties("redis-leaky-bucket.batch")
+public class RedisLeakyBucketBatchConfiguration {
+
+  private boolean enabled = false;
+
+  @NotNull
+  private Duration window = Duration.ofNanos(500_000);
+
+  @Positive
+  private int maxBatchSize = 64;
+
+  @Positive
+  private int hashSlots = 16;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public Duration getWindow() {
+    return window;
+  }
+
+  public void setWindow(final Duration window) {
+    this.window = window;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public void setMaxBatchSize(final int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public int getHashSlots() {
+    return hashSlots;
+  }
+
+  public void setHashSlots(final int hashSlots) {
+    this.hashSlots = hashSlots;
+  }
+}
@@ -12,9 +12,11 @@ import io.lettuce.core.RedisException;
 import io.lettuce.core.RedisNoScriptException;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import io.micronaut.context.annotation.EachBean;
+import io.micronaut.core.annotation.Creator;
 import io.micronaut.context.annotation.Requires;
 import io.micronaut.retry.annotation.CircuitBreaker;
 import jakarta.inject.Named;
@@ -29,6 +31,7 @@ import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import javax.annotation.Nullable;
 import org.apache.commons.codec.binary.Hex;
 import org.signal.cdsi.limits.LeakyBucketRateLimitConfiguration;
 import org.signal.cdsi.limits.LeakyBucketRateLimiter;
@@ -40,41 +43,89 @@ public class RedisLeakyBucketRateLimiter implements LeakyBucketRateLimiter {
 
   private final StatefulRedisClusterConnection<String, String> redisClusterConnection;
   private final LeakyBucketRateLimitConfiguration configuration;
-  private final MeterRegistry meterRegistry;
   private final Clock clock;
 
   private final static String VALIDATE_COUNTER_NAME = name(RedisLeakyBucketRateLimiter.class, "validate");
   private final Timer validateTimer;
+  private final Counter successCounter;
+  private final Counter rateLimitExceededCounter;
 
   private final String script;
   private final String sha;
 
+  @Nullable
+  private final LeakyBucketBatcher batcher;
+  private final int batchHashSlots;
+
   private static final String SCRIPT_RESOURCE_NAME = "validate_rate_limit.lua";
 
   private static final String[] STRING_ARRAY = new String[0];
 
+  @VisibleForTesting
+  RedisLeakyBucketRateLimiter(final StatefulRedisClusterConnection<String,String> redisClusterConnection,
+      final LeakyBucketRateLimitConfiguration configuration,
+      final MeterRegistry meterRegistry,
+      final Clock clock) throws IOException {
+
+    this(redisClusterConnection, configuration, new RedisLeakyBucketBatchConfiguration(), meterRegistry, clock);
+  }
+
+  @VisibleForTesting
+  RedisLeakyBucketRateLimiter(final StatefulRedisClusterConnection<String,String> redisClusterConnection,
+      final LeakyBucketRateLimitConfiguration configuration,
+      final RedisLeakyBucketBatchConfiguration batchConfiguration,
+      final MeterRegistry meterRegistry,
+      final Clock clock) throws IOException {
+
+    this(redisClusterConnection, configuration, batchConfiguration,
+        new LeakyBucketBatchScriptExecutor(redisClusterConnection), meterRegistry, clock);
+  }
+
+  @Creator
   public RedisLeakyBucketRateLimiter(@Named(LeakyBucketRedisClientFactory.CONNECTION_NAME) final StatefulRedisClusterConnection<String,String> redisClusterConnection,
       final LeakyBucketRateLimitConfiguration configuration,
+      final RedisLeakyBucketBatchConfiguration batchConfiguration,
+      final LeakyBucketBatchScriptExecutor batchScriptExecutor,
       final MeterRegistry meterRegistry,
       final Clock clock) throws IOException {
 
     this.redisClusterConnection = redisClusterConnection;
     this.configuration = configuration;
     this.clock = clock;
-    this.meterRegistry = meterRegistry;
     validateTimer = meterRegistry.timer(name(getClass(), "validate"), "name", configuration.getName());
+    successCounter = meterRegistry.counter(VALIDATE_COUNTER_NAME, "outcome", "success");
+    rateLimitExceededCounter = meterRegistry.counter(VALIDATE_COUNTER_NAME, "outcome", "rateLimitExceeded");
+
+    this.script = loadScript(SCRIPT_RESOURCE_NAME);
+    this.sha = sha1(script);
+
+    // The injected executor is proxied, and so calls made by the batcher go through its circuit breaker
+    this.batcher = batchConfiguration.isEnabled()
+        ? new LeakyBucketBatcher(batchScriptExecutor,
+            String.valueOf(configuration.getBucketSize()),
+            String.valueOf(getLeakRatePerMillis()),
+            () -> clock.instant().toEpochMilli(),
+            batchConfiguration,
+            meterRegistry,
+            configuration.getName())
+        : null;
+    this.batchHashSlots = batchConfiguration.getHashSlots();
+  }
 
-    try (final InputStream inputStream = getClass().getResourceAsStream(SCRIPT_RESOURCE_NAME)) {
+  static String loadScript(final String resourceName) throws IOException {
+    try (final InputStream inputStream = RedisLeakyBucketRateLimiter.class.getResourceAsStream(resourceName)) {
       if (inputStream == null) {
         // This should never happen for a statically-defined script
-        throw new AssertionError("Script not found: " + SCRIPT_RESOURCE_NAME);
+        throw new AssertionError("Script not found: " + resourceName);
       }
 
-      this.script = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+      return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
     }
+  }
 
+  static String sha1(final String script) {
     try {
-      this.sha = Hex.encodeHexString(MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8)));
+      return Hex.encodeHexString(MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8)));
     } catch (final NoSuchAlgorithmException e) {
       // All Java implementations are required to support SHA-1, so this should never happen
       throw new AssertionError(e);
@@ -103,19 +154,30 @@ public class RedisLeakyBucketRateLimiter implements LeakyBucketRateLimiter {
   @Override
   public CompletableFuture<Void> validate(final String key, final int amount) {
     final Instant start = clock.instant();
-    final double leakRatePerMillis = (double)configuration.getLeakRateScalar() / configuration.getLeakRateDuration().toMillis();
-    final List<String> keys = List.of(getBucketKey(key));
-    final List<String> arguments = List.of(
-        String.valueOf(configuration.getBucketSize()),
-        String.valueOf(leakRatePerMillis),
-        String.valueOf(this.clock.instant().toEpochMilli()),
-        String.valueOf(amount));
-
-    return executeScript(keys, arguments)
+    final double leakRatePerMillis = getLeakRatePerMillis();
+    final LeakyBucketEvent event = new LeakyBucketEvent(configuration.getName(), amount, batcher != null);
+    event.begin();
+
+    final CompletableFuture<Object> overflowFuture;
+
+    if (batcher != null) {
+      overflowFuture = batcher.submit(getBucketKey(key), amount).thenApply(overflow -> overflow);
+    } else {
+      final List<String> keys = List.of(getBucketKey(key));
+      final List<String> arguments = List.of(
+          String.valueOf(configuration.getBucketSize()),
+          String.valueOf(leakRatePerMillis),
+          String.valueOf(this.clock.instant().toEpochMilli()),
+          String.valueOf(amount));
+
+      overflowFuture = executeScript(keys, arguments);
+    }
+
+    return overflowFuture
         .thenApply(overflowObj -> {
           Long overflow = (Long) overflowObj;
-          meterRegistry.counter(VALIDATE_COUNTER_NAME, "outcome", overflow > 0L ? "rateLimitExceeded" : "success")
-              .increment();
+          (overflow > 0L ? rateLimitExceededCounter : successCounter).increment();
+          event.outcome = overflow > 0L ? "rateLimitExceeded" : "success";
           if (overflow > 0L) {
             final Duration retryDuration = Duration.ofMillis(
                 (long) Math.ceil((double) overflow / leakRatePerMillis));
@@ -132,13 +194,26 @@ public class RedisLeakyBucketRateLimiter implements LeakyBucketRateLimiter {
           }
           // If the leaky bucket data store is unavailable, allow the request to proceed. This is just a rate limit
           // for connections, and the more critical token rate limit will still be enforced.
+          event.outcome = "error";
           return null;
         })
+        .whenComplete((ignored, cause) -> event.commit())
         .thenRun(() -> validateTimer.record(Duration.between(start, clock.instant())));
   }
 
+  private double getLeakRatePerMillis() {
+    return (double) configuration.getLeakRateScalar() / configuration.getLeakRateDuration().toMillis();
+  }
+
   @VisibleForTesting
   String getBucketKey(String key) {
+    if (batcher != null) {
+      // A batch may only touch keys in one cluster slot, so when batching, the hash tag spreads a limiter's buckets
+      // over a fixed number of slots rather than one slot per bucket
+      return "leaky_bucket::{" + configuration.getName() + "::" + Math.floorMod(key.hashCode(), batchHashSlots) + "}::"
+          + key;
+    }
+
     return "leaky_bucket::" + configuration.getName() + "::" + key;
   }
 }
@@ -8,9 +8,16 @@ package org.signal.cdsi.metrics;
 import io.micrometer.core.instrument.Meter.Id;
 import io.micrometer.core.instrument.config.MeterFilter;
 import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micronaut.context.annotation.Value;
 import jakarta.inject.Singleton;
+import java.util.List;
 
-
+/**
+ * Configures distribution statistics for timers and distribution summaries. By default, meters publish a fixed set of
+ * client-side percentiles. Meters may instead opt in to publishing a percentile histogram, which (unlike client-side
+ * percentiles) can be merged across instances, either by calling {@code publishPercentileHistogram()} when they're
+ * built or by being listed by name in {@code metrics.percentileHistograms}.
+ */
 @Singleton
 class DistributionStatisticsConfigMeterFilter implements MeterFilter {
 
@@ -18,8 +25,28 @@ class DistributionStatisticsConfigMeterFilter implements MeterFilter {
       .percentiles(.5, .75, .95, .99, .999)
       .build();
 
+  private static final DistributionStatisticConfig histogramDistributionStatisticConfig =
+      DistributionStatisticConfig.builder()
+          .percentilesHistogram(true)
+          .build();
+
+  private final List<String> percentileHistogramMeterNames;
+
+  DistributionStatisticsConfigMeterFilter(
+      @Value("${metrics.percentileHistograms:}") final List<String> percentileHistogramMeterNames) {
+    this.percentileHistogramMeterNames = percentileHistogramMeterNames;
+  }
+
   @Override
   public DistributionStatisticConfig configure(final Id id, final DistributionStatisticConfig config) {
+    if (config.isPublishingHistogram()) {
+      return config;
+    }
+
+    if (percentileHistogramMeterNames.contains(id.getName())) {
+      return histogramDistributionStatisticConfig.merge(config);
+    }
+
     return defaultDistributionStatisticConfig.merge(config);
   }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.function.Function;
+
+/**
+ * A fixed set of meters, one per constant of an enum, registered up front so that recording a value on a hot path is
+ * an array access rather than a registry lookup.
+ *
+ * @param <E> the enum whose constants identify meters
+ * @param <M> the type of meter
+ */
+public class EnumMeters<E extends Enum<E>, M extends Meter> {
+
+  private final Meter[] meters;
+
+  public EnumMeters(final Class<E> enumClass, final Function<E, M> meterFactory) {
+    final E[] constants = enumClass.getEnumConstants();
+    meters = new Meter[constants.length];
+
+    for (final E constant : constants) {
+      meters[constant.ordinal()] = meterFactory.apply(constant);
+    }
+  }
+
+  /**
+   * Creates a counter for each constant of an enum, all sharing a name and distinguished by a single tag.
+   *
+   * @param meterRegistry the registry in which to register counters
+   * @param name the name of the counters
+   * @param tagKey the key of the tag that distinguishes the counters
+   * @param enumClass the enum whose constants identify counters
+   * @param tagValue maps each constant to its tag value
+   */
+  public static <E extends Enum<E>> EnumMeters<E, Counter> counters(final MeterRegistry meterRegistry,
+      final String name, final String tagKey, final Class<E> enumClass, final Function<E, String> tagValue) {
+
+    return new EnumMeters<>(enumClass, constant -> meterRegistry.counter(name, tagKey, tagValue.apply(constant)));
+  }
+
+  @SuppressWarnings("unchecked")
+  public M get(final E key) {
+    return (M) meters[key.ordinal()];
+  }
+}
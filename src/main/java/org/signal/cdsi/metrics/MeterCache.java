@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.metrics;
+
+import io.micrometer.core.instrument.Meter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Caches meters by a small key (a tag value or a record of tag values) for meters whose tags aren't known up front.
+ * Once a meter has been created, looking it up again doesn't build tag lists or consult the registry.
+ * <p>
+ * Keys should come from a small, bounded set, as they would for any meter tag.
+ *
+ * @param <K> the type of key that identifies a meter
+ * @param <M> the type of meter
+ */
+public class MeterCache<K, M extends Meter> {
+
+  private final ConcurrentMap<K, M> meters = new ConcurrentHashMap<>();
+  private final Function<K, M> meterFactory;
+
+  public MeterCache(final Function<K, M> meterFactory) {
+    this.meterFactory = meterFactory;
+  }
+
+  public M get(final K key) {
+    // ConcurrentHashMap#get doesn't lock, unlike computeIfAbsent, so try that first
+    final M meter = meters.get(key);
+    return meter != null ? meter : meters.computeIfAbsent(key, meterFactory);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.startup;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs and times the phases of service startup. Phases that don't depend on one another run concurrently; a phase that
+ * depends on others names them explicitly and starts as soon as all of them have finished. The duration of every phase
+ * is logged and published as a timer tagged with the phase's name, so the critical path to readiness, and any phase
+ * that has regressed, are visible from each boot.
+ */
+@Singleton
+public class StartupPhases {
+
+  private final MeterRegistry meterRegistry;
+  private final long startNanos = System.nanoTime();
+
+  private static final String PHASE_DURATION_TIMER_NAME = name(StartupPhases.class, "phaseDuration");
+
+  private static final Logger logger = LoggerFactory.getLogger(StartupPhases.class);
+
+  public StartupPhases(final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Starts a phase immediately.
+   *
+   * @param phase the name of the phase
+   * @param action starts the phase's work and returns a stage that completes when the work is finished
+   *
+   * @return a future that completes when the phase is finished
+   */
+  public <T> CompletableFuture<T> run(final String phase, final Supplier<? extends CompletionStage<T>> action) {
+    final long phaseStartNanos = System.nanoTime();
+
+    CompletableFuture<T> future;
+
+    try {
+      future = action.get().toCompletableFuture();
+    } catch (final RuntimeException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+
+    return future.whenComplete((ignored, cause) ->
+        record(phase, Duration.ofNanos(System.nanoTime() - phaseStartNanos), cause == null));
+  }
+
+  /**
+   * Starts a phase once all of the phases on which it depends have finished. If any dependency fails, the phase does
+   * not run and the returned future fails with the dependency's cause.
+   *
+   * @param phase the name of the phase
+   * @param dependencies the futures of the phases that must finish before this phase starts
+   * @param action starts the phase's work and returns a stage that completes when the work is finished
+   *
+   * @return a future that completes when the phase is finished
+   */
+  public <T> CompletableFuture<T> runAfter(final String phase,
+      final Collection<? extends CompletableFuture<?>> dependencies,
+      final Supplier<? extends CompletionStage<T>> action) {
+
+    return CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+        .thenCompose(ignored -> run(phase, action));
+  }
+
+  /**
+   * Records the duration of a phase that ran synchronously.
+   *
+   * @param phase the name of the phase
+   * @param duration how long the phase took
+   */
+  public void record(final String phase, final Duration duration) {
+    record(phase, duration, true);
+  }
+
+  private void record(final String phase, final Duration duration, final boolean successful) {
+    final Duration sinceStart = Duration.ofNanos(System.nanoTime() - startNanos);
+
+    if (successful) {
+      logger.info("Startup phase {} finished in {} ms ({} ms after startup began)",
+          phase, duration.toMillis(), sinceStart.toMillis());
+    } else {
+      logger.warn("Startup phase {} failed after {} ms ({} ms after startup began)",
+          phase, duration.toMillis(), sinceStart.toMillis());
+    }
+
+    Timer.builder(PHASE_DURATION_TIMER_NAME)
+        .tags("phase", phase, "outcome", successful ? "success" : "failure")
+        .register(meterRegistry)
+        .record(duration);
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Records when each stage of a single discovery session started and how long it took. A trace starts when the request
+ * to open a session arrives and is finished when the session closes.
+ * <p>
+ * Stages of a session run one after another, but may be recorded from different threads, so recording a span is
+ * synchronized.
+ * <p>
+ * A trace may also capture the session's workload (message sizes and rate limit outcomes) for later replay; see
+ * {@link WorkloadSession}. Workload details are only kept for traces created with workload capture enabled.
+ */
+public class SessionTrace {
+
+  /**
+   * The name of the HTTP request attribute under which the trace for a session's opening request is stored
+   */
+  public static final String REQUEST_ATTRIBUTE = SessionTrace.class.getName();
+
+  public enum Stage {
+    AUTHENTICATION("authentication"),
+    LOAD_SHEDDING("loadShedding"),
+    NEW_CLIENT("newClient"),
+    HANDSHAKE("handshake"),
+    ENCLAVE_RATE_LIMIT("clientRateLimit"),
+    TOKEN_PREPARE("tokenPrepare"),
+    TOKEN_VALIDATE("tokenValidate"),
+    ENCLAVE_RUN("clientRun"),
+    SEND("send");
+
+    private final String spanName;
+
+    Stage(final String spanName) {
+      this.spanName = spanName;
+    }
+
+    public String getSpanName() {
+      return spanName;
+    }
+  }
+
+  /**
+   * A single stage of a session
+   *
+   * @param stage  the stage
+   * @param offset when the stage started, relative to the start of the trace
+   * @param duration how long the stage took
+   * @param failed whether the stage failed
+   */
+  public record Span(Stage stage, Duration offset, Duration duration, boolean failed) {}
+
+  private final long id = ThreadLocalRandom.current().nextLong();
+  private final Instant startTime;
+  private final long startNanos;
+
+  private final List<Span> spans = new ArrayList<>();
+
+  private final boolean workloadCaptured;
+  private final List<WorkloadSession.Message> messages = new ArrayList<>();
+  @Nullable
+  private WorkloadSession.RateLimit rateLimit;
+
+  @Nullable
+  private String sessionId;
+  @Nullable
+  private String platform;
+  private int closeCode;
+  private int rejectionStatus;
+  @Nullable
+  private String finalState;
+  @Nullable
+  private Duration duration;
+
+  public SessionTrace(final Clock clock) {
+    this(clock, false);
+  }
+
+  public SessionTrace(final Clock clock, final boolean workloadCaptured) {
+    this.startTime = clock.instant();
+    this.startNanos = System.nanoTime();
+    this.workloadCaptured = workloadCaptured;
+  }
+
+  /**
+   * Runs an asynchronous stage, recording a span for it when it completes.
+   *
+   * @param stage     the stage to record
+   * @param operation starts the stage
+   * @return the future returned by {@code operation}, or a failed future if it threw
+   */
+  public <T> CompletableFuture<T> trace(final Stage stage, final Supplier<CompletableFuture<T>> operation) {
+    final long started = System.nanoTime();
+
+    CompletableFuture<T> future;
+    try {
+      future = operation.get();
+    } catch (final RuntimeException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+
+    return future.whenComplete((ignored, cause) -> record(stage, started, cause != null));
+  }
+
+  /**
+   * Records a span for a stage that has just finished.
+   *
+   * @param stage   the stage that finished
+   * @param started the value of {@link System#nanoTime()} when the stage started
+   * @param failed  whether the stage failed
+   */
+  public synchronized void record(final Stage stage, final long started, final boolean failed) {
+    spans.add(new Span(stage, Duration.ofNanos(started - startNanos), Duration.ofNanos(System.nanoTime() - started),
+        failed));
+  }
+
+  /**
+   * Records a websocket message, if this trace captures the session's workload.
+   *
+   * @param inbound true if the message was received from the client, false if it was sent to the client
+   * @param size    the size of the message in bytes
+   */
+  public synchronized void recordMessage(final boolean inbound, final int size) {
+    if (workloadCaptured) {
+      messages.add(new WorkloadSession.Message(micros(System.nanoTime() - startNanos), inbound, size));
+    }
+  }
+
+  /**
+   * Records the outcome of the enclave's rate limit step, if this trace captures the session's workload.
+   *
+   * @param requestSize    the size of the client's rate limit request in bytes
+   * @param permitsCharged the number of permits the request will be charged
+   * @param tokenPresented whether the client presented a previous token
+   */
+  public synchronized void recordRateLimit(final int requestSize, final int permitsCharged,
+      final boolean tokenPresented) {
+    if (workloadCaptured) {
+      rateLimit = new WorkloadSession.RateLimit(requestSize, permitsCharged, tokenPresented, null);
+    }
+  }
+
+  /**
+   * Records the number of permits the session's token used once validated, if this trace captures the session's
+   * workload.
+   */
+  public synchronized void recordPermitsUsed(final int permitsUsed) {
+    if (workloadCaptured && rateLimit != null) {
+      rateLimit = new WorkloadSession.RateLimit(rateLimit.requestSize(), rateLimit.permitsCharged(),
+          rateLimit.tokenPresented(), permitsUsed);
+    }
+  }
+
+  public synchronized void setSession(final String sessionId, final String platform) {
+    this.sessionId = sessionId;
+    this.platform = platform;
+  }
+
+  /**
+   * Marks the session as finished.
+   *
+   * @param closeCode the code with which the session was closed
+   */
+  public synchronized void finish(final int closeCode) {
+    this.closeCode = closeCode;
+    this.duration = Duration.ofNanos(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Marks the session as finished after its enclave client closed.
+   *
+   * @param closeCode  the code with which the session was closed
+   * @param finalState the state of the session's enclave client when it closed
+   */
+  public synchronized void finish(final int closeCode, @Nullable final String finalState) {
+    this.finalState = finalState;
+    finish(closeCode);
+  }
+
+  /**
+   * Marks the session as finished because its opening request was rejected before a websocket was established.
+   *
+   * @param status the HTTP status of the rejection
+   */
+  public synchronized void reject(final int status) {
+    this.rejectionStatus = status;
+    this.duration = Duration.ofNanos(System.nanoTime() - startNanos);
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public Instant getStartTime() {
+    return startTime;
+  }
+
+  @Nullable
+  public synchronized String getSessionId() {
+    return sessionId;
+  }
+
+  @Nullable
+  public synchronized String getPlatform() {
+    return platform;
+  }
+
+  public synchronized int getCloseCode() {
+    return closeCode;
+  }
+
+  public synchronized int getRejectionStatus() {
+    return rejectionStatus;
+  }
+
+  @Nullable
+  public synchronized String getFinalState() {
+    return finalState;
+  }
+
+  public boolean isWorkloadCaptured() {
+    return workloadCaptured;
+  }
+
+  public synchronized List<WorkloadSession.Message> getMessages() {
+    return List.copyOf(messages);
+  }
+
+  @Nullable
+  public synchronized WorkloadSession.RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * @return the duration of the session, or the time elapsed so far if it hasn't finished
+   */
+  public synchronized Duration getDuration() {
+    return duration != null ? duration : Duration.ofNanos(System.nanoTime() - startNanos);
+  }
+
+  public synchronized List<Span> getSpans() {
+    return List.copyOf(spans);
+  }
+
+  private static long micros(final long nanos) {
+    return nanos / 1_000;
+  }
+}
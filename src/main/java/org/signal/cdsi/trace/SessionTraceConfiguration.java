@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.context.annotation.Context;
+import java.time.Duration;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+
+/**
+ * Configures which session traces are kept for inspection and which are exported.
+ *
+ * @see SessionTraceRecorder
+ */
+@Context
+@ConfigurationProperties("trace")
+public class SessionTraceConfiguration {
+
+  /**
+   * Sessions that take at least this long are kept for inspection via the slow sessions management endpoint
+   */
+  @NotNull
+  private Duration slowSessionThreshold = Duration.ofSeconds(5);
+
+  /**
+   * The number of slow sessions to keep; once full, the oldest slow session is discarded to make room for a new one
+   */
+  @PositiveOrZero
+  private int slowSessionBufferSize = 100;
+
+  /**
+   * The fraction of all sessions whose traces are exported, as Zipkin-formatted JSON, to the
+   * {@link SessionTraceRecorder#EXPORT_LOGGER_NAME} logger
+   */
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double exportSampleRate = 0.0;
+
+  /**
+   * The fraction of all sessions whose workload is captured, as JSON {@link WorkloadSession}s, to the
+   * {@link SessionTraceRecorder#WORKLOAD_LOGGER_NAME} logger for later replay
+   */
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double workloadCaptureSampleRate = 0.0;
+
+  public Duration getSlowSessionThreshold() {
+    return slowSessionThreshold;
+  }
+
+  public void setSlowSessionThreshold(final Duration slowSessionThreshold) {
+    this.slowSessionThreshold = slowSessionThreshold;
+  }
+
+  public int getSlowSessionBufferSize() {
+    return slowSessionBufferSize;
+  }
+
+  public void setSlowSessionBufferSize(final int slowSessionBufferSize) {
+    this.slowSessionBufferSize = slowSessionBufferSize;
+  }
+
+  public double getExportSampleRate() {
+    return exportSampleRate;
+  }
+
+  public void setExportSampleRate(final double exportSampleRate) {
+    this.exportSampleRate = exportSampleRate;
+  }
+
+  public double getWorkloadCaptureSampleRate() {
+    return workloadCaptureSampleRate;
+  }
+
+  public void setWorkloadCaptureSampleRate(final double workloadCaptureSampleRate) {
+    this.workloadCaptureSampleRate = workloadCaptureSampleRate;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.exceptions.HttpStatusException;
+import io.micronaut.http.filter.HttpServerFilter;
+import io.micronaut.http.filter.ServerFilterChain;
+import io.micronaut.http.filter.ServerFilterPhase;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+/**
+ * Starts a {@link SessionTrace} when a request to open a discovery session arrives, before it's authenticated or
+ * considered for load shedding, and attaches it to the request so later stages can record spans to it. If the request
+ * is rejected before a websocket is established, or fails or is abandoned before any response, the trace is finished
+ * here.
+ */
+@Filter("/v1/*/discovery")
+public class SessionTraceFilter implements HttpServerFilter {
+
+  private final SessionTraceRecorder sessionTraceRecorder;
+
+  public SessionTraceFilter(final SessionTraceRecorder sessionTraceRecorder) {
+    this.sessionTraceRecorder = sessionTraceRecorder;
+  }
+
+  @Override
+  public int getOrder() {
+    return ServerFilterPhase.FIRST.order();
+  }
+
+  @Override
+  public Publisher<MutableHttpResponse<?>> doFilter(final HttpRequest<?> request, final ServerFilterChain chain) {
+    final SessionTrace trace = sessionTraceRecorder.startTrace();
+    request.setAttribute(SessionTrace.REQUEST_ATTRIBUTE, trace);
+
+    final AtomicBoolean responded = new AtomicBoolean();
+    final AtomicInteger errorStatus = new AtomicInteger(HttpStatus.INTERNAL_SERVER_ERROR.getCode());
+
+    return Flux.from(chain.proceed(request))
+        .doOnNext(response -> {
+          responded.set(true);
+
+          if (response.getStatus().getCode() >= 400) {
+            trace.reject(response.getStatus().getCode());
+            sessionTraceRecorder.sessionFinished(trace);
+          }
+        })
+        .doOnError(HttpStatusException.class, e -> errorStatus.set(e.getStatus().getCode()))
+        .doFinally(ignored -> {
+          // Later filters (e.g. load shedding) or the route failed, or the request was cancelled, before a response
+          if (!responded.get()) {
+            trace.reject(errorStatus.get());
+            sessionTraceRecorder.sessionFinished(trace);
+          }
+        });
+  }
+}
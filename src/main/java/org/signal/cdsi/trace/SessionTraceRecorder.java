@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives finished session traces, keeping the slowest for inspection, exporting a sample of all of them and capturing
+ * the workload of another sample for replay.
+ *
+ * @see SlowSessionsEndpoint
+ */
+@Singleton
+public class SessionTraceRecorder {
+
+  /**
+   * The logger to which sampled traces are written, one Zipkin v2 JSON span list per line
+   */
+  public static final String EXPORT_LOGGER_NAME = "org.signal.cdsi.trace.export";
+
+  /**
+   * The logger to which captured session workloads are written, one JSON {@link WorkloadSession} per line
+   */
+  public static final String WORKLOAD_LOGGER_NAME = "org.signal.cdsi.trace.workload";
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionTraceRecorder.class);
+  private static final Logger exportLogger = LoggerFactory.getLogger(EXPORT_LOGGER_NAME);
+  private static final Logger workloadLogger = LoggerFactory.getLogger(WORKLOAD_LOGGER_NAME);
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+  private static final String SERVICE_NAME = "cdsi";
+
+  private final Clock clock;
+  private final Duration slowSessionThreshold;
+  private final int slowSessionBufferSize;
+  private final double exportSampleRate;
+  private final double workloadCaptureSampleRate;
+
+  private final Deque<SessionTrace> slowSessions = new ArrayDeque<>();
+
+  private final Counter slowSessionCounter;
+
+  public SessionTraceRecorder(final SessionTraceConfiguration configuration, final Clock clock,
+      final MeterRegistry meterRegistry) {
+    this.clock = clock;
+    this.slowSessionThreshold = configuration.getSlowSessionThreshold();
+    this.slowSessionBufferSize = configuration.getSlowSessionBufferSize();
+    this.exportSampleRate = configuration.getExportSampleRate();
+    this.workloadCaptureSampleRate = configuration.getWorkloadCaptureSampleRate();
+
+    this.slowSessionCounter = meterRegistry.counter(name(getClass(), "slowSession"));
+  }
+
+  /**
+   * @return a new trace, starting now
+   */
+  public SessionTrace startTrace() {
+    return new SessionTrace(clock,
+        workloadCaptureSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < workloadCaptureSampleRate);
+  }
+
+  /**
+   * Accepts a trace for a session that has finished.
+   *
+   * @param trace the finished trace
+   */
+  public void sessionFinished(final SessionTrace trace) {
+    if (trace.getDuration().compareTo(slowSessionThreshold) >= 0) {
+      slowSessionCounter.increment();
+
+      if (slowSessionBufferSize > 0) {
+        synchronized (slowSessions) {
+          if (slowSessions.size() >= slowSessionBufferSize) {
+            slowSessions.removeFirst();
+          }
+          slowSessions.addLast(trace);
+        }
+      }
+    }
+
+    if (exportSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < exportSampleRate) {
+      try {
+        exportLogger.info(OBJECT_MAPPER.writeValueAsString(toZipkinSpans(trace)));
+      } catch (final JsonProcessingException e) {
+        logger.warn("Failed to export session trace", e);
+      }
+    }
+
+    if (trace.isWorkloadCaptured()) {
+      try {
+        workloadLogger.info(OBJECT_MAPPER.writeValueAsString(toWorkloadSession(trace)));
+      } catch (final JsonProcessingException e) {
+        logger.warn("Failed to capture session workload", e);
+      }
+    }
+  }
+
+  /**
+   * @return the most recent slow sessions, newest first
+   */
+  public List<SessionTrace> getSlowSessions() {
+    synchronized (slowSessions) {
+      final List<SessionTrace> traces = new ArrayList<>(slowSessions.size());
+      slowSessions.descendingIterator().forEachRemaining(traces::add);
+      return traces;
+    }
+  }
+
+  /**
+   * A span in the <a href="https://zipkin.io/zipkin-api/#/default/post_spans">Zipkin v2 format</a>
+   */
+  record ZipkinSpan(String traceId, String id, @Nullable String parentId, String name, long timestamp, long duration,
+                    Map<String, String> localEndpoint, Map<String, String> tags) {}
+
+  static List<ZipkinSpan> toZipkinSpans(final SessionTrace trace) {
+    final HexFormat hex = HexFormat.of();
+    final String traceId = hex.toHexDigits(trace.getId());
+    final long startMicros = ChronoUnit.MICROS.between(Instant.EPOCH, trace.getStartTime());
+    final Map<String, String> localEndpoint = Map.of("serviceName", SERVICE_NAME);
+
+    final List<ZipkinSpan> spans = new ArrayList<>();
+    spans.add(new ZipkinSpan(traceId, traceId, null, "session", startMicros, micros(trace.getDuration()),
+        localEndpoint, Map.of(
+            "platform", String.valueOf(trace.getPlatform()),
+            "closeCode", Integer.toString(trace.getCloseCode()))));
+
+    long spanId = trace.getId();
+    for (final SessionTrace.Span span : trace.getSpans()) {
+      spans.add(new ZipkinSpan(traceId, hex.toHexDigits(++spanId), traceId, span.stage().getSpanName(),
+          startMicros + micros(span.offset()), micros(span.duration()), localEndpoint,
+          span.failed() ? Map.of("error", "true") : Map.of()));
+    }
+
+    return spans;
+  }
+
+  static WorkloadSession toWorkloadSession(final SessionTrace trace) {
+    return new WorkloadSession(trace.getStartTime().toEpochMilli(),
+        trace.getPlatform(),
+        micros(trace.getDuration()),
+        trace.getRejectionStatus(),
+        trace.getFinalState(),
+        trace.getCloseCode(),
+        trace.getMessages(),
+        trace.getRateLimit());
+  }
+
+  private static long micros(final Duration duration) {
+    return duration.toNanos() / 1_000;
+  }
+}
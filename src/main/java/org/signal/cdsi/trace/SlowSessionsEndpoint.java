@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import io.micronaut.management.endpoint.annotation.Endpoint;
+import io.micronaut.management.endpoint.annotation.Read;
+import java.time.Instant;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A management endpoint that lists recent sessions that took longer than the configured threshold, with a
+ * stage-by-stage breakdown of where each one spent its time.
+ */
+@Endpoint(id = "slowsessions")
+public class SlowSessionsEndpoint {
+
+  private final SessionTraceRecorder sessionTraceRecorder;
+
+  public SlowSessionsEndpoint(final SessionTraceRecorder sessionTraceRecorder) {
+    this.sessionTraceRecorder = sessionTraceRecorder;
+  }
+
+  public record SlowSession(@Nullable String sessionId, @Nullable String platform, Instant startTime,
+                            double durationMillis, int closeCode, List<Stage> stages) {}
+
+  public record Stage(String name, double offsetMillis, double durationMillis, boolean failed) {}
+
+  @Read
+  public List<SlowSession> getSlowSessions() {
+    return sessionTraceRecorder.getSlowSessions().stream()
+        .map(trace -> new SlowSession(trace.getSessionId(),
+            trace.getPlatform(),
+            trace.getStartTime(),
+            trace.getDuration().toNanos() / 1e6,
+            trace.getCloseCode(),
+            trace.getSpans().stream()
+                .map(span -> new Stage(span.stage().getSpanName(),
+                    span.offset().toNanos() / 1e6,
+                    span.duration().toNanos() / 1e6,
+                    span.failed()))
+                .toList()))
+        .toList();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * The shape of a single discovery session, as captured for later replay. A captured session describes only when the
+ * session started, how large its messages were, how its state and rate limiting progressed and how it ended; it never
+ * includes session or user identifiers, phone numbers, tokens or message contents.
+ *
+ * @param startMillis      when the session's opening request arrived, in milliseconds since the epoch
+ * @param platform         the client platform, as reported by its user agent
+ * @param durationMicros   how long the session lasted
+ * @param rejectionStatus  the HTTP status with which the opening request was rejected, or 0 if the session opened
+ * @param finalState       the state of the session's enclave client when the session closed, or {@code null} if the
+ *                         session never had one
+ * @param closeCode        the websocket close code, or 0 if the session never opened
+ * @param messages         the websocket messages sent and received during the session, in order
+ * @param rateLimit        the outcome of the session's rate limit request, or {@code null} if it never made one
+ */
+public record WorkloadSession(long startMillis,
+                              @Nullable String platform,
+                              long durationMicros,
+                              int rejectionStatus,
+                              @Nullable String finalState,
+                              int closeCode,
+                              List<Message> messages,
+                              @Nullable RateLimit rateLimit) {
+
+  /**
+   * @param offsetMicros when the message was sent or received, relative to the start of the session
+   * @param inbound      true if the message was sent by the client, or false if it was sent by the server
+   * @param size         the size of the encrypted message in bytes
+   */
+  public record Message(long offsetMicros, boolean inbound, int size) {}
+
+  /**
+   * @param requestSize    the size of the encrypted rate limit request in bytes
+   * @param permitsCharged the number of permits the request was charged, i.e. the number of phone numbers it
+   *                       looked up that weren't covered by a previous token
+   * @param tokenPresented whether the client presented a token from a previous request
+   * @param permitsUsed    the number of permits actually used once the client acknowledged its new token, or
+   *                       {@code null} if it never did
+   */
+  public record RateLimit(int requestSize, int permitsCharged, boolean tokenPresented, @Nullable Integer permitsUsed) {}
+}
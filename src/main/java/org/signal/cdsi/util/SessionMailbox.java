@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.util;
+
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A mailbox that runs steps one at a time, in the order they were posted. A step may start asynchronous work by
+ * returning a {@link CompletionStage}; the next step will not start until that stage has completed.
+ * <p>
+ * Steps run on the given executor, regardless of which thread posted them or completed the previous step. Steps are
+ * expected to handle their own failures: a step that throws or returns a stage that completes exceptionally is logged,
+ * and processing continues with the next step.
+ */
+public class SessionMailbox {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionMailbox.class);
+
+  private final Executor executor;
+  private final Queue<Supplier<? extends CompletionStage<?>>> steps = new ConcurrentLinkedQueue<>();
+
+  // the number of steps posted but not yet finished; whoever moves this off of zero is responsible for starting a step
+  private final AtomicInteger pendingSteps = new AtomicInteger();
+
+  public SessionMailbox(final Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Posts a step to run after all previously-posted steps have finished.
+   *
+   * @param step a step to run; may return {@code null} if it completes synchronously
+   */
+  public void post(final Supplier<? extends CompletionStage<?>> step) {
+    steps.add(step);
+
+    if (pendingSteps.getAndIncrement() == 0) {
+      executor.execute(this::runNextStep);
+    }
+  }
+
+  private void runNextStep() {
+    final Supplier<? extends CompletionStage<?>> step = steps.poll();
+
+    @Nullable CompletionStage<?> stage;
+    try {
+      stage = step.get();
+    } catch (final RuntimeException e) {
+      logger.warn("Unhandled exception in session step", e);
+      stage = null;
+    }
+
+    if (stage == null) {
+      finishStep();
+    } else {
+      stage.whenComplete((ignored, cause) -> {
+        if (cause != null) {
+          logger.warn("Unhandled exception in session step", cause);
+        }
+        finishStep();
+      });
+    }
+  }
+
+  private void finishStep() {
+    if (pendingSteps.decrementAndGet() > 0) {
+      executor.execute(this::runNextStep);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+-- Evaluates the same leaky bucket check as validate_rate_limit.lua for each key in KEYS. All keys must hash to the
+-- same cluster slot. ARGV[4..n] holds the amount for the corresponding key, and keys may repeat; repeated keys are
+-- evaluated in order, so later entries observe the space used by earlier ones.
+
+local bucketSize = tonumber(ARGV[1])
+local leakRatePerMillis = tonumber(ARGV[2])
+local currentTimeMillis = tonumber(ARGV[3])
+
+local overflows = {}
+
+for i, bucketId in ipairs(KEYS) do
+  local amount = tonumber(ARGV[3 + i])
+
+  local spaceUsed
+  local lastUpdateTimeMillis
+
+  if redis.call("EXISTS", bucketId) == 1 then
+    spaceUsed, lastUpdateTimeMillis = unpack(redis.call("HMGET", bucketId, "spaceUsed", "lastUpdateTimeMillis"))
+    spaceUsed = tonumber(spaceUsed)
+    lastUpdateTimeMillis = tonumber(lastUpdateTimeMillis)
+  else
+    spaceUsed = 0
+    lastUpdateTimeMillis = currentTimeMillis
+  end
+
+  local elapsedTimeMillis = currentTimeMillis - lastUpdateTimeMillis
+  local currentSpaceUsed = math.max(0, math.ceil(spaceUsed - (elapsedTimeMillis * leakRatePerMillis)))
+  local bucketSpaceRemaining = bucketSize - currentSpaceUsed
+
+  if bucketSpaceRemaining >= amount then
+    currentSpaceUsed = currentSpaceUsed + amount
+    redis.call("HMSET", bucketId, "spaceUsed", tostring(currentSpaceUsed), "lastUpdateTimeMillis", tostring(currentTimeMillis))
+    redis.call("PEXPIRE", bucketId, currentSpaceUsed / leakRatePerMillis)
+
+    overflows[i] = 0
+  else
+    -- bucket overflow amount
+    overflows[i] = amount - bucketSpaceRemaining
+  end
+end
+
+return overflows
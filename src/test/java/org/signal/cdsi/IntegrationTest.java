@@ -46,6 +46,7 @@ import org.signal.cdsi.enclave.TestEnclave;
 import org.signal.cdsi.limits.LeakyBucketRateLimiter;
 import org.signal.cdsi.limits.ManualTokenRateLimiter;
 import org.signal.cdsi.limits.RateLimitExceededException;
+import org.signal.cdsi.limits.RateLimitedKeyCache;
 import org.signal.cdsi.limits.RetryAfterMessage;
 import org.signal.cdsi.proto.ClientRequest;
 import org.signal.cdsi.proto.ClientResponse;
@@ -84,6 +85,9 @@ class IntegrationTest {
   @Inject
   ManualLeakyBucketRateLimiter connectionLimiter;
 
+  @Inject
+  RateLimitedKeyCache rateLimitedKeyCache;
+
 
   @Singleton
   public static class TestAccountPopulator implements AccountPopulator {
@@ -113,6 +117,7 @@ class IntegrationTest {
   void reset() throws InterruptedException {
     connectionLimiter.setAllow(true);
     tokenRateLimiter.reset();
+    rateLimitedKeyCache.invalidateAll();
     enclave.setOverloaded(false);
     enclave.waitForInitialAttestation();
 
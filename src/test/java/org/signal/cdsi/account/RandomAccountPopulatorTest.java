@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.startup.StartupPhases;
+
+class RandomAccountPopulatorTest {
+
+  private ExecutorService executorService;
+
+  // Spans more than one batch
+  private static final int ACCOUNTS = 5000;
+
+  @BeforeEach
+  void setUp() {
+    executorService = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    executorService.shutdown();
+    executorService.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void replayAccounts() {
+    final List<DirectoryEntry> initialEntries = new ArrayList<>();
+
+    final InitialDirectoryLoader initialLoader = mock(InitialDirectoryLoader.class);
+    when(initialLoader.load(any())).thenAnswer(invocation -> {
+      initialEntries.addAll(invocation.getArgument(0));
+      return CompletableFuture.completedFuture(null);
+    });
+    when(initialLoader.finish()).thenReturn(CompletableFuture.completedFuture(null));
+
+    final Enclave enclave = mock(Enclave.class);
+    when(enclave.startInitialLoad()).thenReturn(initialLoader);
+
+    final StartupPhases startupPhases = new StartupPhases(new SimpleMeterRegistry());
+    final RandomAccountPopulator accountPopulator =
+        new RandomAccountPopulator(enclave, ACCOUNTS, executorService, startupPhases);
+
+    accountPopulator.populateAccounts();
+
+    // The executor runs one task at a time, so the replay starts after the initial population has finished
+    final List<DirectoryEntry> replayedEntries = new ArrayList<>();
+
+    accountPopulator.replayAccounts(entries -> {
+      replayedEntries.addAll(entries);
+      return CompletableFuture.completedFuture(null);
+    }).join();
+
+    assertEquals(ACCOUNTS, initialEntries.size());
+    assertEquals(initialEntries, replayedEntries);
+  }
+}
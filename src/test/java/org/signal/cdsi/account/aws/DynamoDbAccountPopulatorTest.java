@@ -37,6 +37,7 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.ArgumentCaptor;
 import org.signal.cdsi.enclave.DirectoryEntry;
 import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.startup.StartupPhases;
 import org.signal.cdsi.util.UUIDUtil;
 import reactor.core.publisher.Mono;
 import software.amazon.awssdk.core.SdkBytes;
@@ -96,7 +97,8 @@ class DynamoDbAccountPopulatorTest {
         kinesisStreamConsumerSupplier,
         new SimpleMeterRegistry(),
         Clock.systemUTC(),
-        accountTableConfiguration);
+        accountTableConfiguration,
+        new StartupPhases(new SimpleMeterRegistry()));
   }
 
   @Test
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.aws;
+
+import static org.mockito.Mockito.mock;
+import static org.signal.cdsi.metrics.MetricsUtil.name;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import org.signal.cdsi.account.aws.IngestBenchmarkConfiguration.IngestSource;
+import org.signal.cdsi.account.aws.IngestBenchmarkConfiguration.LoadMode;
+import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.EnclaveConfiguration;
+import org.signal.cdsi.enclave.EnclaveException;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.startup.StartupPhases;
+import org.signal.cdsi.util.UUIDUtil;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEvent;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEventStream;
+
+/**
+ * Measures how quickly accounts can be loaded into a simulated-mode enclave from each of the sources the service uses
+ * to populate its directory. For every combination of source, load mode, shard count, switchless worker count and
+ * batch size, the benchmark initializes a new enclave, loads the configured number of accounts and reports:
+ *
+ * <ul>
+ *   <li>entries loaded per second, measured from the first batch to the last</li>
+ *   <li>time to ready, measured from the start of enclave initialization until every account has been loaded</li>
+ *   <li>process CPU time, heap allocation and garbage collection time while loading</li>
+ *   <li>the number and total duration of {@code nativeLoadData} calls</li>
+ * </ul>
+ *
+ * Sources are:
+ *
+ * <ul>
+ *   <li>{@code generated}: accounts generated in memory and loaded in fixed-size batches</li>
+ *   <li>{@code table}: accounts scanned in parallel from a DynamoDB Local table by
+ *   {@link DynamoDbAccountPopulator#getAccountSnapshot()}; the table is populated once, before any runs, and populating
+ *   it is not measured</li>
+ *   <li>{@code stream}: accounts delivered to {@link DynamoDbAccountPopulator#onEventStream(SdkPublisher)} by a local
+ *   stand-in for a Kinesis subscription; each event carries one batch of JSON records, and serializing those records
+ *   is included in the measurement much as decoding them would be for a real subscription</li>
+ * </ul>
+ *
+ * The {@code generated} and {@code table} sources are loaded as an initial population, either incrementally or in
+ * bulk (see {@link Enclave#startInitialLoad()}); comparing the two modes' time to ready shows what the bulk build saves
+ * at startup. Runs with a nonzero {@code ingest.switchlessWorkers} make {@code nativeLoadData} calls without an enclave
+ * transition (see {@link org.signal.cdsi.enclave.EnclaveConfiguration#getSwitchlessWorkers()}).
+ * <p>
+ * The test enclave must have been built (e.g. by {@code ./mvnw test-compile}) before running the benchmark:
+ *
+ * <pre>
+ * ./mvnw test-compile exec:java@ingest-benchmark -Dingest.accounts=10000000 -Dingest.sources=generated,stream
+ * </pre>
+ *
+ * Allocation is measured per thread and only counts threads that are still alive when a run finishes. Loading large
+ * numbers of accounts requires a correspondingly large {@code ingest.availableEpcMemory} and heap; populating a
+ * DynamoDB Local table is slow, and so the {@code table} source is best used with no more than a few million accounts.
+ * See {@link IngestBenchmarkConfiguration} for the available {@code ingest.*} settings.
+ */
+public class IngestBenchmark {
+
+  private final IngestBenchmarkConfiguration configuration;
+
+  @Nullable
+  private final DynamoDbAsyncClient dynamoDbAsyncClient;
+
+  private static final String ENCLAVE_ID = "test";
+  private static final String ACCOUNTS_TABLE_NAME = "ingest_benchmark_accounts";
+
+  // RandomAccountPopulator's first phone number
+  private static final long FIRST_E164 = 18000000000L;
+
+  private static final int DYNAMODB_MAX_BATCH_WRITE_SIZE = 25;
+  private static final int TABLE_WRITE_CONCURRENCY = 32;
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final String CSV_HEADER = "source,loadMode,shards,switchlessWorkers,batchSize,accounts,entries,"
+      + "capacity,loadSeconds,entriesPerSecond,timeToReadySeconds,cpuSeconds,allocatedMegabytes,gcMillis,"
+      + "nativeLoadDataCalls,nativeLoadDataSeconds";
+
+  IngestBenchmark(final IngestBenchmarkConfiguration configuration,
+      @Nullable final DynamoDbAsyncClient dynamoDbAsyncClient) {
+
+    this.configuration = configuration;
+    this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final IngestBenchmarkConfiguration configuration =
+        IngestBenchmarkConfiguration.fromProperties(System.getProperties());
+
+    @Nullable DynamoDbExtension dynamoDbExtension = null;
+
+    try {
+      if (configuration.sources().contains(IngestSource.TABLE)) {
+        dynamoDbExtension = DynamoDbExtension.builder()
+            .tableName(ACCOUNTS_TABLE_NAME)
+            .hashKey(DynamoDbAccountPopulator.KEY_ACCOUNT_UUID)
+            .attributeDefinition(AttributeDefinition.builder()
+                .attributeName(DynamoDbAccountPopulator.KEY_ACCOUNT_UUID)
+                .attributeType(ScalarAttributeType.B)
+                .build())
+            .build();
+
+        // The extension doesn't use its context; this starts DynamoDB Local and creates the accounts table
+        dynamoDbExtension.beforeEach(null);
+      }
+
+      final IngestBenchmark benchmark = new IngestBenchmark(configuration,
+          dynamoDbExtension != null ? dynamoDbExtension.getDynamoDbAsyncClient() : null);
+
+      if (dynamoDbExtension != null) {
+        final long start = System.nanoTime();
+        benchmark.populateTable();
+
+        System.out.printf("Populated account table with %d accounts in %d seconds%n",
+            configuration.accounts(), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+      }
+
+      benchmark.run();
+    } finally {
+      if (dynamoDbExtension != null) {
+        dynamoDbExtension.afterEach(null);
+      }
+    }
+  }
+
+  void run() throws IOException, EnclaveException, InterruptedException {
+    final List<IngestResult> results = new ArrayList<>();
+
+    System.out.println(CSV_HEADER);
+
+    for (final IngestSource source : configuration.sources()) {
+      for (final LoadMode loadMode : configuration.loadModes()) {
+        if (source == IngestSource.STREAM && loadMode != LoadMode.INCREMENTAL) {
+          continue;
+        }
+
+        for (final int shards : configuration.shardCounts()) {
+          for (final int switchlessWorkers : configuration.switchlessWorkerCounts()) {
+            for (final int batchSize : configuration.batchSizes()) {
+              // Don't let garbage from one run be collected during the next
+              System.gc();
+
+              final IngestResult result = run(source, loadMode, shards, switchlessWorkers, batchSize);
+              results.add(result);
+
+              System.out.println(result.toCsv());
+            }
+          }
+        }
+      }
+    }
+
+    if (configuration.resultsFile() != null) {
+      try (final PrintStream out = new PrintStream(Files.newOutputStream(configuration.resultsFile()))) {
+        out.println(CSV_HEADER);
+        results.forEach(result -> out.println(result.toCsv()));
+      }
+    }
+  }
+
+  private IngestResult run(final IngestSource source,
+      final LoadMode loadMode,
+      final int shards,
+      final int switchlessWorkers,
+      final int batchSize) throws IOException, EnclaveException, InterruptedException {
+
+    final EnclaveConfiguration enclaveConfiguration = new EnclaveConfiguration();
+    enclaveConfiguration.setEnclaveId(ENCLAVE_ID);
+    enclaveConfiguration.setTokenSecret(ENCLAVE_ID);
+    enclaveConfiguration.setSimulated(true);
+    enclaveConfiguration.setShards(shards);
+    enclaveConfiguration.setAvailableEpcMemory(configuration.availableEpcMemory());
+    enclaveConfiguration.setLoadFactor(configuration.loadFactor());
+    enclaveConfiguration.setBulkInitialLoad(loadMode == LoadMode.BULK);
+    enclaveConfiguration.setSwitchlessWorkers(switchlessWorkers);
+
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    final long initStart = System.nanoTime();
+
+    // Loading data never touches the rate limiter
+    final Enclave enclave = new Enclave(enclaveConfiguration,
+        mock(TokenRateLimiter.class),
+        meterRegistry,
+        Executors.newFixedThreadPool(configuration.jniThreads()),
+        Clock.systemUTC(),
+        new StartupPhases(meterRegistry));
+
+    try {
+      final ResourceUsage loadStart = ResourceUsage.now();
+
+      switch (source) {
+        case GENERATED -> loadGeneratedAccounts(enclave, batchSize);
+        case TABLE -> loadTableAccounts(enclave, meterRegistry, batchSize);
+        case STREAM -> loadStreamAccounts(enclave, meterRegistry, batchSize);
+      }
+
+      final ResourceUsage loadEnd = ResourceUsage.now();
+      final Timer loadDataTimer = meterRegistry.get(name(Enclave.class, "nativeLoadData")).timer();
+
+      // The entries and capacity gauges report the last statistics fetched, which may predate the load
+      enclave.refreshTableStatistics().join();
+
+      return new IngestResult(source, loadMode, shards, switchlessWorkers, batchSize, configuration.accounts(),
+          (long) meterRegistry.get(name(Enclave.class, "entries")).gauge().value(),
+          (long) meterRegistry.get(name(Enclave.class, "capacity")).gauge().value(),
+          loadEnd.wallNanos() - loadStart.wallNanos(),
+          loadEnd.wallNanos() - initStart,
+          loadEnd.cpuNanos() - loadStart.cpuNanos(),
+          loadEnd.allocatedBytes() - loadStart.allocatedBytes(),
+          loadEnd.gcMillis() - loadStart.gcMillis(),
+          loadDataTimer.count(),
+          (long) loadDataTimer.totalTime(TimeUnit.NANOSECONDS));
+    } finally {
+      enclave.close();
+    }
+  }
+
+  private void loadGeneratedAccounts(final Enclave enclave, final int batchSize) {
+    final SplittableRandom random = new SplittableRandom(configuration.seed());
+    final InitialDirectoryLoader initialLoader = enclave.startInitialLoad();
+    final List<DirectoryEntry> entries = new ArrayList<>(batchSize);
+
+    for (long i = 0; i < configuration.accounts(); i++) {
+      entries.add(directoryEntryFromAccount(generateAccount(FIRST_E164 + i, random)));
+
+      if (entries.size() == batchSize) {
+        initialLoader.load(entries).join();
+        entries.clear();
+      }
+    }
+
+    if (!entries.isEmpty()) {
+      initialLoader.load(entries).join();
+    }
+
+    initialLoader.finish().join();
+  }
+
+  private void loadTableAccounts(final Enclave enclave, final MeterRegistry meterRegistry, final int batchSize) {
+    // Mirrors DynamoDbAccountPopulator#populateAccounts, but with a configurable batch size
+    final InitialDirectoryLoader initialLoader = enclave.startInitialLoad();
+
+    newAccountPopulator(enclave, meterRegistry).getAccountSnapshot()
+        .buffer(batchSize)
+        .doOnNext(entries -> initialLoader.load(entries).join())
+        .blockLast();
+
+    initialLoader.finish().join();
+  }
+
+  private void loadStreamAccounts(final Enclave enclave, final MeterRegistry meterRegistry, final int batchSize)
+      throws InterruptedException {
+
+    final DynamoDbAccountPopulator accountPopulator = newAccountPopulator(enclave, meterRegistry);
+    final SplittableRandom random = new SplittableRandom(configuration.seed());
+
+    final CountDownLatch streamFinished = new CountDownLatch(1);
+    final AtomicReference<Throwable> streamError = new AtomicReference<>();
+
+    // Each event reports that the consumer is behind until the last one, which marks initial population as finished
+    final Flux<SubscribeToShardEventStream> events = Flux.<SubscribeToShardEventStream, Long>generate(() -> 0L,
+            (next, sink) -> {
+              final int records = (int) Math.min(batchSize, configuration.accounts() - next);
+              final List<Record> eventRecords = new ArrayList<>(records);
+
+              for (int i = 0; i < records; i++) {
+                final long sequenceNumber = next + i;
+
+                try {
+                  eventRecords.add(Record.builder()
+                      .sequenceNumber(String.valueOf(sequenceNumber))
+                      .data(SdkBytes.fromByteArrayUnsafe(OBJECT_MAPPER.writeValueAsBytes(
+                          generateAccount(FIRST_E164 + sequenceNumber, random))))
+                      .build());
+                } catch (final JsonProcessingException e) {
+                  sink.error(e);
+                  return next;
+                }
+              }
+
+              final long remaining = configuration.accounts() - next - records;
+
+              sink.next(SubscribeToShardEvent.builder()
+                  .continuationSequenceNumber(String.valueOf(next + records))
+                  .millisBehindLatest(remaining > 0 ? 1L : 0L)
+                  .records(eventRecords)
+                  .build());
+
+              if (remaining == 0) {
+                sink.complete();
+              }
+
+              return next + records;
+            })
+        .doOnError(streamError::set)
+        .doFinally(ignored -> streamFinished.countDown());
+
+    accountPopulator.onEventStream(SdkPublisher.adapt(events));
+    streamFinished.await();
+
+    if (streamError.get() != null) {
+      throw new IllegalStateException("Failed to deliver stream events", streamError.get());
+    }
+
+    if (!accountPopulator.hasFinishedInitialAccountPopulation()) {
+      throw new IllegalStateException("Stream finished before initial account population");
+    }
+  }
+
+  private DynamoDbAccountPopulator newAccountPopulator(final Enclave enclave, final MeterRegistry meterRegistry) {
+    final AccountTableConfiguration accountTableConfiguration = new AccountTableConfiguration();
+    accountTableConfiguration.setTableName(ACCOUNTS_TABLE_NAME);
+    accountTableConfiguration.setTableReadSegments(configuration.tableReadSegments());
+
+    // The benchmark reads the table and delivers stream events itself, and so never subscribes to a Kinesis stream
+    return new DynamoDbAccountPopulator(enclave,
+        dynamoDbAsyncClient,
+        null,
+        null,
+        meterRegistry,
+        Clock.systemUTC(),
+        accountTableConfiguration,
+        new StartupPhases(meterRegistry));
+  }
+
+  private void populateTable() {
+    final SplittableRandom random = new SplittableRandom(configuration.seed());
+
+    Flux.<List<WriteRequest>, Long>generate(() -> 0L, (next, sink) -> {
+          final int items = (int) Math.min(DYNAMODB_MAX_BATCH_WRITE_SIZE, configuration.accounts() - next);
+          final List<WriteRequest> writeRequests = new ArrayList<>(items);
+
+          for (int i = 0; i < items; i++) {
+            writeRequests.add(WriteRequest.builder()
+                .putRequest(PutRequest.builder()
+                    .item(itemFromAccount(generateAccount(FIRST_E164 + next + i, random)))
+                    .build())
+                .build());
+          }
+
+          sink.next(writeRequests);
+
+          if (next + items == configuration.accounts()) {
+            sink.complete();
+          }
+
+          return next + items;
+        })
+        .flatMap(writeRequests -> Mono.fromFuture(writeItems(writeRequests)), TABLE_WRITE_CONCURRENCY)
+        .blockLast();
+  }
+
+  private CompletableFuture<Void> writeItems(final List<WriteRequest> writeRequests) {
+    assert dynamoDbAsyncClient != null;
+
+    return dynamoDbAsyncClient.batchWriteItem(BatchWriteItemRequest.builder()
+            .requestItems(Map.of(ACCOUNTS_TABLE_NAME, writeRequests))
+            .build())
+        .thenCompose(response -> {
+          final List<WriteRequest> unprocessedItems = response.unprocessedItems().get(ACCOUNTS_TABLE_NAME);
+
+          return unprocessedItems == null || unprocessedItems.isEmpty()
+              ? CompletableFuture.completedFuture(null)
+              : writeItems(unprocessedItems);
+        });
+  }
+
+  private static Account generateAccount(final long e164, final SplittableRandom random) {
+    final byte[] uak = new byte[16];
+    random.nextBytes(uak);
+
+    // UUID#randomUUID draws from a SecureRandom, which would dominate the cost of generating accounts
+    return new Account(e164,
+        new UUID(random.nextLong(), random.nextLong()),
+        new UUID(random.nextLong(), random.nextLong()),
+        uak,
+        true);
+  }
+
+  private static DirectoryEntry directoryEntryFromAccount(final Account account) {
+    return new DirectoryEntry(account.e164(),
+        UUIDUtil.toByteArray(account.uuid()),
+        UUIDUtil.toByteArray(account.pni()),
+        account.uak());
+  }
+
+  private static Map<String, AttributeValue> itemFromAccount(final Account account) {
+    assert account.uak() != null;
+
+    return Map.of(
+        DynamoDbAccountPopulator.KEY_ACCOUNT_UUID,
+        AttributeValue.builder().b(SdkBytes.fromByteBuffer(UUIDUtil.toByteBuffer(account.uuid()))).build(),
+        DynamoDbAccountPopulator.ATTR_ACCOUNT_E164, AttributeValue.builder().s("+" + account.e164()).build(),
+        DynamoDbAccountPopulator.ATTR_CANONICALLY_DISCOVERABLE,
+        AttributeValue.builder().bool(account.canonicallyDiscoverable()).build(),
+        DynamoDbAccountPopulator.ATTR_PNI,
+        AttributeValue.builder().b(SdkBytes.fromByteBuffer(UUIDUtil.toByteBuffer(account.pni()))).build(),
+        DynamoDbAccountPopulator.ATTR_UAK,
+        AttributeValue.builder().b(SdkBytes.fromByteArray(account.uak())).build());
+  }
+
+  private record ResourceUsage(long wallNanos, long cpuNanos, long allocatedBytes, long gcMillis) {
+
+    static ResourceUsage now() {
+      final com.sun.management.ThreadMXBean threadMXBean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+      long allocatedBytes = 0;
+
+      for (final long threadAllocatedBytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+        // Threads that have exited since we listed them report -1
+        allocatedBytes += Math.max(threadAllocatedBytes, 0);
+      }
+
+      long gcMillis = 0;
+
+      for (final GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcMillis += Math.max(garbageCollectorMXBean.getCollectionTime(), 0);
+      }
+
+      return new ResourceUsage(System.nanoTime(),
+          ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime(),
+          allocatedBytes,
+          gcMillis);
+    }
+  }
+
+  private record IngestResult(IngestSource source,
+                              LoadMode loadMode,
+                              int shards,
+                              int switchlessWorkers,
+                              int batchSize,
+                              long accounts,
+                              long entries,
+                              long capacity,
+                              long loadNanos,
+                              long timeToReadyNanos,
+                              long cpuNanos,
+                              long allocatedBytes,
+                              long gcMillis,
+                              long nativeLoadDataCalls,
+                              long nativeLoadDataNanos) {
+
+    String toCsv() {
+      return String.format("%s,%s,%d,%d,%d,%d,%d,%d,%.3f,%.0f,%.3f,%.3f,%.1f,%d,%d,%.3f",
+          source.name().toLowerCase(Locale.ROOT),
+          loadMode.name().toLowerCase(Locale.ROOT),
+          shards,
+          switchlessWorkers,
+          batchSize,
+          accounts,
+          entries,
+          capacity,
+          seconds(loadNanos),
+          accounts / seconds(loadNanos),
+          seconds(timeToReadyNanos),
+          seconds(cpuNanos),
+          allocatedBytes / (1024.0 * 1024.0),
+          gcMillis,
+          nativeLoadDataCalls,
+          seconds(nativeLoadDataNanos));
+    }
+
+    private static double seconds(final long nanos) {
+      return nanos / 1e9;
+    }
+  }
+}
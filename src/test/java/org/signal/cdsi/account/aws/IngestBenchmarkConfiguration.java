@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.aws;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Settings for an {@link IngestBenchmark} run, read from {@code ingest.*} system properties. Every combination of
+ * source, load mode, shard count, switchless worker count and batch size is measured with a freshly-initialized
+ * enclave.
+ *
+ * @param accounts the number of accounts to load in each run
+ * @param sources the sources from which to load accounts
+ * @param loadModes the ways in which to load the initial population of accounts; the stream source only delivers
+ *                  incremental updates, and so is only measured with {@link LoadMode#INCREMENTAL}
+ * @param shardCounts the enclave shard counts to measure
+ * @param switchlessWorkerCounts the numbers of switchless enclave workers to measure; 0 measures ordinary enclave calls
+ * @param batchSizes the numbers of entries per {@code Enclave#loadData} call to measure; for the stream source, this is
+ *                   the number of records per stream event
+ * @param availableEpcMemory the memory available to the enclave's table; must be large enough to hold {@code accounts}
+ *                           entries at the configured load factor
+ * @param loadFactor the enclave table's load factor
+ * @param jniThreads the number of threads available for native enclave calls
+ * @param tableReadSegments the number of segments in which to scan the account table
+ * @param seed a seed for generated account identifiers, so runs with the same settings load the same accounts
+ * @param resultsFile if not null, a file to which results are written as CSV
+ */
+record IngestBenchmarkConfiguration(long accounts,
+                                    List<IngestSource> sources,
+                                    List<LoadMode> loadModes,
+                                    List<Integer> shardCounts,
+                                    List<Integer> switchlessWorkerCounts,
+                                    List<Integer> batchSizes,
+                                    long availableEpcMemory,
+                                    double loadFactor,
+                                    int jniThreads,
+                                    int tableReadSegments,
+                                    long seed,
+                                    @Nullable Path resultsFile) {
+
+  enum IngestSource {
+    /**
+     * Accounts generated in memory and loaded directly, as {@link org.signal.cdsi.account.RandomAccountPopulator} does
+     */
+    GENERATED,
+
+    /**
+     * Accounts read from a DynamoDB Local table with the same parallel scan as the account snapshot
+     */
+    TABLE,
+
+    /**
+     * Accounts delivered as account stream events, as they would be by a Kinesis subscription
+     */
+    STREAM
+  }
+
+  enum LoadMode {
+    /**
+     * Each batch of accounts is inserted into the enclave's table as it arrives
+     */
+    INCREMENTAL,
+
+    /**
+     * Accounts are staged in the enclave, which builds its table from all of them once the last batch has arrived
+     */
+    BULK
+  }
+
+  private static final String PREFIX = "ingest.";
+
+  static IngestBenchmarkConfiguration fromProperties(final Properties properties) {
+    final String resultsFile = properties.getProperty(PREFIX + "resultsFile");
+
+    final IngestBenchmarkConfiguration configuration = new IngestBenchmarkConfiguration(
+        Long.parseLong(get(properties, "accounts", "1000000")),
+        getList(properties, "sources", "generated,table,stream",
+            source -> IngestSource.valueOf(source.toUpperCase(Locale.ROOT))),
+        getList(properties, "loadModes", "incremental,bulk",
+            loadMode -> LoadMode.valueOf(loadMode.toUpperCase(Locale.ROOT))),
+        getList(properties, "shardCounts", "1,4", Integer::parseInt),
+        getList(properties, "switchlessWorkers", "0", Integer::parseInt),
+        getList(properties, "batchSizes", "1024,4096,16384", Integer::parseInt),
+        Long.parseLong(get(properties, "availableEpcMemory", "256000000")),
+        Double.parseDouble(get(properties, "loadFactor", "1.6")),
+        Integer.parseInt(get(properties, "jniThreads", "4")),
+        Integer.parseInt(get(properties, "tableReadSegments", "16")),
+        Long.parseLong(get(properties, "seed", "0")),
+        resultsFile == null ? null : Path.of(resultsFile));
+
+    if (configuration.accounts() <= 0 || configuration.availableEpcMemory() <= 0) {
+      throw new IllegalArgumentException("Account count and available memory must be positive");
+    }
+
+    if (configuration.jniThreads() <= 0 || configuration.tableReadSegments() <= 0) {
+      throw new IllegalArgumentException("Thread and segment counts must be positive");
+    }
+
+    if (configuration.switchlessWorkerCounts().stream().anyMatch(workers -> workers < 0)) {
+      throw new IllegalArgumentException("Switchless worker counts must not be negative");
+    }
+
+    if (configuration.shardCounts().stream().anyMatch(shards -> shards <= 0)
+        || configuration.batchSizes().stream().anyMatch(batchSize -> batchSize <= 0)) {
+      throw new IllegalArgumentException("Shard counts and batch sizes must be positive");
+    }
+
+    return configuration;
+  }
+
+  private static String get(final Properties properties, final String name, final String defaultValue) {
+    return properties.getProperty(PREFIX + name, defaultValue);
+  }
+
+  private static <T> List<T> getList(final Properties properties,
+      final String name,
+      final String defaultValue,
+      final Function<String, T> parser) {
+
+    return Arrays.stream(get(properties, name, defaultValue).split(","))
+        .map(String::trim)
+        .filter(value -> !value.isEmpty())
+        .map(parser)
+        .toList();
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.aws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Properties;
+import org.junit.jupiter.api.Test;
+import org.signal.cdsi.account.aws.IngestBenchmarkConfiguration.IngestSource;
+import org.signal.cdsi.account.aws.IngestBenchmarkConfiguration.LoadMode;
+
+class IngestBenchmarkConfigurationTest {
+
+  @Test
+  void defaults() {
+    final IngestBenchmarkConfiguration configuration = IngestBenchmarkConfiguration.fromProperties(new Properties());
+
+    assertEquals(List.of(IngestSource.GENERATED, IngestSource.TABLE, IngestSource.STREAM), configuration.sources());
+    assertEquals(List.of(LoadMode.INCREMENTAL, LoadMode.BULK), configuration.loadModes());
+    assertEquals(List.of(1, 4), configuration.shardCounts());
+    assertEquals(List.of(0), configuration.switchlessWorkerCounts());
+    assertNull(configuration.resultsFile());
+  }
+
+  @Test
+  void lists() {
+    final Properties properties = new Properties();
+    properties.setProperty("ingest.sources", "stream, GENERATED");
+    properties.setProperty("ingest.batchSizes", "512,,8192");
+    properties.setProperty("ingest.loadModes", "Bulk");
+    properties.setProperty("ingest.switchlessWorkers", "0,2");
+
+    final IngestBenchmarkConfiguration configuration = IngestBenchmarkConfiguration.fromProperties(properties);
+
+    assertEquals(List.of(IngestSource.STREAM, IngestSource.GENERATED), configuration.sources());
+    assertEquals(List.of(512, 8192), configuration.batchSizes());
+    assertEquals(List.of(LoadMode.BULK), configuration.loadModes());
+    assertEquals(List.of(0, 2), configuration.switchlessWorkerCounts());
+  }
+
+  @Test
+  void invalid() {
+    final Properties unknownSource = new Properties();
+    unknownSource.setProperty("ingest.sources", "kafka");
+
+    assertThrows(IllegalArgumentException.class, () -> IngestBenchmarkConfiguration.fromProperties(unknownSource));
+
+    final Properties zeroShards = new Properties();
+    zeroShards.setProperty("ingest.shardCounts", "0");
+
+    assertThrows(IllegalArgumentException.class, () -> IngestBenchmarkConfiguration.fromProperties(zeroShards));
+
+    final Properties negativeSwitchlessWorkers = new Properties();
+    negativeSwitchlessWorkers.setProperty("ingest.switchlessWorkers", "-1");
+
+    assertThrows(IllegalArgumentException.class,
+        () -> IngestBenchmarkConfiguration.fromProperties(negativeSwitchlessWorkers));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.account.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.azure.cosmos.ConsistencyLevel;
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosAsyncDatabase;
+import com.azure.cosmos.CosmosClientBuilder;
+import com.azure.cosmos.models.CosmosContainerProperties;
+import com.azure.cosmos.models.CosmosItemRequestOptions;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.ThroughputProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.startup.StartupPhases;
+import org.signal.cdsi.util.UUIDUtil;
+import org.testcontainers.containers.CosmosDBEmulatorContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+@Testcontainers
+@Disabled
+public class CosmosDbAccountPopulatorEmulatorTest {
+
+  private static final String DB_NAME = "CdsiTest";
+  private static final String CONTAINER_NAME = "AccountPopulatorTest";
+
+  // Enough throughput for the container to have several physical partitions, and so several feed ranges
+  private static final int CONTAINER_THROUGHPUT = 20_000;
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private CosmosAsyncContainer container;
+  private Enclave enclave;
+
+  // Entries loaded as part of the initial population, and those loaded afterward
+  private final Set<DirectoryEntry> initialEntries = Collections.synchronizedSet(new HashSet<>());
+  private final List<DirectoryEntry> changedEntries = Collections.synchronizedList(new ArrayList<>());
+
+  private long nextE164 = 1_800_000_0000L;
+  private final Random random = new Random();
+
+  @TempDir
+  private Path tempFolder;
+
+  @Container
+  public CosmosDBEmulatorContainer emulator = new CosmosDBEmulatorContainer(
+      DockerImageName.parse("mcr.microsoft.com/cosmosdb/linux/azure-cosmos-emulator")
+  );
+
+  @BeforeEach
+  void setup() throws IOException, CertificateException, KeyStoreException, NoSuchAlgorithmException {
+    final Path keyStoreFile = tempFolder.resolve("azure-cosmos-emulator.keystore");
+    final KeyStore keyStore = emulator.buildNewKeyStore();
+    keyStore.store(new FileOutputStream(keyStoreFile.toFile()), emulator.getEmulatorKey().toCharArray());
+
+    System.setProperty("javax.net.ssl.trustStore", keyStoreFile.toString());
+    System.setProperty("javax.net.ssl.trustStorePassword", emulator.getEmulatorKey());
+    System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+
+    final CosmosAsyncClient client = new CosmosClientBuilder()
+        .endpointDiscoveryEnabled(false)
+        .endpoint(emulator.getEmulatorEndpoint())
+        .key(emulator.getEmulatorKey())
+        .consistencyLevel(ConsistencyLevel.SESSION)
+        .buildAsyncClient();
+
+    client.createDatabaseIfNotExists(DB_NAME).block();
+    final CosmosAsyncDatabase database = client.getDatabase(DB_NAME);
+
+    database.createContainer(new CosmosContainerProperties(CONTAINER_NAME, "/id"),
+            ThroughputProperties.createManualThroughput(CONTAINER_THROUGHPUT))
+        .block();
+
+    container = database.getContainer(CONTAINER_NAME);
+
+    final InitialDirectoryLoader initialLoader = mock(InitialDirectoryLoader.class);
+    when(initialLoader.load(any())).thenAnswer(invocation -> {
+      initialEntries.addAll(invocation.getArgument(0));
+      return CompletableFuture.completedFuture(null);
+    });
+    when(initialLoader.finish()).thenReturn(CompletableFuture.completedFuture(null));
+
+    enclave = mock(Enclave.class);
+    when(enclave.startInitialLoad()).thenReturn(initialLoader);
+    when(enclave.loadData(any(), anyBoolean())).thenAnswer(invocation -> {
+      changedEntries.addAll(invocation.getArgument(0));
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  @Test
+  void populateAndFollowChangeFeed() {
+    final List<AccountDocument> accounts = new ArrayList<>();
+
+    for (int i = 0; i < 1000; i++) {
+      final AccountDocument account = generateAccount(i % 4 != 0);
+
+      putAccount(account);
+      accounts.add(account);
+    }
+
+    final CosmosDbAccountPopulator accountPopulator = new CosmosDbAccountPopulator(enclave,
+        container,
+        2,
+        new SimpleMeterRegistry(),
+        new StartupPhases(new SimpleMeterRegistry()));
+
+    accountPopulator.populateAccounts();
+
+    assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+      while (!accountPopulator.hasFinishedInitialAccountPopulation()) {
+        accountPopulator.loadChangeFeed().join();
+        Thread.sleep(100);
+      }
+    });
+
+    assertTrue(accountPopulator.isHealthy());
+
+    final Set<DirectoryEntry> expectedInitialEntries = new HashSet<>();
+    accounts.stream()
+        .filter(AccountDocument::canonicallyDiscoverable)
+        .map(CosmosDbAccountPopulatorEmulatorTest::directoryEntry)
+        .forEach(expectedInitialEntries::add);
+
+    assertEquals(expectedInitialEntries, initialEntries);
+    assertEquals(expectedInitialEntries.size(), accountPopulator.getTotalAccounts());
+    assertEquals(List.of(), changedEntries);
+
+    // Make an account undiscoverable and add a new one
+    final AccountDocument discoverableAccount = accounts.stream()
+        .filter(AccountDocument::canonicallyDiscoverable)
+        .findFirst()
+        .orElseThrow();
+
+    final AccountDocument undiscoverableAccount = new AccountDocument(discoverableAccount.id(),
+        discoverableAccount.e164(), discoverableAccount.pni(), discoverableAccount.uak(), false);
+
+    final AccountDocument newAccount = generateAccount(true);
+
+    putAccount(undiscoverableAccount);
+    putAccount(newAccount);
+
+    accountPopulator.loadChangeFeed().join();
+
+    assertEquals(Set.of(DirectoryEntry.deletionEntry(undiscoverableAccount.e164()), directoryEntry(newAccount)),
+        new HashSet<>(changedEntries));
+    assertEquals(expectedInitialEntries.size(), accountPopulator.getTotalAccounts());
+
+    // Changes that have been loaded aren't loaded again
+    changedEntries.clear();
+    accountPopulator.loadChangeFeed().join();
+
+    assertEquals(List.of(), changedEntries);
+
+    // Deleting an account's document outright removes the account, too
+    container.deleteItem(newAccount.id().toString(), new PartitionKey(newAccount.id().toString()),
+        new CosmosItemRequestOptions()).block();
+
+    accountPopulator.loadChangeFeed().join();
+
+    assertEquals(List.of(DirectoryEntry.deletionEntry(newAccount.e164())), changedEntries);
+    assertEquals(expectedInitialEntries.size() - 1, accountPopulator.getTotalAccounts());
+  }
+
+  @Test
+  void replayAccounts() {
+    final AccountDocument discoverableAccount = generateAccount(true);
+    final AccountDocument undiscoverableAccount = generateAccount(false);
+
+    putAccount(discoverableAccount);
+    putAccount(undiscoverableAccount);
+
+    final CosmosDbAccountPopulator accountPopulator = new CosmosDbAccountPopulator(enclave,
+        container,
+        2,
+        new SimpleMeterRegistry(),
+        new StartupPhases(new SimpleMeterRegistry()));
+
+    final List<DirectoryEntry> replayedEntries = Collections.synchronizedList(new ArrayList<>());
+
+    accountPopulator.replayAccounts(entries -> {
+      replayedEntries.addAll(entries);
+      return CompletableFuture.completedFuture(null);
+    }).join();
+
+    assertEquals(List.of(directoryEntry(discoverableAccount)), replayedEntries);
+    assertEquals(1, accountPopulator.getTotalAccounts());
+    assertFalse(accountPopulator.hasFinishedInitialAccountPopulation());
+  }
+
+  private void putAccount(final AccountDocument account) {
+    final ObjectNode document = OBJECT_MAPPER.valueToTree(account);
+    container.upsertItem(document, new PartitionKey(account.id().toString()), new CosmosItemRequestOptions()).block();
+  }
+
+  private AccountDocument generateAccount(final boolean canonicallyDiscoverable) {
+    final byte[] uak = new byte[16];
+    random.nextBytes(uak);
+
+    return new AccountDocument(UUID.randomUUID(), nextE164++, UUID.randomUUID(), uak, canonicallyDiscoverable);
+  }
+
+  private static DirectoryEntry directoryEntry(final AccountDocument account) {
+    return new DirectoryEntry(account.e164(),
+        UUIDUtil.toByteArray(account.id()),
+        UUIDUtil.toByteArray(account.pni()),
+        account.uak());
+  }
+}
@@ -1,154 +1,345 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
 package org.signal.cdsi.account.azure;
 
-import com.azure.cosmos.CosmosClient;
-import com.azure.cosmos.CosmosContainer;
-import com.azure.cosmos.CosmosDatabase;
-import com.azure.cosmos.models.CosmosItemResponse;
-import io.micrometer.core.instrument.MeterRegistry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosChangeFeedRequestOptions;
+import com.azure.cosmos.models.FeedRange;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.util.CosmosPagedFlux;
+import com.azure.cosmos.util.UtilBridgeInternal;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.signal.cdsi.enclave.DirectoryEntry;
+import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.InitialDirectoryLoader;
+import org.signal.cdsi.startup.StartupPhases;
+import org.signal.cdsi.util.UUIDUtil;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.*;
-
 class CosmosDbAccountPopulatorTest {
 
-    private CosmosClient cosmosClient;
-    private CosmosContainer container;
-    private MeterRegistry meterRegistry;
-    private CosmosDbAccountPopulator populator;
+  private Enclave enclave;
+  private InitialDirectoryLoader initialLoader;
+  private CosmosAsyncContainer container;
 
-    @BeforeEach
-    void setUp() {
-        cosmosClient = mock(CosmosClient.class);
-        CosmosDatabase database = mock(CosmosDatabase.class);
-        container = mock(CosmosContainer.class);
-        meterRegistry = new SimpleMeterRegistry();
+  private CosmosDbAccountPopulator accountPopulator;
 
-        when(cosmosClient.getDatabase(anyString())).thenReturn(database);
-        when(database.getContainer(anyString())).thenReturn(container);
-        when(container.upsertItem(any(), any(), any())).thenReturn(Mono.just(mock(CosmosItemResponse.class)));
+  private long nextE164 = 1_800_000_0000L;
+  private final Random random = new Random();
 
-        populator = new CosmosDbAccountPopulator(cosmosClient, "test-db", "test-container", meterRegistry);
-        populator.start();
-    }
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
-    @Test
-    void shouldStoreValidAccountUpdate() {
-        // Arrange
-        DirectoryEntry entry = DirectoryEntry.newBuilder()
-                .setE164(1234567890L)
-                .setAci(9876543210L)
-                .setPni(1122334455L)
-                .setUak(5544332211L)
-                .build();
-
-        // Act
-        populator.loadAccounts(entry);
-
-        // Assert
-        ArgumentCaptor<AccountDocument> documentCaptor = ArgumentCaptor.forClass(AccountDocument.class);
-        verify(container).upsertItem(documentCaptor.capture(), any(), any());
-
-        AccountDocument storedDocument = documentCaptor.getValue();
-        assertEquals("1234567890", storedDocument.getId());
-        assertEquals(1234567890L, storedDocument.getE164());
-        assertEquals(9876543210L, storedDocument.getAci());
-        assertEquals(1122334455L, storedDocument.getPni());
-        assertEquals(5544332211L, storedDocument.getUak());
-        assertNotNull(storedDocument.getLastUpdate());
-    }
+  @BeforeEach
+  void setUp() {
+    enclave = mock(Enclave.class);
+    when(enclave.loadData(any(), anyBoolean())).thenReturn(CompletableFuture.completedFuture(null));
 
-    @Test
-    void shouldHandlePartialAccountUpdate() {
-        // Arrange
-        DirectoryEntry entry = DirectoryEntry.newBuilder()
-                .setE164(1234567890L)
-                .setPni(1122334455L)  // Only E164 and PNI
-                .build();
-
-        // Act
-        populator.loadAccounts(entry);
-
-        // Assert
-        ArgumentCaptor<AccountDocument> documentCaptor = ArgumentCaptor.forClass(AccountDocument.class);
-        verify(container).upsertItem(documentCaptor.capture(), any(), any());
-
-        AccountDocument storedDocument = documentCaptor.getValue();
-        assertEquals("1234567890", storedDocument.getId());
-        assertEquals(1234567890L, storedDocument.getE164());
-        assertNull(storedDocument.getAci());  // Should be null since not in update
-        assertEquals(1122334455L, storedDocument.getPni());
-        assertNull(storedDocument.getUak());  // Should be null since not in update
-    }
+    initialLoader = mock(InitialDirectoryLoader.class);
+    when(initialLoader.load(any())).thenReturn(CompletableFuture.completedFuture(null));
+    when(initialLoader.finish()).thenReturn(CompletableFuture.completedFuture(null));
+    when(enclave.startInitialLoad()).thenReturn(initialLoader);
+
+    container = mock(CosmosAsyncContainer.class);
 
-    @Test
-    void shouldIncrementMetricsOnSuccess() {
-        // Arrange
-        DirectoryEntry entry = DirectoryEntry.newBuilder()
-                .setE164(1234567890L)
-                .setAci(9876543210L)
-                .build();
+    accountPopulator = new CosmosDbAccountPopulator(enclave,
+        container,
+        4,
+        new SimpleMeterRegistry(),
+        new StartupPhases(new SimpleMeterRegistry()));
+  }
 
-        // Act
-        populator.loadAccounts(entry);
+  @Test
+  @SuppressWarnings("unchecked")
+  void populateAccounts() {
+    final List<AccountDocument> accounts = new ArrayList<>();
 
-        // Assert
-        assertEquals(1, meterRegistry.counter("accounts.update.processed").count());
-        assertEquals(0, meterRegistry.counter("accounts.update.errors").count());
+    for (int i = 0; i < 100; i++) {
+      accounts.add(generateAccount(i % 3 != 0));
     }
 
-    @Test
-    void shouldHandleCosmosDbError() {
-        // Arrange
-        when(container.upsertItem(any(), any(), any()))
-                .thenReturn(Mono.error(new RuntimeException("Test error")));
+    final FeedResponse<JsonNode> firstPage = page(accounts.subList(0, 60), "first");
+    final FeedResponse<JsonNode> lastPage = page(accounts.subList(60, accounts.size()), "last");
 
-        DirectoryEntry entry = DirectoryEntry.newBuilder()
-                .setE164(1234567890L)
-                .build();
+    final CosmosPagedFlux<JsonNode> changeFeed =
+        UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(firstPage, lastPage));
 
-        // Act
-        populator.loadAccounts(entry);
+    // The end of the all-versions-and-deletes change feed is read before the container's documents
+    when(container.getFeedRanges()).thenReturn(Mono.just(List.of(FeedRange.forFullRange())));
+    when(container.queryChangeFeed(any(CosmosChangeFeedRequestOptions.class), eq(JsonNode.class)))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(page(List.of(), "now"))))
+        .thenReturn(changeFeed);
 
-        // Assert
-        assertEquals(0, meterRegistry.counter("accounts.update.processed").count());
-        assertEquals(1, meterRegistry.counter("accounts.update.errors").count());
-    }
+    accountPopulator.populateAccounts();
 
-    @Test
-    void shouldNotProcessUpdatesWhenStopped() {
-        // Arrange
-        DirectoryEntry entry = DirectoryEntry.newBuilder()
-                .setE164(1234567890L)
-                .build();
+    final ArgumentCaptor<List<DirectoryEntry>> entriesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(initialLoader).load(entriesCaptor.capture());
+    verify(initialLoader).finish();
 
-        // Act
-        populator.stop();
-        populator.loadAccounts(entry);
+    // Only discoverable accounts are loaded, and nothing is deleted from the initial population
+    final List<DirectoryEntry> expectedEntries = accounts.stream()
+        .filter(AccountDocument::canonicallyDiscoverable)
+        .map(CosmosDbAccountPopulatorTest::directoryEntry)
+        .toList();
 
-        // Assert
-        verify(container, never()).upsertItem(any(), any(), any());
-    }
+    assertEquals(expectedEntries, entriesCaptor.getValue());
+    assertEquals(expectedEntries.size(), accountPopulator.getTotalAccounts());
 
-    @Test
-    void shouldMaintainLastUpdateTimestamp() {
-        // Arrange
-        DirectoryEntry entry = DirectoryEntry.newBuilder()
-                .setE164(1234567890L)
-                .build();
+    // The populator hasn't caught up until it has read the change feed from the end of the initial population
+    assertFalse(accountPopulator.hasFinishedInitialAccountPopulation());
+    assertTrue(accountPopulator.isHealthy());
+    verify(enclave, never()).loadData(any(), anyBoolean());
+  }
 
-        // Act
-        populator.loadAccounts(entry);
+  @Test
+  void loadChangeFeed() {
+    final AccountDocument account = generateAccount(true);
 
-        // Assert
-        double lastUpdateAge = meterRegistry.gauge("accounts.last_update_age_seconds", populator);
-        assertNotNull(lastUpdateAge);
-        assertTrue(lastUpdateAge >= 0);
-    }
-}
\ No newline at end of file
+    when(container.getFeedRanges()).thenReturn(Mono.just(List.of(FeedRange.forFullRange())));
+    when(container.queryChangeFeed(any(CosmosChangeFeedRequestOptions.class), eq(JsonNode.class)))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(page(List.of(), "now"))))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(page(List.of(), "initial"))))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options ->
+            Flux.just(changePage(List.of(upsert(account)), "next"))));
+
+    // Nothing to read until the initial population has been loaded
+    accountPopulator.loadChangeFeed().join();
+    verify(container, never()).queryChangeFeed(any(CosmosChangeFeedRequestOptions.class), eq(JsonNode.class));
+
+    accountPopulator.populateAccounts();
+    assertFalse(accountPopulator.hasFinishedInitialAccountPopulation());
+
+    accountPopulator.loadChangeFeed().join();
+
+    assertTrue(accountPopulator.hasFinishedInitialAccountPopulation());
+    verify(enclave).loadData(List.of(directoryEntry(account)), false);
+  }
+
+  @Test
+  void loadChangeFeedDeletion() {
+    final AccountDocument account = generateAccount(true);
+
+    when(container.getFeedRanges()).thenReturn(Mono.just(List.of(FeedRange.forFullRange())));
+    when(container.queryChangeFeed(any(CosmosChangeFeedRequestOptions.class), eq(JsonNode.class)))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(page(List.of(), "now"))))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(page(List.of(account), "initial"))))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options ->
+            Flux.just(changePage(List.of(deletion(account)), "next"))));
+
+    accountPopulator.populateAccounts();
+    assertEquals(1, accountPopulator.getTotalAccounts());
+
+    accountPopulator.loadChangeFeed().join();
+
+    // The account's document was deleted outright, rather than made undiscoverable
+    verify(enclave).loadData(List.of(DirectoryEntry.deletionEntry(account.e164())), false);
+    assertEquals(0, accountPopulator.getTotalAccounts());
+  }
+
+  @Test
+  void replayAccounts() {
+    final AccountDocument account = generateAccount(true);
+    final AccountDocument concurrentlyAddedAccount = generateAccount(true);
+
+    when(container.getFeedRanges()).thenReturn(Mono.just(List.of(FeedRange.forFullRange())));
+    when(container.queryChangeFeed(any(CosmosChangeFeedRequestOptions.class), eq(JsonNode.class)))
+        .thenReturn(UtilBridgeInternal.createCosmosPagedFlux(options -> Flux.just(page(List.of(account), "replay"))));
+
+    // An account is added from the change feed while the container is being replayed
+    accountPopulator.replayAccounts(entries ->
+        accountPopulator.handleChanges(List.of(upsert(concurrentlyAddedAccount))).thenAccept(ignored -> {})).join();
+
+    assertEquals(2, accountPopulator.getTotalAccounts());
+  }
+
+  @Test
+  void populateAccountsFailure() {
+    when(container.getFeedRanges()).thenReturn(Mono.error(new RuntimeException("Unavailable")));
+
+    accountPopulator.populateAccounts();
+
+    assertFalse(accountPopulator.isHealthy());
+    assertFalse(accountPopulator.hasFinishedInitialAccountPopulation());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void handleChanges() {
+    final AccountDocument discoverableAccount = generateAccount(true);
+    final AccountDocument undiscoverableAccount = generateAccount(false);
+
+    final List<JsonNode> changes = List.of(
+        upsert(discoverableAccount),
+        OBJECT_MAPPER.createObjectNode().set("current", OBJECT_MAPPER.createObjectNode().put("id", "malformed")),
+        upsert(undiscoverableAccount));
+
+    assertEquals(2, accountPopulator.handleChanges(changes).join());
+
+    final ArgumentCaptor<List<DirectoryEntry>> entriesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(enclave).loadData(entriesCaptor.capture(), eq(false));
+
+    assertEquals(List.of(directoryEntry(discoverableAccount),
+            DirectoryEntry.deletionEntry(undiscoverableAccount.e164())),
+        entriesCaptor.getValue());
+
+    // One insertion and one deletion
+    assertEquals(0, accountPopulator.getTotalAccounts());
+
+    assertEquals(1, accountPopulator.handleChanges(List.of(upsert(generateAccount(true)))).join());
+    assertEquals(1, accountPopulator.getTotalAccounts());
+  }
+
+  @Test
+  void directoryEntryFromChange() {
+    final AccountDocument discoverableAccount = generateAccount(true);
+    final AccountDocument undiscoverableAccount = generateAccount(false);
+
+    assertEquals(directoryEntry(discoverableAccount),
+        CosmosDbAccountPopulator.directoryEntryFromChange(upsert(discoverableAccount)));
+
+    assertEquals(DirectoryEntry.deletionEntry(undiscoverableAccount.e164()),
+        CosmosDbAccountPopulator.directoryEntryFromChange(upsert(undiscoverableAccount)));
+
+    assertEquals(DirectoryEntry.deletionEntry(discoverableAccount.e164()),
+        CosmosDbAccountPopulator.directoryEntryFromChange(deletion(discoverableAccount)));
+
+    // An undiscoverable account isn't in the enclave, and so there's nothing to delete
+    assertNull(CosmosDbAccountPopulator.directoryEntryFromChange(deletion(undiscoverableAccount)));
+
+    // Deletions without a previous version can't be mapped to an entry
+    final ObjectNode deletionWithoutPrevious = deletion(discoverableAccount);
+    deletionWithoutPrevious.remove("previous");
+
+    assertNull(CosmosDbAccountPopulator.directoryEntryFromChange(deletionWithoutPrevious));
+
+    final ObjectNode changeWithoutCurrent = upsert(discoverableAccount);
+    changeWithoutCurrent.remove("current");
+
+    assertNull(CosmosDbAccountPopulator.directoryEntryFromChange(changeWithoutCurrent));
+  }
+
+  @Test
+  void handleChangesEmpty() {
+    assertEquals(0, accountPopulator.handleChanges(List.of()).join());
+    verify(enclave, never()).loadData(any(), anyBoolean());
+  }
+
+  @Test
+  void directoryEntryFromDocument() {
+    final AccountDocument discoverableAccount = generateAccount(true);
+    final AccountDocument undiscoverableAccount = generateAccount(false);
+
+    assertEquals(directoryEntry(discoverableAccount),
+        CosmosDbAccountPopulator.directoryEntryFromDocument(OBJECT_MAPPER.valueToTree(discoverableAccount), false));
+
+    assertNull(
+        CosmosDbAccountPopulator.directoryEntryFromDocument(OBJECT_MAPPER.valueToTree(undiscoverableAccount), false));
+
+    assertEquals(DirectoryEntry.deletionEntry(undiscoverableAccount.e164()),
+        CosmosDbAccountPopulator.directoryEntryFromDocument(OBJECT_MAPPER.valueToTree(undiscoverableAccount), true));
+
+    // Unknown properties, like those Cosmos DB adds to every document, are ignored
+    final ObjectNode documentWithSystemProperties = OBJECT_MAPPER.valueToTree(discoverableAccount);
+    documentWithSystemProperties.put("_ts", 1700000000);
+    documentWithSystemProperties.put("_etag", "\"etag\"");
+
+    assertEquals(directoryEntry(discoverableAccount),
+        CosmosDbAccountPopulator.directoryEntryFromDocument(documentWithSystemProperties, true));
+
+    // Discoverable accounts must have a PNI
+    final ObjectNode documentWithoutPni = OBJECT_MAPPER.valueToTree(discoverableAccount);
+    documentWithoutPni.remove("pni");
+
+    assertNull(CosmosDbAccountPopulator.directoryEntryFromDocument(documentWithoutPni, true));
+
+    final ObjectNode documentWithInvalidPni = OBJECT_MAPPER.valueToTree(discoverableAccount);
+    documentWithInvalidPni.put("pni", "not-a-uuid");
+
+    assertNull(CosmosDbAccountPopulator.directoryEntryFromDocument(documentWithInvalidPni, true));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static FeedResponse<JsonNode> page(final List<AccountDocument> accounts, final String continuationToken) {
+    final FeedResponse<JsonNode> page = mock(FeedResponse.class);
+    when(page.getResults()).thenReturn(accounts.stream()
+        .map(account -> (JsonNode) OBJECT_MAPPER.valueToTree(account))
+        .toList());
+    when(page.getContinuationToken()).thenReturn(continuationToken);
+
+    return page;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static FeedResponse<JsonNode> changePage(final List<? extends JsonNode> changes,
+      final String continuationToken) {
+
+    final FeedResponse<JsonNode> page = mock(FeedResponse.class);
+    when(page.getResults()).thenReturn(List.copyOf(changes));
+    when(page.getContinuationToken()).thenReturn(continuationToken);
+
+    return page;
+  }
+
+  /**
+   * Returns a change, as read from the all-versions-and-deletes change feed, that replaces an account's document.
+   */
+  private static ObjectNode upsert(final AccountDocument account) {
+    final ObjectNode change = OBJECT_MAPPER.createObjectNode();
+    change.set("current", OBJECT_MAPPER.valueToTree(account));
+    change.putObject("metadata").put("operationType", "replace");
+
+    return change;
+  }
+
+  /**
+   * Returns a change, as read from the all-versions-and-deletes change feed, that deletes an account's document.
+   */
+  private static ObjectNode deletion(final AccountDocument account) {
+    final ObjectNode change = OBJECT_MAPPER.createObjectNode();
+    change.putObject("current");
+    change.set("previous", OBJECT_MAPPER.valueToTree(account));
+    change.putObject("metadata").put("operationType", "delete");
+
+    return change;
+  }
+
+  private AccountDocument generateAccount(final boolean canonicallyDiscoverable) {
+    final byte[] uak = new byte[16];
+    random.nextBytes(uak);
+
+    return new AccountDocument(UUID.randomUUID(), nextE164++, UUID.randomUUID(), uak, canonicallyDiscoverable);
+  }
+
+  private static DirectoryEntry directoryEntry(final AccountDocument account) {
+    return new DirectoryEntry(account.e164(),
+        UUIDUtil.toByteArray(account.id()),
+        UUIDUtil.toByteArray(account.pni()),
+        account.uak());
+  }
+}
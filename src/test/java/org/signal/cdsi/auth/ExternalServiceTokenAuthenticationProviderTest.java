@@ -14,7 +14,10 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.signal.cdsi.metrics.MetricsUtil.name;
 
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.micronaut.security.authentication.AuthenticationException;
@@ -44,6 +47,7 @@ import org.junit.jupiter.params.provider.ValueSource;
 import org.signal.cdsi.auth.ExternalServiceTokenAuthenticationProvider.TimestampAndSignature;
 import org.signal.cdsi.limits.LeakyBucketRateLimiter;
 import org.signal.cdsi.limits.RateLimitExceededException;
+import org.signal.cdsi.limits.RateLimitedKeyCache;
 import reactor.core.publisher.Flux;
 
 public class ExternalServiceTokenAuthenticationProviderTest {
@@ -69,7 +73,8 @@ public class ExternalServiceTokenAuthenticationProviderTest {
     rateLimiter = mock(LeakyBucketRateLimiter.class);
     when(rateLimiter.validate(any(), anyInt())).thenReturn(CompletableFuture.completedFuture(null));
 
-    authenticationProvider = new ExternalServiceTokenAuthenticationProvider(configuration, new SimpleMeterRegistry(), rateLimiter, clock);
+    authenticationProvider = new ExternalServiceTokenAuthenticationProvider(configuration, new SimpleMeterRegistry(), rateLimiter,
+        new RateLimitedKeyCache(clock, new SimpleMeterRegistry(), 1000, Duration.ofHours(1)), clock);
   }
 
   @ParameterizedTest
@@ -151,6 +156,36 @@ public class ExternalServiceTokenAuthenticationProviderTest {
     assertEquals(Duration.ofSeconds(29), exception.getRetryDuration());
   }
 
+  @Test
+  void testAuthenticateKnownRateLimited() {
+    when(rateLimiter.validate(any(), anyInt()))
+        .thenReturn(CompletableFuture.failedFuture(new RateLimitExceededException(Duration.ofSeconds(29))));
+
+    final byte[] signature = getSignature(SHARED_SECRET, USERNAME, clock.instant());
+    final String secret = clock.instant().getEpochSecond() + ":" + Hex.encodeHexString(signature);
+
+    @SuppressWarnings("unchecked") final AuthenticationRequest<String, String> authenticationRequest = mock(
+        AuthenticationRequest.class);
+    when(authenticationRequest.getIdentity()).thenReturn(USERNAME);
+    when(authenticationRequest.getSecret()).thenReturn(secret);
+
+    assertThrows(Exception.class,
+        () -> Flux.from(authenticationProvider.authenticate(null, authenticationRequest)).blockLast());
+
+    // The second attempt should be rejected from the local cache without consulting the rate limiter
+    final RateLimitExceededException exception = assertThrows(RateLimitExceededException.class,
+        () -> {
+          try {
+            Flux.from(authenticationProvider.authenticate(null, authenticationRequest)).blockLast();
+          } catch (Exception e) {
+            throw e.getCause();
+          }
+        });
+
+    assertEquals(Duration.ofSeconds(29), exception.getRetryDuration());
+    verify(rateLimiter, times(1)).validate(any(), anyInt());
+  }
+
   @Test
   void testParseToken() throws DecoderException {
     final Instant timestamp = clock.instant().with(ChronoField.MILLI_OF_SECOND, 0);
@@ -182,6 +217,60 @@ public class ExternalServiceTokenAuthenticationProviderTest {
     assertFalse(authenticationProvider.isValidSignature(USERNAME + "nope", timestamp, signature));
     assertFalse(authenticationProvider.isValidSignature(USERNAME, timestamp.plusSeconds(1), signature));
     assertFalse(authenticationProvider.isValidSignature(USERNAME, timestamp, bogusSignature));
+    assertFalse(authenticationProvider.isValidSignature(USERNAME, timestamp, Arrays.copyOf(signature, 9)));
+
+    // HMAC instances are reused between calls, and should not carry any state from failed attempts
+    assertTrue(authenticationProvider.isValidSignature(USERNAME, timestamp, signature));
+
+    final Instant negativeTimestamp = Instant.ofEpochSecond(-1234567890);
+    assertTrue(authenticationProvider.isValidSignature(USERNAME, negativeTimestamp,
+        getSignature(SHARED_SECRET, USERNAME, negativeTimestamp)));
+  }
+
+  @Test
+  void testVerifiedCredentialCache() throws InvalidKeyException {
+    final AuthenticationConfiguration configuration = mock(AuthenticationConfiguration.class);
+    when(configuration.getSharedSecret()).thenReturn(SHARED_SECRET.getEncoded());
+    when(configuration.getTokenExpiration()).thenReturn(TOKEN_EXPIRATION);
+    when(configuration.getVerifiedCredentialCacheSize()).thenReturn(16L);
+
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final ExternalServiceTokenAuthenticationProvider cachingAuthenticationProvider =
+        new ExternalServiceTokenAuthenticationProvider(configuration, meterRegistry, rateLimiter,
+            new RateLimitedKeyCache(clock, new SimpleMeterRegistry(), 1000, Duration.ofHours(1)), clock);
+
+    final Instant timestamp = clock.instant();
+    final String secret =
+        timestamp.getEpochSecond() + ":" + Hex.encodeHexString(getSignature(SHARED_SECRET, USERNAME, timestamp));
+
+    @SuppressWarnings("unchecked") final AuthenticationRequest<String, String> authenticationRequest = mock(
+        AuthenticationRequest.class);
+    when(authenticationRequest.getIdentity()).thenReturn(USERNAME);
+    when(authenticationRequest.getSecret()).thenReturn(secret);
+
+    for (int i = 0; i < 3; i++) {
+      final AuthenticationResponse response =
+          Flux.from(cachingAuthenticationProvider.authenticate(null, authenticationRequest)).blockLast();
+
+      assertNotNull(response);
+      assertTrue(response.isAuthenticated());
+    }
+
+    assertEquals(2, meterRegistry.counter(
+        name(ExternalServiceTokenAuthenticationProvider.class, "verifiedCredentialCacheHit")).count());
+
+    // A cached credential must still be rejected once it has expired
+    when(clock.instant()).thenReturn(timestamp.plus(TOKEN_EXPIRATION).plusSeconds(1));
+
+    assertThrows(AuthenticationException.class,
+        () -> Flux.from(cachingAuthenticationProvider.authenticate(null, authenticationRequest)).blockLast());
+
+    // ...and a credential for another user must not be accepted on the strength of a cached one
+    when(clock.instant()).thenReturn(timestamp);
+    when(authenticationRequest.getIdentity()).thenReturn(USERNAME + "nope");
+
+    assertThrows(AuthenticationException.class,
+        () -> Flux.from(cachingAuthenticationProvider.authenticate(null, authenticationRequest)).blockLast());
   }
 
   @ParameterizedTest
@@ -86,6 +86,23 @@ public abstract class CdsiWebsocket implements AutoCloseable {
 
   public static final int KEY_SIZE = 32;
 
+  /**
+   * Points in a discovery exchange reported to a {@link StageListener} as they complete.
+   */
+  public enum Stage {
+    /** The Noise handshake with the enclave has finished */
+    HANDSHAKE,
+    /** The server has returned a token for the request */
+    TOKEN,
+    /** The server has returned the final response */
+    RESULT
+  }
+
+  @FunctionalInterface
+  public interface StageListener {
+    void stageCompleted(Stage stage);
+  }
+
   byte[] publicKeyFromHandshakeStart(byte[] clientHandshakeStart) throws Exception {
     ClientHandshakeStart start = ClientHandshakeStart.parseFrom(clientHandshakeStart);
     if (start.getTestOnlyPubkey().size() != KEY_SIZE) {
@@ -96,6 +113,10 @@ public abstract class CdsiWebsocket implements AutoCloseable {
   }
 
   public ClientResponse run(ClientRequest request) throws Exception {
+    return run(request, stage -> {});
+  }
+
+  public ClientResponse run(ClientRequest request, StageListener stageListener) throws Exception {
     if (handshakeState != null)
       throw new AssertionError("run called twice");
     if (STREAM_OPENED != incomingMessages.take())
@@ -119,14 +140,17 @@ public abstract class CdsiWebsocket implements AutoCloseable {
     handshakeState.readMessage(handshake, 0, handshake.length, new byte[0], 0);
 
     cipherStatePair = handshakeState.split();
+    stageListener.stageCompleted(Stage.HANDSHAKE);
 
     sendClientRequest(request);
     ClientResponse tokenResponse = getClientResponse();
     if (tokenResponse.getToken().isEmpty())
       throw new AssertionError("no token");
+    stageListener.stageCompleted(Stage.TOKEN);
 
     sendClientRequest(ClientRequest.newBuilder().setTokenAck(true).build());
     ClientResponse finalResponse = getClientResponse();
+    stageListener.stageCompleted(Stage.RESULT);
     try {
       getNext();
       throw new AssertionError("received message after final response");
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EnclaveArtifactExtractorTest {
+
+  private static final String RESOURCE = "artifact-test.bin";
+
+  private byte[] resourceContents;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    try (final InputStream in = getClass().getResourceAsStream(RESOURCE)) {
+      assert in != null;
+      resourceContents = in.readAllBytes();
+    }
+  }
+
+  @Test
+  void extract() throws IOException {
+    try (final EnclaveArtifactExtractor.Artifact artifact = EnclaveArtifactExtractor.extract(RESOURCE)) {
+      assertArrayEquals(resourceContents, Files.readAllBytes(artifact.path()));
+    }
+  }
+
+  @Test
+  void extractPrivate() throws IOException {
+    try (final EnclaveArtifactExtractor.Artifact artifact = EnclaveArtifactExtractor.extract(RESOURCE)) {
+      assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(artifact.path())));
+    }
+  }
+
+  @Test
+  void extractCreatesNewFile() throws IOException {
+    try (final EnclaveArtifactExtractor.Artifact artifact = EnclaveArtifactExtractor.extract(RESOURCE);
+        final EnclaveArtifactExtractor.Artifact otherArtifact = EnclaveArtifactExtractor.extract(RESOURCE)) {
+
+      assertNotEquals(artifact.path(), otherArtifact.path());
+    }
+  }
+
+  @Test
+  void close() throws IOException {
+    final EnclaveArtifactExtractor.Artifact artifact = EnclaveArtifactExtractor.extract(RESOURCE);
+    artifact.close();
+
+    assertFalse(Files.exists(artifact.path()));
+
+    // Closing an artifact more than once is harmless
+    artifact.close();
+  }
+
+  @Test
+  void extractMissingResource() {
+    assertThrows(IOException.class, () -> EnclaveArtifactExtractor.extract("no-such-resource.bin"));
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class EnclaveAutoTunerTest {
+
+  private EnclaveConfiguration enclaveConfiguration;
+  private List<CalibrationRun> calibrationRuns;
+  private double stashOverflowEma;
+
+  private static final int JNI_THREADS = 2;
+  private static final long ENTRIES_PER_BUCKET = 10;
+
+  // 12 buckets' worth of memory; four shards of three buckets each use all of it
+  private static final long AVAILABLE_EPC_MEMORY = 12 * EnclaveAutoTuner.BUCKET_SIZE;
+
+  private record CalibrationRun(long availableMemory, double loadFactor, long entries) {
+  }
+
+  @BeforeEach
+  void setUp() {
+    enclaveConfiguration = new EnclaveConfiguration();
+    enclaveConfiguration.setAvailableEpcMemory(AVAILABLE_EPC_MEMORY);
+    enclaveConfiguration.setNumTcs(4 + JNI_THREADS);
+    enclaveConfiguration.setAutoTuneHeadroom(0.25);
+    enclaveConfiguration.setMaxLoadFactor(2.0);
+
+    calibrationRuns = new ArrayList<>();
+    stashOverflowEma = 0;
+  }
+
+  @Test
+  void tune() throws EnclaveException {
+    enclaveConfiguration.setExpectedDirectorySize(120);
+
+    final EnclaveAutoTuner.Tuning tuning = buildTuner().tune();
+
+    // Four shards hold 120 entries at load factor 1.0; 150 are needed to leave 25% headroom
+    assertEquals(4, tuning.shards());
+    assertEquals(1.25, tuning.loadFactor(), 1e-9);
+    assertEquals(150, tuning.expectedCapacity());
+
+    final CalibrationRun validationRun = calibrationRuns.get(calibrationRuns.size() - 1);
+    assertEquals(new CalibrationRun(AVAILABLE_EPC_MEMORY / 4, 1.25, 30), validationRun);
+  }
+
+  @Test
+  void tuneSmallDirectory() throws EnclaveException {
+    enclaveConfiguration.setExpectedDirectorySize(10);
+
+    assertEquals(1.0, buildTuner().tune().loadFactor());
+  }
+
+  @Test
+  void tuneDirectoryTooLarge() {
+    enclaveConfiguration.setExpectedDirectorySize(1000);
+
+    assertThrows(IllegalStateException.class, () -> buildTuner().tune());
+  }
+
+  @Test
+  void tuneStashOverflow() {
+    enclaveConfiguration.setExpectedDirectorySize(120);
+    enclaveConfiguration.setMaxStashOverflowEma(1.0);
+    stashOverflowEma = 2.0;
+
+    assertThrows(IllegalStateException.class, () -> buildTuner().tune());
+  }
+
+  @Test
+  void tuneNoTcsForShards() {
+    enclaveConfiguration.setExpectedDirectorySize(120);
+    enclaveConfiguration.setNumTcs(JNI_THREADS);
+
+    assertThrows(IllegalStateException.class, () -> buildTuner().tune());
+  }
+
+  @Test
+  void tuneScaledCalibration() throws EnclaveException {
+    // Each of four shards gets a full tree of 1023 buckets, which is calibrated at half scale
+    final long shardMemory = 1023 * EnclaveAutoTuner.BUCKET_SIZE;
+
+    enclaveConfiguration.setAvailableEpcMemory(4 * shardMemory);
+    enclaveConfiguration.setCalibrationMemory(shardMemory / 2);
+    enclaveConfiguration.setExpectedDirectorySize(32000);
+
+    final EnclaveAutoTuner.Tuning tuning = buildTuner().tune();
+
+    assertEquals(4, tuning.shards());
+    assertEquals(1.0, tuning.loadFactor());
+    assertEquals(4 * 1022 * ENTRIES_PER_BUCKET, tuning.expectedCapacity());
+
+    final CalibrationRun validationRun = calibrationRuns.get(calibrationRuns.size() - 1);
+    assertEquals(new CalibrationRun(shardMemory / 2, 1.0, 4000), validationRun);
+  }
+
+  @Test
+  void getCandidateShardCounts() {
+    // One shard uses 7 of 12 buckets, two shards use 6, three use 9 and four use all 12
+    assertArrayEquals(new int[]{4, 3, 1}, EnclaveAutoTuner.getCandidateShardCounts(AVAILABLE_EPC_MEMORY, 4, 3));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "0, 0",
+      "4095, 0",
+      "4096, 4096",
+      "8192, 4096",
+      "12288, 12288",
+      "49152, 28672"
+  })
+  void getTreeBytes(final long availableMemory, final long expectedTreeBytes) {
+    assertEquals(expectedTreeBytes, EnclaveAutoTuner.getTreeBytes(availableMemory));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "64, 64, 1",
+      "65, 64, 2",
+      "1000, 64, 16"
+  })
+  void getCalibrationScale(final long shardMemory, final long calibrationMemory, final long expectedScale) {
+    assertEquals(expectedScale, EnclaveAutoTuner.getCalibrationScale(shardMemory, calibrationMemory));
+  }
+
+  private EnclaveAutoTuner buildTuner() {
+    return new EnclaveAutoTuner(enclaveConfiguration, JNI_THREADS, (availableMemory, loadFactor, entries) -> {
+      calibrationRuns.add(new CalibrationRun(availableMemory, loadFactor, entries));
+
+      final long buckets = EnclaveAutoTuner.getTreeBytes(availableMemory) / EnclaveAutoTuner.BUCKET_SIZE;
+      return new EnclaveAutoTuner.Calibration((long) (buckets * ENTRIES_PER_BUCKET * loadFactor), 1, stashOverflowEma);
+    });
+  }
+}
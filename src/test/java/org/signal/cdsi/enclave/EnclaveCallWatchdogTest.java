@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.signal.cdsi.enclave.EnclaveCallWatchdog.StalledCall;
+
+class EnclaveCallWatchdogTest {
+
+  private static final long START_MILLIS = 1_000_000;
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  private Clock clock;
+  private MeterRegistry meterRegistry;
+  private EnclaveCallWatchdog callWatchdog;
+
+  @BeforeEach
+  void setUp() {
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(START_MILLIS);
+
+    meterRegistry = new SimpleMeterRegistry();
+    callWatchdog = new EnclaveCallWatchdog(clock, TIMEOUT, meterRegistry);
+  }
+
+  @Test
+  void lastSuccessfulCall() {
+    assertEquals(Optional.empty(), callWatchdog.getLastSuccessfulCall());
+
+    final long callId = callWatchdog.callStarted("RUN");
+    assertTrue(callWatchdog.hasRunningCalls());
+
+    when(clock.millis()).thenReturn(START_MILLIS + 10);
+    callWatchdog.callFinished(callId, true);
+
+    assertFalse(callWatchdog.hasRunningCalls());
+    assertEquals(Optional.of(Instant.ofEpochMilli(START_MILLIS + 10)), callWatchdog.getLastSuccessfulCall());
+
+    // failed calls don't count as evidence that the enclave is working
+    when(clock.millis()).thenReturn(START_MILLIS + 20);
+    callWatchdog.callFinished(callWatchdog.callStarted("RUN"), false);
+
+    assertEquals(Optional.of(Instant.ofEpochMilli(START_MILLIS + 10)), callWatchdog.getLastSuccessfulCall());
+  }
+
+  @Test
+  void stalledCalls() {
+    final long stalledCallId = callWatchdog.callStarted("LOAD_DATA");
+
+    when(clock.millis()).thenReturn(START_MILLIS + TIMEOUT.toMillis());
+    callWatchdog.callStarted("RUN");
+
+    assertEquals(List.of(), callWatchdog.getStalledCalls());
+
+    when(clock.millis()).thenReturn(START_MILLIS + TIMEOUT.toMillis() + 1);
+
+    assertEquals(List.of(new StalledCall("LOAD_DATA", TIMEOUT.plusMillis(1))), callWatchdog.getStalledCalls());
+
+    // stalled calls are only counted once, no matter how many times we check
+    callWatchdog.checkForStalledCalls();
+    callWatchdog.checkForStalledCalls();
+
+    assertEquals(1, meterRegistry.get("org.signal.cdsi.enclave.EnclaveCallWatchdog.stalledCalls")
+        .tag("operation", "LOAD_DATA")
+        .counter()
+        .count());
+
+    callWatchdog.callFinished(stalledCallId, true);
+    assertEquals(List.of(), callWatchdog.getStalledCalls());
+  }
+
+  @Test
+  void stalledCallsWithTimeout() {
+    final Duration longTimeout = TIMEOUT.multipliedBy(10);
+    callWatchdog.callStarted("LOAD_DATA", longTimeout);
+
+    when(clock.millis()).thenReturn(START_MILLIS + TIMEOUT.toMillis() + 1);
+    assertEquals(List.of(), callWatchdog.getStalledCalls());
+
+    when(clock.millis()).thenReturn(START_MILLIS + longTimeout.toMillis() + 1);
+    assertEquals(List.of(new StalledCall("LOAD_DATA", longTimeout.plusMillis(1))), callWatchdog.getStalledCalls());
+  }
+}
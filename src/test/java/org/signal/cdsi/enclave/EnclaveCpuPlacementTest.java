@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class EnclaveCpuPlacementTest {
+
+  private RecordingThreadAffinity threadAffinity;
+
+  private static final SortedSet<Integer> AVAILABLE_CPUS = EnclaveCpuPlacement.parseCpuList("0-7");
+
+  private record AffinityCall(long target, int[] cpus) {
+  }
+
+  private static class RecordingThreadAffinity implements EnclaveCpuPlacement.ThreadAffinity {
+
+    private final List<AffinityCall> shardCalls = new ArrayList<>();
+    private final List<AffinityCall> threadCalls = new ArrayList<>();
+
+    @Override
+    public boolean pinShardThreads(final long enclaveHandle, final int[] cpus) {
+      shardCalls.add(new AffinityCall(enclaveHandle, cpus));
+      return true;
+    }
+
+    @Override
+    public synchronized boolean setThreadAffinity(final int threadId, final int[] cpus) {
+      threadCalls.add(new AffinityCall(threadId, cpus));
+      return true;
+    }
+  }
+
+  @BeforeEach
+  void setUp() {
+    threadAffinity = new RecordingThreadAffinity();
+  }
+
+  @Test
+  void parseCpuList() {
+    assertEquals(Set.of(), EnclaveCpuPlacement.parseCpuList(null));
+    assertEquals(Set.of(), EnclaveCpuPlacement.parseCpuList(" "));
+    assertEquals(Set.of(3), EnclaveCpuPlacement.parseCpuList("3"));
+    assertEquals(Set.of(0, 1, 2, 3, 8, 10, 11), EnclaveCpuPlacement.parseCpuList("0-3, 8,10-11"));
+    assertEquals(Set.of(1, 2), EnclaveCpuPlacement.parseCpuList("1-2,2"));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"a", "1-", "-1", "3-1", "1-2-3", "1,,2"})
+  void parseCpuListInvalid(final String cpuList) {
+    assertThrows(IllegalArgumentException.class, () -> EnclaveCpuPlacement.parseCpuList(cpuList));
+  }
+
+  @Test
+  void invalidPlacement() {
+    // Shard CPUs are required
+    assertThrows(IllegalArgumentException.class, () -> buildPlacement("", "4-5"));
+
+    // CPUs must be available
+    assertThrows(IllegalArgumentException.class, () -> buildPlacement("6-9", ""));
+
+    // Shard and JNI CPUs must not overlap
+    assertThrows(IllegalArgumentException.class, () -> buildPlacement("0-3", "3-5"));
+
+    // Some CPU must be left for everything else
+    assertThrows(IllegalArgumentException.class, () -> buildPlacement("0-3", "4-7"));
+  }
+
+  @Test
+  void pinShardThreads() {
+    buildPlacement("2-5", "").pinShardThreads(17);
+
+    assertEquals(1, threadAffinity.shardCalls.size());
+    assertEquals(17, threadAffinity.shardCalls.get(0).target());
+    assertArrayEquals(new int[]{2, 3, 4, 5}, threadAffinity.shardCalls.get(0).cpus());
+  }
+
+  @Test
+  void restrictProcessThreads() {
+    buildPlacement("2-5", "6").restrictProcessThreads();
+
+    // Includes at least the calling thread
+    assertTrue(threadAffinity.threadCalls.size() > 0);
+
+    for (final AffinityCall call : threadAffinity.threadCalls) {
+      assertTrue(call.target() > 0);
+      assertArrayEquals(new int[]{0, 1, 7}, call.cpus());
+    }
+  }
+
+  @Test
+  void pinJniThread() throws InterruptedException {
+    final EnclaveCpuPlacement placement = buildPlacement("0-3", "4-5");
+
+    // Each thread is pinned once, however many native calls it makes
+    placement.pinJniThread();
+    placement.pinJniThread();
+    assertEquals(1, threadAffinity.threadCalls.size());
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.submit(placement::pinJniThread);
+    executor.submit(placement::pinJniThread);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+    assertEquals(2, threadAffinity.threadCalls.size());
+
+    for (final AffinityCall call : threadAffinity.threadCalls) {
+      assertEquals(0, call.target());
+      assertArrayEquals(new int[]{4, 5}, call.cpus());
+    }
+  }
+
+  @Test
+  void pinJniThreadUnconfigured() {
+    final EnclaveCpuPlacement placement = buildPlacement("0-3", "");
+
+    placement.pinJniThread();
+    assertEquals(0, placement.getJniCpuCount());
+    assertEquals(List.of(), threadAffinity.threadCalls);
+  }
+
+  private EnclaveCpuPlacement buildPlacement(final String shardCpus, final String jniCpus) {
+    return new EnclaveCpuPlacement(AVAILABLE_CPUS, EnclaveCpuPlacement.parseCpuList(shardCpus),
+        EnclaveCpuPlacement.parseCpuList(jniCpus), threadAffinity);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.signal.cdsi.account.AccountPopulator;
+import org.signal.cdsi.proto.ShardStatistics;
+import org.signal.cdsi.proto.TableStatistics;
+import org.signal.cdsi.proto.Value;
+
+class EnclaveTableResizerTest {
+
+  private Enclave enclave;
+  private AccountPopulator accountPopulator;
+  private EnclaveConfiguration enclaveConfiguration;
+  private EnclaveTableResizer tableResizer;
+
+  private static final long AVAILABLE_EPC_MEMORY = 1_000_000;
+  private static final long CAPACITY = 1_000;
+
+  @BeforeEach
+  void setUp() {
+    enclave = mock(Enclave.class);
+    accountPopulator = mock(AccountPopulator.class);
+
+    when(enclave.getAvailableEpcMemory()).thenReturn(AVAILABLE_EPC_MEMORY);
+    when(enclave.resize(anyLong(), any(), any())).thenReturn(new CompletableFuture<>());
+    when(accountPopulator.hasFinishedInitialAccountPopulation()).thenReturn(true);
+
+    enclaveConfiguration = new EnclaveConfiguration();
+    enclaveConfiguration.setTableResizeEnabled(true);
+    enclaveConfiguration.setTableResizeThreshold(0.8);
+    enclaveConfiguration.setTableGrowthFactor(2.0);
+
+    tableResizer = new EnclaveTableResizer(enclave, accountPopulator, enclaveConfiguration, mock(ExecutorService.class),
+        new SimpleMeterRegistry());
+  }
+
+  @Test
+  void checkCapacityBelowThreshold() {
+    setEntries(500);
+
+    tableResizer.checkCapacity();
+
+    final EnclaveTableResizer.CapacitySample sample = tableResizer.getLastSample().orElseThrow();
+    assertEquals(0.5, sample.utilization());
+    assertEquals(500, sample.headroomEntries());
+    assertEquals(AVAILABLE_EPC_MEMORY / 2, sample.memoryHeadroom());
+
+    verify(enclave, never()).resize(anyLong(), any(), any());
+  }
+
+  @Test
+  void checkCapacityAboveThreshold() {
+    setEntries(900);
+
+    tableResizer.checkCapacity();
+    verify(enclave).resize(eq(AVAILABLE_EPC_MEMORY * 2), any(), any());
+
+    // Only one resize may run at a time
+    tableResizer.checkCapacity();
+    verify(enclave).resize(anyLong(), any(), any());
+  }
+
+  @Test
+  void checkCapacityResizeDisabled() {
+    enclaveConfiguration.setTableResizeEnabled(false);
+    setEntries(900);
+
+    tableResizer.checkCapacity();
+
+    assertEquals(0.9, tableResizer.getLastSample().orElseThrow().utilization());
+    verify(enclave, never()).resize(anyLong(), any(), any());
+  }
+
+  @Test
+  void checkCapacityInitialPopulationRunning() {
+    when(accountPopulator.hasFinishedInitialAccountPopulation()).thenReturn(false);
+    setEntries(900);
+
+    tableResizer.checkCapacity();
+
+    verify(enclave, never()).resize(anyLong(), any(), any());
+  }
+
+  @Test
+  void checkCapacityAtMaximumMemory() {
+    enclaveConfiguration.setMaxAvailableEpcMemory(AVAILABLE_EPC_MEMORY);
+    setEntries(900);
+
+    tableResizer.checkCapacity();
+
+    verify(enclave, never()).resize(anyLong(), any(), any());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "1000, 2.0, 0, 2000",
+      "1000, 1.5, 0, 1500",
+      "1000, 2.0, 1500, 1500",
+      "1000, 2.0, 1000, 1000",
+      "1000, 2.0, 4000, 2000"
+  })
+  void getResizedAvailableEpcMemory(final long availableEpcMemory, final double growthFactor,
+      final long maxAvailableEpcMemory, final long expectedAvailableEpcMemory) {
+
+    assertEquals(expectedAvailableEpcMemory,
+        EnclaveTableResizer.getResizedAvailableEpcMemory(availableEpcMemory, growthFactor, maxAvailableEpcMemory));
+  }
+
+  private void setEntries(final long entries) {
+    final TableStatistics tableStatistics = TableStatistics.newBuilder()
+        .addShardStatistics(ShardStatistics.newBuilder()
+            .addValues(Value.newBuilder().setName("num_items").setValue(entries))
+            .addValues(Value.newBuilder().setName("capacity").setValue(CAPACITY)))
+        .build();
+
+    when(enclave.getTableStatistics()).thenReturn(CompletableFuture.completedFuture(tableStatistics));
+  }
+}
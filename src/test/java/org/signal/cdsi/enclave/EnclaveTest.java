@@ -8,10 +8,12 @@ package org.signal.cdsi.enclave;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.signal.cdsi.metrics.MetricsUtil.name;
 
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
@@ -21,42 +23,66 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.proto.TableStatistics;
+import org.signal.cdsi.startup.StartupPhases;
 import org.signal.cdsi.util.UUIDUtil;
 
 class EnclaveTest {
 
   private ExecutorService enclaveExecutor;
   private Clock clock;
+  private SimpleMeterRegistry meterRegistry;
 
   private Enclave enclave;
 
   private static final int SHARD_COUNT = 8;
+  private static final long AVAILABLE_EPC_MEMORY = 3200000;
 
   @BeforeEach
   void setUp() throws EnclaveException, IOException {
+    enclaveExecutor = Executors.newSingleThreadExecutor();
+    clock = mock(Clock.class);
+    meterRegistry = new SimpleMeterRegistry();
+
+    enclave = buildEnclave(buildConfiguration(), enclaveExecutor, meterRegistry);
+  }
+
+  private static EnclaveConfiguration buildConfiguration() {
     final EnclaveConfiguration configuration = new EnclaveConfiguration();
     configuration.setEnclaveId("test");
     configuration.setTokenSecret("test");
     configuration.setSimulated(true);
     configuration.setShards(SHARD_COUNT);
-    configuration.setAvailableEpcMemory(3200000);
+    configuration.setAvailableEpcMemory(AVAILABLE_EPC_MEMORY);
     configuration.setLoadFactor(1.6);
 
-    final TokenRateLimiter tokenRateLimiter = mock(TokenRateLimiter.class);
+    return configuration;
+  }
 
-    enclaveExecutor = Executors.newSingleThreadExecutor();
-    clock = mock(Clock.class);
+  private Enclave buildEnclave(final EnclaveConfiguration configuration, final ExecutorService executor)
+      throws EnclaveException, IOException {
+
+    return buildEnclave(configuration, executor, new SimpleMeterRegistry());
+  }
+
+  private Enclave buildEnclave(final EnclaveConfiguration configuration, final ExecutorService executor,
+      final SimpleMeterRegistry meterRegistry) throws EnclaveException, IOException {
 
-    enclave = new Enclave(configuration, tokenRateLimiter, new SimpleMeterRegistry(), enclaveExecutor, clock);
+    final TokenRateLimiter tokenRateLimiter = mock(TokenRateLimiter.class);
+
+    return new Enclave(configuration, tokenRateLimiter, meterRegistry, executor, clock,
+        new StartupPhases(meterRegistry));
   }
 
   @AfterEach
@@ -93,6 +119,24 @@ class EnclaveTest {
         "Calls to renew attestation should have no effect after enclave closure");
   }
 
+  @Test
+  void tableStatisticsMetrics() {
+    enclave.loadData(List.of(new DirectoryEntry(18005551234L,
+        UUIDUtil.toByteArray(UUID.randomUUID()),
+        UUIDUtil.toByteArray(UUID.randomUUID()),
+        UUIDUtil.toByteArray(UUID.randomUUID()))), false).join();
+
+    // Metrics report the statistics fetched by the last refresh, not those current when the metrics are read
+    enclave.refreshTableStatistics().join();
+
+    final TableStatistics tableStatistics = enclave.getTableStatistics().join();
+
+    assertEquals(Enclave.getEntryCount(tableStatistics),
+        (long) meterRegistry.get(name(Enclave.class, "entries")).gauge().value());
+    assertEquals(Enclave.getCapacity(tableStatistics),
+        (long) meterRegistry.get(name(Enclave.class, "capacity")).gauge().value());
+  }
+
   @Test
   void tableStatistics() {
     // Even an empty table starts with a single "dummy" entry in each shard
@@ -125,6 +169,157 @@ class EnclaveTest {
 
     assertEquals(expectedEntries + SHARD_COUNT, Enclave.getEntryCount(enclave.getTableStatistics().join()));
     assertEquals(expectedEntries - deletedEntires.size(), enclave.activeEntries.get());
+
+    final TableStatistics tableStatistics = enclave.getTableStatistics().join();
+
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      // Every load waits for each shard to drain its queue
+      assertEquals(0, Enclave.getShardStatisticValue(tableStatistics, shard, "queue_depth"));
+      assertTrue(Enclave.getShardStatisticValue(tableStatistics, shard, "max_queue_depth") > 0);
+
+      // Each load sends every shard a batch padded to the same size
+      final long requests = Enclave.getShardStatisticValue(tableStatistics, shard, "requests");
+      assertEquals(2, requests);
+      assertTrue(Enclave.getShardStatisticValue(tableStatistics, shard, "request_items") >= requests);
+      assertTrue(Enclave.getShardStatisticValue(tableStatistics, shard, "execute_nanos") > 0);
+
+      long histogramAccesses = 0;
+
+      for (int bucket = 0; bucket < 10; bucket++) {
+        histogramAccesses +=
+            Enclave.getShardStatisticValue(tableStatistics, shard, Enclave.getOramAccessLatencyBucketName(bucket));
+      }
+
+      assertTrue(histogramAccesses > 0);
+      assertTrue(histogramAccesses <= Enclave.getShardStatisticValue(tableStatistics, shard, "oram_access_count"));
+    }
+  }
+
+  @Test
+  void bulkLoad() {
+    final List<DirectoryEntry> entries = new ArrayList<>();
+
+    for (int i = 0; i < 97; i++) {
+      entries.add(new DirectoryEntry(18005551234L + i,
+          UUIDUtil.toByteArray(UUID.randomUUID()),
+          UUIDUtil.toByteArray(UUID.randomUUID()),
+          UUIDUtil.toByteArray(UUID.randomUUID())));
+    }
+
+    enclave.loadBulkData(entries.subList(0, 50), true, false).join();
+    enclave.loadBulkData(entries.subList(50, entries.size()), false, false).join();
+
+    final CompletionException resizeException = assertThrows(CompletionException.class,
+        () -> enclave.resize(AVAILABLE_EPC_MEMORY * 2, loader -> loader.load(entries), ForkJoinPool.commonPool())
+            .join());
+
+    assertTrue(resizeException.getCause() instanceof IllegalStateException);
+
+    enclave.loadBulkData(List.of(), false, true).join();
+
+    assertEquals(entries.size() + SHARD_COUNT, Enclave.getEntryCount(enclave.getTableStatistics().join()));
+    assertEquals(entries.size(), enclave.activeEntries.get());
+
+    // Once the table has been built, entries may be loaded as usual
+    enclave.loadData(List.of(DirectoryEntry.deletionEntry(entries.get(0).e164())), false).join();
+    assertEquals(entries.size() - 1, enclave.activeEntries.get());
+
+    assertThrows(CompletionException.class, () -> enclave.loadBulkData(entries, false, true).join());
+  }
+
+  @Test
+  void resize() {
+    final List<DirectoryEntry> entries = new ArrayList<>();
+
+    for (int i = 0; i < 97; i++) {
+      entries.add(new DirectoryEntry(18005551234L + i,
+          UUIDUtil.toByteArray(UUID.randomUUID()),
+          UUIDUtil.toByteArray(UUID.randomUUID()),
+          UUIDUtil.toByteArray(UUID.randomUUID())));
+    }
+
+    enclave.loadData(entries, true).join();
+
+    final long originalCapacity = Enclave.getCapacity(enclave.getTableStatistics().join());
+    final EnclaveClient clientBeforeResize = enclave.newClient("test").join();
+
+    final List<DirectoryEntry> updates = List.of(new DirectoryEntry(18005550000L,
+        UUIDUtil.toByteArray(UUID.randomUUID()),
+        UUIDUtil.toByteArray(UUID.randomUUID()),
+        UUIDUtil.toByteArray(UUID.randomUUID())));
+
+    enclave.resize(AVAILABLE_EPC_MEMORY * 2, loader -> {
+      // An update that arrives while the directory is being replayed must still reach the new table
+      enclave.loadData(updates, false).join();
+      return loader.load(entries);
+    }, ForkJoinPool.commonPool()).join();
+
+    assertEquals(AVAILABLE_EPC_MEMORY * 2, enclave.getAvailableEpcMemory());
+    assertTrue(Enclave.getCapacity(enclave.getTableStatistics().join()) > originalCapacity);
+    assertEquals(entries.size() + updates.size() + SHARD_COUNT,
+        Enclave.getEntryCount(enclave.getTableStatistics().join()));
+    assertEquals(SHARD_COUNT, enclave.getRunningShardThreadCount());
+
+    final EnclaveClient clientAfterResize = enclave.newClient("test").join();
+    assertNotEquals(clientBeforeResize.getEnclaveHandle(), clientAfterResize.getEnclaveHandle());
+
+    // Clients created before the resize keep using, and finally release, the old table
+    assertDoesNotThrow(() -> clientBeforeResize.closeAsync().join());
+    assertDoesNotThrow(() -> clientAfterResize.closeAsync().join());
+  }
+
+  @Test
+  void switchless() throws EnclaveException, IOException, InterruptedException {
+    final EnclaveConfiguration configuration = buildConfiguration();
+    configuration.setSwitchlessWorkers(2);
+
+    final ExecutorService switchlessExecutor = Executors.newSingleThreadExecutor();
+    final Enclave switchlessEnclave = buildEnclave(configuration, switchlessExecutor);
+
+    try {
+      final List<DirectoryEntry> entries = new ArrayList<>();
+
+      for (int i = 0; i < 97; i++) {
+        entries.add(new DirectoryEntry(18005551234L + i,
+            UUIDUtil.toByteArray(UUID.randomUUID()),
+            UUIDUtil.toByteArray(UUID.randomUUID()),
+            UUIDUtil.toByteArray(UUID.randomUUID())));
+      }
+
+      switchlessEnclave.loadData(entries.subList(0, 10), true).join();
+
+      // Submit several loads at once; a single JNI thread doesn't limit switchless calls
+      CompletableFuture.allOf(
+          switchlessEnclave.loadData(entries.subList(10, 50), false),
+          switchlessEnclave.loadData(entries.subList(50, entries.size()), false)).join();
+
+      assertEquals(entries.size() + SHARD_COUNT,
+          Enclave.getEntryCount(switchlessEnclave.getTableStatistics().join()));
+      assertEquals(entries.size(), switchlessEnclave.activeEntries.get());
+    } finally {
+      switchlessEnclave.close();
+      switchlessExecutor.shutdown();
+    }
+  }
+
+  @Test
+  void switchlessWorkersExceedTcs() {
+    final EnclaveConfiguration configuration = buildConfiguration();
+    configuration.setNumTcs(16);
+    configuration.setSwitchlessWorkers(8);
+
+    // One JNI thread and eight workers with their eight callers need 17 TCS, even without auto-tuning
+    assertThrows(IllegalStateException.class, () -> buildEnclave(configuration, enclaveExecutor));
+  }
+
+  @Test
+  void shardsExceedTcs() {
+    final EnclaveConfiguration configuration = buildConfiguration();
+    configuration.setNumTcs(SHARD_COUNT + 2);
+    configuration.setSwitchlessWorkers(1);
+
+    // One JNI thread and a worker with its caller fit on their own, but not alongside the shard threads
+    assertThrows(IllegalStateException.class, () -> buildEnclave(configuration, enclaveExecutor));
   }
 
   @Test
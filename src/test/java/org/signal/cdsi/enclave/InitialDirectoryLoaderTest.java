@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.enclave;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class InitialDirectoryLoaderTest {
+
+  private Enclave enclave;
+
+  private static final List<DirectoryEntry> FIRST_BATCH = List.of(DirectoryEntry.deletionEntry(18005551234L));
+  private static final List<DirectoryEntry> SECOND_BATCH = List.of(DirectoryEntry.deletionEntry(18005551235L));
+
+  @BeforeEach
+  void setUp() {
+    enclave = mock(Enclave.class);
+
+    when(enclave.loadData(any(), anyBoolean())).thenReturn(CompletableFuture.completedFuture(null));
+    when(enclave.loadBulkData(any(), anyBoolean(), anyBoolean())).thenReturn(CompletableFuture.completedFuture(null));
+  }
+
+  @Test
+  void loadIncremental() {
+    final InitialDirectoryLoader loader = new InitialDirectoryLoader(enclave, false);
+
+    loader.load(FIRST_BATCH).join();
+    loader.finish().join();
+
+    verify(enclave).loadData(FIRST_BATCH, false);
+    verify(enclave, never()).loadBulkData(any(), anyBoolean(), anyBoolean());
+  }
+
+  @Test
+  void loadBulk() {
+    final CompletableFuture<Void> firstBatchLoaded = new CompletableFuture<>();
+    when(enclave.loadBulkData(FIRST_BATCH, true, false)).thenReturn(firstBatchLoaded);
+
+    final InitialDirectoryLoader loader = new InitialDirectoryLoader(enclave, true);
+
+    loader.load(FIRST_BATCH);
+    final CompletableFuture<Void> finished = loader.load(SECOND_BATCH).thenCompose(ignored -> loader.finish());
+
+    // Later batches must wait for earlier ones, even if the caller doesn't
+    verify(enclave, never()).loadBulkData(SECOND_BATCH, false, false);
+
+    firstBatchLoaded.complete(null);
+    finished.join();
+
+    final InOrder inOrder = inOrder(enclave);
+    inOrder.verify(enclave).loadBulkData(FIRST_BATCH, true, false);
+    inOrder.verify(enclave).loadBulkData(SECOND_BATCH, false, false);
+    inOrder.verify(enclave).loadBulkData(List.of(), false, true);
+
+    verify(enclave, never()).loadData(any(), anyBoolean());
+  }
+
+  @Test
+  void finishEmptyBulk() {
+    new InitialDirectoryLoader(enclave, true).finish().join();
+
+    verify(enclave).loadBulkData(List.of(), true, true);
+  }
+
+  @Test
+  void loadAfterFinish() {
+    final InitialDirectoryLoader loader = new InitialDirectoryLoader(enclave, true);
+    loader.finish().join();
+
+    final CompletionException loadException =
+        assertThrows(CompletionException.class, () -> loader.load(FIRST_BATCH).join());
+
+    assertTrue(loadException.getCause() instanceof IllegalStateException);
+    assertThrows(CompletionException.class, () -> loader.finish().join());
+  }
+}
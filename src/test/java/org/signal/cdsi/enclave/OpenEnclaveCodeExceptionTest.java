@@ -15,7 +15,7 @@ public class OpenEnclaveCodeExceptionTest {
   void enclaveError() throws Exception {
     Enclave.loadSharedLibrary("test");
     OpenEnclaveException err = assertThrows(OpenEnclaveException.class,
-        () -> Enclave.nativeEnclaveInit(1, 2.0, 1, "/path/does/not/exist", true));
+        () -> Enclave.nativeEnclaveInit(1, 2.0, 1, "/path/does/not/exist", true, 0));
     assertEquals(err.getCodeName(), "OE_FAILURE");
     assertEquals(err.getFunction(), "oe_create_cds_enclave");
   }
@@ -11,6 +11,7 @@ import io.micronaut.context.annotation.Replaces;
 import io.micronaut.context.annotation.Requires;
 import jakarta.inject.Named;
 import org.signal.cdsi.limits.TokenRateLimiter;
+import org.signal.cdsi.startup.StartupPhases;
 import java.io.IOException;
 import java.time.Clock;
 import java.util.concurrent.ExecutorService;
@@ -26,9 +27,10 @@ public class TestEnclave extends Enclave {
       final TokenRateLimiter tokenRateLimiter,
       final MeterRegistry meterRegistry,
       @Named(Enclave.JNI_EXECUTOR_NAME) final ExecutorService jniExecutor,
-      final Clock clock) throws IOException, EnclaveException {
+      final Clock clock,
+      final StartupPhases startupPhases) throws IOException, EnclaveException {
 
-    super(enclaveConfiguration, tokenRateLimiter, meterRegistry, jniExecutor, clock);
+    super(enclaveConfiguration, tokenRateLimiter, meterRegistry, jniExecutor, clock, startupPhases);
   }
 
   public void setOverloaded(final boolean overloaded) {
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.health;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micronaut.health.HealthStatus;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.signal.cdsi.enclave.Enclave;
+import org.signal.cdsi.enclave.EnclaveCallWatchdog;
+import org.signal.cdsi.enclave.EnclaveCallWatchdog.StalledCall;
+import org.signal.cdsi.enclave.EnclaveClient;
+import org.signal.cdsi.enclave.EnclaveConfiguration;
+import reactor.core.publisher.Mono;
+
+class EnclaveLivenessIndicatorTest {
+
+  private static final Instant CURRENT_TIME = Instant.ofEpochSecond(1_000_000);
+  private static final Duration IDLE_THRESHOLD = Duration.ofSeconds(30);
+
+  private Enclave enclave;
+  private EnclaveCallWatchdog callWatchdog;
+  private EnclaveLivenessIndicator livenessIndicator;
+
+  @BeforeEach
+  void setUp() {
+    enclave = mock(Enclave.class);
+    callWatchdog = mock(EnclaveCallWatchdog.class);
+    when(enclave.getCallWatchdog()).thenReturn(callWatchdog);
+    when(callWatchdog.getStalledCalls()).thenReturn(List.of());
+    when(callWatchdog.getLastSuccessfulCall()).thenReturn(Optional.empty());
+
+    final EnclaveConfiguration enclaveConfiguration = new EnclaveConfiguration();
+    enclaveConfiguration.setLivenessIdleThreshold(IDLE_THRESHOLD);
+
+    livenessIndicator = new EnclaveLivenessIndicator(enclave, enclaveConfiguration,
+        Clock.fixed(CURRENT_TIME, ZoneId.of("Etc/UTC")));
+  }
+
+  @Test
+  void recentSuccessfulCall() {
+    when(callWatchdog.getLastSuccessfulCall()).thenReturn(Optional.of(CURRENT_TIME.minusSeconds(5)));
+
+    assertEquals(HealthStatus.UP, getStatus());
+    verify(enclave, never()).newClient(any());
+  }
+
+  @Test
+  void busy() {
+    when(callWatchdog.getLastSuccessfulCall())
+        .thenReturn(Optional.of(CURRENT_TIME.minus(IDLE_THRESHOLD.multipliedBy(2))));
+    when(callWatchdog.hasRunningCalls()).thenReturn(true);
+
+    assertEquals(HealthStatus.UP, getStatus());
+    verify(enclave, never()).newClient(any());
+  }
+
+  @Test
+  void stalledCall() {
+    when(callWatchdog.getLastSuccessfulCall()).thenReturn(Optional.of(CURRENT_TIME.minusSeconds(5)));
+    when(callWatchdog.hasRunningCalls()).thenReturn(true);
+    when(callWatchdog.getStalledCalls()).thenReturn(List.of(new StalledCall("RUN", Duration.ofMinutes(5))));
+
+    assertEquals(HealthStatus.DOWN, getStatus());
+    verify(enclave, never()).newClient(any());
+  }
+
+  @Test
+  void idleProbeSucceeds() {
+    final EnclaveClient client = mock(EnclaveClient.class);
+    when(client.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+    when(enclave.newClient(any())).thenReturn(CompletableFuture.completedFuture(client));
+
+    assertEquals(HealthStatus.UP, getStatus());
+    verify(client).closeAsync();
+  }
+
+  @Test
+  void idleProbeFails() {
+    when(enclave.newClient(any())).thenReturn(CompletableFuture.failedFuture(new RuntimeException()));
+
+    assertEquals(HealthStatus.DOWN, getStatus());
+  }
+
+  private HealthStatus getStatus() {
+    return Mono.from(livenessIndicator.getResult()).block().getStatus();
+  }
+}
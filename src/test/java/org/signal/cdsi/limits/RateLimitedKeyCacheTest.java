@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RateLimitedKeyCacheTest {
+
+  private static final Instant CURRENT_TIME = Instant.ofEpochSecond(1_000_000);
+  private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(10);
+
+  private Clock clock;
+  private RateLimitedKeyCache rateLimitedKeyCache;
+
+  @BeforeEach
+  void setUp() {
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(CURRENT_TIME);
+
+    rateLimitedKeyCache = new RateLimitedKeyCache(clock, new SimpleMeterRegistry(), 16, MAX_RETRY_AFTER);
+  }
+
+  @Test
+  void recordAndExpire() {
+    assertEquals(Optional.empty(), rateLimitedKeyCache.getRetryDuration("key"));
+
+    rateLimitedKeyCache.recordRateLimited("key", Duration.ofSeconds(30));
+    assertEquals(Optional.of(Duration.ofSeconds(30)), rateLimitedKeyCache.getRetryDuration("key"));
+    assertEquals(Optional.empty(), rateLimitedKeyCache.getRetryDuration("other"));
+
+    when(clock.instant()).thenReturn(CURRENT_TIME.plusMillis(10_500));
+    assertEquals(Optional.of(Duration.ofSeconds(20)), rateLimitedKeyCache.getRetryDuration("key"));
+
+    when(clock.instant()).thenReturn(CURRENT_TIME.plusSeconds(30));
+    assertEquals(Optional.empty(), rateLimitedKeyCache.getRetryDuration("key"));
+  }
+
+  @Test
+  void recordKeepsLatestRetryTime() {
+    rateLimitedKeyCache.recordRateLimited("key", Duration.ofSeconds(30));
+    rateLimitedKeyCache.recordRateLimited("key", Duration.ofSeconds(10));
+    assertEquals(Optional.of(Duration.ofSeconds(30)), rateLimitedKeyCache.getRetryDuration("key"));
+
+    rateLimitedKeyCache.recordRateLimited("key", Duration.ofSeconds(45));
+    assertEquals(Optional.of(Duration.ofSeconds(45)), rateLimitedKeyCache.getRetryDuration("key"));
+  }
+
+  @Test
+  void recordCapsRetryTime() {
+    rateLimitedKeyCache.recordRateLimited("key", MAX_RETRY_AFTER.multipliedBy(2));
+    assertEquals(Optional.of(MAX_RETRY_AFTER), rateLimitedKeyCache.getRetryDuration("key"));
+  }
+
+  @Test
+  void recordIgnoresNonPositiveDurations() {
+    rateLimitedKeyCache.recordRateLimited("key", Duration.ZERO);
+    assertEquals(Optional.empty(), rateLimitedKeyCache.getRetryDuration("key"));
+  }
+}
@@ -145,6 +145,40 @@ public class CosmosTokenRateLimiterTest {
     cosmosTokenRateLimiter.prepare(KEY, 5, ByteBuffer.wrap(new byte[0]), token).join();
   }
 
+  @Test
+  public void prepareWithPrefetchedBucket() {
+    final TokenRateLimitConfiguration conf = new TokenRateLimitConfiguration();
+    conf.setBucketSize(BUCKET_SIZE);
+    conf.setLeakRateDuration(Duration.ofSeconds(1));
+    conf.setLeakRateScalar(1);
+    conf.setPrefetchTtl(Duration.ofMinutes(1));
+
+    final CosmosTokenRateLimiter prefetchingRateLimiter =
+        new CosmosTokenRateLimiter(container, clock, conf, new SimpleMeterRegistry(), false);
+
+    final ByteBuffer token = token();
+
+    mockRead(TokenBucket.ID, TokenBucket.class, mockResponse(tokenBucket(0)));
+
+    Mono<CosmosItemResponse<TokenCost>> createTokenResponse = mockResponse(null);
+    when(container.createItem(eq(tokenCost(token, 5)), any(), any()))
+        .thenReturn(createTokenResponse);
+
+    prefetchingRateLimiter.prefetch(KEY);
+    prefetchingRateLimiter.prepare(KEY, 5, ByteBuffer.wrap(new byte[0]), token).join();
+
+    // the prefetched bucket should have been used instead of a second read
+    verify(container, times(1)).readItem(eq(TokenBucket.ID), eq(new PartitionKey(KEY)), any(), eq(TokenBucket.class));
+
+    // ...but only once
+    final ByteBuffer nextToken = token();
+    when(container.createItem(eq(tokenCost(nextToken, 5)), any(), any()))
+        .thenReturn(createTokenResponse);
+
+    prefetchingRateLimiter.prepare(KEY, 5, ByteBuffer.wrap(new byte[0]), nextToken).join();
+    verify(container, times(2)).readItem(eq(TokenBucket.ID), eq(new PartitionKey(KEY)), any(), eq(TokenBucket.class));
+  }
+
   @Test
   public void spendPreparedToken() {
     final ByteBuffer token = token();
@@ -262,6 +296,40 @@ public class CosmosTokenRateLimiterTest {
     assertTrue(CompletionExceptions.unwrap(completionException) instanceof IOException);
   }
 
+  @Test
+  public void validateDuringBackoff() {
+    final TokenRateLimitConfiguration conf = new TokenRateLimitConfiguration();
+    conf.setBucketSize(BUCKET_SIZE);
+    conf.setLeakRateDuration(Duration.ofSeconds(1));
+    conf.setLeakRateScalar(1);
+
+    final CosmosRequestUnitBudgetConfiguration budgetConf = new CosmosRequestUnitBudgetConfiguration();
+    budgetConf.setMaxBackoffWait(Duration.ofSeconds(1));
+
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final RequestUnitBudget requestUnitBudget = new RequestUnitBudget(budgetConf, clock, meterRegistry);
+    final CosmosTokenRateLimiter rateLimiter =
+        new CosmosTokenRateLimiter(container, clock, conf, budgetConf, requestUnitBudget, meterRegistry, false);
+
+    final ByteBuffer token = token();
+
+    // cosmos has asked us to wait longer than we're willing to, so we shouldn't even try
+    requestUnitBudget.recordThrottle(Duration.ofSeconds(10));
+
+    final CompletionException completionException =
+        assertThrows(CompletionException.class, () -> rateLimiter.validate(KEY, token).join());
+    assertTrue(CompletionExceptions.unwrap(completionException) instanceof IOException);
+    verify(container, never()).readItem(any(), any(), any(), any());
+
+    // once the backoff has passed, requests should go through as usual
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(10));
+    mockRead(base64Encode(token), tokenCost(token, 4));
+    mockRead(TokenBucket.ID, TokenBucket.class, mockResponse(tokenBucket(6), ETAG));
+    when(container.executeCosmosBatch(any(), any())).thenReturn(Mono.empty());
+
+    assertDoesNotThrow(() -> rateLimiter.validate(KEY, token).join());
+  }
+
   private static class BatchMatcher implements ArgumentMatcher<CosmosBatch> {
 
     private final CosmosItemOperationType bucketOp;
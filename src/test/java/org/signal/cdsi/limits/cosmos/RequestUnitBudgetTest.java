@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.limits.cosmos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RequestUnitBudgetTest {
+
+  private static final Instant CURRENT_TIME = Instant.ofEpochSecond(1_000_000);
+
+  private Clock clock;
+  private RequestUnitBudget requestUnitBudget;
+
+  @BeforeEach
+  void setUp() {
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(CURRENT_TIME);
+
+    final CosmosRequestUnitBudgetConfiguration configuration = new CosmosRequestUnitBudgetConfiguration();
+    configuration.setRequestUnitsPerSecond(100);
+    configuration.setOptionalWorkReserve(0.25);
+
+    requestUnitBudget = new RequestUnitBudget(configuration, clock, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void optionalWorkDeferredNearExhaustion() {
+    assertTrue(requestUnitBudget.allowOptionalWork());
+
+    requestUnitBudget.recordCharge(70);
+    assertTrue(requestUnitBudget.allowOptionalWork());
+
+    requestUnitBudget.recordCharge(10);
+    assertFalse(requestUnitBudget.allowOptionalWork());
+
+    // refills at 100 RU/s
+    when(clock.instant()).thenReturn(CURRENT_TIME.plusMillis(50));
+    assertTrue(requestUnitBudget.allowOptionalWork());
+  }
+
+  @Test
+  void refillIsCapped() {
+    when(clock.instant()).thenReturn(CURRENT_TIME.plusSeconds(60));
+    assertEquals(100, requestUnitBudget.getAvailable());
+
+    requestUnitBudget.recordCharge(80);
+    assertFalse(requestUnitBudget.allowOptionalWork());
+  }
+
+  @Test
+  void throttleBacksOff() {
+    assertEquals(Duration.ZERO, requestUnitBudget.getBackoffRemaining());
+
+    requestUnitBudget.recordThrottle(Duration.ofMillis(500));
+    requestUnitBudget.recordThrottle(Duration.ofMillis(100));
+    assertEquals(Duration.ofMillis(500), requestUnitBudget.getBackoffRemaining());
+    assertFalse(requestUnitBudget.allowOptionalWork());
+
+    when(clock.instant()).thenReturn(CURRENT_TIME.plusMillis(200));
+    assertEquals(Duration.ofMillis(300), requestUnitBudget.getBackoffRemaining());
+
+    when(clock.instant()).thenReturn(CURRENT_TIME.plusMillis(500));
+    assertEquals(Duration.ZERO, requestUnitBudget.getBackoffRemaining());
+    assertTrue(requestUnitBudget.allowOptionalWork());
+  }
+
+  @Test
+  void unlimitedBudget() {
+    final RequestUnitBudget unlimited =
+        new RequestUnitBudget(new CosmosRequestUnitBudgetConfiguration(), clock, new SimpleMeterRegistry());
+
+    unlimited.recordCharge(1_000_000);
+    assertTrue(unlimited.allowOptionalWork());
+
+    unlimited.recordThrottle(Duration.ofSeconds(1));
+    assertFalse(unlimited.allowOptionalWork());
+  }
+}
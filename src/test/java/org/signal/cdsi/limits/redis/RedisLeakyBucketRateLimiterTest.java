@@ -11,13 +11,19 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import io.lettuce.core.cluster.SlotHash;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -105,6 +111,57 @@ class RedisLeakyBucketRateLimiterTest {
     assertTrue(ttl.minus(expectedTtl).abs().compareTo(MAXIMUM_CLOCK_DRIFT) <= 0);
   }
 
+  @Test
+  void validateBatched() throws Exception {
+    final RedisLeakyBucketBatchConfiguration batchConfiguration = new RedisLeakyBucketBatchConfiguration();
+    batchConfiguration.setEnabled(true);
+    batchConfiguration.setWindow(Duration.ofMillis(5));
+    batchConfiguration.setMaxBatchSize(8);
+    batchConfiguration.setHashSlots(4);
+
+    final RedisLeakyBucketRateLimiter limiter =
+        new RedisLeakyBucketRateLimiter(clusterConnection, conf, batchConfiguration, new SimpleMeterRegistry(), clock);
+
+    final String aci = UUID.randomUUID().toString();
+    final List<String> otherAcis = IntStream.range(0, 20).mapToObj(ignored -> UUID.randomUUID().toString()).toList();
+
+    // Checks for the same key within a batch must observe each other's space
+    final List<CompletableFuture<Void>> sameKeyFutures = IntStream.range(0, 4)
+        .mapToObj(ignored -> limiter.validate(aci, 30))
+        .toList();
+    final List<CompletableFuture<Void>> otherKeyFutures = otherAcis.stream()
+        .map(otherAci -> limiter.validate(otherAci, DEFAULT_BUCKET_SIZE))
+        .toList();
+
+    otherKeyFutures.forEach(CompletableFuture::join);
+
+    final long rateLimited = sameKeyFutures.stream()
+        .filter(future -> {
+          try {
+            future.join();
+            return false;
+          } catch (final CompletionException e) {
+            assertTrue(e.getCause() instanceof RateLimitExceededException);
+            return true;
+          }
+        })
+        .count();
+
+    assertEquals(1, rateLimited);
+    assertApproximateTtl(limiter.getBucketKey(aci), conf.getLeakRateDuration().multipliedBy(90 / conf.getLeakRateScalar()));
+
+    for (final String otherAci : otherAcis) {
+      assertThrows(CompletionException.class, () -> limiter.validate(otherAci, 1).join());
+    }
+
+    // Bucket keys share a small number of slots, so that concurrent checks can be batched together
+    final Set<Integer> slots = otherAcis.stream()
+        .map(otherAci -> SlotHash.getSlot(limiter.getBucketKey(otherAci)))
+        .collect(Collectors.toSet());
+
+    assertTrue(slots.size() <= batchConfiguration.getHashSlots());
+  }
+
   @Test
   void validateZeroSize() throws Exception {
     // Override bucket size to zero
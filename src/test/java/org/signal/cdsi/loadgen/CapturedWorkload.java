@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.signal.cdsi.trace.SessionTraceRecorder;
+import org.signal.cdsi.trace.WorkloadSession;
+
+/**
+ * A workload that replays sessions captured by a running service (see
+ * {@link SessionTraceRecorder#WORKLOAD_LOGGER_NAME}), preserving their relative arrival times, optionally sped up or
+ * slowed down.
+ * <p>
+ * Each captured session is replayed with the same number of newly-requested phone numbers, the same use of a previous
+ * token and the same point of abandonment. Sessions that were turned away for bad credentials are replayed with bad
+ * credentials; sessions turned away for other reasons (e.g. rate limiting or load shedding) depend on the state of the
+ * original service and are skipped.
+ */
+class CapturedWorkload implements Workload {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private static final int UNAUTHORIZED = 401;
+
+  private final List<WorkloadSession> sessions;
+  private final Iterator<WorkloadSession> iterator;
+  private final double rateScale;
+  private final long firstStartMillis;
+
+  private final Map<String, Integer> skipped = new TreeMap<>();
+  private int unparseableLines = 0;
+
+  CapturedWorkload(final Path captureFile, final double rateScale) throws IOException {
+    if (rateScale <= 0) {
+      throw new IllegalArgumentException("Rate scale must be positive");
+    }
+
+    this.rateScale = rateScale;
+    this.sessions = new ArrayList<>();
+
+    try (final BufferedReader reader = Files.newBufferedReader(captureFile)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        // tolerate whatever prefix the logging configuration puts before each message
+        final int start = line.indexOf('{');
+
+        if (start < 0) {
+          unparseableLines++;
+          continue;
+        }
+
+        try {
+          final WorkloadSession session = OBJECT_MAPPER.readValue(line.substring(start), WorkloadSession.class);
+
+          if (session.rejectionStatus() != 0 && session.rejectionStatus() != UNAUTHORIZED) {
+            skipped.merge("rejected_" + session.rejectionStatus(), 1, Integer::sum);
+          } else {
+            sessions.add(session);
+          }
+        } catch (final JsonProcessingException e) {
+          unparseableLines++;
+        }
+      }
+    }
+
+    sessions.sort(Comparator.comparingLong(WorkloadSession::startMillis));
+
+    this.iterator = sessions.iterator();
+    this.firstStartMillis = sessions.isEmpty() ? 0 : sessions.get(0).startMillis();
+  }
+
+  int getSessionCount() {
+    return sessions.size();
+  }
+
+  Map<String, Integer> getSkipped() {
+    return skipped;
+  }
+
+  int getUnparseableLines() {
+    return unparseableLines;
+  }
+
+  @Nullable
+  @Override
+  public ScheduledSession next(final SimulatedUser user, final Random random) {
+    if (!iterator.hasNext()) {
+      return null;
+    }
+
+    final WorkloadSession session = iterator.next();
+
+    return new ScheduledSession(
+        (long) (TimeUnit.MILLISECONDS.toNanos(session.startMillis() - firstStartMillis) / rateScale),
+        toShape(session));
+  }
+
+  static SessionShape toShape(final WorkloadSession session) {
+    if (session.rejectionStatus() == UNAUTHORIZED) {
+      return new SessionShape(1, false, true, false);
+    }
+
+    final WorkloadSession.RateLimit rateLimit = session.rateLimit();
+
+    if (rateLimit == null) {
+      // the client never got as far as sending a request
+      return new SessionShape(1, false, false, true);
+    }
+
+    return rateLimit.tokenPresented()
+        ? SessionShape.reusedToken(rateLimit.permitsCharged())
+        : SessionShape.newRequest(Math.max(1, rateLimit.permitsCharged()));
+  }
+}
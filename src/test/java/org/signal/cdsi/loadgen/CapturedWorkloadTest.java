@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CapturedWorkloadTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void replay() throws IOException {
+    final Path captureFile = tempDir.resolve("workload.log");
+    Files.write(captureFile, List.of(
+        "2022-10-01 12:00:00.500 INFO {\"startMillis\":1500,\"durationMicros\":10,\"rejectionStatus\":0,"
+            + "\"closeCode\":1000,\"messages\":[],"
+            + "\"rateLimit\":{\"requestSize\":100,\"permitsCharged\":3,\"tokenPresented\":true,\"permitsUsed\":3}}",
+        "{\"startMillis\":1000,\"durationMicros\":10,\"rejectionStatus\":0,\"closeCode\":1000,\"messages\":[],"
+            + "\"rateLimit\":{\"requestSize\":100,\"permitsCharged\":7,\"tokenPresented\":false}}",
+        "{\"startMillis\":1200,\"durationMicros\":10,\"rejectionStatus\":429,\"closeCode\":0,\"messages\":[]}",
+        "{\"startMillis\":1300,\"durationMicros\":10,\"rejectionStatus\":401,\"closeCode\":0,\"messages\":[]}",
+        "{\"startMillis\":1400,\"durationMicros\":10,\"rejectionStatus\":0,\"closeCode\":4013,\"messages\":[]}",
+        "not a session"));
+
+    final CapturedWorkload workload = new CapturedWorkload(captureFile, 2.0);
+    assertEquals(4, workload.getSessionCount());
+    assertEquals(Map.of("rejected_429", 1), workload.getSkipped());
+    assertEquals(1, workload.getUnparseableLines());
+
+    final SimulatedUser user = new SimulatedUser(new byte[32], Instant.now());
+    final Random random = new Random();
+
+    assertEquals(new Workload.ScheduledSession(0, SessionShape.newRequest(7)), workload.next(user, random));
+    assertEquals(new Workload.ScheduledSession(150_000_000L, new SessionShape(1, false, true, false)),
+        workload.next(user, random));
+    assertEquals(new Workload.ScheduledSession(200_000_000L, new SessionShape(1, false, false, true)),
+        workload.next(user, random));
+    assertEquals(new Workload.ScheduledSession(250_000_000L, SessionShape.reusedToken(3)),
+        workload.next(user, random));
+    assertNull(workload.next(user, random));
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import java.util.Random;
+
+/**
+ * A distribution of non-negative integers, such as the number of phone numbers in a discovery request. Distributions
+ * are written as {@code fixed:N}, {@code uniform:MIN:MAX} or {@code lognormal:MEDIAN:SIGMA}; log-normal samples are
+ * capped at {@link #MAX_LOGNORMAL_SAMPLE} so a long tail can't produce requests the server would reject outright.
+ */
+@FunctionalInterface
+interface IntDistribution {
+
+  int MAX_LOGNORMAL_SAMPLE = 50_000;
+
+  int sample(Random random);
+
+  static IntDistribution parse(final String specification) {
+    final String[] parts = specification.split(":");
+
+    try {
+      return switch (parts[0]) {
+        case "fixed" -> {
+          checkArgumentCount(specification, parts, 1);
+          final int value = nonNegative(specification, Integer.parseInt(parts[1]));
+          yield random -> value;
+        }
+        case "uniform" -> {
+          checkArgumentCount(specification, parts, 2);
+          final int min = nonNegative(specification, Integer.parseInt(parts[1]));
+          final int max = nonNegative(specification, Integer.parseInt(parts[2]));
+          if (max < min) {
+            throw new IllegalArgumentException("Maximum is less than minimum in " + specification);
+          }
+          yield random -> min + random.nextInt(max - min + 1);
+        }
+        case "lognormal" -> {
+          checkArgumentCount(specification, parts, 2);
+          final double mu = Math.log(Double.parseDouble(parts[1]));
+          final double sigma = Double.parseDouble(parts[2]);
+          yield random ->
+              (int) Math.min(MAX_LOGNORMAL_SAMPLE, Math.round(Math.exp(mu + sigma * random.nextGaussian())));
+        }
+        default -> throw new IllegalArgumentException("Unknown distribution: " + specification);
+      };
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid distribution: " + specification, e);
+    }
+  }
+
+  private static void checkArgumentCount(final String specification, final String[] parts, final int expected) {
+    if (parts.length != expected + 1) {
+      throw new IllegalArgumentException("Expected " + expected + " argument(s) in " + specification);
+    }
+  }
+
+  private static int nonNegative(final String specification, final int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative value in " + specification);
+    }
+    return value;
+  }
+}
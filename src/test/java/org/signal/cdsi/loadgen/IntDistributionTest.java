@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class IntDistributionTest {
+
+  @Test
+  void fixed() {
+    assertEquals(17, IntDistribution.parse("fixed:17").sample(new Random()));
+  }
+
+  @Test
+  void uniform() {
+    final IntDistribution distribution = IntDistribution.parse("uniform:3:5");
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 1000; i++) {
+      final int sample = distribution.sample(random);
+      assertTrue(sample >= 3 && sample <= 5);
+    }
+  }
+
+  @Test
+  void lognormal() {
+    final IntDistribution distribution = IntDistribution.parse("lognormal:500:4");
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 1000; i++) {
+      final int sample = distribution.sample(random);
+      assertTrue(sample >= 0 && sample <= IntDistribution.MAX_LOGNORMAL_SAMPLE);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "fixed", "fixed:1:2", "fixed:-1", "uniform:5:3", "uniform:a:b", "zipf:1"})
+  void parseInvalid(final String specification) {
+    assertThrows(IllegalArgumentException.class, () -> IntDistribution.parse(specification));
+  }
+}
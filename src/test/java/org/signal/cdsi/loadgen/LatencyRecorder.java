@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records per-stage latencies and session outcomes for a load generation run. Latencies are kept in microseconds.
+ * <p>
+ * {@link LoadStage#CONNECT} and {@link LoadStage#SESSION} are measured from the time a session was <em>scheduled</em>
+ * to start rather than the time it actually started, so a generator or service that falls behind shows up as latency
+ * instead of silently lowering the offered load (i.e. the results are corrected for coordinated omission).
+ */
+class LatencyRecorder {
+
+  enum LoadStage {
+    /** From the scheduled start until the websocket is open, including authentication */
+    CONNECT,
+    /** From the websocket opening until the Noise handshake finishes */
+    HANDSHAKE,
+    /** From the handshake finishing until the server returns a token */
+    TOKEN,
+    /** From the token being returned until the server returns the final response */
+    RESULT,
+    /** From the scheduled start until the server returns the final response */
+    SESSION
+  }
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Map<LoadStage, Recorder> recorders = new EnumMap<>(LoadStage.class);
+  private final Map<LoadStage, Histogram> totals = new EnumMap<>(LoadStage.class);
+  private final Map<LoadStage, Histogram> intervals = new EnumMap<>(LoadStage.class);
+
+  private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+  LatencyRecorder() {
+    for (final LoadStage stage : LoadStage.values()) {
+      recorders.put(stage, new Recorder(SIGNIFICANT_DIGITS));
+      totals.put(stage, new Histogram(SIGNIFICANT_DIGITS));
+    }
+  }
+
+  void recordLatency(final LoadStage stage, final long startNanos, final long endNanos) {
+    recorders.get(stage).recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos)));
+  }
+
+  void recordOutcome(final String outcome) {
+    outcomes.computeIfAbsent(outcome, ignored -> new LongAdder()).increment();
+  }
+
+  /**
+   * Returns the number of sessions with the given outcome since warming up.
+   */
+  long getOutcomeCount(final String outcome) {
+    final LongAdder count = outcomes.get(outcome);
+    return count != null ? count.sum() : 0;
+  }
+
+  /**
+   * Collects everything recorded since the last call.
+   *
+   * @param accumulate whether to add the collected values to the run's totals; false while warming up
+   */
+  synchronized void collectInterval(final boolean accumulate) {
+    for (final LoadStage stage : LoadStage.values()) {
+      final Histogram interval = recorders.get(stage).getIntervalHistogram(intervals.get(stage));
+      intervals.put(stage, interval);
+
+      if (accumulate) {
+        totals.get(stage).add(interval);
+      }
+    }
+
+    if (!accumulate) {
+      outcomes.clear();
+    }
+  }
+
+  synchronized void printInterval(final PrintStream out, final long inFlight, final long dropped) {
+    out.printf("in flight: %d, dropped: %d%n", inFlight, dropped);
+    printSummary(out, intervals);
+  }
+
+  synchronized void printTotals(final PrintStream out) {
+    printSummary(out, totals);
+
+    final Map<String, Long> sortedOutcomes = new TreeMap<>();
+    outcomes.forEach((outcome, count) -> sortedOutcomes.put(outcome, count.sum()));
+
+    out.println("outcomes:");
+    sortedOutcomes.forEach((outcome, count) -> out.printf("  %-32s %d%n", outcome, count));
+  }
+
+  /**
+   * Writes each stage's total latency distribution, in milliseconds, to {@code <stage>.hgrm} in the given directory.
+   */
+  synchronized void writeHistograms(final Path directory) throws IOException {
+    Files.createDirectories(directory);
+
+    for (final LoadStage stage : LoadStage.values()) {
+      try (final PrintStream out = new PrintStream(
+          Files.newOutputStream(directory.resolve(stage.name().toLowerCase() + ".hgrm")))) {
+        totals.get(stage).outputPercentileDistribution(out, 1000.0);
+      }
+    }
+  }
+
+  private static void printSummary(final PrintStream out, final Map<LoadStage, Histogram> histograms) {
+    out.printf("  %-10s %10s %10s %10s %10s %10s%n", "stage (ms)", "count", "p50", "p99", "p99.9", "max");
+
+    histograms.forEach((stage, histogram) -> out.printf("  %-10s %10d %10.1f %10.1f %10.1f %10.1f%n",
+        stage.name().toLowerCase(),
+        histogram.getTotalCount(),
+        histogram.getValueAtPercentile(50) / 1000.0,
+        histogram.getValueAtPercentile(99) / 1000.0,
+        histogram.getValueAtPercentile(99.9) / 1000.0,
+        histogram.getMaxValue() / 1000.0));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micronaut.websocket.WebSocketClient;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open-loop load generator that drives discovery sessions against a running service. Sessions arrive at the
+ * configured rate regardless of how quickly earlier sessions finish, and each session performs the full Noise
+ * handshake, token exchange and acknowledgement with {@link org.signal.cdsi.client.CdsiWebsocket}.
+ * <p>
+ * The service under test is expected to be running in simulated mode and populated with random accounts, e.g.:
+ *
+ * <pre>
+ * RANDOM_ACCOUNT_POPULATOR_ACCOUNTS=1000000 ./mvnw mn:run -Dmicronaut.environments=dev
+ * ./mvnw test-compile exec:java@load-generator -Dloadgen.arrivalRate=500 -Dloadgen.duration=PT5M
+ * </pre>
+ *
+ * Instead of synthetic load, the generator can replay sessions captured from a running service (see
+ * {@link CapturedWorkload}):
+ *
+ * <pre>
+ * ./mvnw test-compile exec:java@load-generator -Dloadgen.replayFile=workload.log -Dloadgen.replayRateScale=2
+ * </pre>
+ *
+ * See {@link LoadGeneratorConfiguration} for the available {@code loadgen.*} settings.
+ * <p>
+ * Sessions that would exceed {@code loadgen.maxConcurrentSessions} are dropped rather than started. A dropped session
+ * never finishes, and so has no latency to record; leaving it out would hide exactly the slowest part of the run, so a
+ * run that drops any sessions after warming up is reported as invalid and exits with a nonzero status.
+ */
+public class LoadGenerator {
+
+  private final LoadGeneratorConfiguration configuration;
+  private final WebSocketClient webSocketClient;
+  private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+
+  private final AtomicInteger sessionsInFlight = new AtomicInteger();
+  private final LongAdder sessionsDropped = new LongAdder();
+
+  private static final String DROPPED_OUTCOME = "dropped";
+
+  LoadGenerator(final LoadGeneratorConfiguration configuration, final WebSocketClient webSocketClient) {
+    this.configuration = configuration;
+    this.webSocketClient = webSocketClient;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final LoadGeneratorConfiguration configuration = LoadGeneratorConfiguration.fromProperties(System.getProperties());
+
+    // The service's beans share this classpath, so build the client on its own rather than starting an application
+    // context that would also create the enclave and other eager beans
+    final boolean valid;
+
+    try (final WebSocketClient webSocketClient = WebSocketClient.create(configuration.target().toURL())) {
+
+      final Workload workload;
+
+      if (configuration.replayFile() != null) {
+        final CapturedWorkload capturedWorkload =
+            new CapturedWorkload(configuration.replayFile(), configuration.replayRateScale());
+
+        System.out.printf("Replaying %d sessions; skipped %s and %d unparseable lines%n",
+            capturedWorkload.getSessionCount(), capturedWorkload.getSkipped(), capturedWorkload.getUnparseableLines());
+
+        workload = capturedWorkload;
+      } else {
+        workload = new SyntheticWorkload(configuration);
+      }
+
+      valid = new LoadGenerator(configuration, webSocketClient).run(workload);
+    }
+
+    if (!valid) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Runs the given workload to completion and prints the results.
+   *
+   * @return {@code true} if the results are valid, or {@code false} if any sessions were dropped after warming up
+   */
+  boolean run(final Workload workload) throws InterruptedException, IOException {
+    final Instant now = Instant.now();
+    final SimulatedUser[] users = new SimulatedUser[configuration.users()];
+
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new SimulatedUser(configuration.sharedSecret(), now);
+    }
+
+    // Sessions block while waiting for the server, so each one gets its own thread
+    final ExecutorService sessionExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("loadgen-session-%d")
+        .setDaemon(true)
+        .build());
+
+    final ScheduledExecutorService reportExecutor =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("loadgen-report")
+            .setDaemon(true)
+            .build());
+
+    final long startNanos = System.nanoTime();
+    final long warmupNanos = configuration.warmup().toNanos();
+
+    if (warmupNanos > 0) {
+      reportExecutor.schedule(() -> {
+        latencyRecorder.collectInterval(false);
+        System.out.println("Warmup finished");
+      }, warmupNanos, TimeUnit.NANOSECONDS);
+    }
+
+    reportExecutor.scheduleAtFixedRate(() -> {
+      latencyRecorder.collectInterval(true);
+      latencyRecorder.printInterval(System.out, sessionsInFlight.get(), sessionsDropped.sum());
+    }, warmupNanos + configuration.reportInterval().toNanos(), configuration.reportInterval().toNanos(),
+        TimeUnit.NANOSECONDS);
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    // Sessions are started according to the schedule even if earlier sessions haven't finished; if we fall behind, we
+    // start late sessions immediately and their latency is measured from when they should have started
+    for (;;) {
+      final SimulatedUser user = users[random.nextInt(users.length)];
+      final Workload.ScheduledSession scheduledSession = workload.next(user, random);
+
+      if (scheduledSession == null) {
+        break;
+      }
+
+      final long scheduledNanos = startNanos + scheduledSession.scheduledOffsetNanos();
+
+      for (long remaining = scheduledNanos - System.nanoTime(); remaining > 0;
+          remaining = scheduledNanos - System.nanoTime()) {
+        LockSupport.parkNanos(remaining);
+      }
+
+      if (sessionsInFlight.get() < configuration.maxConcurrentSessions()) {
+        final LoadSession session = new LoadSession(configuration, webSocketClient, latencyRecorder,
+            user, scheduledSession.shape(), scheduledNanos);
+
+        sessionsInFlight.incrementAndGet();
+        sessionExecutor.execute(() -> {
+          try {
+            session.run();
+          } finally {
+            sessionsInFlight.decrementAndGet();
+          }
+        });
+      } else {
+        sessionsDropped.increment();
+        latencyRecorder.recordOutcome(DROPPED_OUTCOME);
+      }
+    }
+
+    sessionExecutor.shutdown();
+
+    if (!sessionExecutor.awaitTermination(configuration.sessionTimeout().multipliedBy(3).toNanos(),
+        TimeUnit.NANOSECONDS)) {
+      System.out.printf("Gave up waiting for %d sessions to finish%n", sessionsInFlight.get());
+    }
+
+    reportExecutor.shutdownNow();
+
+    latencyRecorder.collectInterval(true);
+    System.out.printf("Finished after %s of warmup%n", configuration.warmup());
+    latencyRecorder.printTotals(System.out);
+
+    if (configuration.histogramDirectory() != null) {
+      latencyRecorder.writeHistograms(configuration.histogramDirectory());
+    }
+
+    final long droppedAfterWarmup = latencyRecorder.getOutcomeCount(DROPPED_OUTCOME);
+
+    if (droppedAfterWarmup > 0) {
+      System.out.printf("INVALID RUN: %d sessions were dropped at the concurrency limit of %d and are missing from "
+              + "the latencies above; raise loadgen.maxConcurrentSessions or lower the offered load%n",
+          droppedAfterWarmup, configuration.maxConcurrentSessions());
+    }
+
+    return droppedAfterWarmup == 0;
+  }
+}
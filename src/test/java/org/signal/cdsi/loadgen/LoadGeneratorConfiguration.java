@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Properties;
+import javax.annotation.Nullable;
+
+/**
+ * Settings for a {@link LoadGenerator} run, read from {@code loadgen.*} system properties. Defaults target a service
+ * started locally in the {@code dev} environment.
+ *
+ * @param target the base URI of the service under test
+ * @param enclaveId the ID of the enclave to request in discovery URLs
+ * @param sharedSecret the secret used to sign credentials; must match the service's {@code authentication.sharedSecret}
+ * @param arrivalRate the mean number of sessions started per second
+ * @param poissonArrivals whether sessions arrive as a Poisson process; if false, arrivals are evenly spaced
+ * @param duration how long to generate load
+ * @param warmup how long to generate load before recording results
+ * @param maxConcurrentSessions the most sessions that may be in flight at once; arrivals beyond this are dropped, and
+ *                              a run that drops any after warming up is invalid
+ * @param sessionTimeout how long to wait for a session to connect
+ * @param users the number of distinct simulated users
+ * @param requestSize the distribution of the number of phone numbers in a new request
+ * @param tokenReuseProbability the probability that a user with a token re-sends its previous request with a token
+ * @param reusedRequestNewSize the distribution of the number of phone numbers added to a request that reuses a token
+ * @param firstE164 the first phone number populated in the service under test
+ * @param populatedE164s how many consecutive phone numbers, starting at {@code firstE164}, are populated
+ * @param hitRate the fraction of requested phone numbers drawn from the populated range
+ * @param reportInterval how often to print interim results
+ * @param histogramDirectory if not null, a directory to which per-stage latency histograms are written at the end of
+ *                           the run
+ * @param replayFile if not null, a file of captured sessions to replay instead of generating synthetic load; the
+ *                   arrival rate, duration and request distributions are ignored when replaying
+ * @param replayRateScale how much faster than originally captured to replay sessions
+ */
+record LoadGeneratorConfiguration(URI target,
+                                  String enclaveId,
+                                  byte[] sharedSecret,
+                                  double arrivalRate,
+                                  boolean poissonArrivals,
+                                  Duration duration,
+                                  Duration warmup,
+                                  int maxConcurrentSessions,
+                                  Duration sessionTimeout,
+                                  int users,
+                                  IntDistribution requestSize,
+                                  double tokenReuseProbability,
+                                  IntDistribution reusedRequestNewSize,
+                                  long firstE164,
+                                  long populatedE164s,
+                                  double hitRate,
+                                  Duration reportInterval,
+                                  @Nullable Path histogramDirectory,
+                                  @Nullable Path replayFile,
+                                  double replayRateScale) {
+
+  private static final String PREFIX = "loadgen.";
+
+  // the same (not actually secret) shared secret as application-dev.yml
+  private static final String DEV_SHARED_SECRET = "Dx9/dxgdVWPazjTqCD6nMdAwS7pnnA5GsiM+aN4pQok=";
+
+  // RandomAccountPopulator's first phone number
+  private static final long RANDOM_ACCOUNT_POPULATOR_FIRST_E164 = 18000000000L;
+
+  static LoadGeneratorConfiguration fromProperties(final Properties properties) {
+    final String histogramDirectory = properties.getProperty(PREFIX + "histogramDirectory");
+    final String replayFile = properties.getProperty(PREFIX + "replayFile");
+
+    final LoadGeneratorConfiguration configuration = new LoadGeneratorConfiguration(
+        URI.create(get(properties, "target", "ws://localhost:8082")),
+        get(properties, "enclaveId", "dev"),
+        Base64.getDecoder().decode(get(properties, "sharedSecret", DEV_SHARED_SECRET)),
+        Double.parseDouble(get(properties, "arrivalRate", "100")),
+        Boolean.parseBoolean(get(properties, "poissonArrivals", "true")),
+        Duration.parse(get(properties, "duration", "PT1M")),
+        Duration.parse(get(properties, "warmup", "PT10S")),
+        Integer.parseInt(get(properties, "maxConcurrentSessions", "5000")),
+        Duration.parse(get(properties, "sessionTimeout", "PT10S")),
+        Integer.parseInt(get(properties, "users", "100000")),
+        IntDistribution.parse(get(properties, "requestSize", "lognormal:500:1.2")),
+        Double.parseDouble(get(properties, "tokenReuseProbability", "0.5")),
+        IntDistribution.parse(get(properties, "reusedRequestNewSize", "uniform:0:10")),
+        Long.parseLong(get(properties, "firstE164", String.valueOf(RANDOM_ACCOUNT_POPULATOR_FIRST_E164))),
+        Long.parseLong(get(properties, "populatedE164s", "1000000")),
+        Double.parseDouble(get(properties, "hitRate", "0.3")),
+        Duration.parse(get(properties, "reportInterval", "PT10S")),
+        histogramDirectory == null ? null : Path.of(histogramDirectory),
+        replayFile == null ? null : Path.of(replayFile),
+        Double.parseDouble(get(properties, "replayRateScale", "1.0")));
+
+    if (configuration.arrivalRate() <= 0 || configuration.replayRateScale() <= 0) {
+      throw new IllegalArgumentException("Arrival rate and replay rate scale must be positive");
+    }
+
+    if (configuration.users() <= 0 || configuration.maxConcurrentSessions() <= 0
+        || configuration.populatedE164s() <= 0) {
+      throw new IllegalArgumentException("User, session and phone number counts must be positive");
+    }
+
+    if (configuration.tokenReuseProbability() < 0 || configuration.tokenReuseProbability() > 1
+        || configuration.hitRate() < 0 || configuration.hitRate() > 1) {
+      throw new IllegalArgumentException("Probabilities must be between 0 and 1");
+    }
+
+    return configuration;
+  }
+
+  private static String get(final Properties properties, final String name, final String defaultValue) {
+    return properties.getProperty(PREFIX + name, defaultValue);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import com.google.protobuf.ByteString;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.websocket.WebSocketClient;
+import io.micronaut.websocket.exceptions.WebSocketClientException;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakeException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import org.signal.cdsi.client.CdsiWebsocket;
+import org.signal.cdsi.client.CdsiWebsocket.CloseException;
+import org.signal.cdsi.loadgen.LatencyRecorder.LoadStage;
+import org.signal.cdsi.loadgen.SimulatedUser.PreviousRequest;
+import org.signal.cdsi.proto.ClientRequest;
+import org.signal.cdsi.proto.ClientResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ * A single discovery session, run on its own thread from connection through the final response.
+ */
+class LoadSession implements Runnable {
+
+  private static final int E164_SIZE = 8;
+
+  // misses are drawn from numbers just past the populated range
+  private static final long UNPOPULATED_E164_RANGE = 1_000_000_000L;
+
+  private final LoadGeneratorConfiguration configuration;
+  private final WebSocketClient webSocketClient;
+  private final LatencyRecorder latencyRecorder;
+  private final SimulatedUser user;
+  private final SessionShape shape;
+  private final long scheduledStartNanos;
+
+  // presented by sessions that are meant to fail authentication
+  private static final String INVALID_PASSWORD = "0:00000000000000000000";
+
+  LoadSession(final LoadGeneratorConfiguration configuration,
+      final WebSocketClient webSocketClient,
+      final LatencyRecorder latencyRecorder,
+      final SimulatedUser user,
+      final SessionShape shape,
+      final long scheduledStartNanos) {
+
+    this.configuration = configuration;
+    this.webSocketClient = webSocketClient;
+    this.latencyRecorder = latencyRecorder;
+    this.user = user;
+    this.shape = shape;
+    this.scheduledStartNanos = scheduledStartNanos;
+  }
+
+  @Override
+  public void run() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final PreviousRequest previousRequest = user.getPreviousRequest();
+    final boolean reuseToken = shape.reuseToken() && previousRequest != null;
+
+    final ClientRequest request;
+    final ByteString requestedE164s;
+
+    if (reuseToken) {
+      final ByteString newE164s = randomE164s(shape.newE164s(), random);
+
+      request = ClientRequest.newBuilder()
+          .setPrevE164S(previousRequest.e164s())
+          .setNewE164S(newE164s)
+          .setToken(previousRequest.token())
+          .build();
+
+      requestedE164s = previousRequest.e164s().concat(newE164s);
+    } else {
+      requestedE164s = randomE164s(Math.max(1, shape.newE164s()), random);
+      request = ClientRequest.newBuilder().setNewE164S(requestedE164s).build();
+    }
+
+    final long[] stageStartNanos = {scheduledStartNanos};
+
+    try (final CdsiWebsocket websocket = Mono.from(webSocketClient.connect(CdsiWebsocket.class,
+            HttpRequest.GET("/v1/" + configuration.enclaveId() + "/discovery")
+                .basicAuth(user.getUsername(), shape.validCredentials() ? user.getPassword() : INVALID_PASSWORD)))
+        .block(configuration.sessionTimeout())) {
+
+      stageStartNanos[0] = recordStage(LoadStage.CONNECT, stageStartNanos[0]);
+
+      if (!shape.completes()) {
+        // closing the websocket on the way out of this block disconnects before sending anything
+        latencyRecorder.recordOutcome("abandoned");
+        return;
+      }
+
+      final ClientResponse response = websocket.run(request, stage -> {
+        switch (stage) {
+          case HANDSHAKE -> stageStartNanos[0] = recordStage(LoadStage.HANDSHAKE, stageStartNanos[0]);
+          case TOKEN -> stageStartNanos[0] = recordStage(LoadStage.TOKEN, stageStartNanos[0]);
+          case RESULT -> {
+            stageStartNanos[0] = recordStage(LoadStage.RESULT, stageStartNanos[0]);
+            latencyRecorder.recordLatency(LoadStage.SESSION, scheduledStartNanos, stageStartNanos[0]);
+          }
+        }
+      });
+
+      user.setPreviousRequest(new PreviousRequest(response.getToken(), requestedE164s));
+      latencyRecorder.recordOutcome(reuseToken ? "success_reused_token" : "success");
+    } catch (final CloseException e) {
+      latencyRecorder.recordOutcome("closed_" + e.getReason().getCode());
+    } catch (final WebSocketClientException e) {
+      if (e.getCause() instanceof WebSocketClientHandshakeException handshakeException) {
+        latencyRecorder.recordOutcome("rejected_" + handshakeException.response().status().code());
+      } else {
+        latencyRecorder.recordOutcome("connect_failed");
+      }
+    } catch (final IllegalStateException e) {
+      // Mono#block throws an IllegalStateException if it times out
+      latencyRecorder.recordOutcome("connect_timeout");
+    } catch (final Exception | AssertionError e) {
+      // CdsiWebsocket signals unexpected messages and read timeouts with AssertionErrors
+      latencyRecorder.recordOutcome("error_" + e.getClass().getSimpleName());
+    }
+  }
+
+  private long recordStage(final LoadStage stage, final long startNanos) {
+    final long now = System.nanoTime();
+    latencyRecorder.recordLatency(stage, startNanos, now);
+    return now;
+  }
+
+  private ByteString randomE164s(final int count, final ThreadLocalRandom random) {
+    final ByteBuffer e164s = ByteBuffer.allocate(count * E164_SIZE);
+
+    for (int i = 0; i < count; i++) {
+      e164s.putLong(random.nextDouble() < configuration.hitRate()
+          ? configuration.firstE164() + random.nextLong(configuration.populatedE164s())
+          : configuration.firstE164() + configuration.populatedE164s() + random.nextLong(UNPOPULATED_E164_RANGE));
+    }
+
+    return ByteString.copyFrom(e164s.flip());
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+/**
+ * Describes what a single load session does.
+ *
+ * @param newE164s         the number of phone numbers to look up that aren't covered by a previous token
+ * @param reuseToken       whether to resend the user's previous phone numbers with its previous token; if the user has
+ *                         no previous request, the session sends a new request instead
+ * @param completes        whether the session runs to completion; if false, the client disconnects as soon as the
+ *                         websocket is open
+ * @param validCredentials whether the client presents valid credentials
+ */
+record SessionShape(int newE164s, boolean reuseToken, boolean completes, boolean validCredentials) {
+
+  static SessionShape newRequest(final int e164s) {
+    return new SessionShape(e164s, false, true, true);
+  }
+
+  static SessionShape reusedToken(final int newE164s) {
+    return new SessionShape(newE164s, true, true, true);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import com.google.protobuf.ByteString;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.signal.cdsi.util.UUIDUtil;
+
+/**
+ * A simulated discovery client with its own credentials and, once it has completed a discovery request, the token and
+ * phone numbers from its most recent request.
+ */
+class SimulatedUser {
+
+  record PreviousRequest(ByteString token, ByteString e164s) {}
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int SIGNATURE_LENGTH = 10;
+
+  private final String username;
+  private final String password;
+
+  @Nullable
+  private volatile PreviousRequest previousRequest;
+
+  SimulatedUser(final byte[] sharedSecret, final Instant now) {
+    this.username = HexFormat.of().formatHex(UUIDUtil.toByteArray(UUID.randomUUID()));
+
+    // Produce the same credentials as the main Signal server's external service credential generator
+    final long timestamp = now.getEpochSecond();
+
+    try {
+      final Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(new SecretKeySpec(sharedSecret, ALGORITHM));
+
+      final byte[] signature = Arrays.copyOf(
+          mac.doFinal((username + ":" + timestamp).getBytes(StandardCharsets.UTF_8)), SIGNATURE_LENGTH);
+
+      this.password = timestamp + ":" + HexFormat.of().formatHex(signature);
+    } catch (final NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  String getUsername() {
+    return username;
+  }
+
+  String getPassword() {
+    return password;
+  }
+
+  @Nullable
+  PreviousRequest getPreviousRequest() {
+    return previousRequest;
+  }
+
+  void setPreviousRequest(final PreviousRequest previousRequest) {
+    this.previousRequest = previousRequest;
+  }
+}
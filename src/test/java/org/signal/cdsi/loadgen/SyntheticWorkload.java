@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A workload with sessions arriving at a fixed mean rate, with request sizes and token reuse drawn from the configured
+ * distributions.
+ */
+class SyntheticWorkload implements Workload {
+
+  private final LoadGeneratorConfiguration configuration;
+  private final double meanIntervalNanos;
+  private final long endOffsetNanos;
+
+  private long nextOffsetNanos = 0;
+
+  SyntheticWorkload(final LoadGeneratorConfiguration configuration) {
+    this.configuration = configuration;
+    this.meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / configuration.arrivalRate();
+    this.endOffsetNanos = configuration.warmup().plus(configuration.duration()).toNanos();
+  }
+
+  @Nullable
+  @Override
+  public ScheduledSession next(final SimulatedUser user, final Random random) {
+    if (nextOffsetNanos >= endOffsetNanos) {
+      return null;
+    }
+
+    final boolean reuseToken =
+        user.getPreviousRequest() != null && random.nextDouble() < configuration.tokenReuseProbability();
+
+    final ScheduledSession session = new ScheduledSession(nextOffsetNanos, reuseToken
+        ? SessionShape.reusedToken(configuration.reusedRequestNewSize().sample(random))
+        : SessionShape.newRequest(Math.max(1, configuration.requestSize().sample(random))));
+
+    nextOffsetNanos += configuration.poissonArrivals()
+        ? (long) (-Math.log(1 - random.nextDouble()) * meanIntervalNanos)
+        : (long) meanIntervalNanos;
+
+    return session;
+  }
+}
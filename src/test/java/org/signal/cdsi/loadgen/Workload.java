@@ -0,0 +1,31 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.loadgen;
+
+import java.util.Random;
+import javax.annotation.Nullable;
+
+/**
+ * A schedule of sessions for a {@link LoadGenerator} to start.
+ */
+interface Workload {
+
+  /**
+   * @param scheduledOffsetNanos when the session should start, relative to the start of the run
+   * @param shape                what the session should do
+   */
+  record ScheduledSession(long scheduledOffsetNanos, SessionShape shape) {}
+
+  /**
+   * Returns the next session to start.
+   *
+   * @param user   the simulated user that will run the session
+   * @param random a source of randomness
+   * @return the next session, or {@code null} if the workload is finished
+   */
+  @Nullable
+  ScheduledSession next(SimulatedUser user, Random random);
+}
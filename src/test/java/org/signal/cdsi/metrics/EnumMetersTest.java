@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class EnumMetersTest {
+
+  private enum Outcome {
+    SUCCESS,
+    FAILURE
+  }
+
+  @Test
+  void counters() {
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final EnumMeters<Outcome, Counter> counters =
+        EnumMeters.counters(meterRegistry, "test", "outcome", Outcome.class, outcome -> outcome.name().toLowerCase());
+
+    // all meters are registered up front
+    assertEquals(2, meterRegistry.getMeters().size());
+
+    counters.get(Outcome.SUCCESS).increment();
+    counters.get(Outcome.SUCCESS).increment();
+    counters.get(Outcome.FAILURE).increment();
+
+    assertEquals(2, meterRegistry.counter("test", "outcome", "success").count());
+    assertEquals(1, meterRegistry.counter("test", "outcome", "failure").count());
+  }
+
+  @Test
+  void get() {
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final EnumMeters<Outcome, Timer> timers =
+        new EnumMeters<>(Outcome.class, outcome -> meterRegistry.timer("test", "outcome", outcome.name()));
+
+    assertSame(meterRegistry.timer("test", "outcome", "SUCCESS"), timers.get(Outcome.SUCCESS));
+    assertSame(meterRegistry.timer("test", "outcome", "FAILURE"), timers.get(Outcome.FAILURE));
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class MeterCacheTest {
+
+  @Test
+  void get() {
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final AtomicInteger created = new AtomicInteger();
+
+    final MeterCache<String, Counter> counters = new MeterCache<>(platform -> {
+      created.incrementAndGet();
+      return meterRegistry.counter("test", "platform", platform);
+    });
+
+    final Counter android = counters.get("android");
+    assertSame(android, counters.get("android"));
+    assertNotSame(android, counters.get("ios"));
+
+    // each meter is only created once, no matter how many times it's looked up
+    assertEquals(2, created.get());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.startup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StartupPhasesTest {
+
+  private static final String TIMER_NAME = "org.signal.cdsi.startup.StartupPhases.phaseDuration";
+
+  private SimpleMeterRegistry meterRegistry;
+  private StartupPhases startupPhases;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    startupPhases = new StartupPhases(meterRegistry);
+  }
+
+  @Test
+  void runAfterWaitsForDependencies() {
+    final CompletableFuture<Void> firstDependency = new CompletableFuture<>();
+    final CompletableFuture<String> secondDependency = new CompletableFuture<>();
+    final AtomicBoolean started = new AtomicBoolean();
+
+    final CompletableFuture<String> phase =
+        startupPhases.runAfter("dependent", List.of(firstDependency, secondDependency), () -> {
+          started.set(true);
+          return secondDependency.thenApply(value -> value + "!");
+        });
+
+    firstDependency.complete(null);
+    assertFalse(started.get());
+
+    secondDependency.complete("done");
+    assertTrue(started.get());
+    assertEquals("done!", phase.join());
+
+    assertEquals(1, meterRegistry.get(TIMER_NAME).tags("phase", "dependent", "outcome", "success").timer().count());
+  }
+
+  @Test
+  void runAfterFailedDependency() {
+    final AtomicBoolean started = new AtomicBoolean();
+
+    final CompletableFuture<Void> phase = startupPhases.runAfter("dependent",
+        List.of(CompletableFuture.failedFuture(new RuntimeException("boom"))), () -> {
+          started.set(true);
+          return CompletableFuture.completedFuture(null);
+        });
+
+    assertThrows(CompletionException.class, phase::join);
+    assertFalse(started.get());
+  }
+
+  @Test
+  void runRecordsFailures() {
+    final CompletableFuture<Void> phase = startupPhases.run("failing", () -> {
+      throw new IllegalStateException();
+    });
+
+    assertThrows(CompletionException.class, phase::join);
+    assertEquals(1, meterRegistry.get(TIMER_NAME).tags("phase", "failing", "outcome", "failure").timer().count());
+  }
+
+  @Test
+  void record() {
+    startupPhases.record("synchronous", Duration.ofMillis(250));
+
+    assertEquals(250,
+        meterRegistry.get(TIMER_NAME).tags("phase", "synchronous").timer().totalTime(TimeUnit.MILLISECONDS));
+  }
+}
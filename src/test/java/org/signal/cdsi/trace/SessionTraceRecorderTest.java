@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.signal.cdsi.trace.SessionTrace.Stage;
+import org.signal.cdsi.trace.SessionTraceRecorder.ZipkinSpan;
+
+class SessionTraceRecorderTest {
+
+  private static final Clock CLOCK = Clock.fixed(Instant.ofEpochSecond(1_000_000), ZoneId.of("UTC"));
+
+  private static SessionTraceRecorder recorder(final Duration slowSessionThreshold, final int bufferSize) {
+    return recorder(slowSessionThreshold, bufferSize, 0.0);
+  }
+
+  private static SessionTraceRecorder recorder(final Duration slowSessionThreshold, final int bufferSize,
+      final double workloadCaptureSampleRate) {
+    final SessionTraceConfiguration configuration = new SessionTraceConfiguration();
+    configuration.setSlowSessionThreshold(slowSessionThreshold);
+    configuration.setSlowSessionBufferSize(bufferSize);
+    configuration.setWorkloadCaptureSampleRate(workloadCaptureSampleRate);
+    return new SessionTraceRecorder(configuration, CLOCK, new SimpleMeterRegistry());
+  }
+
+  private static SessionTrace finishedTrace(final SessionTraceRecorder recorder, final String sessionId) {
+    final SessionTrace trace = recorder.startTrace();
+    trace.setSession(sessionId, "android");
+    trace.finish(1000);
+    return trace;
+  }
+
+  @Test
+  void slowSessionsAreBounded() {
+    final SessionTraceRecorder recorder = recorder(Duration.ZERO, 2);
+
+    final SessionTrace first = finishedTrace(recorder, "first");
+    final SessionTrace second = finishedTrace(recorder, "second");
+    final SessionTrace third = finishedTrace(recorder, "third");
+
+    recorder.sessionFinished(first);
+    recorder.sessionFinished(second);
+    assertEquals(List.of(second, first), recorder.getSlowSessions());
+
+    recorder.sessionFinished(third);
+    assertEquals(List.of(third, second), recorder.getSlowSessions());
+  }
+
+  @Test
+  void fastSessionsAreNotKept() {
+    final SessionTraceRecorder recorder = recorder(Duration.ofHours(1), 2);
+
+    recorder.sessionFinished(finishedTrace(recorder, "fast"));
+    assertTrue(recorder.getSlowSessions().isEmpty());
+  }
+
+  @Test
+  void traceRecordsSpans() {
+    final SessionTrace trace = new SessionTrace(CLOCK);
+
+    trace.trace(Stage.HANDSHAKE, () -> CompletableFuture.completedFuture(null)).join();
+    trace.trace(Stage.SEND, () -> {
+      throw new IllegalStateException();
+    });
+    trace.finish(1000);
+
+    final List<SessionTrace.Span> spans = trace.getSpans();
+    assertEquals(2, spans.size());
+    assertEquals(Stage.HANDSHAKE, spans.get(0).stage());
+    assertFalse(spans.get(0).failed());
+    assertEquals(Stage.SEND, spans.get(1).stage());
+    assertTrue(spans.get(1).failed());
+  }
+
+  @Test
+  void toZipkinSpans() {
+    final SessionTrace trace = new SessionTrace(CLOCK);
+    trace.setSession("session", "ios");
+    trace.record(Stage.AUTHENTICATION, System.nanoTime(), false);
+    trace.record(Stage.NEW_CLIENT, System.nanoTime(), true);
+    trace.finish(4008);
+
+    final List<ZipkinSpan> spans = SessionTraceRecorder.toZipkinSpans(trace);
+    assertEquals(3, spans.size());
+
+    final ZipkinSpan root = spans.get(0);
+    assertEquals("session", root.name());
+    assertNull(root.parentId());
+    assertEquals(CLOCK.instant().toEpochMilli() * 1000, root.timestamp());
+    assertEquals("4008", root.tags().get("closeCode"));
+    assertEquals("ios", root.tags().get("platform"));
+
+    assertEquals("authentication", spans.get(1).name());
+    assertEquals(root.id(), spans.get(1).parentId());
+    assertEquals(root.traceId(), spans.get(1).traceId());
+
+    assertEquals("newClient", spans.get(2).name());
+    assertEquals("true", spans.get(2).tags().get("error"));
+  }
+
+  @Test
+  void workloadNotCapturedByDefault() {
+    final SessionTrace trace = recorder(Duration.ofHours(1), 2).startTrace();
+    trace.recordMessage(true, 100);
+    trace.recordRateLimit(100, 10, false);
+
+    assertFalse(trace.isWorkloadCaptured());
+    assertTrue(trace.getMessages().isEmpty());
+    assertNull(trace.getRateLimit());
+  }
+
+  @Test
+  void toWorkloadSession() {
+    final SessionTrace trace = recorder(Duration.ofHours(1), 2, 1.0).startTrace();
+    assertTrue(trace.isWorkloadCaptured());
+
+    trace.setSession("session", "android");
+    trace.recordMessage(false, 1000);
+    trace.recordMessage(true, 48);
+    trace.recordRateLimit(200, 12, true);
+    trace.recordPermitsUsed(12);
+    trace.finish(1000, "COMPLETE");
+
+    final WorkloadSession workloadSession = SessionTraceRecorder.toWorkloadSession(trace);
+    assertEquals(CLOCK.instant().toEpochMilli(), workloadSession.startMillis());
+    assertEquals("android", workloadSession.platform());
+    assertEquals(0, workloadSession.rejectionStatus());
+    assertEquals("COMPLETE", workloadSession.finalState());
+    assertEquals(1000, workloadSession.closeCode());
+    assertEquals(List.of(false, true),
+        workloadSession.messages().stream().map(WorkloadSession.Message::inbound).toList());
+    assertEquals(List.of(1000, 48), workloadSession.messages().stream().map(WorkloadSession.Message::size).toList());
+    assertEquals(new WorkloadSession.RateLimit(200, 12, true, 12), workloadSession.rateLimit());
+  }
+
+  @Test
+  void toWorkloadSessionRejected() {
+    final SessionTrace trace = recorder(Duration.ofHours(1), 2, 1.0).startTrace();
+    trace.reject(429);
+
+    final WorkloadSession workloadSession = SessionTraceRecorder.toWorkloadSession(trace);
+    assertEquals(429, workloadSession.rejectionStatus());
+    assertNull(workloadSession.finalState());
+    assertTrue(workloadSession.messages().isEmpty());
+    assertNull(workloadSession.rateLimit());
+  }
+}
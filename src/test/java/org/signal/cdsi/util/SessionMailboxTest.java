@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.cdsi.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SessionMailboxTest {
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void stepsWaitForAsynchronousWork() throws InterruptedException {
+    final SessionMailbox mailbox = new SessionMailbox(executor);
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final CompletableFuture<Void> firstStepWork = new CompletableFuture<>();
+    final CountDownLatch done = new CountDownLatch(1);
+
+    mailbox.post(() -> {
+      events.add("first started");
+      return firstStepWork.thenRun(() -> events.add("first finished"));
+    });
+    mailbox.post(() -> {
+      events.add("second");
+      done.countDown();
+      return null;
+    });
+
+    // the second step must not start while the first step's work is outstanding
+    assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(List.of("first started"), events);
+
+    firstStepWork.complete(null);
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertEquals(List.of("first started", "first finished", "second"), events);
+  }
+
+  @Test
+  void stepsRunInOrder() throws InterruptedException {
+    final SessionMailbox mailbox = new SessionMailbox(executor);
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done = new CountDownLatch(1000);
+
+    IntStream.range(0, 1000).forEach(i -> mailbox.post(() -> {
+      events.add(i);
+      done.countDown();
+      // alternate between synchronous and asynchronous steps
+      return i % 2 == 0 ? null : CompletableFuture.runAsync(() -> {}, executor);
+    }));
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(IntStream.range(0, 1000).boxed().toList(), events);
+  }
+
+  @Test
+  void failedStepsDoNotStopProcessing() throws InterruptedException {
+    final SessionMailbox mailbox = new SessionMailbox(executor);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    mailbox.post(() -> {
+      throw new RuntimeException("boom");
+    });
+    mailbox.post(() -> CompletableFuture.failedFuture(new RuntimeException("boom")));
+    mailbox.post(() -> {
+      done.countDown();
+      return null;
+    });
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+  }
+}